@@ -0,0 +1,137 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks populating the table and column comments from javadocs (what the <code>doc</code> goal does before
+ * rendering) and the raw javadoc lookups it's made of, over both javadoc lookup implementations.
+ *
+ * @author ogolberg@vecna.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommentBenchmark {
+  /**
+   * Javadoc lookup implementation: <code>qdox</code> (parsed QDox model) or <code>index</code> (compact javadoc index).
+   */
+  @Param({"qdox", "index"})
+  public String lookup;
+
+  /**
+   * Javadocs of the model.
+   */
+  private JavadocLookup javadocs;
+
+  /**
+   * Private copy of the mappings (comments are written to it).
+   */
+  private Configuration configuration;
+
+  /**
+   * Names of the documented classes and their fields, in pairs.
+   */
+  private List<String[]> fields;
+
+  /**
+   * @param state the synthetic model.
+   * @throws Exception if the javadocs cannot be read or the mappings cannot be copied.
+   */
+  @Setup(Level.Trial)
+  public void setUp(SyntheticModelState state) throws Exception {
+    JavadocScanner scanner = state.newJavadocScanner(1);
+    ClassLoader classLoader = state.getModel().getClassLoader();
+    if ("index".equals(lookup)) {
+      JavadocIndex index = JavadocIndex.empty(SyntheticModelState.LOG);
+      index.update(scanner.findAllSources(), scanner, classLoader);
+      javadocs = index;
+    } else {
+      javadocs = scanner.parseLookup(scanner.findAllSources(), classLoader);
+    }
+
+    configuration = state.copyConfiguration();
+
+    fields = new ArrayList<>();
+    for (Class<?> cls : JavadocScanner.getDocumentedClasses(configuration)) {
+      for (Field field : cls.getDeclaredFields()) {
+        fields.add(new String[] {cls.getName(), field.getName()});
+      }
+    }
+  }
+
+  /**
+   * Clear the comments, so that every invocation populates them from scratch (table comments of discriminator
+   * hierarchies are appended to).
+   */
+  private void clearComments() {
+    for (Iterator<?> tables = configuration.getTableMappings(); tables.hasNext();) {
+      Table table = (Table) tables.next();
+      table.setComment(null);
+      for (Iterator<?> columns = table.getColumnIterator(); columns.hasNext();) {
+        ((Column) columns.next()).setComment(null);
+      }
+    }
+  }
+
+  /**
+   * Includes clearing the comments of the previous invocation, which is cheap compared to populating them.
+   * @return the mappings with the comments.
+   */
+  @Benchmark
+  public Configuration populate() {
+    clearComments();
+    new JavadocCommentResolver(javadocs, null, SyntheticModelState.LOG).populate(configuration);
+    return configuration;
+  }
+
+  /**
+   * @param blackhole consumes the comments.
+   */
+  @Benchmark
+  public void lookupFieldComments(Blackhole blackhole) {
+    for (String[] field : fields) {
+      blackhole.consume(javadocs.getFieldComment(field[0], field[1]));
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thoughtworks.qdox.JavaDocBuilder;
+
+/**
+ * Benchmarks reading the javadocs of the model sources the ways the <code>doc</code> goal can: parsing all sources into
+ * a QDox builder (the default), parsing all or only the targeted sources in parallel, and building the compact javadoc
+ * index.
+ *
+ * @author ogolberg@vecna.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JavadocBenchmark {
+  /**
+   * Maximum number of parser threads.
+   */
+  @Param({"1", "4"})
+  public int threads;
+
+  /**
+   * Javadoc scanner over the model sources.
+   */
+  private JavadocScanner scanner;
+
+  /**
+   * @param state the synthetic model.
+   */
+  @Setup(Level.Trial)
+  public void setUp(SyntheticModelState state) {
+    scanner = state.newJavadocScanner(threads);
+  }
+
+  /**
+   * @param state the synthetic model.
+   * @return the lookup.
+   */
+  @Benchmark
+  public Object builder(SyntheticModelState state) {
+    JavaDocBuilder builder = new JavaDocBuilder();
+    builder.addSourceTree(state.getModel().getSourceDir());
+    return QdoxJavadocLookup.fromBuilder(builder);
+  }
+
+  /**
+   * @param state the synthetic model.
+   * @return the lookup.
+   * @throws Exception if the sources cannot be parsed.
+   */
+  @Benchmark
+  public Object allSources(SyntheticModelState state) throws Exception {
+    return scanner.parseLookup(scanner.findAllSources(), state.getModel().getClassLoader());
+  }
+
+  /**
+   * @param state the synthetic model.
+   * @return the lookup.
+   * @throws Exception if the sources cannot be parsed.
+   */
+  @Benchmark
+  public Object targetedSources(SyntheticModelState state) throws Exception {
+    List<File> sources = scanner.findSources(JavadocScanner.getDocumentedClasses(state.getConfiguration()));
+    return scanner.parseLookup(sources, state.getModel().getClassLoader());
+  }
+
+  /**
+   * @param state the synthetic model.
+   * @return the index.
+   * @throws Exception if the sources cannot be parsed.
+   */
+  @Benchmark
+  public Object index(SyntheticModelState state) throws Exception {
+    JavadocIndex index = JavadocIndex.empty(SyntheticModelState.LOG);
+    index.update(scanner.findAllSources(), scanner, state.getModel().getClassLoader());
+    return index;
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building the mapping metadata (what <code>createMappings()</code> spends its time on for annotated
+ * classes) and copying it through the serializer the mapping cache and the shared mappings use.
+ *
+ * @author ogolberg@vecna.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappingBenchmark {
+  /**
+   * @param state the synthetic model.
+   * @return the built mappings.
+   */
+  @Benchmark
+  public Configuration buildMappings(SyntheticModelState state) {
+    return state.buildMappings();
+  }
+
+  /**
+   * @param state the synthetic model.
+   * @return a copy of the mappings.
+   * @throws Exception if the mappings cannot be copied.
+   */
+  @Benchmark
+  public Configuration copyMappings(SyntheticModelState state) throws Exception {
+    return state.copyConfiguration();
+  }
+}
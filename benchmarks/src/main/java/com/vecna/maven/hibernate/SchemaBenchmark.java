@@ -0,0 +1,140 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.tool.hbm2ddl.DatabaseMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
+import com.vecna.dbDiff.hibernate.HibernateSchemaValidator;
+
+/**
+ * Benchmarks DDL generation and schema validation against an embedded (in-memory) H2 database that has the schema of
+ * the model.
+ *
+ * @author ogolberg@vecna.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchemaBenchmark {
+  /**
+   * URL of the embedded database (kept open until the connection is closed).
+   */
+  private static final String URL = "jdbc:h2:mem:synthetic;DB_CLOSE_DELAY=-1";
+
+  /**
+   * Private copy of the mappings, with the connection settings of the embedded database.
+   */
+  private Configuration configuration;
+
+  /**
+   * SQL dialect.
+   */
+  private Dialect dialect;
+
+  /**
+   * Connection to the embedded database.
+   */
+  private Connection connection;
+
+  /**
+   * Create the schema of the model in the embedded database.
+   * @param state the synthetic model.
+   * @throws Exception if the mappings cannot be copied or the schema cannot be created.
+   */
+  @Setup(Level.Trial)
+  public void setUp(SyntheticModelState state) throws Exception {
+    configuration = state.copyConfiguration();
+    configuration.setProperty(Environment.DRIVER, "org.h2.Driver");
+    configuration.setProperty(Environment.URL, URL);
+    configuration.setProperty(Environment.USER, "sa");
+    configuration.setProperty(Environment.PASS, "");
+    dialect = state.getDialect();
+
+    connection = DriverManager.getConnection(URL, "sa", "");
+    try (Statement statement = connection.createStatement()) {
+      for (String sql : configuration.generateSchemaCreationScript(dialect)) {
+        statement.execute(sql);
+      }
+    }
+  }
+
+  /**
+   * Drop the embedded database.
+   * @throws SQLException if the database cannot be shut down.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    } finally {
+      connection.close();
+    }
+  }
+
+  /**
+   * @return the create script.
+   */
+  @Benchmark
+  public String[] createScript() {
+    return configuration.generateSchemaCreationScript(dialect);
+  }
+
+  /**
+   * @return the update script (empty, since the schema is up to date).
+   * @throws SQLException if the schema metadata cannot be read.
+   */
+  @Benchmark
+  public String[] updateScript() throws SQLException {
+    return configuration.generateSchemaUpdateScript(dialect, new DatabaseMetadata(connection, dialect, configuration));
+  }
+
+  /**
+   * @return schema differences (none, since the schema is up to date).
+   * @throws Exception if the schema cannot be compared.
+   */
+  @Benchmark
+  public List<RdbCompareError> validate() throws Exception {
+    return new HibernateSchemaValidator(configuration).validate();
+  }
+}
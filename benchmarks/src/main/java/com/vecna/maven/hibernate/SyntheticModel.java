@@ -0,0 +1,335 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Generates a synthetic Hibernate model of configurable size: annotated entity classes with simple properties, nested
+ * embedded components, one-to-many collections and single-table discriminator hierarchies, with a javadoc comment on
+ * every class and property. The sources are compiled with the system Java compiler and loaded in their own classloader.
+ *
+ * @author ogolberg@vecna.com
+ */
+class SyntheticModel {
+  /**
+   * Package of the generated classes.
+   */
+  static final String PACKAGE = "synthetic";
+
+  /**
+   * Java types of the simple properties (in turn).
+   */
+  private static final String[] PROPERTY_TYPES = {
+    "String", "Integer", "Long", "java.math.BigDecimal", "java.util.Date", "Boolean"
+  };
+
+  /**
+   * Number of entities (not counting subclasses).
+   */
+  private final int entities;
+
+  /**
+   * Number of simple properties of each entity, subclass and component.
+   */
+  private final int properties;
+
+  /**
+   * Number of embedded components of each entity.
+   */
+  private final int components;
+
+  /**
+   * Nesting depth of the embedded components (1 for components without nested components).
+   */
+  private final int componentDepth;
+
+  /**
+   * Number of one-to-many collections of each entity.
+   */
+  private final int collections;
+
+  /**
+   * Number of entities that are the root of a discriminator hierarchy.
+   */
+  private final int hierarchies;
+
+  /**
+   * Number of subclasses of each hierarchy root.
+   */
+  private final int subclasses;
+
+  /**
+   * Generated source directory.
+   */
+  private File sourceDir;
+
+  /**
+   * Classloader of the compiled classes.
+   */
+  private ClassLoader classLoader;
+
+  /**
+   * Entity classes (hierarchy roots followed by their subclasses).
+   */
+  private List<Class<?>> entityClasses;
+
+  /**
+   * @param entities number of entities (not counting subclasses).
+   * @param properties number of simple properties of each entity, subclass and component.
+   * @param components number of embedded components of each entity.
+   * @param componentDepth nesting depth of the embedded components.
+   * @param collections number of one-to-many collections of each entity.
+   * @param hierarchies number of entities that are the root of a discriminator hierarchy.
+   * @param subclasses number of subclasses of each hierarchy root.
+   */
+  SyntheticModel(int entities, int properties, int components, int componentDepth, int collections, int hierarchies,
+                 int subclasses) {
+    this.entities = entities;
+    this.properties = properties;
+    this.components = components;
+    this.componentDepth = componentDepth;
+    this.collections = collections;
+    this.hierarchies = hierarchies;
+    this.subclasses = subclasses;
+  }
+
+  /**
+   * Generate, compile and load the model.
+   * @param dir directory to generate the sources and classes in.
+   * @throws IOException if the sources cannot be written or compiled.
+   * @throws ClassNotFoundException if a compiled class cannot be loaded.
+   */
+  void generate(File dir) throws IOException, ClassNotFoundException {
+    sourceDir = new File(dir, "src");
+    File packageDir = new File(sourceDir, PACKAGE);
+    FileUtils.forceMkdir(packageDir);
+
+    List<File> sources = new ArrayList<>();
+    List<String> entityNames = new ArrayList<>();
+    for (int i = 0; i < entities; i++) {
+      String name = "Entity" + i;
+      sources.add(write(packageDir, name, getEntitySource(i)));
+      entityNames.add(name);
+
+      for (int c = 0; c < components; c++) {
+        for (int level = 0; level < componentDepth; level++) {
+          String componentName = getComponentName(i, c, level);
+          sources.add(write(packageDir, componentName, getComponentSource(i, c, level)));
+        }
+      }
+
+      if (i < hierarchies) {
+        for (int s = 0; s < subclasses; s++) {
+          String subclassName = name + "Sub" + s;
+          sources.add(write(packageDir, subclassName, getSubclassSource(i, s)));
+          entityNames.add(subclassName);
+        }
+      }
+    }
+
+    File classesDir = new File(dir, "classes");
+    compile(sources, classesDir);
+
+    classLoader = new URLClassLoader(new URL[] {classesDir.toURI().toURL()}, getClass().getClassLoader());
+    entityClasses = new ArrayList<>();
+    for (String name : entityNames) {
+      entityClasses.add(classLoader.loadClass(PACKAGE + "." + name));
+    }
+  }
+
+  /**
+   * @param packageDir package directory.
+   * @param className simple class name.
+   * @param source class source.
+   * @return the source file.
+   * @throws IOException if the file cannot be written.
+   */
+  private static File write(File packageDir, String className, String source) throws IOException {
+    File file = new File(packageDir, className + ".java");
+    FileUtils.fileWrite(file, "UTF-8", source);
+    return file;
+  }
+
+  /**
+   * @param entity entity number.
+   * @param component component number.
+   * @param level nesting level.
+   * @return simple name of the component class.
+   */
+  private static String getComponentName(int entity, int component, int level) {
+    return "Entity" + entity + "Component" + component + (level == 0 ? "" : "Level" + level);
+  }
+
+  /**
+   * @param source source to append to.
+   * @param comment javadoc comment.
+   */
+  private static void appendJavadoc(StringBuilder source, String comment) {
+    source.append("  /**\n   * ").append(comment).append("\n   */\n");
+  }
+
+  /**
+   * Append the simple properties of a class. Property names carry a prefix that's unique within the table, so that the
+   * columns of subclasses and components don't clash.
+   * @param source source to append to.
+   * @param prefix property name prefix.
+   * @param owner description of the owning class (for the comments).
+   */
+  private void appendProperties(StringBuilder source, String prefix, String owner) {
+    for (int k = 0; k < properties; k++) {
+      String type = PROPERTY_TYPES[k % PROPERTY_TYPES.length];
+      appendJavadoc(source, "Property " + k + " of " + owner + ", of type " + type + ".");
+      if (type.equals("java.util.Date")) {
+        source.append("  @Temporal(TemporalType.TIMESTAMP)\n");
+      } else if (type.equals("java.math.BigDecimal")) {
+        source.append("  @Column(precision = 19, scale = 2)\n");
+      }
+      source.append("  private ").append(type).append(' ').append(prefix).append("Property").append(k).append(";\n\n");
+    }
+  }
+
+  /**
+   * @param entity entity number.
+   * @return source of the entity class.
+   */
+  private String getEntitySource(int entity) {
+    String name = "Entity" + entity;
+    StringBuilder source = new StringBuilder();
+    source.append("package ").append(PACKAGE).append(";\n\nimport javax.persistence.*;\n\n");
+    source.append("/**\n * Synthetic entity ").append(entity).append(".\n */\n@Entity\n");
+    if (entity < hierarchies) {
+      source.append("@Inheritance(strategy = InheritanceType.SINGLE_TABLE)\n@DiscriminatorColumn(name = \"kind\")\n");
+      source.append("@DiscriminatorValue(\"").append(name).append("\")\n");
+    }
+    source.append("public class ").append(name).append(" {\n");
+
+    appendJavadoc(source, "Identifier of entity " + entity + ".");
+    source.append("  @Id\n  @GeneratedValue\n  private Long id;\n\n");
+
+    appendProperties(source, "", "entity " + entity);
+
+    for (int c = 0; c < components; c++) {
+      appendJavadoc(source, "Component " + c + " of entity " + entity + ".");
+      source.append("  @Embedded\n  private ").append(getComponentName(entity, c, 0)).append(" component").append(c)
+          .append(";\n\n");
+    }
+
+    for (int c = 0; c < collections; c++) {
+      String target = "Entity" + ((entity + c + 1) % entities);
+      appendJavadoc(source, "Collection " + c + " of entity " + entity + ", of " + target + ".");
+      source.append("  @OneToMany\n  @JoinColumn(name = \"entity").append(entity).append("_collection").append(c)
+          .append("_id\")\n  private java.util.Set<").append(target).append("> collection").append(c).append(";\n\n");
+    }
+
+    return source.append("}\n").toString();
+  }
+
+  /**
+   * @param entity entity number.
+   * @param subclass subclass number.
+   * @return source of the subclass.
+   */
+  private String getSubclassSource(int entity, int subclass) {
+    String name = "Entity" + entity + "Sub" + subclass;
+    StringBuilder source = new StringBuilder();
+    source.append("package ").append(PACKAGE).append(";\n\nimport javax.persistence.*;\n\n");
+    source.append("/**\n * Subclass ").append(subclass).append(" of synthetic entity ").append(entity)
+        .append(".\n */\n@Entity\n@DiscriminatorValue(\"").append(name).append("\")\n");
+    source.append("public class ").append(name).append(" extends Entity").append(entity).append(" {\n");
+    appendProperties(source, "sub" + subclass, "subclass " + subclass + " of entity " + entity);
+    return source.append("}\n").toString();
+  }
+
+  /**
+   * @param entity entity number.
+   * @param component component number.
+   * @param level nesting level.
+   * @return source of the component class.
+   */
+  private String getComponentSource(int entity, int component, int level) {
+    StringBuilder source = new StringBuilder();
+    source.append("package ").append(PACKAGE).append(";\n\nimport javax.persistence.*;\n\n");
+    source.append("/**\n * Component ").append(component).append(" of synthetic entity ").append(entity)
+        .append(", nesting level ").append(level).append(".\n */\n@Embeddable\n");
+    source.append("public class ").append(getComponentName(entity, component, level)).append(" {\n");
+    String prefix = "c" + component + "l" + level;
+    appendProperties(source, prefix, "component " + component + " of entity " + entity + " at level " + level);
+    if (level + 1 < componentDepth) {
+      appendJavadoc(source, "Nested component at level " + (level + 1) + ".");
+      source.append("  @Embedded\n  private ").append(getComponentName(entity, component, level + 1)).append(' ')
+          .append(prefix).append("Nested;\n\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  /**
+   * @param sources source files.
+   * @param classesDir output directory.
+   * @throws IOException if the sources cannot be compiled.
+   */
+  private static void compile(List<File> sources, File classesDir) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IOException("the synthetic model can only be compiled when running on a JDK");
+    }
+    FileUtils.forceMkdir(classesDir);
+    try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+      List<String> options = Arrays.asList("-d", classesDir.getPath(), "-classpath",
+                                           System.getProperty("java.class.path"), "-proc:none", "-nowarn");
+      if (!compiler.getTask(null, fileManager, null, options, null,
+                            fileManager.getJavaFileObjectsFromFiles(sources)).call()) {
+        throw new IOException("couldn't compile the synthetic model");
+      }
+    }
+  }
+
+  /**
+   * @return generated source directory.
+   */
+  File getSourceDir() {
+    return sourceDir;
+  }
+
+  /**
+   * @return classloader of the compiled classes.
+   */
+  ClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  /**
+   * @return entity classes (hierarchy roots followed by their subclasses).
+   */
+  List<Class<?>> getEntityClasses() {
+    return Collections.unmodifiableList(entityClasses);
+  }
+}
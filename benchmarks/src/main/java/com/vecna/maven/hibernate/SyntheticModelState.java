@@ -0,0 +1,204 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state that holds a generated {@link SyntheticModel} and its mappings. The model dimensions are JMH parameters
+ * (override them with <code>-p entities=1000</code> etc.).
+ *
+ * @author ogolberg@vecna.com
+ */
+@State(Scope.Benchmark)
+public class SyntheticModelState {
+  /**
+   * Logger that drops the plugin's informational messages, so they don't end up in the benchmark output.
+   */
+  static final Log LOG = new SystemStreamLog() {
+    @Override
+    public boolean isInfoEnabled() {
+      return false;
+    }
+
+    @Override
+    public void info(CharSequence content) {
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+    }
+
+    @Override
+    public void info(Throwable error) {
+    }
+  };
+
+  /**
+   * Number of entities (not counting subclasses).
+   */
+  @Param("200")
+  public int entities;
+
+  /**
+   * Number of simple properties of each entity, subclass and component.
+   */
+  @Param("10")
+  public int properties;
+
+  /**
+   * Number of embedded components of each entity.
+   */
+  @Param("2")
+  public int components;
+
+  /**
+   * Nesting depth of the embedded components.
+   */
+  @Param("2")
+  public int componentDepth;
+
+  /**
+   * Number of one-to-many collections of each entity.
+   */
+  @Param("2")
+  public int collections;
+
+  /**
+   * Number of entities that are the root of a discriminator hierarchy.
+   */
+  @Param("20")
+  public int hierarchies;
+
+  /**
+   * Number of subclasses of each hierarchy root.
+   */
+  @Param("3")
+  public int subclasses;
+
+  /**
+   * Directory the model is generated in.
+   */
+  private File dir;
+
+  /**
+   * The generated model.
+   */
+  private SyntheticModel model;
+
+  /**
+   * Mappings of the model.
+   */
+  private Configuration configuration;
+
+  /**
+   * Generate the model and build its mappings.
+   * @throws Exception if the model cannot be generated.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("synthetic-model").toFile();
+    model = new SyntheticModel(entities, properties, components, componentDepth, collections, hierarchies, subclasses);
+    model.generate(dir);
+    configuration = buildMappings();
+  }
+
+  /**
+   * Delete the generated model.
+   * @throws IOException if the model cannot be deleted.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  /**
+   * Build the mappings of the model the way {@link HibernateSchemaMojo} does for annotated classes.
+   * @return the mappings.
+   */
+  Configuration buildMappings() {
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(model.getClassLoader());
+    try {
+      Configuration mappings = new Configuration();
+      mappings.setProperty(Environment.DIALECT, H2Dialect.class.getName());
+      for (Class<?> entityClass : model.getEntityClasses()) {
+        mappings.addAnnotatedClass(entityClass);
+      }
+      mappings.buildMappings();
+      return mappings;
+    } finally {
+      thread.setContextClassLoader(contextClassLoader);
+    }
+  }
+
+  /**
+   * @param threads maximum number of parser threads.
+   * @return a javadoc scanner over the model sources.
+   */
+  JavadocScanner newJavadocScanner(int threads) {
+    return new JavadocScanner(new File[] {model.getSourceDir()}, threads, LOG);
+  }
+
+  /**
+   * @return the generated model.
+   */
+  SyntheticModel getModel() {
+    return model;
+  }
+
+  /**
+   * @return mappings of the model (shared by all benchmarks; don't modify).
+   */
+  Configuration getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * @return a private copy of the mappings of the model.
+   * @throws IOException if the mappings cannot be serialized.
+   * @throws ClassNotFoundException if a mapped class cannot be resolved.
+   */
+  Configuration copyConfiguration() throws IOException, ClassNotFoundException {
+    return ConfigurationSerializer.copy(configuration, model.getClassLoader());
+  }
+
+  /**
+   * @return the dialect the mappings are built for.
+   */
+  Dialect getDialect() {
+    return new H2Dialect();
+  }
+}
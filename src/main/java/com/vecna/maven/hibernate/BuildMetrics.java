@@ -0,0 +1,303 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Timing, memory and size metrics of a goal execution: wall time and allocated bytes per phase, and counters (entities,
+ * tables, columns, statements, JDBC round-trips); a counter that can't see everything it counts is reported as not
+ * measured. Allocated bytes are measured for the thread that runs the phase (work it hands off to worker threads is not
+ * included) and only where the JVM supports it.
+ *
+ * <p>All goals of a session that write to the same metrics file are written together, so the file covers the whole
+ * build.</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+class BuildMetrics {
+  /**
+   * Metrics of the goals written so far, by session key and metrics file.
+   */
+  private static final Map<Object, Map<File, List<BuildMetrics>>> SESSIONS =
+      Collections.synchronizedMap(new WeakHashMap<Object, Map<File, List<BuildMetrics>>>());
+
+  /**
+   * A running phase; closing it records its metrics.
+   */
+  class Phase {
+    /**
+     * Phase name.
+     */
+    private final String name;
+
+    /**
+     * Start time (nanoseconds).
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Bytes allocated by the thread at the start (-1 if not supported).
+     */
+    private final long allocated = getAllocatedBytes();
+
+    /**
+     * @param name phase name.
+     */
+    Phase(String name) {
+      this.name = name;
+    }
+
+    /**
+     * End the phase and record its metrics.
+     */
+    void close() {
+      long end = getAllocatedBytes();
+      record(name, System.nanoTime() - start, allocated < 0 || end < 0 ? -1 : end - allocated);
+    }
+  }
+
+  /**
+   * Goal name.
+   */
+  private final String goal;
+
+  /**
+   * Project name.
+   */
+  private final String project;
+
+  /**
+   * Time the goal was started.
+   */
+  private final long startedAt = System.currentTimeMillis();
+
+  /**
+   * Phase wall time (nanoseconds), in the order the phases were first recorded.
+   */
+  private final Map<String, Long> times = new LinkedHashMap<>();
+
+  /**
+   * Phase allocated bytes (absent if not supported).
+   */
+  private final Map<String, Long> allocations = new LinkedHashMap<>();
+
+  /**
+   * Counters, in the order they were created.
+   */
+  private final Map<String, AtomicLong> counters = new LinkedHashMap<>();
+
+  /**
+   * Counters that don't cover everything they count, reported as not measured.
+   */
+  private final Set<String> unmeasured = new HashSet<>();
+
+  /**
+   * @param goal goal name.
+   * @param project project name.
+   */
+  BuildMetrics(String goal, String project) {
+    this.goal = goal;
+    this.project = project;
+  }
+
+  /**
+   * @return the number of bytes allocated by the current thread so far, or -1 if the JVM doesn't support measuring it.
+   */
+  private static long getAllocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the sum of the peak usage of the heap memory pools.
+   */
+  private static long getPeakHeapBytes() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  /**
+   * Start a phase. Close it in a <code>finally</code> block; a phase that runs more than once is summed up.
+   * @param name phase name (nested phases are named <code>parent.child</code> by convention).
+   * @return the running phase.
+   */
+  Phase start(String name) {
+    return new Phase(name);
+  }
+
+  /**
+   * Record a phase.
+   * @param name phase name.
+   * @param nanos wall time.
+   * @param allocatedBytes allocated bytes (-1 if unknown).
+   */
+  synchronized void record(String name, long nanos, long allocatedBytes) {
+    Long time = times.get(name);
+    times.put(name, time == null ? nanos : time + nanos);
+    if (allocatedBytes >= 0) {
+      Long allocation = allocations.get(name);
+      allocations.put(name, allocation == null ? allocatedBytes : allocation + allocatedBytes);
+    }
+  }
+
+  /**
+   * @param name counter name.
+   * @return the counter (created on first use).
+   */
+  synchronized AtomicLong counter(String name) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      counter = new AtomicLong();
+      counters.put(name, counter);
+    }
+    return counter;
+  }
+
+  /**
+   * @param name counter name.
+   * @param delta amount to add.
+   */
+  void count(String name, long delta) {
+    counter(name).addAndGet(delta);
+  }
+
+  /**
+   * Report a counter as not measured, because some of what it counts happens out of its reach.
+   * @param name counter name.
+   */
+  synchronized void unmeasured(String name) {
+    counter(name);
+    unmeasured.add(name);
+  }
+
+  /**
+   * Log the metrics.
+   * @param log maven logger.
+   */
+  synchronized void log(Log log) {
+    StringBuilder phases = new StringBuilder();
+    for (Map.Entry<String, Long> time : times.entrySet()) {
+      phases.append(phases.length() == 0 ? "" : ", ").append(time.getKey()).append(' ')
+          .append(time.getValue() / 1000000).append(" ms");
+      Long allocation = allocations.get(time.getKey());
+      if (allocation != null) {
+        phases.append(" / ").append(allocation / (1024 * 1024)).append(" MB");
+      }
+    }
+    StringBuilder counts = new StringBuilder();
+    for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+      counts.append(counts.length() == 0 ? "" : ", ").append(counter.getKey()).append(' ')
+          .append(unmeasured.contains(counter.getKey()) ? "not measured" : counter.getValue());
+    }
+    log.info("phases: " + phases);
+    log.info("counts: " + counts + ", peak heap " + getPeakHeapBytes() / (1024 * 1024) + " MB");
+  }
+
+  /**
+   * Write the metrics of this goal, along with those of the other goals of the session written to the same file.
+   * @param sessionKey an object that's unique to and shared across the session.
+   * @param file metrics file.
+   * @throws IOException if the file cannot be written.
+   */
+  void write(Object sessionKey, File file) throws IOException {
+    List<BuildMetrics> goals;
+    synchronized (SESSIONS) {
+      Map<File, List<BuildMetrics>> session = SESSIONS.get(sessionKey);
+      if (session == null) {
+        session = new LinkedHashMap<>();
+        SESSIONS.put(sessionKey, session);
+      }
+      goals = session.get(file.getAbsoluteFile());
+      if (goals == null) {
+        goals = new ArrayList<>();
+        session.put(file.getAbsoluteFile(), goals);
+      }
+    }
+
+    synchronized (goals) {
+      goals.add(this);
+      FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+      try (JsonWriter json = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+        json.beginObject();
+        json.name("goals").beginArray();
+        for (BuildMetrics metrics : goals) {
+          metrics.write(json);
+        }
+        json.endArray();
+        json.name("peakHeapBytes").value(getPeakHeapBytes());
+        json.endObject();
+      }
+    }
+  }
+
+  /**
+   * @param json writer to write this goal's metrics to.
+   * @throws IOException if the metrics cannot be written.
+   */
+  private synchronized void write(JsonWriter json) throws IOException {
+    json.beginObject();
+    json.name("goal").value(goal);
+    json.name("project").value(project);
+    json.name("startedAt").value(startedAt);
+    json.name("phases").beginArray();
+    for (Map.Entry<String, Long> time : times.entrySet()) {
+      json.beginObject();
+      json.name("name").value(time.getKey());
+      json.name("wallTimeMillis").value(time.getValue() / 1000000);
+      json.name("allocatedBytes").value(allocations.get(time.getKey()));
+      json.endObject();
+    }
+    json.endArray();
+    json.name("counts").beginObject();
+    for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+      json.name(counter.getKey()).value(unmeasured.contains(counter.getKey()) ? null : counter.getValue().get());
+    }
+    json.endObject();
+    json.endObject();
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads classes from its own URLs before asking its parent, so that it sees its own versions of classes the parent also
+ * has (e.g. changed project classes, or the mapped classes of a previous release).
+ *
+ * @author ogolberg@vecna.com
+ */
+class ChildFirstClassLoader extends URLClassLoader {
+  /**
+   * @param urls classes to load first.
+   * @param parent classloader of everything else.
+   */
+  ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+    super(urls, parent);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    synchronized (getClassLoadingLock(name)) {
+      Class<?> cls = findLoadedClass(name);
+      if (cls == null) {
+        try {
+          cls = findClass(name);
+        } catch (ClassNotFoundException e) {
+          return super.loadClass(name, resolve);
+        }
+      }
+      if (resolve) {
+        resolveClass(cls);
+      }
+      return cls;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public URL getResource(String name) {
+    URL url = findResource(name);
+    return url == null ? super.getResource(name) : url;
+  }
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Reads class-level annotations straight from class files (see the JVM specification, chapter 4), without loading the
+ * classes. Only what is needed to reach the class attributes is parsed.
+ *
+ * @author ogolberg@vecna.com
+ */
+final class ClassFileAnnotations {
+  /**
+   * Class file magic number.
+   */
+  private static final int MAGIC = 0xCAFEBABE;
+
+  /**
+   * Interface (and annotation type) access flag.
+   */
+  private static final int ACC_INTERFACE = 0x0200;
+
+  /**
+   * Constant pool tag: UTF-8 string.
+   */
+  private static final int UTF8 = 1;
+
+  /**
+   * Constant pool tag: int.
+   */
+  private static final int INTEGER = 3;
+
+  /**
+   * Constant pool tag: float.
+   */
+  private static final int FLOAT = 4;
+
+  /**
+   * Constant pool tag: long (takes two entries).
+   */
+  private static final int LONG = 5;
+
+  /**
+   * Constant pool tag: double (takes two entries).
+   */
+  private static final int DOUBLE = 6;
+
+  /**
+   * Constant pool tag: class reference.
+   */
+  private static final int CLASS = 7;
+
+  /**
+   * Constant pool tag: string literal.
+   */
+  private static final int STRING = 8;
+
+  /**
+   * Constant pool tag: field reference.
+   */
+  private static final int FIELD_REF = 9;
+
+  /**
+   * Constant pool tag: method reference.
+   */
+  private static final int METHOD_REF = 10;
+
+  /**
+   * Constant pool tag: interface method reference.
+   */
+  private static final int INTERFACE_METHOD_REF = 11;
+
+  /**
+   * Constant pool tag: name and type.
+   */
+  private static final int NAME_AND_TYPE = 12;
+
+  /**
+   * Constant pool tag: method handle.
+   */
+  private static final int METHOD_HANDLE = 15;
+
+  /**
+   * Constant pool tag: method type.
+   */
+  private static final int METHOD_TYPE = 16;
+
+  /**
+   * Constant pool tag: dynamically computed constant.
+   */
+  private static final int DYNAMIC = 17;
+
+  /**
+   * Constant pool tag: invokedynamic call site.
+   */
+  private static final int INVOKE_DYNAMIC = 18;
+
+  /**
+   * Constant pool tag: module.
+   */
+  private static final int MODULE = 19;
+
+  /**
+   * Constant pool tag: package.
+   */
+  private static final int PACKAGE = 20;
+
+  /**
+   * Utility class.
+   */
+  private ClassFileAnnotations() {
+  }
+
+  /**
+   * @param in class file contents.
+   * @param descriptors annotation type descriptors (e.g. <code>Ljavax/persistence/Entity;</code>).
+   * @return the (binary) name of the class if it's a concrete or abstract class annotated with any of the annotations,
+   * null otherwise.
+   * @throws IOException if the class file cannot be read or is malformed.
+   */
+  static String getAnnotatedClassName(InputStream in, Set<String> descriptors) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a class file");
+    }
+    data.readUnsignedShort();
+    data.readUnsignedShort();
+
+    int count = data.readUnsignedShort();
+    String[] utf8 = new String[count];
+    int[] classes = new int[count];
+    boolean referenced = false;
+    for (int i = 1; i < count; i++) {
+      int tag = data.readUnsignedByte();
+      switch (tag) {
+        case UTF8:
+          utf8[i] = data.readUTF();
+          referenced |= descriptors.contains(utf8[i]);
+          break;
+        case CLASS:
+          classes[i] = data.readUnsignedShort();
+          break;
+        case STRING:
+        case METHOD_TYPE:
+        case MODULE:
+        case PACKAGE:
+          data.skipBytes(2);
+          break;
+        case METHOD_HANDLE:
+          data.skipBytes(3);
+          break;
+        case INTEGER:
+        case FLOAT:
+        case FIELD_REF:
+        case METHOD_REF:
+        case INTERFACE_METHOD_REF:
+        case NAME_AND_TYPE:
+        case DYNAMIC:
+        case INVOKE_DYNAMIC:
+          data.skipBytes(4);
+          break;
+        case LONG:
+        case DOUBLE:
+          data.skipBytes(8);
+          i++;
+          break;
+        default:
+          throw new IOException("unknown constant pool tag " + tag);
+      }
+    }
+
+    if (!referenced) {
+      return null;
+    }
+
+    int access = data.readUnsignedShort();
+    String name = utf8[classes[data.readUnsignedShort()]];
+    if ((access & ACC_INTERFACE) != 0) {
+      return null;
+    }
+    data.readUnsignedShort();
+    data.skipBytes(2 * data.readUnsignedShort());
+    skipMembers(data);
+    skipMembers(data);
+
+    int attributes = data.readUnsignedShort();
+    for (int i = 0; i < attributes; i++) {
+      String attribute = utf8[data.readUnsignedShort()];
+      int length = data.readInt();
+      if (!"RuntimeVisibleAnnotations".equals(attribute)) {
+        data.skipBytes(length);
+        continue;
+      }
+      int annotations = data.readUnsignedShort();
+      for (int j = 0; j < annotations; j++) {
+        if (descriptors.contains(utf8[data.readUnsignedShort()])) {
+          return name.replace('/', '.');
+        }
+        skipElementValuePairs(data);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Skip the fields or the methods.
+   * @param data class file.
+   * @throws IOException if the class file cannot be read.
+   */
+  private static void skipMembers(DataInputStream data) throws IOException {
+    int members = data.readUnsignedShort();
+    for (int i = 0; i < members; i++) {
+      data.skipBytes(6);
+      int attributes = data.readUnsignedShort();
+      for (int j = 0; j < attributes; j++) {
+        data.skipBytes(2);
+        data.skipBytes(data.readInt());
+      }
+    }
+  }
+
+  /**
+   * Skip the element-value pairs of an annotation.
+   * @param data class file.
+   * @throws IOException if the class file cannot be read.
+   */
+  private static void skipElementValuePairs(DataInputStream data) throws IOException {
+    int pairs = data.readUnsignedShort();
+    for (int i = 0; i < pairs; i++) {
+      data.skipBytes(2);
+      skipElementValue(data);
+    }
+  }
+
+  /**
+   * Skip an annotation element value.
+   * @param data class file.
+   * @throws IOException if the class file cannot be read or is malformed.
+   */
+  private static void skipElementValue(DataInputStream data) throws IOException {
+    int tag = data.readUnsignedByte();
+    switch (tag) {
+      case 'B':
+      case 'C':
+      case 'D':
+      case 'F':
+      case 'I':
+      case 'J':
+      case 'S':
+      case 'Z':
+      case 's':
+      case 'c':
+        data.skipBytes(2);
+        break;
+      case 'e':
+        data.skipBytes(4);
+        break;
+      case '@':
+        data.skipBytes(2);
+        skipElementValuePairs(data);
+        break;
+      case '[':
+        int values = data.readUnsignedShort();
+        for (int i = 0; i < values; i++) {
+          skipElementValue(data);
+        }
+        break;
+      default:
+        throw new IOException("unknown element value tag " + (char) tag);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.thoughtworks.qdox.model.DocletTag;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaField;
+import com.thoughtworks.qdox.model.JavaMethod;
+import com.thoughtworks.qdox.model.JavaParameter;
+import com.thoughtworks.qdox.model.Type;
+
+/**
+ * Compact javadoc record for one class: just the comments the doc goal uses.
+ *
+ * @author ogolberg@vecna.com
+ */
+class ClassJavadoc implements Serializable {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Superclass name as it appears in source (null if the class doesn't extend anything).
+   */
+  private final String superclass;
+
+  /**
+   * Class comment.
+   */
+  private final String comment;
+
+  /**
+   * Field comments by field name.
+   */
+  private final Map<String, String> fields;
+
+  /**
+   * <code>@return</code> tags by method signature (see {@link JavadocLookup#getSignature(String, String[])}); a null value
+   * means the method exists but has no <code>@return</code> tag.
+   */
+  private final Map<String, String> methods;
+
+  /**
+   * @param superclass superclass name as it appears in source.
+   * @param comment class comment.
+   * @param fields field comments by field name.
+   * @param methods <code>@return</code> tags by method signature.
+   */
+  ClassJavadoc(String superclass, String comment, Map<String, String> fields, Map<String, String> methods) {
+    this.superclass = superclass;
+    this.comment = comment;
+    this.fields = fields;
+    this.methods = methods;
+  }
+
+  /**
+   * Extract the comments from a QDox class model.
+   * @param javaClass parsed class.
+   * @return compact javadoc record.
+   */
+  static ClassJavadoc fromSource(JavaClass javaClass) {
+    Map<String, String> fields = new HashMap<>();
+    for (JavaField field : javaClass.getFields()) {
+      if (field.getComment() != null) {
+        fields.put(field.getName(), field.getComment());
+      }
+    }
+
+    Map<String, String> methods = new HashMap<>();
+    for (JavaMethod method : javaClass.getMethods()) {
+      JavaParameter[] parameters = method.getParameters();
+      String[] types = new String[parameters.length];
+      for (int i = 0; i < parameters.length; i++) {
+        types[i] = QdoxJavadocLookup.getTypeName(parameters[i].getType());
+      }
+      DocletTag tag = method.getTagByName("return");
+      methods.put(JavadocLookup.getSignature(method.getName(), types), tag == null ? null : tag.getValue());
+    }
+
+    Type superClass = javaClass.getSuperClass();
+    return new ClassJavadoc(superClass == null ? null : superClass.getValue(), javaClass.getComment(), fields, methods);
+  }
+
+  /**
+   * @return superclass name as it appears in source (null if the class doesn't extend anything).
+   */
+  String getSuperclass() {
+    return superclass;
+  }
+
+  /**
+   * @return class comment.
+   */
+  String getComment() {
+    return comment;
+  }
+
+  /**
+   * @param name field name.
+   * @return field comment or null.
+   */
+  String getFieldComment(String name) {
+    return fields.get(name);
+  }
+
+  /**
+   * @param signature method signature.
+   * @return whether the class declares the method.
+   */
+  boolean hasMethod(String signature) {
+    return methods.containsKey(signature);
+  }
+
+  /**
+   * @param signature method signature.
+   * @return the method's <code>@return</code> tag or null.
+   */
+  String getReturnComment(String signature) {
+    return methods.get(signature);
+  }
+}
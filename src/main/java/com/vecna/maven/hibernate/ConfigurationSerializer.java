@@ -0,0 +1,113 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+
+import org.hibernate.cfg.Configuration;
+
+/**
+ * Serializes built Hibernate mapping metadata. Mapped classes are resolved through an explicit classloader on the way back
+ * in, since the default {@link ObjectInputStream} resolution would only see the plugin's own classes.
+ *
+ * @author ogolberg@vecna.com
+ */
+final class ConfigurationSerializer {
+  /**
+   * Utility class.
+   */
+  private ConfigurationSerializer() {
+  }
+
+  /**
+   * Object input stream that resolves classes through a given classloader.
+   */
+  private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+    /**
+     * The classloader to resolve classes with.
+     */
+    private final ClassLoader classLoader;
+
+    /**
+     * @param in the stream to read from.
+     * @param classLoader the classloader to resolve classes with.
+     * @throws IOException if the stream header cannot be read.
+     */
+    ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+      super(in);
+      this.classLoader = classLoader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      try {
+        return Class.forName(desc.getName(), false, classLoader);
+      } catch (ClassNotFoundException e) {
+        return super.resolveClass(desc);
+      }
+    }
+  }
+
+  /**
+   * Write built mapping metadata to a stream.
+   * @param configuration mapping metadata.
+   * @param out the stream to write to (not closed).
+   * @throws IOException if the metadata cannot be serialized.
+   */
+  static void write(Configuration configuration, OutputStream out) throws IOException {
+    ObjectOutputStream oos = new ObjectOutputStream(out);
+    oos.writeObject(configuration);
+    oos.flush();
+  }
+
+  /**
+   * Read mapping metadata previously written with {@link #write(Configuration, OutputStream)}.
+   * @param in the stream to read from (not closed).
+   * @param classLoader the classloader to resolve mapped classes with.
+   * @return mapping metadata.
+   * @throws IOException if the stream is corrupt.
+   * @throws ClassNotFoundException if a serialized class is no longer on the classpath.
+   */
+  static Configuration read(InputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    ObjectInputStream ois = new ClassLoaderObjectInputStream(in, classLoader);
+    return (Configuration) ois.readObject();
+  }
+
+  /**
+   * Make a deep copy of mapping metadata, so that it can be modified without affecting the original.
+   * @param configuration mapping metadata.
+   * @param classLoader the classloader to resolve mapped classes with.
+   * @return an independent copy.
+   * @throws IOException if the metadata cannot be serialized.
+   * @throws ClassNotFoundException if a mapped class cannot be resolved.
+   */
+  static Configuration copy(Configuration configuration, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(configuration, out);
+    return read(new ByteArrayInputStream(out.toByteArray()), classLoader);
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.service.jdbc.connections.internal.DriverManagerConnectionProviderImpl;
+
+/**
+ * Hibernate connection provider that counts the JDBC round-trips over its connections (see
+ * {@link JdbcConnectionSource#count(Connection, java.util.concurrent.atomic.AtomicLong)}), for the schema tools that
+ * open their own connections. Checking a connection out of the pool counts as connecting. The counter is passed through
+ * the (string-only) Hibernate configuration by registering it under an id, see {@link #register(AtomicLong)}; without
+ * one, the provider behaves like a plain driver-manager connection provider.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class CountingConnectionProvider extends DriverManagerConnectionProviderImpl {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Configuration property with the counter's registration id.
+   */
+  static final String COUNTER_ID = "hibernate.schema.round_trip_counter";
+
+  /**
+   * Counters by registration id.
+   */
+  private static final Map<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+
+  /**
+   * Round-trip counter (null to not count).
+   */
+  private AtomicLong counter;
+
+  /**
+   * Make a round-trip counter available to connection providers.
+   * @param counter round-trip counter.
+   * @return the id to set as {@link #COUNTER_ID}.
+   */
+  static String register(AtomicLong counter) {
+    String id = UUID.randomUUID().toString();
+    COUNTERS.put(id, counter);
+    return id;
+  }
+
+  /**
+   * @param id registration id.
+   */
+  static void unregister(String id) {
+    COUNTERS.remove(id);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void configure(Map configurationValues) {
+    Object id = configurationValues.get(COUNTER_ID);
+    counter = id == null ? null : COUNTERS.get(id.toString());
+    super.configure(configurationValues);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    Connection connection = super.getConnection();
+    if (counter == null) {
+      return connection;
+    }
+    counter.incrementAndGet();
+    return JdbcConnectionSource.count(connection, counter);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void closeConnection(Connection connection) throws SQLException {
+    super.closeConnection(JdbcConnectionSource.uncount(connection));
+  }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a generated DDL script against a private in-memory H2 database, in the H2 compatibility mode of the target
+ * database, to catch statements that can't run before they reach a real database. H2's compatibility modes cover the
+ * common syntax and types rather than every vendor extension, so a failure flags a suspicious statement rather than
+ * proving it broken.
+ *
+ * @author ogolberg@vecna.com
+ */
+class DdlPreflight {
+  /**
+   * A statement that failed.
+   */
+  static class Failure {
+    /**
+     * Index of the statement in the script.
+     */
+    private final int index;
+
+    /**
+     * Error message.
+     */
+    private final String message;
+
+    /**
+     * @param index index of the statement in the script.
+     * @param message error message.
+     */
+    Failure(int index, String message) {
+      this.index = index;
+      this.message = message;
+    }
+
+    /**
+     * @return index of the statement in the script.
+     */
+    int getIndex() {
+      return index;
+    }
+
+    /**
+     * @return error message.
+     */
+    String getMessage() {
+      return message;
+    }
+  }
+
+  /**
+   * H2 error codes of statements that reference tables, columns, indexes, constraints, sequences or schemas that don't
+   * exist.
+   */
+  private static final Set<Integer> MISSING_OBJECT_ERRORS = new HashSet<>(Arrays.asList(42102, 42122, 42112, 90057,
+                                                                                       90036, 90079));
+
+  /**
+   * H2 JDBC driver class.
+   */
+  private static final String DRIVER = "org.h2.Driver";
+
+  /**
+   * Counter for unique database names.
+   */
+  private static final AtomicInteger DATABASES = new AtomicInteger();
+
+  /**
+   * H2 compatibility mode (null for the default mode).
+   */
+  private final String mode;
+
+  /**
+   * Schemas the script creates objects in (null for the default schema).
+   */
+  private final Collection<String> schemas;
+
+  /**
+   * Whether to run the clauses of <code>alter table</code> statements one by one: H2 only takes one clause per
+   * statement, while MySQL dialects add foreign keys with an index in one statement.
+   */
+  private final boolean splitAlterTable;
+
+  /**
+   * @param flavor SQL flavor of the target database.
+   * @param schemas schemas the script creates objects in (null entries for the default schema).
+   */
+  DdlPreflight(SqlFlavor flavor, Collection<String> schemas) {
+    this.mode = getMode(flavor);
+    this.schemas = schemas;
+    this.splitAlterTable = flavor == SqlFlavor.MYSQL;
+  }
+
+  /**
+   * @param flavor SQL flavor of the target database.
+   * @return the H2 compatibility mode for the flavor (null for the default mode).
+   */
+  static String getMode(SqlFlavor flavor) {
+    switch (flavor) {
+      case POSTGRESQL:
+        return "PostgreSQL";
+      case ORACLE:
+        return "Oracle";
+      case MYSQL:
+        return "MySQL";
+      case SQLSERVER:
+        return "MSSQLServer";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @param statement an <code>alter table</code> statement.
+   * @return one statement per clause (the statement itself if it has a single clause or isn't an
+   * <code>alter table</code> statement).
+   */
+  static List<String> splitAlterTable(String statement) {
+    String sql = statement.trim();
+    String prefix = "alter table ";
+    if (!sql.regionMatches(true, 0, prefix, 0, prefix.length())) {
+      return Collections.singletonList(statement);
+    }
+    int tableEnd = sql.indexOf(' ', prefix.length());
+    if (tableEnd < 0) {
+      return Collections.singletonList(statement);
+    }
+
+    List<String> clauses = new ArrayList<>();
+    int depth = 0;
+    boolean quoted = false;
+    int start = tableEnd + 1;
+    for (int i = start; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && c == '(') {
+        depth++;
+      } else if (!quoted && c == ')') {
+        depth--;
+      } else if (!quoted && depth == 0 && c == ',') {
+        clauses.add(sql.substring(start, i).trim());
+        start = i + 1;
+      }
+    }
+    if (clauses.isEmpty()) {
+      return Collections.singletonList(statement);
+    }
+    clauses.add(sql.substring(start).trim());
+
+    List<String> statements = new ArrayList<>();
+    for (String clause : clauses) {
+      statements.add(sql.substring(0, tableEnd + 1) + clause);
+    }
+    return statements;
+  }
+
+  /**
+   * @return the H2 compatibility mode (null for the default mode).
+   */
+  String getMode() {
+    return mode;
+  }
+
+  /**
+   * Run the statements one by one on an empty database, which is dropped afterwards.
+   * @param statements the script.
+   * @param first index of the first statement to run (earlier ones, e.g. drop statements, are skipped).
+   * @param tolerateMissingObjects whether to ignore failures caused by objects that don't exist (for scripts that
+   * change an existing schema, which the preflight database doesn't have).
+   * @return the statements that failed.
+   * @throws SQLException if the preflight database cannot be created.
+   */
+  List<Failure> check(List<String> statements, int first, boolean tolerateMissingObjects) throws SQLException {
+    try {
+      Class.forName(DRIVER);
+    } catch (ClassNotFoundException e) {
+      throw new SQLException("the H2 driver is not on the plugin classpath", e);
+    }
+
+    String url = "jdbc:h2:mem:hibernate-schema-preflight-" + DATABASES.incrementAndGet()
+        + (mode == null ? "" : ";MODE=" + mode);
+    List<Failure> failures = new ArrayList<>();
+    try (Connection connection = DriverManager.getConnection(url, "sa", "");
+        Statement statement = connection.createStatement()) {
+      for (String schema : schemas) {
+        if (schema != null) {
+          statement.execute("create schema if not exists " + schema);
+        }
+      }
+      for (int i = first; i < statements.size(); i++) {
+        try {
+          if (splitAlterTable) {
+            for (String clause : splitAlterTable(statements.get(i))) {
+              statement.execute(clause);
+            }
+          } else {
+            statement.execute(statements.get(i));
+          }
+        } catch (SQLException e) {
+          if (!tolerateMissingObjects || !MISSING_OBJECT_ERRORS.contains(e.getErrorCode())) {
+            String message = String.valueOf(e.getMessage());
+            int end = message.indexOf('\n');
+            failures.add(new Failure(i, end < 0 ? message : message.substring(0, end)));
+          }
+        }
+      }
+    }
+    return failures;
+  }
+}
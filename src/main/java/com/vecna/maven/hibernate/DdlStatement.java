@@ -0,0 +1,231 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A DDL statement of a schema export, classified into the execution phase it belongs to.
+ *
+ * @author ogolberg@vecna.com
+ */
+class DdlStatement {
+  /**
+   * Execution phases, in execution order. Statements within a parallel phase don't depend on each other; auxiliary
+   * statements (anything that isn't recognized) run one by one, in script order.
+   */
+  enum Phase {
+    /**
+     * Unrecognized drop statements (e.g. auxiliary database objects).
+     */
+    DROP_AUXILIARY(true, false),
+
+    /**
+     * Dropping foreign keys.
+     */
+    DROP_CONSTRAINTS(true, true),
+
+    /**
+     * Dropping tables and sequences.
+     */
+    DROP_OBJECTS(true, true),
+
+    /**
+     * Creating tables and sequences.
+     */
+    CREATE_OBJECTS(false, true),
+
+    /**
+     * Creating indexes and unique keys, and commenting tables and columns.
+     */
+    CREATE_INDEXES(false, true),
+
+    /**
+     * Creating foreign keys.
+     */
+    CREATE_FOREIGN_KEYS(false, true),
+
+    /**
+     * Unrecognized create statements (e.g. auxiliary database objects).
+     */
+    CREATE_AUXILIARY(false, false);
+
+    /**
+     * Whether this is a drop phase (drop failures are expected, e.g. when the schema doesn't exist yet).
+     */
+    private final boolean drop;
+
+    /**
+     * Whether the statements of this phase can run concurrently.
+     */
+    private final boolean parallel;
+
+    /**
+     * @param drop whether this is a drop phase.
+     * @param parallel whether the statements of this phase can run concurrently.
+     */
+    Phase(boolean drop, boolean parallel) {
+      this.drop = drop;
+      this.parallel = parallel;
+    }
+
+    /**
+     * @return whether this is a drop phase.
+     */
+    boolean isDrop() {
+      return drop;
+    }
+
+    /**
+     * @return whether the statements of this phase can run concurrently.
+     */
+    boolean isParallel() {
+      return parallel;
+    }
+  }
+
+  /**
+   * Dropping a foreign key.
+   */
+  private static final Pattern DROP_CONSTRAINT = Pattern.compile("alter table .* drop (constraint|foreign key) .*");
+
+  /**
+   * Dropping a table or a sequence.
+   */
+  private static final Pattern DROP_OBJECT = Pattern.compile("drop (table|sequence|generator)\\b.*");
+
+  /**
+   * Creating a table or a sequence.
+   */
+  private static final Pattern CREATE_OBJECT = Pattern.compile("create ([a-z]+ )*(table|sequence|generator)\\b.*");
+
+  /**
+   * Creating an index or a unique key, or commenting a table or a column.
+   */
+  private static final Pattern CREATE_INDEX = Pattern.compile("create ([a-z]+ )*index\\b.*|comment on .*"
+      + "|alter table .* add (constraint [^ ]+ )?unique\\b.*");
+
+  /**
+   * Creating a foreign key.
+   */
+  private static final Pattern CREATE_FOREIGN_KEY = Pattern.compile(
+      "alter table .* add (constraint [^ ]+ )?foreign key\\b.*");
+
+  /**
+   * Position in the script (drop script first, then create script).
+   */
+  private final int index;
+
+  /**
+   * SQL.
+   */
+  private final String sql;
+
+  /**
+   * Execution phase.
+   */
+  private final Phase phase;
+
+  /**
+   * @param index position in the script.
+   * @param sql SQL.
+   * @param phase execution phase.
+   */
+  DdlStatement(int index, String sql, Phase phase) {
+    this.index = index;
+    this.sql = sql;
+    this.phase = phase;
+  }
+
+  /**
+   * @param sql a statement of a drop script.
+   * @return its execution phase.
+   */
+  static Phase classifyDrop(String sql) {
+    String normalized = normalize(sql);
+    if (DROP_CONSTRAINT.matcher(normalized).matches()) {
+      return Phase.DROP_CONSTRAINTS;
+    } else if (DROP_OBJECT.matcher(normalized).matches()) {
+      return Phase.DROP_OBJECTS;
+    }
+    return Phase.DROP_AUXILIARY;
+  }
+
+  /**
+   * @param sql a statement of a create script.
+   * @return its execution phase.
+   */
+  static Phase classifyCreate(String sql) {
+    String normalized = normalize(sql);
+    if (CREATE_OBJECT.matcher(normalized).matches()) {
+      return Phase.CREATE_OBJECTS;
+    } else if (CREATE_FOREIGN_KEY.matcher(normalized).matches()) {
+      return Phase.CREATE_FOREIGN_KEYS;
+    } else if (CREATE_INDEX.matcher(normalized).matches()) {
+      return Phase.CREATE_INDEXES;
+    }
+    return Phase.CREATE_AUXILIARY;
+  }
+
+  /**
+   * @param sql a statement.
+   * @return the statement in lower case, with whitespace collapsed.
+   */
+  private static String normalize(String sql) {
+    return sql.trim().toLowerCase(Locale.ENGLISH).replaceAll("\\s+", " ");
+  }
+
+  /**
+   * Classify the statements of a schema export.
+   * @param dropScript drop statements (empty if the schema isn't dropped).
+   * @param createScript create statements (empty if the schema isn't created).
+   * @return classified statements, in script order.
+   */
+  static List<DdlStatement> classify(String[] dropScript, String[] createScript) {
+    List<DdlStatement> statements = new ArrayList<>();
+    for (String sql : dropScript) {
+      statements.add(new DdlStatement(statements.size(), sql, classifyDrop(sql)));
+    }
+    for (String sql : createScript) {
+      statements.add(new DdlStatement(statements.size(), sql, classifyCreate(sql)));
+    }
+    return statements;
+  }
+
+  /**
+   * @return position in the script.
+   */
+  int getIndex() {
+    return index;
+  }
+
+  /**
+   * @return SQL.
+   */
+  String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return execution phase.
+   */
+  Phase getPhase() {
+    return phase;
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+
+/**
+ * An additional SQL dialect to generate the schema script for, and the file to write it to (see
+ * <code>dialectOutputs</code> of the <code>export</code> goal).
+ *
+ * @author ogolberg@vecna.com
+ */
+public class DialectOutput {
+  /**
+   * Hibernate dialect class name.
+   */
+  private String dialect;
+
+  /**
+   * Output file for the dialect's script.
+   */
+  private File outputFile;
+
+  /**
+   * @return Hibernate dialect class name.
+   */
+  public String getDialect() {
+    return dialect;
+  }
+
+  /**
+   * @param dialect Hibernate dialect class name.
+   */
+  public void setDialect(String dialect) {
+    this.dialect = dialect;
+  }
+
+  /**
+   * @return output file for the dialect's script.
+   */
+  public File getOutputFile() {
+    return outputFile;
+  }
+
+  /**
+   * @param outputFile output file for the dialect's script.
+   */
+  public void setOutputFile(File outputFile) {
+    this.outputFile = outputFile;
+  }
+}
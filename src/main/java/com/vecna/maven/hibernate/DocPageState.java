@@ -0,0 +1,420 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Component;
+import org.hibernate.mapping.ForeignKey;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.IndexedCollection;
+import org.hibernate.mapping.MetaAttribute;
+import org.hibernate.mapping.OneToMany;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.SimpleValue;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.ToOne;
+import org.hibernate.mapping.UniqueKey;
+import org.hibernate.mapping.Value;
+import org.hibernate.tool.hbm2x.doc.DocHelper;
+import org.hibernate.tool.hbm2x.pojo.POJOClass;
+
+/**
+ * Tracks the generated documentation pages between runs for incremental regeneration. Each page is recorded with a
+ * digest of what it was rendered from; pages whose digest is unchanged are not rendered again, and pages that are no
+ * longer generated (e.g. for removed tables) are deleted.
+ *
+ * <p>The state is a properties file in the output directory: <code>page.&lt;path&gt;</code> entries for regular pages,
+ * <code>asset.&lt;path&gt;</code> entries for the pages generated with the static assets, and an <code>assets</code>
+ * entry with the digest the assets were generated with.</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+class DocPageState {
+  /**
+   * State file name.
+   */
+  static final String FILE_NAME = ".hibernate-schema-doc.properties";
+
+  /**
+   * Prefix for regular pages.
+   */
+  private static final String PAGE = "page.";
+
+  /**
+   * Prefix for pages generated with the static assets.
+   */
+  private static final String ASSET = "asset.";
+
+  /**
+   * Key for the assets digest.
+   */
+  private static final String ASSETS = "assets";
+
+  /**
+   * Output directory.
+   */
+  private final File outputDir;
+
+  /**
+   * State of the previous run.
+   */
+  private final Properties previous;
+
+  /**
+   * State of the current run (updated by rendering threads, guarded by <code>this</code>).
+   */
+  private final Properties current = new Properties();
+
+  /**
+   * @param outputDir output directory.
+   * @param previous state of the previous run.
+   */
+  private DocPageState(File outputDir, Properties previous) {
+    this.outputDir = outputDir.getAbsoluteFile();
+    this.previous = previous;
+  }
+
+  /**
+   * Load the state of the previous run. A missing or unreadable state file yields an empty state (everything is rendered).
+   * @param outputDir output directory.
+   * @return page state.
+   */
+  static DocPageState load(File outputDir) {
+    Properties previous = new Properties();
+    File file = new File(outputDir, FILE_NAME);
+    if (file.isFile()) {
+      try (InputStream in = new FileInputStream(file)) {
+        previous.load(in);
+      } catch (IOException e) {
+        previous.clear();
+      }
+    }
+    return new DocPageState(outputDir, previous);
+  }
+
+  /**
+   * @param page a page.
+   * @return the page path relative to the output directory.
+   */
+  private String getPath(File page) {
+    String path = page.getAbsolutePath();
+    String root = outputDir.getPath() + File.separator;
+    return (path.startsWith(root) ? path.substring(root.length()) : path).replace(File.separatorChar, '/');
+  }
+
+  /**
+   * @param page a page.
+   * @param digest the digest of what the page would be rendered from.
+   * @return whether the page exists and was rendered from the same digest.
+   */
+  boolean isUnchanged(File page, String digest) {
+    return digest.equals(previous.getProperty(PAGE + getPath(page))) && page.isFile();
+  }
+
+  /**
+   * Record a generated page. Called from the rendering threads.
+   * @param page the page.
+   * @param digest the digest the page was rendered from.
+   * @param asset whether the page was generated with the static assets.
+   */
+  synchronized void record(File page, String digest, boolean asset) {
+    current.setProperty((asset ? ASSET : PAGE) + getPath(page), digest);
+  }
+
+  /**
+   * @param digest the digest the static assets would be generated with.
+   * @return whether the static assets (and the pages generated with them) exist and are up to date.
+   */
+  boolean isAssetsUnchanged(String digest) {
+    if (!digest.equals(previous.getProperty(ASSETS))) {
+      return false;
+    }
+    for (String key : previous.stringPropertyNames()) {
+      if (key.startsWith(ASSET) && !new File(outputDir, key.substring(ASSET.length())).isFile()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Carry over the static assets from the previous run.
+   */
+  synchronized void retainAssets() {
+    for (String key : previous.stringPropertyNames()) {
+      if (key.startsWith(ASSET) || key.equals(ASSETS)) {
+        current.setProperty(key, previous.getProperty(key));
+      }
+    }
+  }
+
+  /**
+   * @param digest the digest the static assets were generated with.
+   */
+  synchronized void recordAssets(String digest) {
+    current.setProperty(ASSETS, digest);
+  }
+
+  /**
+   * @return pages generated by the previous run but not by the current one.
+   */
+  synchronized List<File> getRemovedPages() {
+    List<File> removed = new ArrayList<>();
+    for (String key : previous.stringPropertyNames()) {
+      if (!current.containsKey(key)) {
+        if (key.startsWith(PAGE)) {
+          removed.add(new File(outputDir, key.substring(PAGE.length())));
+        } else if (key.startsWith(ASSET)) {
+          removed.add(new File(outputDir, key.substring(ASSET.length())));
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Persist the state of the current run (only if it differs from the previous one).
+   * @throws IOException if the state cannot be written.
+   */
+  synchronized void save() throws IOException {
+    if (!current.equals(previous)) {
+      try (OutputStream out = new FileOutputStream(new File(outputDir, FILE_NAME))) {
+        current.store(out, "hibernate-schema-plugin documentation state");
+      }
+    }
+  }
+
+  /**
+   * @param fingerprint fingerprint to add to.
+   * @param label what the columns are.
+   * @param columns column iterator.
+   */
+  private static void addColumnNames(Fingerprint fingerprint, String label, Iterator<?> columns) {
+    while (columns.hasNext()) {
+      fingerprint.add(label, ((Column) columns.next()).getName());
+    }
+  }
+
+  /**
+   * @param table a table.
+   * @return the catalog, schema and name of the table (which determine the path of its page).
+   */
+  private static String getQualifiedName(Table table) {
+    return table == null ? null : table.getCatalog() + "." + table.getSchema() + "." + table.getName();
+  }
+
+  /**
+   * @param table a table.
+   * @param docHelper the documentation helper the page is rendered with.
+   * @return a digest of everything a table page shows: name, comment, columns (with types, sizes, constraints and
+   * comments), primary key, foreign keys (with the location of the referenced table's page), indexes and unique keys.
+   */
+  static String digest(Table table, DocHelper docHelper) {
+    Fingerprint fingerprint = new Fingerprint();
+    fingerprint.add("table", getQualifiedName(table));
+    fingerprint.add("comment", table.getComment());
+
+    Iterator<?> columns = table.getColumnIterator();
+    while (columns.hasNext()) {
+      Column column = (Column) columns.next();
+      fingerprint.add("column", column.getName())
+          .add("sqlType", docHelper.getSQLTypeName(column))
+          .add("size", column.getLength() + "/" + column.getPrecision() + "/" + column.getScale())
+          .add("constraints", column.isNullable() + "/" + column.isUnique())
+          .add("comment", column.getComment());
+    }
+
+    if (table.hasPrimaryKey()) {
+      fingerprint.add("primaryKey", table.getPrimaryKey().getName());
+      addColumnNames(fingerprint, "primaryKeyColumn", table.getPrimaryKey().getColumnIterator());
+    }
+
+    Iterator<?> foreignKeys = table.getForeignKeyIterator();
+    while (foreignKeys.hasNext()) {
+      ForeignKey foreignKey = (ForeignKey) foreignKeys.next();
+      fingerprint.add("foreignKey", foreignKey.getName());
+      fingerprint.add("referencedTable", getQualifiedName(foreignKey.getReferencedTable()));
+      addColumnNames(fingerprint, "foreignKeyColumn", foreignKey.getColumnIterator());
+    }
+
+    Iterator<?> indexes = table.getIndexIterator();
+    while (indexes.hasNext()) {
+      Index index = (Index) indexes.next();
+      fingerprint.add("index", index.getName());
+      addColumnNames(fingerprint, "indexColumn", index.getColumnIterator());
+    }
+
+    Iterator<?> uniqueKeys = table.getUniqueKeyIterator();
+    while (uniqueKeys.hasNext()) {
+      UniqueKey uniqueKey = (UniqueKey) uniqueKeys.next();
+      fingerprint.add("uniqueKey", uniqueKey.getName());
+      addColumnNames(fingerprint, "uniqueKeyColumn", uniqueKey.getColumnIterator());
+    }
+
+    return fingerprint.toHex();
+  }
+
+  /**
+   * @param fingerprint fingerprint to add to.
+   * @param metaAttributes meta attributes (e.g. descriptions) of a class or property.
+   */
+  private static void addMetaAttributes(Fingerprint fingerprint, Map<?, ?> metaAttributes) {
+    if (metaAttributes != null) {
+      for (Object attribute : new TreeMap<Object, Object>(metaAttributes).values()) {
+        fingerprint.add("meta", ((MetaAttribute) attribute).getName() + "="
+                                + ((MetaAttribute) attribute).getValues());
+      }
+    }
+  }
+
+  /**
+   * Add the structure of a mapped value, down to the types of the component properties and of the collection keys,
+   * indexes and elements.
+   * @param fingerprint fingerprint to add to.
+   * @param value a mapped value.
+   */
+  private static void addValue(Fingerprint fingerprint, Value value) {
+    fingerprint.add("value", value.getClass().getName());
+    if (value instanceof Component) {
+      Component component = (Component) value;
+      fingerprint.add("componentClass", component.getComponentClassName());
+      Iterator<?> properties = component.getPropertyIterator();
+      while (properties.hasNext()) {
+        Property property = (Property) properties.next();
+        fingerprint.add("componentProperty", property.getName());
+        addValue(fingerprint, property.getValue());
+      }
+    } else if (value instanceof Collection) {
+      Collection collection = (Collection) value;
+      fingerprint.add("collectionType", collection.getTypeName());
+      fingerprint.add("key", null);
+      addValue(fingerprint, collection.getKey());
+      if (collection instanceof IndexedCollection) {
+        fingerprint.add("index", null);
+        addValue(fingerprint, ((IndexedCollection) collection).getIndex());
+      }
+      fingerprint.add("element", null);
+      addValue(fingerprint, collection.getElement());
+    } else if (value instanceof OneToMany) {
+      fingerprint.add("referencedEntity", ((OneToMany) value).getReferencedEntityName());
+    } else if (value instanceof SimpleValue) {
+      fingerprint.add("type", ((SimpleValue) value).getTypeName());
+      fingerprint.add("typeParameters", String.valueOf(((SimpleValue) value).getTypeParameters()));
+      if (value instanceof ToOne) {
+        fingerprint.add("referencedEntity", ((ToOne) value).getReferencedEntityName());
+      }
+    }
+  }
+
+  /**
+   * Add everything the entity page shows about a property: its name, accessor, columns, Java type (with the page of
+   * its component class) and description, and the structure of its value.
+   * @param fingerprint fingerprint to add to.
+   * @param owner the class or component that declares the property.
+   * @param property the property.
+   * @param docHelper the documentation helper the page is rendered with.
+   * @param jdk5 whether Java types are rendered with generics.
+   */
+  private static void addProperty(Fingerprint fingerprint, POJOClass owner, Property property, DocHelper docHelper,
+                                  boolean jdk5) {
+    POJOClass component = docHelper.getComponentPOJO(property);
+    fingerprint.add("property", property.getName())
+        .add("accessor", property.getPropertyAccessorName())
+        .add("javaType", owner.getJavaTypeName(property, jdk5))
+        .add("componentClass", component == null ? null : component.getQualifiedDeclarationName())
+        .add("description", owner.getFieldDescription(property));
+    addMetaAttributes(fingerprint, property.getMetaAttributes());
+    Iterator<?> columns = property.getColumnIterator();
+    while (columns.hasNext()) {
+      Object column = columns.next();
+      fingerprint.add("column", column instanceof Column ? ((Column) column).getName() : "formula");
+    }
+    addValue(fingerprint, property.getValue());
+  }
+
+  /**
+   * @param pojo a mapped class, as the page template sees it.
+   * @param docHelper the documentation helper the page is rendered with.
+   * @param jdk5 whether Java types are rendered with generics.
+   * @return a digest of everything an entity page shows: names, the whole inheritance chain (with the identifiers,
+   * versions and properties inherited from it), description, identifier (with the properties of a composite
+   * identifier), version and properties.
+   */
+  static String digest(POJOClass pojo, DocHelper docHelper, boolean jdk5) {
+    Fingerprint fingerprint = new Fingerprint();
+    fingerprint.add("entity", pojo.getQualifiedDeclarationName());
+    fingerprint.add("package", pojo.getPackageName());
+    fingerprint.add("subclass", String.valueOf(pojo.isSubclass()));
+    if (pojo.getDecoratedObject() instanceof PersistentClass) {
+      addMetaAttributes(fingerprint, ((PersistentClass) pojo.getDecoratedObject()).getMetaAttributes());
+    }
+
+    for (Object superClass : docHelper.getInheritanceHierarchy(pojo)) {
+      POJOClass superPojo = (POJOClass) superClass;
+      fingerprint.add("superclass", superPojo.getQualifiedDeclarationName());
+      if (superPojo.hasIdentifierProperty()) {
+        fingerprint.add("superclassIdentifier", superPojo.getIdentifierProperty().getName());
+      }
+      if (superPojo.hasVersionProperty()) {
+        fingerprint.add("superclassVersion", superPojo.getVersionProperty().getName());
+      }
+      for (Object property : docHelper.getOrderedSimpleProperties(superPojo)) {
+        fingerprint.add("superclassProperty", ((Property) property).getName());
+      }
+    }
+
+    if (pojo.hasIdentifierProperty()) {
+      Property identifier = pojo.getIdentifierProperty();
+      fingerprint.add("identifier", null);
+      addProperty(fingerprint, pojo, identifier, docHelper, jdk5);
+      POJOClass compositeIdentifier = docHelper.getComponentPOJO(identifier);
+      if (compositeIdentifier != null) {
+        Iterator<?> properties = compositeIdentifier.getAllPropertiesIterator();
+        while (properties.hasNext()) {
+          addProperty(fingerprint, compositeIdentifier, (Property) properties.next(), docHelper, jdk5);
+        }
+      }
+    }
+
+    if (pojo.hasVersionProperty()) {
+      fingerprint.add("version", null);
+      addProperty(fingerprint, pojo, pojo.getVersionProperty(), docHelper, jdk5);
+    }
+
+    fingerprint.add("properties", null);
+    for (Object property : docHelper.getOrderedSimpleProperties(pojo)) {
+      addProperty(fingerprint, pojo, (Property) property, docHelper, jdk5);
+    }
+
+    return fingerprint.toHex();
+  }
+}
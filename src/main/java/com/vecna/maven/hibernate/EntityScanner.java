@@ -0,0 +1,288 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Finds JPA entity, embeddable and mapped superclass classes in a class directory and in jars by reading the class
+ * files' annotations (see {@link ClassFileAnnotations}), without loading any classes. Only classes in the given packages
+ * (and their subpackages) are considered. Class files are read in parallel; the results for each jar are cached by the
+ * jar's checksum, so unchanged jars aren't read again.
+ *
+ * @author ogolberg@vecna.com
+ */
+class EntityScanner {
+  /**
+   * Descriptors of the annotations that mark mapped classes.
+   */
+  private static final Set<String> ANNOTATIONS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList("Ljavax/persistence/Entity;", "Ljavax/persistence/Embeddable;",
+                    "Ljavax/persistence/MappedSuperclass;")));
+
+  /**
+   * Maximum number of class files from a class directory read by one task.
+   */
+  private static final int CHUNK_SIZE = 200;
+
+  /**
+   * Index cache file name suffix.
+   */
+  private static final String SUFFIX = ".classes";
+
+  /**
+   * Index cache encoding.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Package paths (e.g. <code>com/example/model/</code>).
+   */
+  private final List<String> packagePaths = new ArrayList<>();
+
+  /**
+   * Fingerprint of the packages (part of the index cache keys).
+   */
+  private final String packagesFingerprint;
+
+  /**
+   * Index cache directory.
+   */
+  private final File cacheDirectory;
+
+  /**
+   * Maximum number of threads.
+   */
+  private final int threads;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param packages names of the packages to scan.
+   * @param cacheDirectory index cache directory.
+   * @param threads maximum number of threads.
+   * @param log maven logger.
+   */
+  EntityScanner(String[] packages, File cacheDirectory, int threads, Log log) {
+    Fingerprint fingerprint = new Fingerprint();
+    for (String name : new TreeSet<>(Arrays.asList(packages))) {
+      String path = name.trim().replace('.', '/');
+      packagePaths.add(path.isEmpty() || path.endsWith("/") ? path : path + "/");
+      fingerprint.add("package", path);
+    }
+    this.packagesFingerprint = fingerprint.toHex();
+    this.cacheDirectory = cacheDirectory;
+    this.threads = threads;
+    this.log = log;
+  }
+
+  /**
+   * @param path class file path (with '/' separators).
+   * @return whether the class file belongs to one of the scanned packages.
+   */
+  private boolean isScanned(String path) {
+    if (!path.endsWith(".class") || path.endsWith("module-info.class") || path.endsWith("package-info.class")) {
+      return false;
+    }
+    for (String packagePath : packagePaths) {
+      if (path.startsWith(packagePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param in class file contents.
+   * @param source where the class file is (for error messages).
+   * @param classNames collects the name of the class if it's mapped.
+   */
+  private void read(InputStream in, String source, List<String> classNames) {
+    try {
+      String className = ClassFileAnnotations.getAnnotatedClassName(new BufferedInputStream(in), ANNOTATIONS);
+      if (className != null) {
+        classNames.add(className);
+      }
+    } catch (IOException e) {
+      log.warn("couldn't read " + source + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Collect the scanned class files under a directory.
+   * @param dir directory.
+   * @param prefix path of the directory relative to the root.
+   * @param files collects the class files.
+   */
+  private void collect(File dir, String prefix, List<File> files) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      String path = prefix + child.getName();
+      if (child.isDirectory()) {
+        collect(child, path + "/", files);
+      } else if (isScanned(path)) {
+        files.add(child);
+      }
+    }
+  }
+
+  /**
+   * @param jar a jar.
+   * @param used collects the index cache files in use.
+   * @param cacheHits counts the jars whose index was cached.
+   * @return the mapped classes in the jar.
+   * @throws IOException if the jar cannot be read.
+   */
+  private List<String> scanJar(File jar, Set<File> used, AtomicInteger cacheHits) throws IOException {
+    String key = new Fingerprint().add("packages", packagesFingerprint)
+        .addContent("jar", jar.toURI().toURL()).toHex();
+    File index = new File(cacheDirectory, key + SUFFIX);
+    synchronized (used) {
+      used.add(index);
+    }
+
+    if (index.isFile()) {
+      cacheHits.incrementAndGet();
+      List<String> classNames = new ArrayList<>();
+      for (String line : FileUtils.fileRead(index, UTF8.name()).split("\n")) {
+        if (!line.isEmpty()) {
+          classNames.add(line);
+        }
+      }
+      return classNames;
+    }
+
+    List<String> classNames = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(jar)) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        if (!entry.isDirectory() && isScanned(entry.getName())) {
+          try (InputStream in = zip.getInputStream(entry)) {
+            read(in, jar + "!" + entry.getName(), classNames);
+          }
+        }
+      }
+    }
+
+    StringBuilder content = new StringBuilder();
+    for (String className : classNames) {
+      content.append(className).append('\n');
+    }
+    File tmp = new File(cacheDirectory, key + "." + Thread.currentThread().getId() + ".tmp");
+    try {
+      FileUtils.forceMkdir(cacheDirectory);
+      FileUtils.fileWrite(tmp, UTF8.name(), content.toString());
+      if (!tmp.renameTo(index)) {
+        FileUtils.rename(tmp, index);
+      }
+    } catch (IOException e) {
+      log.warn("couldn't write the entity index " + index + ": " + e);
+      tmp.delete();
+    }
+    return classNames;
+  }
+
+  /**
+   * Find the mapped classes.
+   * @param classesDir class directory (may be null or missing).
+   * @param jars jars (other files are ignored).
+   * @return names of the mapped classes, sorted.
+   * @throws MojoExecutionException if a jar cannot be read.
+   */
+  List<String> scan(File classesDir, List<File> jars) throws MojoExecutionException {
+    long start = System.currentTimeMillis();
+    List<Callable<List<String>>> tasks = new ArrayList<>();
+
+    List<File> classFiles = new ArrayList<>();
+    if (classesDir != null && classesDir.isDirectory()) {
+      collect(classesDir, "", classFiles);
+    }
+    for (int i = 0; i < classFiles.size(); i += CHUNK_SIZE) {
+      final List<File> chunk = classFiles.subList(i, Math.min(classFiles.size(), i + CHUNK_SIZE));
+      tasks.add(new Callable<List<String>>() {
+        @Override
+        public List<String> call() throws IOException {
+          List<String> classNames = new ArrayList<>();
+          for (File file : chunk) {
+            try (InputStream in = new FileInputStream(file)) {
+              read(in, file.getPath(), classNames);
+            }
+          }
+          return classNames;
+        }
+      });
+    }
+
+    final Set<File> used = new HashSet<>();
+    final AtomicInteger cacheHits = new AtomicInteger();
+    int jarCount = 0;
+    for (final File jar : jars) {
+      if (jar != null && jar.isFile() && jar.getName().endsWith(".jar")) {
+        jarCount++;
+        tasks.add(new Callable<List<String>>() {
+          @Override
+          public List<String> call() throws IOException {
+            return scanJar(jar, used, cacheHits);
+          }
+        });
+      }
+    }
+
+    Set<String> classNames = new TreeSet<>();
+    for (List<String> result : ParallelTasks.invokeAll("entity scan", threads, tasks)) {
+      classNames.addAll(result);
+    }
+
+    File[] entries = cacheDirectory.listFiles();
+    if (entries != null) {
+      for (File entry : entries) {
+        if (entry.getName().endsWith(SUFFIX) && !used.contains(entry)) {
+          entry.delete();
+        }
+      }
+    }
+
+    log.info("found " + classNames.size() + " mapped classes in " + classFiles.size() + " class files and " + jarCount
+             + " jars (" + cacheHits.get() + " indexed) in " + (System.currentTimeMillis() - start) + " ms");
+    return new ArrayList<>(classNames);
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Accumulates a SHA-1 digest, e.g. over everything that goes into building the mapping metadata.
+ * Every entry is labeled, so that moving a value from one parameter to another changes the fingerprint.
+ *
+ * @author ogolberg@vecna.com
+ */
+class Fingerprint {
+  /**
+   * Charset for hashing strings.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Hex digits.
+   */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * The digest.
+   */
+  private final MessageDigest digest;
+
+  /**
+   * Create a new, empty fingerprint.
+   */
+  Fingerprint() {
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    }
+  }
+
+  /**
+   * Add a labeled string.
+   * @param label what the value is.
+   * @param value the value (may be null).
+   * @return this fingerprint.
+   */
+  Fingerprint add(String label, String value) {
+    update(label);
+    update(value == null ? "<null>" : value);
+    return this;
+  }
+
+  /**
+   * Add the contents of a resource.
+   * @param label what the resource is.
+   * @param url the resource.
+   * @return this fingerprint.
+   * @throws IOException if the resource cannot be read.
+   */
+  Fingerprint addContent(String label, URL url) throws IOException {
+    update(label);
+    try (InputStream in = url.openStream()) {
+      update(in);
+    }
+    return this;
+  }
+
+  /**
+   * Add the contents of all files under a directory (recursively, in a stable order). Missing directories are recorded as such.
+   * @param label what the directory is.
+   * @param dir the directory.
+   * @return this fingerprint.
+   * @throws IOException if a file cannot be read.
+   */
+  Fingerprint addTree(String label, File dir) throws IOException {
+    update(label);
+    if (dir == null || !dir.isDirectory()) {
+      update("<missing>");
+    } else {
+      addTree(dir, "");
+    }
+    return this;
+  }
+
+  /**
+   * Add the path, size and modification time of a file. Cheaper than hashing the content for large archives.
+   * @param label what the file is.
+   * @param file the file (may be null).
+   * @return this fingerprint.
+   */
+  Fingerprint addStamp(String label, File file) {
+    update(label);
+    if (file == null) {
+      update("<null>");
+    } else {
+      update(file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified());
+    }
+    return this;
+  }
+
+  /**
+   * @return the fingerprint as a hex string.
+   */
+  String toHex() {
+    byte[] bytes = digest.digest();
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Hash a directory tree.
+   * @param dir current directory.
+   * @param prefix relative path of the current directory.
+   * @throws IOException if a file cannot be read.
+   */
+  private void addTree(File dir, String prefix) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      String path = prefix + file.getName();
+      if (file.isDirectory()) {
+        addTree(file, path + "/");
+      } else {
+        update(path);
+        try (InputStream in = new FileInputStream(file)) {
+          update(in);
+        }
+      }
+    }
+  }
+
+  /**
+   * Hash a string, terminated so that adjacent strings can't run into each other.
+   * @param value the string.
+   */
+  private void update(String value) {
+    digest.update(value.getBytes(UTF8));
+    digest.update((byte) 0);
+  }
+
+  /**
+   * Hash a stream.
+   * @param in the stream.
+   * @throws IOException if the stream cannot be read.
+   */
+  private void update(InputStream in) throws IOException {
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      digest.update(buffer, 0, read);
+    }
+    digest.update((byte) 0);
+  }
+}
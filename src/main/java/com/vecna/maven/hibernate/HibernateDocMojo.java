@@ -18,11 +18,7 @@ package com.vecna.maven.hibernate;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Member;
-import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -32,23 +28,9 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.codehaus.plexus.util.FileUtils;
 import org.hibernate.cfg.Configuration;
-import org.hibernate.mapping.Collection;
-import org.hibernate.mapping.Column;
-import org.hibernate.mapping.Component;
-import org.hibernate.mapping.PersistentClass;
-import org.hibernate.mapping.Property;
-import org.hibernate.mapping.SimpleValue;
-import org.hibernate.mapping.Table;
-import org.hibernate.mapping.Value;
-import org.hibernate.property.Getter;
 import org.hibernate.tool.hbm2x.DocExporter;
 
 import com.thoughtworks.qdox.JavaDocBuilder;
-import com.thoughtworks.qdox.model.DocletTag;
-import com.thoughtworks.qdox.model.JavaClass;
-import com.thoughtworks.qdox.model.JavaField;
-import com.thoughtworks.qdox.model.JavaMethod;
-import com.thoughtworks.qdox.model.Type;
 
 /**
  * Generates schema documentation. This plugin enhances the Hibernate model with documentation extracted from the javadocs
@@ -79,218 +61,124 @@ public class HibernateDocMojo extends HibernateSchemaMojo {
   private String encryptedTypeRegex;
 
   /**
-   * @return build javadocs from the source locations
+   * Parse only the source files that define mapped classes, embedded component classes and their superclasses
+   * (in parallel), instead of every source file under <code>sourceDirs</code>.
    */
-  private JavaDocBuilder findJavadocs() {
-    JavaDocBuilder builder = new JavaDocBuilder();
-    for (File sourceDir : sourceDirs) {
-      if (!sourceDir.exists() || !sourceDir.isDirectory()) {
-        getLog().error("Invalid source directory: " + sourceDir);
-      } else {
-        builder.addSourceTree(sourceDir);
-      }
-    }
-    return builder;
-  }
+  @Parameter
+  private boolean targetedJavadocs;
 
   /**
-   * @return javadoc types from java types (for looking up method javadocs by signature)
-   * @param classes java types
+   * Number of threads used by the doc goal (for parsing sources and rendering pages).
    */
-  private Type[] getJavaDocTypes(Class<?>[] classes) {
-    com.thoughtworks.qdox.model.Type[] types = new com.thoughtworks.qdox.model.Type[classes.length];
-    for (int i = 0; i < types.length; i++) {
-      types[i] = new com.thoughtworks.qdox.model.Type(classes[i].getName());
-    }
-    return types;
-  }
+  @Parameter
+  private int docThreads = Runtime.getRuntime().availableProcessors();
 
   /**
-   * @return javadocs for a simple Hibernate property
-   * @param property hibernate property
-   * @param cls the class that owns the property
-   * @param javaClass javadoc model for the class
+   * Only re-render the pages of tables and entities that changed since the last run, only rewrite other pages if their
+   * content changed, and delete the pages of removed tables and entities.
    */
-  private String getSimpleValueJavadoc(Property property, Class<?> cls, JavaClass javaClass) {
-    Getter getter = property.getGetter(cls);
-
-    Member member = getter.getMember();
-
-    if (member instanceof Field) {
-      JavaField field = javaClass.getFieldByName(member.getName());
-      if (field != null) {
-        return field.getComment();
-      }
-    } else if (member instanceof Method) {
-      Method method = (Method) member;
-      Type[] types = getJavaDocTypes(method.getParameterTypes());
-      JavaMethod javaMethod = javaClass.getMethodBySignature(method.getName(), types, true);
-      if (javaMethod == null) {
-        getLog().warn("can't find java method docs for " + javaClass.getName()
-                      + " . " + method.getName() + " " + Arrays.asList(types));
-      } else {
-        DocletTag tag = javaMethod.getTagByName("return", true);
-
-        if (tag != null && tag.getValue() != null) {
-          return tag.getValue();
-        }
-      }
-    }
-
-    return null;
-  }
+  @Parameter
+  private boolean incrementalDocs;
 
   /**
-   * set a comment on Hibernate columns.
-   * @param comment the comment to set.
-   * @param columnIterator hibernate column iterator.
+   * Keep a persistent index of the javadoc comments and only re-parse source files that changed since the last run.
    */
-  private void setComment(String comment, Iterator<Column> columnIterator) {
-    while (columnIterator.hasNext()) {
-      Column column = columnIterator.next();
-      if (encryptedTypeRegex != null && column.getValue() instanceof SimpleValue) {
-        String typeName = ((SimpleValue) column.getValue()).getTypeName();
-        if (typeName != null && typeName.matches(encryptedTypeRegex)) {
-          comment += " [encrypted]";
-        }
-      }
-      column.setComment(comment);
-    }
-  }
+  @Parameter
+  private boolean cacheJavadocs;
 
   /**
-   * set a comment on Hibernate columns mapped to a property
-   * @param comment the comment to set
-   * @param prop hibernate property
+   * Location of the persistent javadoc index.
    */
-  private void setComment(String comment, Property prop) {
-    @SuppressWarnings("unchecked") Iterator<Column> columnIterator = prop.getColumnIterator();
-    setComment(comment, columnIterator);
-  }
+  @Parameter(defaultValue = "${project.build.directory}/hibernate-schema-cache/javadoc-index.ser.gz")
+  private File javadocIndexFile;
 
   /**
-   * concatenate javadoc comments for nested properties
-   * @param comment the comment to add to the javadoc
-   * @param accumulatedJavadoc the comment for the parent property
-   * @return combined comment
+   * Keep memory use bounded for very large schemas: keep only the comments the documentation uses (instead of the parsed
+   * sources), and render pages straight to disk instead of buffering them in memory.
    */
-  private String accumulateJavadoc(String comment, String accumulatedJavadoc) {
-    if (comment == null) {
-      comment = "???";
-    }
-
-    if (accumulatedJavadoc != null) {
-      comment = accumulatedJavadoc + " - " + comment;
-    }
-
-    return comment;
-  }
+  @Parameter
+  private boolean streamDocs;
 
   /**
-   * Populate Hibernate properties with comments from javadocs (including nested properties).
-   * @param propertyIterator iterator over top-level properties
-   * @param accumulatedJavadoc comments accumulated so far (for nested properties)
-   * @param cls the class to introspect.
-   * @param javaDocs javadocs for all classes.
+   * @return build javadocs from the source locations
+   * @param configuration hibernate configuration.
+   * @throws MojoExecutionException if the sources cannot be parsed.
    */
-  private void processProperties(Iterator<Property> propertyIterator, Class<?> cls,
-                                 JavaDocBuilder javaDocs, String accumulatedJavadoc) {
-    JavaClass javaClass = javaDocs.getClassByName(cls.getName());
-
-    if (javaClass != null) {
-    while (propertyIterator.hasNext()) {
-      Property prop = propertyIterator.next();
-
-      Value value = prop.getValue();
-
-      if (value instanceof Collection) {
-        Collection collection = (Collection) value;
-
-        Value elementValue = collection.getElement();
-
-        if (elementValue instanceof Component) {
-          processComponent((Component) elementValue, javaDocs, accumulatedJavadoc);
-        }
-
-        Table collectionTable = collection.getCollectionTable();
-
-        if (collectionTable.getComment() == null) {
-          collectionTable.setComment(getSimpleValueJavadoc(prop, cls, javaClass));
-        }
-      } else if (value instanceof Component) {
-        String comment = getSimpleValueJavadoc(prop, cls, javaClass);
-        comment = accumulateJavadoc(comment, accumulatedJavadoc);
-        processComponent((Component) value, javaDocs, comment);
-      } else if (value instanceof SimpleValue) {
-        String comment = getSimpleValueJavadoc(prop, cls, javaClass);
-        comment = accumulateJavadoc(comment, accumulatedJavadoc);
-        setComment(comment, prop);
+  private JavadocLookup findJavadocs(Configuration configuration) throws MojoExecutionException {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    JavadocScanner scanner = new JavadocScanner(sourceDirs, docThreads, getLog());
+
+    if (cacheJavadocs || streamDocs) {
+      List<File> sources = targetedJavadocs ? scanner.findSources(JavadocScanner.getDocumentedClasses(configuration))
+          : scanner.findAllSources();
+      JavadocIndex index = cacheJavadocs ? JavadocIndex.load(javadocIndexFile, getLog()) : JavadocIndex.empty(getLog());
+      index.update(sources, scanner, classLoader);
+      if (cacheJavadocs) {
+        index.save(javadocIndexFile);
       }
+      return index;
     }
 
+    if (targetedJavadocs) {
+      List<File> sources = scanner.findSources(JavadocScanner.getDocumentedClasses(configuration));
+      return scanner.parseLookup(sources, classLoader);
     }
-  }
 
-  /**
-   * Process a component (embedded property) and populate its properties (including nested ones) with javadoc comments.
-   * @param component component model
-   * @param javaDocs javadocs
-   * @param accumulatedJavadoc comments accumulated so far (for nested components)
-   */
-  private void processComponent(Component component, JavaDocBuilder javaDocs, String accumulatedJavadoc) {
-    @SuppressWarnings("unchecked") Iterator<Property> propertyIterator = component.getPropertyIterator();
-    processProperties(propertyIterator, component.getComponentClass(), javaDocs, accumulatedJavadoc);
-  }
-
-  /**
-   * Populate table/column comments in a Hibernate model from javadocs
-   * @param configuration hibernate configuration.
-   * @param javaDocs javadoc model for all classes.
-   */
-  private void populateCommentsFromJavadocs(Configuration configuration, JavaDocBuilder javaDocs) {
-    Iterator<PersistentClass> mappedClasses = configuration.getClassMappings();
-    while (mappedClasses.hasNext()) {
-      PersistentClass mappedClass = mappedClasses.next();
-
-      Table table = mappedClass.getTable();
-      JavaClass javaClass = javaDocs.getClassByName(mappedClass.getClassName());
-
-      if (javaClass != null) {
-        if (table != null) {
-          String comment = javaClass.getComment();
-
-          if (mappedClass.getDiscriminator() != null) {
-            String newComment = "Discriminator '" + mappedClass.getDiscriminatorValue() + "': " + comment;
-            if (table.getComment() != null) {
-              newComment = table.getComment() + "<br><br>" + newComment;
-            }
-            table.setComment(newComment);
-            @SuppressWarnings("unchecked")
-            Iterator<Column> discriminatorColumns = mappedClass.getDiscriminator().getColumnIterator();
-            setComment("discriminator - see table comment", discriminatorColumns);
-          } else {
-            table.setComment(comment);
-          }
-        }
-
-        @SuppressWarnings("unchecked") Iterator<Property> propertyIterator = mappedClass.getPropertyIterator();
-        processProperties(propertyIterator, mappedClass.getMappedClass(), javaDocs, null);
-      }
-
-      if (mappedClass.getIdentifierProperty() != null) {
-        setComment("Primary key", mappedClass.getIdentifierProperty());
+    JavaDocBuilder builder = new JavaDocBuilder();
+    for (File sourceDir : sourceDirs) {
+      if (!sourceDir.exists() || !sourceDir.isDirectory()) {
+        getLog().error("Invalid source directory: " + sourceDir);
+      } else {
+        builder.addSourceTree(sourceDir);
       }
     }
+    return QdoxJavadocLookup.fromBuilder(builder);
   }
 
   @Override
   protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
-    populateCommentsFromJavadocs(configuration, findJavadocs());
+    JavadocLookup javadocs;
+    BuildMetrics.Phase javadocPhase = getMetrics().start("goal.javadoc");
+    try {
+      javadocs = findJavadocs(configuration);
+    } finally {
+      javadocPhase.close();
+    }
+    BuildMetrics.Phase commentsPhase = getMetrics().start("goal.comments");
+    try {
+      new JavadocCommentResolver(javadocs, encryptedTypeRegex, getLog()).populate(configuration);
+    } finally {
+      commentsPhase.close();
+    }
+    BuildMetrics.Phase renderPhase = getMetrics().start("goal.render");
+    try {
+      renderDocs(configuration, outputDir, docThreads, incrementalDocs, streamDocs);
+    } finally {
+      renderPhase.close();
+    }
+  }
+
+  /**
+   * Render the documentation pages.
+   * @param configuration hibernate configuration (with comments).
+   * @param outputDir output directory.
+   * @param threads number of rendering threads.
+   * @param incremental whether to only re-render the pages of changed tables and entities.
+   * @param streaming whether to render pages straight to disk instead of buffering them in memory.
+   * @throws MojoExecutionException if the output directory cannot be created.
+   */
+  static void renderDocs(Configuration configuration, File outputDir, int threads, boolean incremental,
+                         boolean streaming) throws MojoExecutionException {
     try {
       FileUtils.forceMkdir(outputDir);
     } catch (IOException e) {
       throw new MojoExecutionException("cannot create output directory " + outputDir, e);
     }
-    new DocExporter(configuration, outputDir).start();
+    if (incremental || streaming || threads > 1) {
+      DocPageState state = incremental ? DocPageState.load(outputDir) : null;
+      new ParallelDocExporter(configuration, outputDir, threads, state, streaming).start();
+    } else {
+      new DocExporter(configuration, outputDir).start();
+    }
   }
 }
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.mapping.Table;
+
+import com.vecna.maven.hibernate.IndexAdvisor.Finding;
+import com.vecna.maven.hibernate.SchemaModel.KeyModel;
+
+/**
+ * Reports foreign keys without a covering index, and optionally writes the DDL that creates the missing indexes.
+ *
+ * @author ogolberg@vecna.com
+ */
+@Mojo(name = "advise",
+      defaultPhase = LifecyclePhase.COMPILE,
+      requiresDependencyResolution = ResolutionScope.RUNTIME,
+      threadSafe = true)
+public class HibernateSchemaAdviseMojo extends HibernateSchemaMojo {
+  /**
+   * File to write the statements that create the missing indexes to (none are written if not set).
+   */
+  @Parameter
+  private File indexScriptFile;
+
+  /**
+   * The delimiter to use for the index statements.
+   */
+  @Parameter
+  private String delimiter = ";";
+
+  /**
+   * Whether to consult the live DB (for existing indexes and row counts). If the DB cannot be reached, only the
+   * mappings are considered.
+   */
+  @Parameter
+  private boolean useDatabase = true;
+
+  /**
+   * The mappings are only read.
+   * {@inheritDoc}
+   */
+  @Override
+  protected boolean modifiesMappings() {
+    return false;
+  }
+
+  /**
+   * Reports foreign keys without covering indexes.
+   * {@inheritDoc}
+   */
+  @Override
+  protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+    IndexAdvisor advisor = new IndexAdvisor(configuration, dialect);
+
+    List<Finding> findings = null;
+    if (useDatabase) {
+      try (Connection connection = newConnectionSource(configuration).open()) {
+        String catalog = configuration.getProperty(Environment.DEFAULT_CATALOG);
+        Set<String> schemas = new LinkedHashSet<>();
+        Set<String> tableNames = new LinkedHashSet<>();
+        Iterator<?> tables = configuration.getTableMappings();
+        while (tables.hasNext()) {
+          Table table = (Table) tables.next();
+          schemas.add(table.getSchema() == null ? configuration.getProperty(Environment.DEFAULT_SCHEMA)
+              : table.getSchema());
+          tableNames.add(table.getName());
+        }
+        SchemaModel live = SchemaModel.fromMetadata(connection.getMetaData(), catalog, schemas, tableNames, dialect);
+        findings = advisor.advise(live, new RowCountEstimator(connection.getMetaData(), catalog, getLog()));
+      } catch (SQLException e) {
+        getLog().warn("couldn't read the live schema, only the mappings are considered: " + e.getMessage());
+      }
+    }
+    if (findings == null) {
+      findings = advisor.advise(null, null);
+    }
+
+    for (Finding finding : findings) {
+      KeyModel key = finding.getForeignKey();
+      getLog().warn("foreign key " + key.getName() + " on " + finding.getTable() + key.getColumns() + " referencing "
+                    + key.getReferencedTable() + " has no covering index"
+                    + (finding.getRows() == null ? "" : " (~" + finding.getRows() + " rows)"));
+    }
+    getLog().info(findings.size() + " foreign keys without a covering index");
+
+    if (indexScriptFile != null) {
+      try {
+        FileUtils.forceMkdir(indexScriptFile.getAbsoluteFile().getParentFile());
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(indexScriptFile), "UTF-8")) {
+          for (Finding finding : findings) {
+            out.write(finding.getCreateSql() + (delimiter == null ? "" : delimiter) + System.lineSeparator());
+          }
+        }
+      } catch (IOException e) {
+        throw new MojoExecutionException("couldn't write " + indexScriptFile, e);
+      }
+    }
+  }
+}
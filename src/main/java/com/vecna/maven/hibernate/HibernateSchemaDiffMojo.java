@@ -0,0 +1,187 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+
+import com.vecna.maven.hibernate.DdlPreflight.Failure;
+
+/**
+ * Generates the migration script from a previous release of the project to the current one without a database: the
+ * mappings of the previous release's jar (from the local repository) and the current mappings are compared in memory.
+ *
+ * <p>The previous mappings are built the same way as the current ones, with the previous jar loaded ahead of the
+ * project classes in a separate classloader, so that the previous versions of the mapped classes and of the classpath
+ * resources (e.g. configuration files and hbm.xml mappings) are used. Filesystem resources, properties and the
+ * dependencies are those of the current project. Like <code>diffUpdate</code>, the migration leaves tables and columns
+ * that are no longer mapped alone.</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+@Mojo(name = "diff",
+      defaultPhase = LifecyclePhase.COMPILE,
+      requiresDependencyResolution = ResolutionScope.RUNTIME,
+      threadSafe = true)
+public class HibernateSchemaDiffMojo extends HibernateSchemaOutputMojo {
+  /**
+   * Group id of the previous release.
+   */
+  @Parameter(defaultValue = "${project.groupId}")
+  private String previousGroupId;
+
+  /**
+   * Artifact id of the previous release.
+   */
+  @Parameter(defaultValue = "${project.artifactId}")
+  private String previousArtifactId;
+
+  /**
+   * Version of the previous release. Its jar is looked up under the local repository in the default layout; it's not
+   * resolved from remote repositories (set <code>previousArtifact</code> otherwise).
+   */
+  @Parameter
+  private String previousVersion;
+
+  /**
+   * Jar of the previous release (overrides <code>previousGroupId</code>, <code>previousArtifactId</code> and
+   * <code>previousVersion</code>). Use it for releases that aren't in the local repository or for repositories that
+   * don't use the default layout.
+   */
+  @Parameter
+  private File previousArtifact;
+
+  /**
+   * Local repository. Internal.
+   */
+  @Parameter(defaultValue = "${settings.localRepository}", readonly = true)
+  private File localRepository;
+
+  /**
+   * Table rename hints (old name to new name): when a mapped table wasn't mapped by the previous release but a table
+   * with the old name was, the old table is renamed and migrated instead of creating a new one.
+   */
+  @Parameter
+  private Map<String, String> tableRenames = new HashMap<>();
+
+  /**
+   * Drop the indexes and unique keys that the previous release mapped but the current one doesn't (indexes the foreign
+   * keys start with are kept). By default they are left alone, like tables and columns that are no longer mapped.
+   */
+  @Parameter
+  private boolean dropUnmappedIndexes;
+
+  /**
+   * Generates the migration script.
+   * {@inheritDoc}
+   */
+  @Override
+  protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
+    File jar = getPreviousArtifact();
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+
+    SchemaModel previous;
+    BuildMetrics.Phase previousPhase = getMetrics().start("goal.previous");
+    try {
+      previous = readPreviousSchema(jar, dialect);
+    } finally {
+      previousPhase.close();
+    }
+    getLog().info("read " + previous.getTables().size() + " tables from " + jar);
+
+    SchemaDiff diff = new SchemaDiff(configuration, dialect, dropUnmappedIndexes);
+    List<String> statements = new ArrayList<>();
+    BuildMetrics.Phase diffPhase = getMetrics().start("goal.diff");
+    try {
+      for (Map.Entry<SchemaDiff.Step, List<String>> step : diff.diff(previous, tableRenames).entrySet()) {
+        getLog().info(step.getKey() + ": " + step.getValue().size() + " statements");
+        statements.addAll(step.getValue());
+      }
+    } finally {
+      diffPhase.close();
+    }
+    for (String warning : diff.getWarnings()) {
+      getLog().warn(warning);
+    }
+
+    Future<List<Failure>> check = preflight ? startPreflight(configuration, dialect, statements, 0, true) : null;
+    writeScript(statements);
+    if (check != null) {
+      awaitPreflight(check, statements);
+    }
+  }
+
+  /**
+   * @return the jar of the previous release.
+   * @throws MojoExecutionException if the previous release isn't set or its jar doesn't exist.
+   */
+  private File getPreviousArtifact() throws MojoExecutionException {
+    File jar = previousArtifact;
+    if (jar == null) {
+      if (previousVersion == null) {
+        throw new MojoExecutionException("previousVersion or previousArtifact must be set");
+      }
+      jar = new File(localRepository, previousGroupId.replace('.', '/') + "/" + previousArtifactId + "/"
+                     + previousVersion + "/" + previousArtifactId + "-" + previousVersion + ".jar");
+    }
+    if (!jar.isFile()) {
+      throw new MojoExecutionException(jar + " doesn't exist (resolve the previous release into the local repository "
+                                       + "first, e.g. with dependency:get, or set previousArtifact to its jar)");
+    }
+    return jar;
+  }
+
+  /**
+   * Build the mappings of the previous release in a classloader of their own and read the schema they define.
+   * @param jar jar of the previous release.
+   * @param dialect SQL dialect.
+   * @return the schema of the previous release.
+   * @throws MojoExecutionException if the mappings cannot be built.
+   */
+  private SchemaModel readPreviousSchema(File jar, Dialect dialect) throws MojoExecutionException {
+    Thread thread = Thread.currentThread();
+    ClassLoader projectClassLoader = thread.getContextClassLoader();
+    try (ChildFirstClassLoader classLoader = new ChildFirstClassLoader(new URL[] {jar.toURI().toURL()},
+                                                                       projectClassLoader)) {
+      thread.setContextClassLoader(classLoader);
+      try {
+        Configuration mappings = createMappings(jar);
+        return SchemaModel.fromConfiguration(mappings, dialect, mappings.buildMapping());
+      } finally {
+        thread.setContextClassLoader(projectClassLoader);
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't load " + jar, e);
+    }
+  }
+}
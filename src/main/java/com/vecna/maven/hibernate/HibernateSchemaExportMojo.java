@@ -16,6 +16,19 @@
 
 package com.vecna.maven.hibernate;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -23,8 +36,14 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.mapping.Table;
 import org.hibernate.tool.hbm2ddl.SchemaExport;
 
+import com.vecna.maven.hibernate.DdlPreflight.Failure;
+import com.vecna.maven.hibernate.ParallelDdlExecutor.DdlError;
+
 /**
  * Exports Hibernate schema to a file or live DB.
  *
@@ -41,13 +60,52 @@ public class HibernateSchemaExportMojo extends HibernateSchemaOutputMojo {
   @Parameter
   private boolean drop = true;
 
+  /**
+   * Number of connections to execute the DDL over when modifying the live DB. With more than one, independent statements
+   * (e.g. the creation of different tables, or of different foreign keys) run concurrently and in batches.
+   */
+  @Parameter
+  private int ddlThreads = 1;
+
+  /**
+   * Record a hash of the schema DDL in a marker table in the live DB, and skip dropping and re-creating the schema when
+   * the recorded hash matches.
+   */
+  @Parameter
+  private boolean skipUnchangedSchema;
+
+  /**
+   * Name of the marker table for <code>skipUnchangedSchema</code>.
+   */
+  @Parameter
+  private String schemaMarkerTable = "hibernate_schema_marker";
+
+  /**
+   * When the schema is unchanged (see <code>skipUnchangedSchema</code>), delete all data from the mapped tables instead
+   * of leaving it in place, and execute the import files again.
+   */
+  @Parameter
+  private boolean truncateUnchangedSchema;
+
+  /**
+   * Additional dialects to generate the schema script for, each with its own output file. The scripts are generated
+   * from the same mappings, in parallel, without connecting to a database; <code>drop</code>, <code>format</code> and
+   * <code>delimiter</code> apply to them as well.
+   */
+  @Parameter
+  private DialectOutput[] dialectOutputs;
+
   /**
    * Exports the schema.
    * {@inheritDoc}
    */
   @Override
   protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
-    SchemaExport schemaExport = new SchemaExport(configuration);
+    if (dialectOutputs != null && dialectOutputs.length > 0) {
+      generateDialectOutputs(configuration);
+    }
+
+    SchemaExport schemaExport = new SchemaExport(configuration, getCountingProperties(configuration));
     schemaExport.setFormat(format);
 
     if (outputFile != null) {
@@ -56,6 +114,232 @@ public class HibernateSchemaExportMojo extends HibernateSchemaOutputMojo {
       schemaExport.setDelimiter(delimiter);
     }
 
-    schemaExport.execute(print, export, false, !drop);
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+    List<String> script = generateScript(configuration, dialect);
+    getMetrics().count("statements", script.size());
+    if (isLockReportEnabled()) {
+      reportLocks(configuration, dialect, script);
+    }
+
+    boolean printScript = print;
+    if (preflight) {
+      int first = drop ? configuration.generateDropSchemaScript(dialect).length : 0;
+      Future<List<Failure>> check = startPreflight(configuration, dialect, script, first, false);
+      schemaExport.execute(print, false, false, !drop);
+      awaitPreflight(check, script);
+      if (!export) {
+        return;
+      }
+      // the script is already written and printed
+      schemaExport = new SchemaExport(configuration, getCountingProperties(configuration));
+      schemaExport.setFormat(format);
+      printScript = false;
+    }
+
+    String hash = null;
+    if (export && skipUnchangedSchema) {
+      hash = SchemaMarker.hash(dialect, configuration.generateSchemaCreationScript(dialect));
+      if (skipUnchanged(configuration, dialect, hash)) {
+        schemaExport.execute(printScript, false, false, !drop);
+        return;
+      }
+    }
+
+    boolean success;
+    if (export && ddlThreads > 1) {
+      schemaExport.execute(printScript, false, false, !drop);
+      success = executeInParallel(configuration, dialect);
+    } else if (hash != null) {
+      schemaExport.execute(printScript, false, false, !drop);
+      success = executeSerially(configuration);
+    } else {
+      schemaExport.execute(printScript, export, false, !drop);
+      success = schemaExport.getExceptions().isEmpty();
+    }
+
+    if (hash != null) {
+      if (success) {
+        try (Connection connection = getConnectionSource(configuration).open()) {
+          new SchemaMarker(schemaMarkerTable, dialect, getLog()).write(connection, hash);
+        } catch (SQLException e) {
+          getLog().warn("couldn't record the schema hash: " + e.getMessage());
+        }
+      } else {
+        getLog().warn("not recording the schema hash because the export failed");
+      }
+    }
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return opens connections to the live DB.
+   * @throws MojoExecutionException if the connection settings are invalid.
+   */
+  private JdbcConnectionSource getConnectionSource(Configuration configuration) throws MojoExecutionException {
+    try {
+      return newConnectionSource(configuration);
+    } catch (SQLException e) {
+      throw new MojoExecutionException("invalid connection settings", e);
+    }
+  }
+
+  /**
+   * Execute the drop (if enabled) and create scripts on the live DB with {@link SchemaExport}, separately, so that the
+   * drop failures expected when the schema doesn't exist yet don't count as failures.
+   * @param configuration hibernate configuration.
+   * @return whether all create and import statements succeeded.
+   */
+  private boolean executeSerially(Configuration configuration) {
+    if (drop) {
+      new SchemaExport(configuration, getCountingProperties(configuration)).execute(false, true, true, false);
+    }
+    SchemaExport create = new SchemaExport(configuration, getCountingProperties(configuration));
+    create.execute(false, true, false, true);
+    return create.getExceptions().isEmpty();
+  }
+
+  /**
+   * Compare the schema hash to the one recorded in the live DB; if they match, delete the data (if enabled) and
+   * re-execute the import files.
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   * @param hash schema hash.
+   * @return whether the schema is unchanged (and drop/create should be skipped).
+   * @throws MojoExecutionException if the DB cannot be accessed.
+   */
+  private boolean skipUnchanged(Configuration configuration, Dialect dialect, String hash)
+      throws MojoExecutionException {
+    try (Connection connection = getConnectionSource(configuration).open()) {
+      String recorded = new SchemaMarker(schemaMarkerTable, dialect, getLog()).read(connection);
+      if (!hash.equals(recorded)) {
+        getLog().info("schema hash " + hash + " doesn't match the database (" + recorded + "), exporting the schema");
+        return false;
+      }
+
+      getLog().info("schema hash " + hash + " matches the database, skipping drop/create"
+                    + (truncateUnchangedSchema ? " and deleting all data" : ""));
+      if (truncateUnchangedSchema) {
+        String defaultCatalog = configuration.getProperty(Environment.DEFAULT_CATALOG);
+        String defaultSchema = configuration.getProperty(Environment.DEFAULT_SCHEMA);
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+          for (Table table : TableOrder.referencingFirst(configuration)) {
+            statement.executeUpdate("delete from " + table.getQualifiedName(dialect, defaultCatalog, defaultSchema));
+          }
+          connection.commit();
+        } catch (SQLException e) {
+          connection.rollback();
+          throw e;
+        }
+        connection.setAutoCommit(true);
+        if (!new ImportFiles(configuration.getProperties(), getLog()).execute(connection)) {
+          throw new MojoExecutionException("couldn't re-execute the import files after deleting all data");
+        }
+      }
+      return true;
+    } catch (SQLException e) {
+      throw new MojoExecutionException("couldn't check or reset the unchanged schema", e);
+    }
+  }
+
+  /**
+   * Execute the drop (if enabled) and create scripts on the live DB over multiple connections, then execute the import
+   * files (like {@link SchemaExport} does).
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   * @return whether all create and import statements succeeded.
+   * @throws MojoExecutionException if the DDL cannot be executed.
+   */
+  private boolean executeInParallel(Configuration configuration, Dialect dialect) throws MojoExecutionException {
+    String[] dropScript = drop ? configuration.generateDropSchemaScript(dialect) : new String[0];
+    String[] createScript = configuration.generateSchemaCreationScript(dialect);
+
+    List<DdlStatement> statements = DdlStatement.classify(dropScript, createScript);
+    JdbcConnectionSource connectionSource = getConnectionSource(configuration);
+    List<DdlError> errors = new ParallelDdlExecutor(connectionSource, ddlThreads, getLog()).execute(statements);
+    boolean success = true;
+    for (DdlError error : errors) {
+      if (!error.getStatement().getPhase().isDrop()) {
+        success = false;
+      }
+    }
+
+    return executeImportFiles(configuration, connectionSource) && success;
+  }
+
+  /**
+   * Execute the import files of the schema.
+   * @param configuration hibernate configuration.
+   * @param connectionSource opens connections to the live DB.
+   * @return whether all import statements succeeded.
+   * @throws MojoExecutionException if the import files cannot be read or the DB cannot be accessed.
+   */
+  private boolean executeImportFiles(Configuration configuration, JdbcConnectionSource connectionSource)
+      throws MojoExecutionException {
+    ImportFiles importFiles = new ImportFiles(configuration.getProperties(), getLog());
+    try (Connection connection = connectionSource.open()) {
+      connection.setAutoCommit(true);
+      return importFiles.execute(connection);
+    } catch (SQLException e) {
+      throw new MojoExecutionException("couldn't execute the import files", e);
+    }
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   * @return the drop (if enabled) and create statements for the dialect.
+   */
+  private List<String> generateScript(Configuration configuration, Dialect dialect) {
+    List<String> statements = new ArrayList<>();
+    if (drop) {
+      statements.addAll(Arrays.asList(configuration.generateDropSchemaScript(dialect)));
+    }
+    statements.addAll(Arrays.asList(configuration.generateSchemaCreationScript(dialect)));
+    return statements;
+  }
+
+  /**
+   * Generate and write the scripts of the additional dialects in parallel. Script generation completes the mappings
+   * (which isn't thread-safe), so each script is generated from its own copy of the mappings, deserialized from a
+   * single serialized form.
+   * @param configuration hibernate configuration.
+   * @throws MojoExecutionException if the mappings cannot be copied, a dialect cannot be instantiated or a script
+   *         cannot be written.
+   */
+  private void generateDialectOutputs(Configuration configuration) throws MojoExecutionException {
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    try {
+      ConfigurationSerializer.write(configuration, serialized);
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't copy the mappings for the dialect scripts", e);
+    }
+    final byte[] mappings = serialized.toByteArray();
+    final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (final DialectOutput output : dialectOutputs) {
+      if (output.getDialect() == null || output.getOutputFile() == null) {
+        throw new MojoExecutionException("dialectOutputs entries must have a dialect and an outputFile");
+      }
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws MojoExecutionException, IOException, ClassNotFoundException {
+          long start = System.currentTimeMillis();
+          Configuration copy = ConfigurationSerializer.read(new ByteArrayInputStream(mappings), classLoader);
+          Properties properties = new Properties();
+          properties.putAll(copy.getProperties());
+          properties.setProperty(Environment.DIALECT, output.getDialect());
+          Dialect dialect = Dialect.getDialect(properties);
+
+          writeFile(output.getOutputFile(), toScript(generateScript(copy, dialect)));
+          getLog().info("generated the " + output.getDialect() + " script " + output.getOutputFile() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+          return null;
+        }
+      });
+    }
+
+    ParallelTasks.invokeAll("dialect script generation", tasks.size(), tasks);
   }
 }
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
+import com.vecna.dbDiff.hibernate.HibernateSchemaValidator;
+import com.vecna.dbDiff.model.relationalDb.InconsistentSchemaException;
+
+/**
+ * Base Mojo for goals that compare Hibernate mappings to the live schema metadata (validation and schema snapshots).
+ * @author ogolberg@vecna.com
+ */
+public abstract class HibernateSchemaMetadataMojo extends HibernateSchemaMojo {
+  /**
+   * Number of connections to read the live schema metadata over. With more than one, the metadata of all mapped tables
+   * is prefetched in parallel before validating.
+   */
+  @Parameter
+  protected int metadataConnections = 1;
+
+  /**
+   * When prefetching metadata, read the columns of each schema with a single catalog query instead of one query per
+   * table.
+   */
+  @Parameter
+  protected boolean bulkMetadata = true;
+
+  /**
+   * Schema snapshot file (see the <code>snapshot</code> goal).
+   */
+  @Parameter
+  protected File snapshotFile;
+
+  /**
+   * Maximum age of a schema snapshot in hours before it's re-captured (0 for no limit).
+   */
+  @Parameter
+  protected int snapshotMaxAge = 0;
+
+  /**
+   * A query whose results change whenever the schema does (e.g. <code>select * from schema_version</code>); a schema
+   * snapshot is re-captured when the checksum of its results changes.
+   */
+  @Parameter
+  protected String snapshotChecksumQuery;
+
+  /**
+   * The connection provider is replaced when metadata is prefetched or captured.
+   * {@inheritDoc}
+   */
+  @Override
+  protected boolean modifiesMappings() {
+    return metadataConnections > 1 || snapshotFile != null;
+  }
+
+  /**
+   * Compare the mappings to the schema metadata.
+   * @param configuration hibernate configuration.
+   * @param snapshot a snapshot to capture the metadata into or to replay (null to just read the live metadata).
+   * @param offline whether to replay the snapshot instead of connecting to the database.
+   * @return schema differences.
+   * @throws MojoExecutionException if the schema cannot be compared.
+   */
+  protected List<RdbCompareError> validate(Configuration configuration, SchemaSnapshot snapshot, boolean offline)
+      throws MojoExecutionException {
+    String registrationId = null;
+    try {
+      MetadataCache cache = null;
+      if (metadataConnections > 1 && !offline) {
+        JdbcConnectionSource connectionSource = newConnectionSource(configuration);
+        cache = new ParallelMetadataLoader(connectionSource, metadataConnections, bulkMetadata,
+                                           getLog()).load(configuration);
+      }
+      if (cache != null || snapshot != null) {
+        registrationId = MetadataConnectionProvider.register(cache, snapshot, offline);
+        configuration.setProperty(Environment.CONNECTION_PROVIDER, MetadataConnectionProvider.class.getName());
+        configuration.setProperty(MetadataConnectionProvider.REGISTRATION_ID, registrationId);
+        configuration.setProperty(CountingConnectionProvider.COUNTER_ID, getRoundTripCounterId());
+      } else {
+        // the validator reads the live metadata over a connection of its own
+        getMetrics().unmeasured(ROUND_TRIPS);
+      }
+      return new HibernateSchemaValidator(configuration).validate();
+    } catch (InconsistentSchemaException | SQLException e) {
+      throw new MojoExecutionException("failed to compare hibernate schema to live schema", e);
+    } finally {
+      if (registrationId != null) {
+        MetadataConnectionProvider.unregister(registrationId);
+      }
+    }
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return checksum of the current database state or null if no checksum query is configured.
+   * @throws MojoExecutionException if the checksum query fails.
+   */
+  protected String getSnapshotChecksum(Configuration configuration) throws MojoExecutionException {
+    if (snapshotChecksumQuery == null) {
+      return null;
+    }
+    try (Connection connection = newConnectionSource(configuration).open()) {
+      return SchemaSnapshot.checksum(connection, snapshotChecksumQuery);
+    } catch (SQLException e) {
+      throw new MojoExecutionException("snapshot checksum query failed", e);
+    }
+  }
+
+  /**
+   * Compare the mappings to the live schema metadata and capture the metadata into the snapshot file.
+   * @param configuration hibernate configuration.
+   * @param checksum checksum of the current database state (null if none is configured).
+   * @return schema differences.
+   * @throws MojoExecutionException if the schema cannot be compared or the snapshot cannot be written.
+   */
+  protected List<RdbCompareError> capture(Configuration configuration, String checksum) throws MojoExecutionException {
+    SchemaSnapshot snapshot = new SchemaSnapshot(SchemaSnapshot.getModel(configuration), checksum);
+    List<RdbCompareError> errors = validate(configuration, snapshot, false);
+    try {
+      snapshot.write(snapshotFile);
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't write schema snapshot " + snapshotFile, e);
+    }
+    getLog().info("captured " + snapshot.size() + " metadata results into " + snapshotFile + " at "
+                  + new Date(snapshot.getCapturedAt()));
+    return errors;
+  }
+}
@@ -17,11 +17,25 @@
 package com.vecna.maven.hibernate;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
@@ -30,7 +44,9 @@ import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.PropertyUtils;
 import org.hibernate.cfg.AnnotationConfiguration;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
 import org.hibernate.cfg.NamingStrategy;
+import org.hibernate.mapping.Table;
 
 import com.vecna.maven.commons.BuildClassPathMojo;
 
@@ -43,18 +59,60 @@ import com.vecna.maven.commons.BuildClassPathMojo;
  * <li>Multiple property files</li>
  * <li>Properties supplied as Mojo parameters</li>
  * <li>Classes supplied as Mojo parameters</li>
+ * <li>Discovery of annotated classes in the project classes and dependencies</li>
  * <li>Mappings supplied as Mojo parameters</li>
+ * <li>On-disk caching of the built mapping metadata</li>
+ * <li>Sharing of the built mapping metadata between goals of a Maven session</li>
+ * <li>Timing, memory and size metrics of each goal</li>
  * </ul>
  *
  * @author ogolberg@vecna.com
  */
 public abstract class HibernateSchemaMojo extends BuildClassPathMojo {
+  /**
+   * Name of the JDBC round-trip counter in the goal metrics.
+   */
+  protected static final String ROUND_TRIPS = "jdbcRoundTrips";
+
   /**
    * Reference to the maven project. Internal.
    */
   @Component
   private MavenProject project;
 
+  /**
+   * Reference to the maven session. Internal.
+   */
+  @Component
+  private MavenSession session;
+
+  /**
+   * The current goal execution. Internal.
+   */
+  @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+  private MojoExecution mojoExecution;
+
+  /**
+   * File to write the goal's timing, memory and size metrics to (along with those of the other goals of the build).
+   */
+  @Parameter(defaultValue = "${project.build.directory}/hibernate-schema-metrics.json")
+  private File metricsFile;
+
+  /**
+   * Time the goal was instantiated (nanoseconds), to measure the setup before the build classpath is in place.
+   */
+  private final long instantiatedAt = System.nanoTime();
+
+  /**
+   * Metrics of the current goal execution.
+   */
+  private BuildMetrics metrics;
+
+  /**
+   * Registration id of the JDBC round-trip counter for Hibernate's connection providers (null until one is needed).
+   */
+  private String roundTripCounterId;
+
   /**
    * Hibernate config (hibernate.cfg.xml) files. Can be filesystem or classpath resources.
    */
@@ -79,6 +137,21 @@ public abstract class HibernateSchemaMojo extends BuildClassPathMojo {
   @Parameter
   private String[] additionalClasses;
 
+  /**
+   * Packages to scan for mapped classes (<code>@Entity</code>, <code>@Embeddable</code> and
+   * <code>@MappedSuperclass</code>) in the project classes and the dependency jars, in addition to the classes listed in
+   * the configuration files and <code>additionalClasses</code> (which shouldn't list scanned classes). The class files
+   * are read without loading the classes.
+   */
+  @Parameter
+  private String[] scanPackages;
+
+  /**
+   * Number of threads to scan <code>scanPackages</code> with.
+   */
+  @Parameter
+  private int scanThreads = Runtime.getRuntime().availableProcessors();
+
   /**
    * Hibernate properties (override properties retrieved from property files).
    */
@@ -103,6 +176,26 @@ public abstract class HibernateSchemaMojo extends BuildClassPathMojo {
   @Parameter
   private boolean skip;
 
+  /**
+   * Cache the built mapping metadata on disk and reuse it as long as the mapping inputs (configuration, properties,
+   * project classes and dependencies) are unchanged.
+   */
+  @Parameter
+  private boolean cacheMappings;
+
+  /**
+   * Directory for cached mapping metadata.
+   */
+  @Parameter(defaultValue = "${project.build.directory}/hibernate-schema-cache")
+  private File cacheDirectory;
+
+  /**
+   * Share the built mapping metadata with other goals of the same Maven session (in this or other modules) that have
+   * identical mapping inputs, instead of building it for each goal.
+   */
+  @Parameter
+  private boolean shareMappings;
+
   /**
    * {@inheritDoc}
    */
@@ -141,6 +234,17 @@ public abstract class HibernateSchemaMojo extends BuildClassPathMojo {
    * @throws MojoExecutionException if a mapping class cannot be resolved or if the naming strategy cannot be instantiated
    */
   protected Configuration createMappings() throws MojoExecutionException {
+    return createMappings(new File(project.getBuild().getOutputDirectory()));
+  }
+
+  /**
+   * Create mapping metadata from provided Hibernate configuration, scanning the given classes instead of the project
+   * classes. Classes and classpath resources are resolved with the current thread's context classloader.
+   * @param classes the classes to scan <code>scanPackages</code> in (a directory or a jar).
+   * @return mapping metadata
+   * @throws MojoExecutionException if a mapping class cannot be resolved or if the naming strategy cannot be instantiated
+   */
+  protected Configuration createMappings(File classes) throws MojoExecutionException {
     Configuration configuration = new AnnotationConfiguration();
 
     if (configFiles != null) {
@@ -154,13 +258,23 @@ public abstract class HibernateSchemaMojo extends BuildClassPathMojo {
     if (additionalClasses != null) {
       for (String additionalClass : additionalClasses) {
         try {
-          configuration.addClass(Class.forName(additionalClass));
+          configuration.addClass(Class.forName(additionalClass, true,
+                                               Thread.currentThread().getContextClassLoader()));
         } catch (ClassNotFoundException e) {
           throw new MojoExecutionException("coudn't add additional classes", e);
         }
       }
     }
 
+    if (scanPackages != null && scanPackages.length > 0) {
+      BuildMetrics.Phase scanPhase = getMetrics().start("mappings.scan");
+      try {
+        addScannedClasses(configuration, classes);
+      } finally {
+        scanPhase.close();
+      }
+    }
+
     if (additionalMappings != null) {
       for (String mapping : additionalMappings) {
         configuration.addURL(getURL(mapping));
@@ -189,17 +303,211 @@ public abstract class HibernateSchemaMojo extends BuildClassPathMojo {
       }
     }
 
-    configuration.buildMappings();
+    BuildMetrics.Phase buildPhase = getMetrics().start("mappings.build");
+    try {
+      configuration.buildMappings();
+    } finally {
+      buildPhase.close();
+    }
 
     if (!disableEnvers) {
-      if (tryEnableEnvers(configuration)) {
-        getLog().info("Detected Envers");
+      BuildMetrics.Phase enversPhase = getMetrics().start("mappings.envers");
+      try {
+        if (tryEnableEnvers(configuration)) {
+          getLog().info("Detected Envers");
+        }
+      } finally {
+        enversPhase.close();
+      }
+    }
+
+    return configuration;
+  }
+
+  /**
+   * Add the mapped classes found in <code>scanPackages</code>. The classes are loaded without being initialized.
+   * @param configuration hibernate configuration.
+   * @param classes the classes to scan along with the dependencies (a directory or a jar).
+   * @throws MojoExecutionException if the classes cannot be scanned or a scanned class cannot be loaded.
+   */
+  private void addScannedClasses(Configuration configuration, File classes) throws MojoExecutionException {
+    List<File> jars = new ArrayList<>();
+    for (Artifact artifact : project.getArtifacts()) {
+      jars.add(artifact.getFile());
+    }
+    if (classes.isFile()) {
+      jars.add(classes);
+    }
+
+    Set<String> listed = new HashSet<>();
+    if (additionalClasses != null) {
+      listed.addAll(Arrays.asList(additionalClasses));
+    }
+
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    EntityScanner scanner = new EntityScanner(scanPackages, new File(cacheDirectory, "entity-index"), scanThreads,
+                                              getLog());
+    for (String className : scanner.scan(classes.isFile() ? null : classes, jars)) {
+      if (!listed.contains(className)) {
+        try {
+          configuration.addAnnotatedClass(Class.forName(className, false, classLoader));
+        } catch (ClassNotFoundException e) {
+          throw new MojoExecutionException("couldn't load scanned class " + className, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fingerprint everything that goes into {@link #createMappings()}: the parameters, the contents of the referenced
+   * configuration/property/mapping resources, the project classes (which include the mapped classes' bytecode and any
+   * mapping resources referenced from the configuration files) and the dependencies.
+   * @return mapping fingerprint.
+   * @throws MojoExecutionException if a mapping resource cannot be read.
+   */
+  private String fingerprintMappings() throws MojoExecutionException {
+    Fingerprint fingerprint = new Fingerprint();
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+    try {
+      if (configFiles != null) {
+        for (String configFile : configFiles) {
+          if (configFile != null && !configFile.equals("")) {
+            fingerprint.addContent("configFile", getURL(configFile));
+          }
+        }
+      }
+
+      if (additionalClasses != null) {
+        for (String additionalClass : additionalClasses) {
+          URL bytecode = classLoader.getResource(additionalClass.replace('.', '/') + ".class");
+          fingerprint.add("additionalClass", additionalClass);
+          if (bytecode != null) {
+            fingerprint.addContent("bytecode", bytecode);
+          }
+        }
+      }
+
+      if (additionalMappings != null) {
+        for (String mapping : additionalMappings) {
+          fingerprint.addContent("additionalMapping", getURL(mapping));
+        }
+      }
+
+      if (propertyFiles != null) {
+        for (String propertyFile : propertyFiles) {
+          fingerprint.addContent("propertyFile", getURL(propertyFile));
+        }
+      }
+
+      if (properties != null) {
+        for (Map.Entry<Object, Object> entry : new TreeMap<>(properties).entrySet()) {
+          fingerprint.add("property", entry.getKey() + "=" + entry.getValue());
+        }
+      }
+
+      if (scanPackages != null) {
+        for (String scanPackage : scanPackages) {
+          fingerprint.add("scanPackage", scanPackage);
+        }
+      }
+
+      fingerprint.add("namingStrategy", namingStrategy);
+      fingerprint.add("disableEnvers", String.valueOf(disableEnvers));
+      fingerprint.addTree("classes", new File(project.getBuild().getOutputDirectory()));
+
+      Map<String, File> dependencies = new TreeMap<>();
+      for (Artifact artifact : project.getArtifacts()) {
+        dependencies.put(artifact.getId(), artifact.getFile());
+      }
+      for (Map.Entry<String, File> dependency : dependencies.entrySet()) {
+        fingerprint.addStamp(dependency.getKey(), dependency.getValue());
       }
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't fingerprint the mapping configuration", e);
+    }
+
+    return fingerprint.toHex();
+  }
+
+  /**
+   * Build the mapping metadata or, if mapping caching is enabled and the inputs haven't changed, load it from the cache.
+   * @param fingerprint mapping fingerprint.
+   * @return mapping metadata.
+   * @throws MojoExecutionException if the mappings cannot be built.
+   */
+  private Configuration loadMappings(String fingerprint) throws MojoExecutionException {
+    if (!cacheMappings) {
+      return createMappings();
+    }
+
+    MappingCache cache = new MappingCache(cacheDirectory, getLog());
+    Configuration configuration = cache.read(fingerprint, Thread.currentThread().getContextClassLoader());
+
+    if (configuration != null) {
+      getLog().info("mapping cache hit (" + fingerprint + ")");
+    } else {
+      getLog().info("mapping cache miss (" + fingerprint + ")");
+      configuration = createMappings();
+      cache.write(fingerprint, configuration);
     }
 
     return configuration;
   }
 
+  /**
+   * Obtain the mapping metadata for this goal: built from scratch, loaded from the on-disk cache, or shared with other
+   * goals of the session, depending on the configuration.
+   * @return mapping metadata.
+   * @throws MojoExecutionException if the mappings cannot be built.
+   */
+  private Configuration resolveMappings() throws MojoExecutionException {
+    if (!cacheMappings && !shareMappings) {
+      return createMappings();
+    }
+
+    final String fingerprint = fingerprintMappings();
+
+    if (!shareMappings) {
+      return loadMappings(fingerprint);
+    }
+
+    final boolean[] built = new boolean[1];
+    Configuration configuration = MappingRegistry.get(session.getRequest(), fingerprint, new Callable<Configuration>() {
+      @Override
+      public Configuration call() throws MojoExecutionException {
+        built[0] = true;
+        return loadMappings(fingerprint);
+      }
+    });
+
+    if (!built[0]) {
+      getLog().info("reusing mappings built earlier in this session (" + fingerprint + ")");
+    }
+
+    if (modifiesMappings()) {
+      try {
+        configuration = ConfigurationSerializer.copy(configuration, Thread.currentThread().getContextClassLoader());
+      } catch (IOException | ClassNotFoundException e) {
+        getLog().warn("couldn't copy the shared mappings, building a private copy: " + e);
+        configuration = createMappings();
+      }
+    }
+
+    return configuration;
+  }
+
+  /**
+   * Goals that only read the mapping metadata may override this to return false, so that they use the model shared with
+   * other goals instead of a private copy. Hibernate's schema tools (<code>SchemaExport</code>, <code>SchemaUpdate</code>
+   * and the script generation methods of {@link Configuration}) recompile the mappings, so goals that use them modify
+   * the mapping metadata.
+   * @return whether {@link #executeWithMappings(Configuration)} modifies the mapping metadata.
+   */
+  protected boolean modifiesMappings() {
+    return true;
+  }
+
   /**
    * Add Envers mappings if Envers is present on the classpath
    * @param configuration hibernate configuration.
@@ -232,13 +540,122 @@ public abstract class HibernateSchemaMojo extends BuildClassPathMojo {
   @Override
   protected final void executeWithClassLoader() throws MojoExecutionException, MojoFailureException {
     if (!skip) {
-      Configuration configuration = createMappings();
-      executeWithMappings(configuration);
+      metrics = new BuildMetrics(mojoExecution == null ? getClass().getSimpleName() : mojoExecution.getGoal() + "@"
+                                 + mojoExecution.getExecutionId(), project.getId());
+      metrics.record("setup", System.nanoTime() - instantiatedAt, -1);
+      try {
+        Configuration configuration;
+        BuildMetrics.Phase mappingsPhase = metrics.start("mappings");
+        try {
+          configuration = resolveMappings();
+        } finally {
+          mappingsPhase.close();
+        }
+        countMappings(configuration);
+        BuildMetrics.Phase goalPhase = metrics.start("goal");
+        try {
+          executeWithMappings(configuration);
+        } finally {
+          goalPhase.close();
+        }
+      } finally {
+        reportMetrics();
+      }
     } else {
       getLog().info("skipping execution");
     }
   }
 
+  /**
+   * @return metrics of the current goal execution.
+   */
+  protected BuildMetrics getMetrics() {
+    if (metrics == null) {
+      metrics = new BuildMetrics(getClass().getSimpleName(), project == null ? null : project.getId());
+    }
+    return metrics;
+  }
+
+  /**
+   * Count the entities, tables and columns of the mappings.
+   * @param configuration mapping metadata.
+   */
+  private void countMappings(Configuration configuration) {
+    long entities = 0;
+    for (Iterator<?> classes = configuration.getClassMappings(); classes.hasNext(); classes.next()) {
+      entities++;
+    }
+    long tables = 0;
+    long columns = 0;
+    for (Iterator<?> tableMappings = configuration.getTableMappings(); tableMappings.hasNext();) {
+      tables++;
+      columns += ((Table) tableMappings.next()).getColumnSpan();
+    }
+    metrics.count("entities", entities);
+    metrics.count("tables", tables);
+    metrics.count("columns", columns);
+  }
+
+  /**
+   * Log the metrics of the goal and write them to the metrics file.
+   */
+  private void reportMetrics() {
+    synchronized (this) {
+      if (roundTripCounterId != null) {
+        CountingConnectionProvider.unregister(roundTripCounterId);
+        roundTripCounterId = null;
+      }
+    }
+    metrics.log(getLog());
+    if (metricsFile != null) {
+      try {
+        metrics.write(session.getRequest(), metricsFile);
+      } catch (IOException e) {
+        getLog().warn("couldn't write the metrics to " + metricsFile + ": " + e);
+      }
+    }
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return a source of connections to the live DB that counts JDBC round-trips in the goal metrics.
+   * @throws SQLException if the connection settings are invalid.
+   */
+  protected JdbcConnectionSource newConnectionSource(Configuration configuration) throws SQLException {
+    JdbcConnectionSource source = new JdbcConnectionSource(configuration.getProperties());
+    source.setRoundTripCounter(getMetrics().counter(ROUND_TRIPS));
+    return source;
+  }
+
+  /**
+   * @return the registration id of the goal's JDBC round-trip counter for {@link CountingConnectionProvider}.
+   */
+  protected synchronized String getRoundTripCounterId() {
+    if (roundTripCounterId == null) {
+      roundTripCounterId = CountingConnectionProvider.register(getMetrics().counter(ROUND_TRIPS));
+    }
+    return roundTripCounterId;
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return a copy of its properties for Hibernate's schema tools, with a connection provider that counts JDBC
+   * round-trips in the goal metrics. If the configuration has a connection provider or a data source of its own, it's
+   * kept and the round-trips are reported as not measured.
+   */
+  protected Properties getCountingProperties(Configuration configuration) {
+    Properties properties = new Properties();
+    properties.putAll(configuration.getProperties());
+    if (properties.getProperty(Environment.CONNECTION_PROVIDER) != null
+        || properties.getProperty(Environment.DATASOURCE) != null) {
+      getMetrics().unmeasured(ROUND_TRIPS);
+    } else {
+      properties.setProperty(Environment.CONNECTION_PROVIDER, CountingConnectionProvider.class.getName());
+      properties.setProperty(CountingConnectionProvider.COUNTER_ID, getRoundTripCounterId());
+    }
+    return properties;
+  }
+
   /**
    * This method will be executed in the build classpath classloader context after the mapping metadata is built.
    * @param configuration mapping metadata.
@@ -17,17 +17,49 @@
 package com.vecna.maven.hibernate;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.internal.FormatStyle;
+import org.hibernate.mapping.Table;
+
+import com.vecna.maven.hibernate.DdlPreflight.Failure;
+import com.vecna.maven.hibernate.LockImpactAnalyzer.LockImpact;
+import com.vecna.maven.hibernate.OnlineDdlRewriter.Mode;
+import com.vecna.maven.hibernate.OnlineDdlRewriter.Section;
 
 /**
  * Base Mojo for generating SQL code from Hibernate schema (creating or updating the schema).
  * @author ogolberg@vecna.com
  */
 public abstract class HibernateSchemaOutputMojo extends HibernateSchemaMojo {
+  /**
+   * Line separator for SQL scripts.
+   */
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
   /**
    * Output file for SQL code.
    */
@@ -58,6 +90,36 @@ public abstract class HibernateSchemaOutputMojo extends HibernateSchemaMojo {
   @Parameter
   protected boolean print = true;
 
+  /**
+   * Write a machine-readable (JSON) report of the lock impact of the generated statements: for each statement, the
+   * affected table, the lock it takes in the target database, whether it rewrites or scans the table, and its estimated
+   * cost (the number of rows it processes, from the row counts the database reports).
+   */
+  @Parameter
+  protected boolean lockReport;
+
+  /**
+   * Lock impact report file. Defaults to <code>outputFile</code> with a <code>.locks.json</code> suffix, or
+   * <code>hibernate-schema-locks.json</code> in the build directory if there's no output file.
+   */
+  @Parameter
+  protected File lockReportFile;
+
+  /**
+   * Fail the build (before modifying the live DB) if any statement that blocks writes has an estimated cost above this
+   * number of rows. Implies <code>lockReport</code>. 0 means no limit.
+   */
+  @Parameter
+  protected long maxLockCost = 0;
+
+  /**
+   * Before modifying the live DB, run the generated script against an in-memory H2 database (in the compatibility mode
+   * of the dialect) while the output file is written, and fail the build with the line numbers of the statements that
+   * don't run.
+   */
+  @Parameter
+  protected boolean preflight;
+
   /**
    * Initialize parent directories for the output files.
    * @throws MojoExecutionException if directories couldn't be created.
@@ -73,4 +135,336 @@ public abstract class HibernateSchemaOutputMojo extends HibernateSchemaMojo {
       }
     }
   }
+
+  /**
+   * Write SQL statements to the output file (if set) and to stdout (if enabled), formatted (if enabled) and delimited
+   * the same way as Hibernate's schema tools do.
+   * @param statements SQL statements.
+   * @throws MojoExecutionException if the output file cannot be written.
+   */
+  protected void writeScript(List<String> statements) throws MojoExecutionException {
+    writeScript(toScript(statements));
+  }
+
+  /**
+   * @param statements SQL statements.
+   * @return a script of the statements, formatted (if enabled) and delimited.
+   */
+  protected String toScript(List<String> statements) {
+    getMetrics().count("statements", statements.size());
+    StringBuilder script = new StringBuilder();
+    for (String sql : statements) {
+      appendStatement(script, sql);
+    }
+    return script.toString();
+  }
+
+  /**
+   * Write sections of SQL statements, each preceded by a comment that says how to run it (see
+   * {@link #writeScript(List)}).
+   * @param sections sections of SQL statements.
+   * @throws MojoExecutionException if the output file cannot be written.
+   */
+  protected void writeSections(List<Section> sections) throws MojoExecutionException {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < sections.size(); i++) {
+      Section section = sections.get(i);
+      getMetrics().count("statements", section.getStatements().size());
+      script.append("-- section ").append(i + 1).append(": ").append(section.getMode().getDescription())
+          .append(LINE_SEPARATOR);
+      for (String sql : section.getStatements()) {
+        appendStatement(script, sql);
+      }
+    }
+    writeScript(script.toString());
+  }
+
+  /**
+   * @param script script to append to.
+   * @param sql SQL statement to append (formatted if enabled, delimited).
+   */
+  private void appendStatement(StringBuilder script, String sql) {
+    script.append(formatStatement(sql));
+    script.append(delimiter == null ? "" : delimiter).append(LINE_SEPARATOR);
+  }
+
+  /**
+   * @param sql SQL statement.
+   * @return the statement as it's written to the script (formatted if enabled).
+   */
+  private String formatStatement(String sql) {
+    return format ? FormatStyle.DDL.getFormatter().format(sql) : sql;
+  }
+
+  /**
+   * @param statements SQL statements.
+   * @return the line each statement starts on in the script written by {@link #writeScript(List)} or by Hibernate's
+   * schema tools, which format and delimit statements the same way.
+   */
+  protected int[] getStartLines(List<String> statements) {
+    int[] lines = new int[statements.size()];
+    int line = 1;
+    for (int i = 0; i < statements.size(); i++) {
+      String text = formatStatement(statements.get(i));
+      int start = 0;
+      while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+        start++;
+      }
+      lines[i] = line + countLines(text.substring(0, start));
+      line += countLines(text) + countLines(delimiter == null ? "" : delimiter) + 1;
+    }
+    return lines;
+  }
+
+  /**
+   * @param text some text.
+   * @return the number of line breaks in the text.
+   */
+  private static int countLines(String text) {
+    int count = 0;
+    for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @param script script to write to the output file (if set) and to stdout (if enabled).
+   * @throws MojoExecutionException if the output file cannot be written.
+   */
+  private void writeScript(String script) throws MojoExecutionException {
+    if (print) {
+      System.out.print(script);
+    }
+
+    if (outputFile != null) {
+      writeFile(new File(outputFile), script);
+    }
+  }
+
+  /**
+   * Write a script to a file, creating parent directories as needed.
+   * @param file the file.
+   * @param script the script.
+   * @throws MojoExecutionException if the file cannot be written.
+   */
+  protected static void writeFile(File file, String script) throws MojoExecutionException {
+    try {
+      FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+      try (Writer out = new FileWriter(file)) {
+        out.write(script);
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't write " + file, e);
+    }
+  }
+
+  /**
+   * Execute SQL statements one by one (in auto-commit mode). Failures don't stop the execution; they're logged in
+   * statement order.
+   * @param connection a connection to the live DB.
+   * @param statements SQL statements.
+   * @return the number of failed statements.
+   * @throws SQLException if no JDBC statement can be created.
+   */
+  protected int executeScript(Connection connection, List<String> statements) throws SQLException {
+    int failed = 0;
+    connection.setAutoCommit(true);
+    try (Statement statement = connection.createStatement()) {
+      for (String sql : statements) {
+        try {
+          statement.executeUpdate(sql);
+        } catch (SQLException e) {
+          failed++;
+          getLog().error("Unsuccessful: " + sql);
+          getLog().error(e.getMessage());
+        }
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Execute sections of SQL statements in order, each the way its mode requires. Execution stops at the first failed
+   * statement, since later sections depend on the earlier ones; a failed transactional section is rolled back.
+   * @param connection a connection to the live DB.
+   * @param sections sections of SQL statements.
+   * @throws SQLException if no JDBC statement can be created or a transaction cannot be completed.
+   * @throws MojoFailureException if a statement failed (the sections before it remain applied).
+   */
+  protected void executeSections(Connection connection, List<Section> sections)
+      throws SQLException, MojoFailureException {
+    for (Section section : sections) {
+      boolean transactional = section.getMode() == Mode.TRANSACTIONAL;
+      connection.setAutoCommit(!transactional);
+      String current = null;
+      try (Statement statement = connection.createStatement()) {
+        for (String sql : section.getStatements()) {
+          current = sql;
+          if (section.getMode() == Mode.BACKFILL) {
+            long rows = 0;
+            for (int updated = statement.executeUpdate(sql); updated > 0; updated = statement.executeUpdate(sql)) {
+              rows += updated;
+            }
+            getLog().info("populated " + rows + " rows: " + sql);
+          } else {
+            statement.executeUpdate(sql);
+          }
+        }
+        if (transactional) {
+          connection.commit();
+        }
+      } catch (SQLException e) {
+        if (transactional) {
+          connection.rollback();
+        }
+        getLog().error("Unsuccessful: " + current);
+        getLog().error(e.getMessage());
+        int index = sections.indexOf(section);
+        throw new MojoFailureException("stopped at section " + (index + 1) + " of " + sections.size()
+                                       + (transactional ? " (rolled back)" : "") + ", the " + index
+                                       + " sections before it were applied: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return the schemas of the mapped tables (a null entry for the default schema).
+   */
+  protected static Set<String> getSchemas(Configuration configuration) {
+    Set<String> schemas = new LinkedHashSet<>();
+    String defaultSchema = configuration.getProperty(Environment.DEFAULT_SCHEMA);
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      Table table = (Table) tables.next();
+      schemas.add(table.getSchema() == null ? defaultSchema : table.getSchema());
+    }
+    return schemas;
+  }
+
+  /**
+   * Start the preflight check of a script in the background (see <code>preflight</code>).
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   * @param statements the script.
+   * @param first index of the first statement to check (earlier ones, e.g. drop statements, are skipped).
+   * @param tolerateMissingObjects whether the script changes an existing schema, so failures caused by objects that
+   * don't exist are expected.
+   * @return the failed statements, when the check completes.
+   */
+  protected Future<List<Failure>> startPreflight(Configuration configuration, Dialect dialect,
+                                                 final List<String> statements, final int first,
+                                                 final boolean tolerateMissingObjects) {
+    final DdlPreflight check = new DdlPreflight(SqlFlavor.of(dialect), getSchemas(configuration));
+    getLog().info("checking " + (statements.size() - first) + " statements on H2"
+                  + (check.getMode() == null ? "" : " in " + check.getMode() + " mode"));
+    ExecutorService executor = ParallelTasks.newPool("preflight", 1);
+    try {
+      return executor.submit(new Callable<List<Failure>>() {
+        @Override
+        public List<Failure> call() throws SQLException {
+          return check.check(statements, first, tolerateMissingObjects);
+        }
+      });
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Wait for the preflight check and report the statements that failed, by line in the script.
+   * @param check the running check (see {@link #startPreflight(Configuration, Dialect, List, int, boolean)}).
+   * @param statements the script.
+   * @throws MojoExecutionException if the check couldn't run.
+   * @throws MojoFailureException if any statement failed.
+   */
+  protected void awaitPreflight(Future<List<Failure>> check, List<String> statements)
+      throws MojoExecutionException, MojoFailureException {
+    List<Failure> failures;
+    try {
+      failures = check.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted during the preflight check", e);
+    } catch (ExecutionException e) {
+      throw new MojoExecutionException("couldn't run the preflight check: " + e.getCause().getMessage(), e.getCause());
+    }
+
+    if (failures.isEmpty()) {
+      getLog().info("preflight check passed");
+      return;
+    }
+
+    int[] lines = getStartLines(statements);
+    for (Failure failure : failures) {
+      getLog().error((outputFile == null ? "line " : outputFile + ":") + lines[failure.getIndex()] + ": "
+                     + failure.getMessage());
+    }
+    throw new MojoFailureException(failures.size() + " statements failed the preflight check (the live DB was not "
+                                   + "modified)");
+  }
+
+  /**
+   * @return whether the lock impact of the generated statements should be analyzed.
+   */
+  protected boolean isLockReportEnabled() {
+    return lockReport || maxLockCost > 0;
+  }
+
+  /**
+   * Analyze the lock impact of the statements (if enabled), write the report and enforce the cost threshold. Row
+   * counts are read from the live DB; if it isn't reachable, costs are reported as unknown.
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   * @param statements the statements that will be written and executed.
+   * @throws MojoExecutionException if the report cannot be written.
+   * @throws MojoFailureException if a statement exceeds the cost threshold.
+   */
+  protected void reportLocks(Configuration configuration, Dialect dialect, List<String> statements)
+      throws MojoExecutionException, MojoFailureException {
+    if (!isLockReportEnabled()) {
+      return;
+    }
+
+    LockImpactAnalyzer analyzer = new LockImpactAnalyzer(SqlFlavor.of(dialect), getLog());
+    List<LockImpact> impacts = analyzer.analyze(statements);
+    try (Connection connection = newConnectionSource(configuration).open()) {
+      analyzer.estimateRows(connection, configuration.getProperty(Environment.DEFAULT_CATALOG), impacts);
+    } catch (SQLException e) {
+      getLog().warn("couldn't connect to the database, row counts are unknown: " + e.getMessage());
+    }
+
+    File file = lockReportFile;
+    if (file == null) {
+      file = outputFile != null ? new File(outputFile + ".locks.json")
+          : new File(getProject().getBuild().getDirectory(), "hibernate-schema-locks.json");
+    }
+    try {
+      FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+      LockImpactAnalyzer.writeReport(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+                                     dialect.getClass().getName(), impacts, maxLockCost);
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't write the lock impact report " + file, e);
+    }
+
+    List<String> exceeding = new ArrayList<>();
+    int blocking = 0;
+    for (LockImpact impact : impacts) {
+      blocking += impact.isBlockingWrites() ? 1 : 0;
+      if (LockImpactAnalyzer.exceeds(impact, maxLockCost)) {
+        exceeding.add(impact.getSql() + " (" + impact.getLock() + ", ~" + impact.getCost() + " rows)");
+      }
+    }
+    getLog().info("lock impact report: " + file + " (" + blocking + " of " + impacts.size()
+                  + " statements block writes)");
+
+    if (!exceeding.isEmpty()) {
+      for (String statement : exceeding) {
+        getLog().error("exceeds maxLockCost: " + statement);
+      }
+      throw new MojoFailureException(exceeding.size() + " statements block writes to more than " + maxLockCost
+                                     + " rows, see " + file);
+    }
+  }
 }
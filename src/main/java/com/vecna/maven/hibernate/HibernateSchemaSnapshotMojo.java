@@ -0,0 +1,52 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.hibernate.cfg.Configuration;
+
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
+
+/**
+ * Captures the live schema metadata used for validation into a snapshot file, so that the <code>validate</code> goal
+ * can run against the snapshot without a database.
+ *
+ * @author ogolberg@vecna.com
+ */
+@Mojo(name = "snapshot",
+      defaultPhase = LifecyclePhase.COMPILE,
+      requiresDependencyResolution = ResolutionScope.RUNTIME,
+      threadSafe = true)
+public class HibernateSchemaSnapshotMojo extends HibernateSchemaMetadataMojo {
+  /**
+   * Captures the snapshot (by running a validation against the live schema).
+   * {@inheritDoc}
+   */
+  @Override
+  protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
+    if (snapshotFile == null) {
+      throw new MojoExecutionException("snapshotFile is not set");
+    }
+    List<RdbCompareError> errors = capture(configuration, getSnapshotChecksum(configuration));
+    getLog().info("the live schema has " + errors.size() + " differences from the mappings");
+  }
+}
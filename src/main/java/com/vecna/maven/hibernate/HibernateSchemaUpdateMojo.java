@@ -16,13 +16,32 @@
 
 package com.vecna.maven.hibernate;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.hibernate.cfg.Configuration;
-import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.mapping.Table;
+import org.hibernate.tool.hbm2ddl.DatabaseMetadata;
+
+import com.vecna.maven.hibernate.DdlPreflight.Failure;
+import com.vecna.maven.hibernate.OnlineDdlRewriter.Section;
 
 /**
  * Compares Hibernate schema against a live DB and outputs changes to a file or the DB.
@@ -34,21 +53,137 @@ import org.hibernate.tool.hbm2ddl.SchemaUpdate;
       requiresDependencyResolution = ResolutionScope.RUNTIME,
       threadSafe = true)
 public class HibernateSchemaUpdateMojo extends HibernateSchemaOutputMojo {
+  /**
+   * Generate the update by comparing the mapped schema to the live schema (new tables and columns, column type and
+   * nullability changes, index, unique key and foreign key changes, hinted table renames) instead of using Hibernate's
+   * SchemaUpdate (which only adds tables, columns and constraints).
+   */
+  @Parameter
+  private boolean diffUpdate;
+
+  /**
+   * Table rename hints for <code>diffUpdate</code> (old name to new name): when a mapped table doesn't exist but a
+   * table with the old name does, the old table is renamed and migrated instead of creating a new one.
+   */
+  @Parameter
+  private Map<String, String> tableRenames = new HashMap<>();
+
+  /**
+   * Drop the indexes and unique keys of mapped tables that aren't mapped with <code>diffUpdate</code> (indexes the
+   * foreign keys start with are kept). By default they are left alone, like unmapped tables and columns.
+   */
+  @Parameter
+  private boolean dropUnmappedIndexes;
+
+  /**
+   * Rewrite the update into forms that don't block writes where the database has them (concurrent / online index
+   * builds, constraints validated separately, batched population of new <code>NOT NULL</code> columns), split into
+   * sections that run in a transaction, outside of a transaction, or as repeated backfills.
+   */
+  @Parameter
+  private boolean onlineSafe;
+
+  /**
+   * Number of rows each backfill statement populates at a time with <code>onlineSafe</code>.
+   */
+  @Parameter
+  private int backfillBatchSize = 10000;
+
   /**
    * Generates upgrade script for the schema.
    * {@inheritDoc}
    */
   @Override
   protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
-    SchemaUpdate schemaUpdate = new SchemaUpdate(configuration);
-    schemaUpdate.setFormat(format);
+    executeScripted(configuration);
+  }
 
-    if (outputFile != null) {
-      initializePath();
-      schemaUpdate.setOutputFile(outputFile);
-      schemaUpdate.setDelimiter(delimiter);
+  /**
+   * Generate the update with the schema diff.
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   * @param connection a connection to the live DB.
+   * @return update statements.
+   * @throws SQLException if the live schema cannot be read.
+   */
+  private List<String> diff(Configuration configuration, Dialect dialect, Connection connection) throws SQLException {
+    Set<String> tableNames = new HashSet<>(tableRenames.keySet());
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      tableNames.add(((Table) tables.next()).getName());
     }
 
-    schemaUpdate.execute(print, export);
+    SchemaModel current = SchemaModel.fromMetadata(connection.getMetaData(),
+                                                   configuration.getProperty(Environment.DEFAULT_CATALOG),
+                                                   getSchemas(configuration), tableNames, dialect);
+
+    SchemaDiff diff = new SchemaDiff(configuration, dialect, dropUnmappedIndexes);
+    List<String> statements = new ArrayList<>();
+    for (Map.Entry<SchemaDiff.Step, List<String>> step : diff.diff(current, tableRenames).entrySet()) {
+      getLog().info(step.getKey() + ": " + step.getValue().size() + " statements");
+      statements.addAll(step.getValue());
+    }
+    for (String warning : diff.getWarnings()) {
+      getLog().warn(warning);
+    }
+    return statements;
+  }
+
+  /**
+   * Generate the update (with the schema diff or with SchemaUpdate's script), rewrite it if <code>onlineSafe</code> is
+   * set, analyze its lock impact if enabled, check it on H2 if enabled (while it's written), write it and optionally
+   * execute it.
+   * @param configuration hibernate configuration.
+   * @throws MojoExecutionException if the live schema cannot be read or the update cannot be written.
+   * @throws MojoFailureException if the update exceeds the lock cost threshold, fails the preflight check, or fails on
+   * the live DB in online-safe mode.
+   */
+  private void executeScripted(Configuration configuration) throws MojoExecutionException, MojoFailureException {
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+
+    try (Connection connection = newConnectionSource(configuration).open()) {
+      List<String> statements;
+      BuildMetrics.Phase diffPhase = getMetrics().start("goal.diff");
+      try {
+        statements = diffUpdate ? diff(configuration, dialect, connection)
+            : Arrays.asList(configuration.generateSchemaUpdateScript(dialect,
+                                                                     new DatabaseMetadata(connection, dialect,
+                                                                                          configuration)));
+      } finally {
+        diffPhase.close();
+      }
+
+      if (onlineSafe) {
+        if (preflight) {
+          getLog().warn("skipping the preflight check, H2 doesn't support the online-safe statement forms");
+        }
+        List<Section> sections = new OnlineDdlRewriter(configuration, dialect, backfillBatchSize,
+                                                       connection.getMetaData().getDatabaseMajorVersion(),
+                                                       getLog()).rewrite(statements);
+        List<String> rewritten = new ArrayList<>();
+        for (Section section : sections) {
+          rewritten.addAll(section.getStatements());
+        }
+        reportLocks(configuration, dialect, rewritten);
+        writeSections(sections);
+        if (export) {
+          executeSections(connection, sections);
+          getLog().info("executed " + sections.size() + " sections");
+        }
+      } else {
+        reportLocks(configuration, dialect, statements);
+        Future<List<Failure>> check = preflight ? startPreflight(configuration, dialect, statements, 0, true) : null;
+        writeScript(statements);
+        if (check != null) {
+          awaitPreflight(check, statements);
+        }
+        if (export) {
+          int failed = executeScript(connection, statements);
+          getLog().info("executed " + (statements.size() - failed) + " of " + statements.size() + " statements");
+        }
+      }
+    } catch (SQLException e) {
+      throw new MojoExecutionException("failed to update the schema", e);
+    }
   }
 }
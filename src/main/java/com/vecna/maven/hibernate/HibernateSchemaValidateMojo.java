@@ -16,23 +16,41 @@
 
 package com.vecna.maven.hibernate;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.mapping.Table;
 
 import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
 import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareErrorType;
-import com.vecna.dbDiff.hibernate.HibernateSchemaValidator;
-import com.vecna.dbDiff.model.relationalDb.InconsistentSchemaException;
 
 /**
- * Validates a live DB schema against Hibernate mappings.
+ * Validates a live DB schema against Hibernate mappings. Several tenant databases or schemas with the same mappings can
+ * be validated at once, into a combined report.
  *
  * @author ogolberg@vecna.com
  */
@@ -40,25 +58,263 @@ import com.vecna.dbDiff.model.relationalDb.InconsistentSchemaException;
       defaultPhase = LifecyclePhase.COMPILE,
       requiresDependencyResolution = ResolutionScope.RUNTIME,
       threadSafe = true)
-public class HibernateSchemaValidateMojo extends HibernateSchemaMojo {
+public class HibernateSchemaValidateMojo extends HibernateSchemaMetadataMojo {
   /**
-   * Validates the schema.
+   * A tenant database or schema to validate.
+   */
+  private static class Tenant {
+    /**
+     * The Hibernate property that selects the tenant (connection URL or default schema).
+     */
+    private final String property;
+
+    /**
+     * Tenant name (the value of the property).
+     */
+    private final String name;
+
+    /**
+     * @param property the Hibernate property that selects the tenant.
+     * @param name tenant name.
+     */
+    Tenant(String property, String name) {
+      this.property = property;
+      this.name = name;
+    }
+  }
+
+  /**
+   * JDBC URLs of tenant databases to validate (instead of the configured connection URL).
+   */
+  @Parameter
+  private String[] tenantUrls;
+
+  /**
+   * Tenant schemas to validate (in the configured database).
+   */
+  @Parameter
+  private String[] tenantSchemas;
+
+  /**
+   * A query that lists the tenant schemas to validate (in its first column), run on the configured database.
+   */
+  @Parameter
+  private String tenantQuery;
+
+  /**
+   * Number of tenants to validate concurrently.
+   */
+  @Parameter
+  private int tenantThreads = 4;
+
+  /**
+   * JSON report of the schema differences, with counts by type and by table (none if not set).
+   */
+  @Parameter
+  private File reportFile;
+
+  /**
+   * JUnit XML report of the schema differences, for CI servers (none if not set).
+   */
+  @Parameter
+  private File junitReportFile;
+
+  /**
+   * Maximum number of schema differences to log when a report file is set (all differences are logged otherwise).
+   */
+  @Parameter
+  private int maxLoggedDifferences = 20;
+
+  /**
+   * Maximum number of differences of each type (by error type name, e.g. <code>TABLE_MISSING</code>, or
+   * <code>ALL</code> for the total number of errors, which doesn't include column type warnings); the build fails when
+   * any is exceeded.
+   */
+  @Parameter
+  private Map<String, String> maxErrors;
+
+  /**
+   * Validates the schema (against the snapshot file if one is configured and up to date) or the tenant schemas, reports
+   * the differences and checks the thresholds.
    * {@inheritDoc}
    */
   @Override
   protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
-    List<RdbCompareError> errors;
+    Map<String, Long> thresholds = getThresholds();
+    List<Tenant> tenants = getTenants(configuration);
+    if (!tenants.isEmpty() && snapshotFile != null) {
+      throw new MojoExecutionException("snapshotFile can't be used to validate several tenants");
+    }
 
-    try {
-      errors = new HibernateSchemaValidator(configuration).validate();
-    } catch (InconsistentSchemaException | SQLException e) {
-      throw new MojoExecutionException("failed to compare hibernate schema to live schema", e);
+    Set<String> tables = new HashSet<>();
+    for (Iterator<?> tableMappings = configuration.getTableMappings(); tableMappings.hasNext();) {
+      tables.add(RowCountEstimator.unquote(((Table) tableMappings.next()).getName()));
     }
+    int maxLogged = !tenants.isEmpty() ? 0 : reportFile == null && junitReportFile == null ? -1 : maxLoggedDifferences;
 
-    for (RdbCompareError error : errors) {
-      if (error.getErrorType() != RdbCompareErrorType.COL_TYPE_WARNING) {
-        getLog().error(error.getErrorType() + ": " + error.getMessage());
+    try (ValidationReport report = new ValidationReport(tables, reportFile, junitReportFile, maxLogged, getLog())) {
+      if (tenants.isEmpty()) {
+        report.add(null, validateSchema(configuration));
+      } else {
+        validateTenants(configuration, tenants, report);
       }
+      report.logSummary();
+
+      List<String> exceeded = new ArrayList<>();
+      for (Map.Entry<String, Long> threshold : thresholds.entrySet()) {
+        long count = report.getCount(threshold.getKey());
+        if (count > threshold.getValue()) {
+          exceeded.add(threshold.getKey() + " (" + count + " > " + threshold.getValue() + ")");
+        }
+      }
+      if (!exceeded.isEmpty()) {
+        throw new MojoFailureException("schema validation exceeded the maximum number of errors: " + exceeded);
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't write the validation report", e);
+    }
+  }
+
+  /**
+   * @return the maximum number of differences by error type name (or {@link ValidationReport#ALL}).
+   * @throws MojoExecutionException if a threshold is not a known error type or not a number.
+   */
+  private Map<String, Long> getThresholds() throws MojoExecutionException {
+    Map<String, Long> thresholds = new TreeMap<>();
+    if (maxErrors != null) {
+      for (Map.Entry<String, String> maxError : maxErrors.entrySet()) {
+        String type = maxError.getKey();
+        try {
+          if (!ValidationReport.ALL.equals(type)) {
+            RdbCompareErrorType.valueOf(type);
+          }
+        } catch (IllegalArgumentException e) {
+          throw new MojoExecutionException("maxErrors: unknown error type " + type + ", expected " + ValidationReport.ALL
+                                           + " or one of " + Arrays.asList(RdbCompareErrorType.values()));
+        }
+        try {
+          thresholds.put(type, Long.parseLong(maxError.getValue().trim()));
+        } catch (NumberFormatException e) {
+          throw new MojoExecutionException("maxErrors: " + type + " must be a number, not " + maxError.getValue());
+        }
+      }
+    }
+    return thresholds;
+  }
+
+  /**
+   * Validate the configured schema (against the snapshot file if one is configured and up to date).
+   * @param configuration hibernate configuration.
+   * @return schema differences.
+   * @throws MojoExecutionException if the schema cannot be compared or the snapshot cannot be captured.
+   */
+  private List<RdbCompareError> validateSchema(Configuration configuration) throws MojoExecutionException {
+    if (snapshotFile == null) {
+      return validate(configuration, null, false);
+    }
+
+    String checksum = getSnapshotChecksum(configuration);
+    SchemaSnapshot snapshot = null;
+    String staleReason = "it doesn't exist";
+    if (snapshotFile.isFile()) {
+      try {
+        snapshot = SchemaSnapshot.read(snapshotFile);
+        staleReason = snapshot.getStaleReason(SchemaSnapshot.getModel(configuration), snapshotMaxAge, checksum);
+      } catch (IOException e) {
+        staleReason = "it cannot be read (" + e + ")";
+      }
+    }
+
+    if (staleReason == null) {
+      getLog().info("validating against schema snapshot " + snapshotFile + " captured at "
+                    + new Date(snapshot.getCapturedAt()));
+      return validate(configuration, snapshot, true);
+    }
+    getLog().info("re-capturing schema snapshot " + snapshotFile + " because " + staleReason);
+    return capture(configuration, checksum);
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return the tenants to validate (none if the configured database is to be validated).
+   * @throws MojoExecutionException if the tenant query fails.
+   */
+  private List<Tenant> getTenants(Configuration configuration) throws MojoExecutionException {
+    List<Tenant> tenants = new ArrayList<>();
+    if (tenantUrls != null) {
+      for (String url : tenantUrls) {
+        tenants.add(new Tenant(Environment.URL, url));
+      }
+    }
+    if (tenantSchemas != null) {
+      for (String schema : tenantSchemas) {
+        tenants.add(new Tenant(Environment.DEFAULT_SCHEMA, schema));
+      }
+    }
+    if (tenantQuery != null) {
+      try (Connection connection = newConnectionSource(configuration).open();
+          Statement statement = connection.createStatement();
+          ResultSet schemas = statement.executeQuery(tenantQuery)) {
+        while (schemas.next()) {
+          tenants.add(new Tenant(Environment.DEFAULT_SCHEMA, schemas.getString(1)));
+        }
+      } catch (SQLException e) {
+        throw new MojoExecutionException("tenant query failed", e);
+      }
+    }
+    return tenants;
+  }
+
+  /**
+   * Validate the tenants concurrently and log a combined report. Each tenant is validated against its own copy of the
+   * mappings, deserialized from a single serialized form, so the mappings are built only once. The differences of each
+   * tenant are added to the validation report as soon as the tenant is validated.
+   * @param configuration hibernate configuration.
+   * @param tenants the tenants.
+   * @param validationReport validation report.
+   * @throws MojoExecutionException if the mappings cannot be copied or any tenant couldn't be validated.
+   */
+  private void validateTenants(Configuration configuration, List<Tenant> tenants,
+                               final ValidationReport validationReport) throws MojoExecutionException {
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    try {
+      ConfigurationSerializer.write(configuration, serialized);
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't copy the mappings for the tenants", e);
+    }
+    final byte[] mappings = serialized.toByteArray();
+    final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    final TenantReport report = new TenantReport();
+
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (final Tenant tenant : tenants) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException, ClassNotFoundException {
+          Configuration tenantConfiguration = ConfigurationSerializer.read(new ByteArrayInputStream(mappings),
+                                                                           classLoader);
+          tenantConfiguration.setProperty(tenant.property, tenant.name);
+          try {
+            List<RdbCompareError> errors = validate(tenantConfiguration, null, false);
+            report.add(tenant.name, errors);
+            validationReport.add(tenant.name, errors);
+          } catch (MojoExecutionException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            report.fail(tenant.name, cause.getMessage());
+          }
+          return null;
+        }
+      });
+    }
+
+    getLog().info("validating " + tenants.size() + " tenants on " + Math.min(tenantThreads, tenants.size())
+                  + " threads");
+    ParallelTasks.invokeAll("tenant validation", tenantThreads, tasks);
+    report.log(getLog());
+
+    if (report.getFailureCount() > 0) {
+      throw new MojoExecutionException("couldn't validate " + report.getFailureCount() + " of " + tenants.size()
+                                       + " tenants");
     }
   }
 }
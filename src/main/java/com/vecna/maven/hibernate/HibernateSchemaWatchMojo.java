@@ -0,0 +1,271 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+
+/**
+ * Keeps the schema script and documentation up to date during development: generates them, then watches the project
+ * classes and the source directories and regenerates them whenever something changes, until the build is interrupted.
+ *
+ * <p>The JVM, the dependency classpath and the plugin stay warm between rounds. Changed classes are picked up through a
+ * fresh classloader over the project classes (the dependencies are not reloaded), the javadocs of unchanged source files
+ * are not parsed again and only the documentation pages of changed tables and entities are rendered again. The live DB
+ * is never modified.</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+@Mojo(name = "watch",
+      requiresDependencyResolution = ResolutionScope.RUNTIME,
+      threadSafe = true)
+public class HibernateSchemaWatchMojo extends HibernateSchemaOutputMojo {
+  /**
+   * Output directory for schema documentation (no documentation is generated if not set).
+   */
+  @Parameter
+  private File docOutputDir;
+
+  /**
+   * Directories that contain the source code for persistent classes (watched for javadoc changes).
+   */
+  @Parameter
+  private File[] sourceDirs = new File[0];
+
+  /**
+   * A regex for figuring out which columns are encrypted (the full name of the Hibernate type must match this).
+   */
+  @Parameter
+  private String encryptedTypeRegex;
+
+  /**
+   * Number of threads for parsing sources and rendering documentation pages.
+   */
+  @Parameter
+  private int docThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * How long to wait for further changes (in milliseconds) before regenerating, so that a compilation that writes many
+   * files triggers a single round.
+   */
+  @Parameter
+  private int quietPeriod = 200;
+
+  /**
+   * Javadoc comments of the sources, kept up to date across rounds.
+   */
+  private JavadocIndex javadocs;
+
+  /**
+   * Generates the outputs, then regenerates them on changes until interrupted.
+   * {@inheritDoc}
+   */
+  @Override
+  protected void executeWithMappings(Configuration configuration) throws MojoExecutionException, MojoFailureException {
+    File classesDir = new File(getProject().getBuild().getOutputDirectory());
+    ClassLoader dependencyClassLoader = Thread.currentThread().getContextClassLoader();
+    javadocs = JavadocIndex.empty(getLog());
+
+    generate(configuration, true);
+
+    Configuration mappings = configuration;
+    ChildFirstClassLoader classLoader = null;
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      Map<WatchKey, Path> keys = new HashMap<>();
+      FileUtils.forceMkdir(classesDir);
+      register(watcher, classesDir.toPath(), keys);
+      if (docOutputDir != null) {
+        for (File sourceDir : sourceDirs) {
+          if (sourceDir.isDirectory()) {
+            register(watcher, sourceDir.toPath(), keys);
+          }
+        }
+      }
+      getLog().info("watching " + classesDir + (docOutputDir == null ? "" : " and " + Arrays.asList(sourceDirs))
+                    + " for changes (interrupt the build to stop)");
+
+      while (true) {
+        boolean classesChanged = false;
+        boolean sourcesChanged = false;
+        for (Path change : awaitChanges(watcher, keys)) {
+          if (change.startsWith(classesDir.toPath())) {
+            classesChanged = true;
+          } else if (change.toString().endsWith(".java") || Files.isDirectory(change)) {
+            sourcesChanged = true;
+          }
+        }
+        if (!classesChanged && !sourcesChanged) {
+          continue;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+          if (classesChanged) {
+            ChildFirstClassLoader reloaded = new ChildFirstClassLoader(new URL[] {classesDir.toURI().toURL()},
+                                                                        dependencyClassLoader);
+            Thread.currentThread().setContextClassLoader(reloaded);
+            try {
+              mappings = createMappings();
+            } catch (MojoExecutionException | RuntimeException e) {
+              Thread.currentThread().setContextClassLoader(classLoader == null ? dependencyClassLoader : classLoader);
+              close(reloaded);
+              throw e;
+            }
+            close(classLoader);
+            classLoader = reloaded;
+          }
+          generate(mappings, classesChanged);
+          getLog().info("regenerated in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (MojoExecutionException | RuntimeException e) {
+          getLog().error("couldn't regenerate (waiting for further changes): " + e.getMessage());
+          getLog().debug(e);
+        }
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't watch for changes", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      getLog().info("stopped watching");
+    } finally {
+      Thread.currentThread().setContextClassLoader(dependencyClassLoader);
+      close(classLoader);
+    }
+  }
+
+  /**
+   * Release a classloader of the project classes that's no longer used.
+   * @param classLoader the classloader (can be null).
+   */
+  private void close(URLClassLoader classLoader) {
+    if (classLoader != null) {
+      try {
+        classLoader.close();
+      } catch (IOException e) {
+        getLog().debug("couldn't close the project classloader", e);
+      }
+    }
+  }
+
+  /**
+   * Register a directory tree with a watch service.
+   * @param watcher watch service.
+   * @param root root of the directory tree.
+   * @param keys directories by watch key, to add to.
+   * @throws IOException if the directories cannot be registered.
+   */
+  private static void register(final WatchService watcher, Path root, final Map<WatchKey, Path> keys)
+      throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+        keys.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                              StandardWatchEventKinds.ENTRY_DELETE), dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Wait for changes, then collect changes until none have been seen for <code>quietPeriod</code> milliseconds. New
+   * directories are watched as well.
+   * @param watcher watch service.
+   * @param keys directories by watch key.
+   * @return changed files (directories whose changes were lost are included as a whole).
+   * @throws InterruptedException if interrupted while waiting.
+   * @throws IOException if a new directory cannot be registered.
+   */
+  private Set<Path> awaitChanges(WatchService watcher, Map<WatchKey, Path> keys)
+      throws InterruptedException, IOException {
+    Set<Path> changes = new HashSet<>();
+    WatchKey key = watcher.take();
+    while (key != null) {
+      Path dir = keys.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          changes.add(dir);
+        } else {
+          Path path = dir.resolve((Path) event.context());
+          changes.add(path);
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+            register(watcher, path, keys);
+          }
+        }
+      }
+      if (!key.reset()) {
+        keys.remove(key);
+      }
+      key = watcher.poll(quietPeriod, TimeUnit.MILLISECONDS);
+    }
+    return changes;
+  }
+
+  /**
+   * Write the create script (if the mappings changed) and the documentation (if enabled).
+   * @param mappings mapping metadata (not modified).
+   * @param mappingsChanged whether the mappings changed since the last round.
+   * @throws MojoExecutionException if the outputs cannot be written.
+   */
+  private void generate(Configuration mappings, boolean mappingsChanged) throws MojoExecutionException {
+    if (mappingsChanged) {
+      Dialect dialect = Dialect.getDialect(mappings.getProperties());
+      writeScript(Arrays.asList(mappings.generateSchemaCreationScript(dialect)));
+    }
+
+    if (docOutputDir != null) {
+      ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+      JavadocScanner scanner = new JavadocScanner(sourceDirs, docThreads, getLog());
+      javadocs.update(scanner.findAllSources(), scanner, classLoader);
+
+      Configuration documented;
+      try {
+        documented = ConfigurationSerializer.copy(mappings, classLoader);
+      } catch (IOException | ClassNotFoundException e) {
+        throw new MojoExecutionException("couldn't copy the mappings to add the comments to", e);
+      }
+      new JavadocCommentResolver(javadocs, encryptedTypeRegex, getLog()).populate(documented);
+      HibernateDocMojo.renderDocs(documented, docOutputDir, docThreads, true, false);
+    }
+  }
+}
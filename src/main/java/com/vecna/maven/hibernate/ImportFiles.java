@@ -0,0 +1,156 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.internal.util.ConfigHelper;
+import org.hibernate.tool.hbm2ddl.ImportSqlCommandExtractor;
+import org.hibernate.tool.hbm2ddl.SingleLineSqlCommandExtractor;
+
+/**
+ * The import files of a schema (<code>hibernate.hbm2ddl.import_files</code>, <code>/import.sql</code> by default), which
+ * {@link org.hibernate.tool.hbm2ddl.SchemaExport} executes after creating the schema. Used where the plugin creates or
+ * resets the schema without <code>SchemaExport</code>. Missing files are skipped; execution stops at the first failing
+ * statement, like with <code>SchemaExport</code>.
+ *
+ * @author ogolberg@vecna.com
+ */
+class ImportFiles {
+  /**
+   * The import file used when none are configured.
+   */
+  private static final String DEFAULT_IMPORT_FILE = "/import.sql";
+
+  /**
+   * Import file resource names.
+   */
+  private final List<String> files = new ArrayList<>();
+
+  /**
+   * Splits the import files into statements.
+   */
+  private final ImportSqlCommandExtractor extractor;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param properties hibernate properties.
+   * @param log maven logger.
+   * @throws MojoExecutionException if the configured command extractor cannot be instantiated.
+   */
+  ImportFiles(Properties properties, Log log) throws MojoExecutionException {
+    for (String file : properties.getProperty(AvailableSettings.HBM2DDL_IMPORT_FILES, DEFAULT_IMPORT_FILE).split(",")) {
+      if (!file.trim().isEmpty()) {
+        files.add(file.trim());
+      }
+    }
+
+    String extractorClass = properties.getProperty(AvailableSettings.HBM2DDL_IMPORT_FILES_SQL_EXTRACTOR);
+    if (extractorClass == null) {
+      extractor = new SingleLineSqlCommandExtractor();
+    } else {
+      try {
+        extractor = (ImportSqlCommandExtractor) Class.forName(extractorClass, true,
+            Thread.currentThread().getContextClassLoader()).newInstance();
+      } catch (Exception e) {
+        throw new MojoExecutionException(extractorClass + " is not a valid import SQL command extractor", e);
+      }
+    }
+    this.log = log;
+  }
+
+  /**
+   * Execute the import files.
+   * @param connection a connection to the target database (in auto-commit mode).
+   * @return whether all statements succeeded.
+   * @throws MojoExecutionException if an import file cannot be read.
+   */
+  boolean execute(Connection connection) throws MojoExecutionException {
+    for (String file : files) {
+      InputStream stream;
+      try {
+        stream = ConfigHelper.getResourceAsStream(file);
+      } catch (HibernateException e) {
+        log.debug("import file not found: " + file);
+        continue;
+      }
+
+      String[] statements;
+      try (Reader reader = new BufferedReader(new InputStreamReader(stream))) {
+        statements = extractor.extractCommands(reader);
+      } catch (IOException e) {
+        throw new MojoExecutionException("couldn't read the import file " + file, e);
+      }
+
+      if (statements != null && !execute(connection, file, statements)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param connection a connection to the target database.
+   * @param file import file name.
+   * @param statements the statements of the file.
+   * @return whether all statements succeeded.
+   */
+  private boolean execute(Connection connection, String file, String[] statements) {
+    int executed = 0;
+    try (Statement jdbcStatement = connection.createStatement()) {
+      for (String statement : statements) {
+        String sql = statement == null ? "" : statement.trim();
+        if (sql.endsWith(";")) {
+          sql = sql.substring(0, sql.length() - 1);
+        }
+        if (!sql.isEmpty()) {
+          try {
+            jdbcStatement.executeUpdate(sql);
+            executed++;
+          } catch (SQLException e) {
+            log.error("Unsuccessful (import file " + file + "): " + sql);
+            log.error(e.getMessage());
+            return false;
+          }
+        }
+      }
+    } catch (SQLException e) {
+      log.error("couldn't execute the import file " + file + ": " + e.getMessage());
+      return false;
+    }
+    log.info("executed " + executed + " statements of the import file " + file);
+    return true;
+  }
+}
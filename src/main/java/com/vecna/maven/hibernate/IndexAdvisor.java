@@ -0,0 +1,241 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.mapping.ForeignKey;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.Table;
+
+import com.vecna.maven.hibernate.SchemaModel.KeyModel;
+import com.vecna.maven.hibernate.SchemaModel.TableModel;
+
+/**
+ * Finds foreign keys whose columns are not covered by an index. Deleting a referenced row or joining on such a key
+ * scans the referencing table. A key is covered if the leading columns of an index, a unique key (including natural
+ * ids) or the primary key are the key's columns, in any order - either in the mappings or in the live schema.
+ *
+ * @author ogolberg@vecna.com
+ */
+class IndexAdvisor {
+  /**
+   * A foreign key without a covering index.
+   */
+  static class Finding {
+    /**
+     * Qualified name of the referencing table.
+     */
+    private final String table;
+
+    /**
+     * The foreign key.
+     */
+    private final KeyModel foreignKey;
+
+    /**
+     * The statement that creates a covering index.
+     */
+    private final String createSql;
+
+    /**
+     * Estimated number of rows in the referencing table (null if not known).
+     */
+    private Long rows;
+
+    /**
+     * @param table qualified name of the referencing table.
+     * @param foreignKey the foreign key.
+     * @param createSql the statement that creates a covering index.
+     */
+    Finding(String table, KeyModel foreignKey, String createSql) {
+      this.table = table;
+      this.foreignKey = foreignKey;
+      this.createSql = createSql;
+    }
+
+    /**
+     * @return qualified name of the referencing table.
+     */
+    String getTable() {
+      return table;
+    }
+
+    /**
+     * @return the foreign key.
+     */
+    KeyModel getForeignKey() {
+      return foreignKey;
+    }
+
+    /**
+     * @return the statement that creates a covering index.
+     */
+    String getCreateSql() {
+      return createSql;
+    }
+
+    /**
+     * @return estimated number of rows in the referencing table (null if not known).
+     */
+    Long getRows() {
+      return rows;
+    }
+  }
+
+  /**
+   * Orders findings by the number of rows in the referencing table, largest (or unknown) first.
+   */
+  private static final Comparator<Finding> BY_ROWS = new Comparator<Finding>() {
+    @Override
+    public int compare(Finding f1, Finding f2) {
+      long rows1 = f1.rows == null ? Long.MAX_VALUE : f1.rows;
+      long rows2 = f2.rows == null ? Long.MAX_VALUE : f2.rows;
+      int result = Long.compare(rows2, rows1);
+      return result != 0 ? result : f1.table.compareTo(f2.table);
+    }
+  };
+
+  /**
+   * Hibernate configuration.
+   */
+  private final Configuration configuration;
+
+  /**
+   * SQL dialect.
+   */
+  private final Dialect dialect;
+
+  /**
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   */
+  IndexAdvisor(Configuration configuration, Dialect dialect) {
+    this.configuration = configuration;
+    this.dialect = dialect;
+  }
+
+  /**
+   * @param key a foreign key.
+   * @param table a table model (may be null).
+   * @return whether an index, a unique key or the primary key of the table covers the foreign key.
+   */
+  private static boolean isCovered(KeyModel key, TableModel table) {
+    if (table == null) {
+      return false;
+    }
+    Set<String> columns = new HashSet<>(SchemaModel.keys(key.getColumns()));
+    if (isPrefix(columns, table.getPrimaryKey())) {
+      return true;
+    }
+    for (KeyModel index : table.getIndexes()) {
+      if (isPrefix(columns, index.getColumns())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param columns column keys.
+   * @param indexColumns index columns.
+   * @return whether the leading index columns are exactly the given columns.
+   */
+  private static boolean isPrefix(Set<String> columns, List<String> indexColumns) {
+    return indexColumns.size() >= columns.size()
+        && new HashSet<>(SchemaModel.keys(indexColumns.subList(0, columns.size()))).equals(columns);
+  }
+
+  /**
+   * @param foreignKey a foreign key.
+   * @return the name of an index that covers it.
+   */
+  private static String getIndexName(ForeignKey foreignKey) {
+    String name = foreignKey.getName();
+    return name.regionMatches(true, 0, "FK", 0, 2) ? "IX" + name.substring(2) : "IX_" + name;
+  }
+
+  /**
+   * Find foreign keys without covering indexes.
+   * @param live the live schema (null if not available).
+   * @param estimator live row count estimator (null if not available).
+   * @return findings, largest tables first.
+   */
+  List<Finding> advise(SchemaModel live, RowCountEstimator estimator) {
+    String defaultCatalog = configuration.getProperty(Environment.DEFAULT_CATALOG);
+    String defaultSchema = configuration.getProperty(Environment.DEFAULT_SCHEMA);
+    Mapping mapping = configuration.buildMapping();
+    SchemaModel mapped = SchemaModel.fromConfiguration(configuration, dialect, mapping);
+
+    List<Finding> findings = new ArrayList<>();
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      Table table = (Table) tables.next();
+      if (!table.isPhysicalTable()) {
+        continue;
+      }
+      TableModel mappedTable = mapped.getTable(table.getQuotedName(dialect));
+      TableModel liveTable = live == null ? null : live.getTable(table.getQuotedName(dialect));
+
+      for (KeyModel key : mappedTable.getForeignKeys()) {
+        if (isCovered(key, mappedTable) || isCovered(key, liveTable)) {
+          continue;
+        }
+        ForeignKey foreignKey = findForeignKey(table, key.getName());
+        Index index = new Index();
+        index.setName(getIndexName(foreignKey));
+        index.setTable(table);
+        index.addColumns(foreignKey.getColumnIterator());
+
+        String tableName = table.getQualifiedName(dialect, defaultCatalog, defaultSchema);
+        Finding finding = new Finding(tableName, key,
+                                      index.sqlCreateString(dialect, mapping, defaultCatalog, defaultSchema));
+        finding.rows = estimator == null ? null : estimator.estimate(tableName);
+        findings.add(finding);
+      }
+    }
+
+    Collections.sort(findings, BY_ROWS);
+    return findings;
+  }
+
+  /**
+   * @param table a mapped table.
+   * @param name foreign key name.
+   * @return the table's foreign key with the name.
+   */
+  private static ForeignKey findForeignKey(Table table, String name) {
+    Iterator<?> foreignKeys = table.getForeignKeyIterator();
+    while (foreignKeys.hasNext()) {
+      ForeignKey foreignKey = (ForeignKey) foreignKeys.next();
+      if (foreignKey.getName().equals(name)) {
+        return foreignKey;
+      }
+    }
+    throw new IllegalStateException("no foreign key " + name + " on " + table.getName());
+  }
+}
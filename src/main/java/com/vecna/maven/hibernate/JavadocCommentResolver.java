@@ -0,0 +1,294 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Component;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.SimpleValue;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.Value;
+
+/**
+ * Populates table and column comments in a Hibernate model from javadocs. Lookups are memoized: the comment of each
+ * property is resolved once per class (components embedded in many entities are only looked up once), and the
+ * encrypted type pattern is compiled once and evaluated once per type name.
+ *
+ * @author ogolberg@vecna.com
+ */
+class JavadocCommentResolver {
+  /**
+   * Javadocs for all classes.
+   */
+  private final JavadocLookup javaDocs;
+
+  /**
+   * Matches the full names of encrypted Hibernate types (null if there are none).
+   */
+  private final Pattern encryptedType;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * Property comments by property key (see {@link #getPropertyKey(Property)}), by class.
+   */
+  private final Map<Class<?>, Map<String, String>> memberComments = new HashMap<>();
+
+  /**
+   * Whether a type is encrypted, by type name.
+   */
+  private final Map<String, Boolean> encryptedTypes = new HashMap<>();
+
+  /**
+   * @param javaDocs javadocs for all classes.
+   * @param encryptedTypeRegex a regex the full names of encrypted Hibernate types match (null if there are none).
+   * @param log maven logger.
+   */
+  JavadocCommentResolver(JavadocLookup javaDocs, String encryptedTypeRegex, Log log) {
+    this.javaDocs = javaDocs;
+    this.encryptedType = encryptedTypeRegex == null ? null : Pattern.compile(encryptedTypeRegex);
+    this.log = log;
+  }
+
+  /**
+   * @param cls a class.
+   * @return memoized property comments of the class (empty for classes without sources, whose properties get the
+   *         placeholder comment).
+   */
+  private Map<String, String> getMemberComments(Class<?> cls) {
+    Map<String, String> comments = memberComments.get(cls);
+    if (comments == null) {
+      comments = new HashMap<>();
+      memberComments.put(cls, comments);
+    }
+    return comments;
+  }
+
+  /**
+   * @param property hibernate property.
+   * @return a key that identifies the member the property is read through (within its class).
+   */
+  private static String getPropertyKey(Property property) {
+    return property.getName() + "/" + property.getPropertyAccessorName();
+  }
+
+  /**
+   * @return javadocs for a simple Hibernate property (memoized)
+   * @param property hibernate property
+   * @param cls the class that owns the property
+   * @param comments memoized property comments of the class
+   */
+  private String getSimpleValueJavadoc(Property property, Class<?> cls, Map<String, String> comments) {
+    String key = getPropertyKey(property);
+    if (comments.containsKey(key)) {
+      return comments.get(key);
+    }
+    String comment = findSimpleValueJavadoc(property, cls);
+    comments.put(key, comment);
+    return comment;
+  }
+
+  /**
+   * @return javadocs for a simple Hibernate property
+   * @param property hibernate property
+   * @param cls the class that owns the property
+   */
+  private String findSimpleValueJavadoc(Property property, Class<?> cls) {
+    Member member = property.getGetter(cls).getMember();
+
+    if (member instanceof Field) {
+      return javaDocs.getFieldComment(cls.getName(), member.getName());
+    } else if (member instanceof Method) {
+      Method method = (Method) member;
+      String[] types = JavadocLookup.getTypeNames(method.getParameterTypes());
+      if (!javaDocs.hasMethod(cls.getName(), method.getName(), types)) {
+        if (javaDocs.hasClass(cls.getName())) {
+          log.warn("can't find java method docs for " + cls.getName()
+                   + " . " + method.getName() + " " + Arrays.asList(types));
+        }
+      } else {
+        return javaDocs.getReturnComment(cls.getName(), method.getName(), types);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @param typeName full name of a Hibernate type.
+   * @return whether the type is encrypted.
+   */
+  private boolean isEncrypted(String typeName) {
+    Boolean encrypted = encryptedTypes.get(typeName);
+    if (encrypted == null) {
+      encrypted = encryptedType.matcher(typeName).matches();
+      encryptedTypes.put(typeName, encrypted);
+    }
+    return encrypted;
+  }
+
+  /**
+   * set a comment on Hibernate columns.
+   * @param comment the comment to set.
+   * @param columnIterator hibernate column iterator.
+   */
+  private void setComment(String comment, Iterator<Column> columnIterator) {
+    while (columnIterator.hasNext()) {
+      Column column = columnIterator.next();
+      if (encryptedType != null && column.getValue() instanceof SimpleValue) {
+        String typeName = ((SimpleValue) column.getValue()).getTypeName();
+        if (typeName != null && isEncrypted(typeName)) {
+          comment += " [encrypted]";
+        }
+      }
+      column.setComment(comment);
+    }
+  }
+
+  /**
+   * set a comment on Hibernate columns mapped to a property
+   * @param comment the comment to set
+   * @param prop hibernate property
+   */
+  private void setComment(String comment, Property prop) {
+    @SuppressWarnings("unchecked") Iterator<Column> columnIterator = prop.getColumnIterator();
+    setComment(comment, columnIterator);
+  }
+
+  /**
+   * concatenate javadoc comments for nested properties
+   * @param comment the comment to add to the javadoc
+   * @param accumulatedJavadoc the comment for the parent property
+   * @return combined comment
+   */
+  private static String accumulateJavadoc(String comment, String accumulatedJavadoc) {
+    if (comment == null) {
+      comment = "???";
+    }
+
+    if (accumulatedJavadoc != null) {
+      comment = accumulatedJavadoc + " - " + comment;
+    }
+
+    return comment;
+  }
+
+  /**
+   * Populate Hibernate properties with comments from javadocs (including nested properties).
+   * @param propertyIterator iterator over top-level properties
+   * @param cls the class to introspect.
+   * @param accumulatedJavadoc comments accumulated so far (for nested properties)
+   */
+  private void processProperties(Iterator<Property> propertyIterator, Class<?> cls, String accumulatedJavadoc) {
+    Map<String, String> comments = getMemberComments(cls);
+
+    while (propertyIterator.hasNext()) {
+      Property prop = propertyIterator.next();
+
+      Value value = prop.getValue();
+
+      if (value instanceof Collection) {
+        Collection collection = (Collection) value;
+
+        Value elementValue = collection.getElement();
+
+        if (elementValue instanceof Component) {
+          processComponent((Component) elementValue, accumulatedJavadoc);
+        }
+
+        Table collectionTable = collection.getCollectionTable();
+
+        if (collectionTable.getComment() == null) {
+          collectionTable.setComment(getSimpleValueJavadoc(prop, cls, comments));
+        }
+      } else if (value instanceof Component) {
+        String comment = getSimpleValueJavadoc(prop, cls, comments);
+        comment = accumulateJavadoc(comment, accumulatedJavadoc);
+        processComponent((Component) value, comment);
+      } else if (value instanceof SimpleValue) {
+        String comment = getSimpleValueJavadoc(prop, cls, comments);
+        comment = accumulateJavadoc(comment, accumulatedJavadoc);
+        setComment(comment, prop);
+      }
+    }
+  }
+
+  /**
+   * Process a component (embedded property) and populate its properties (including nested ones) with javadoc comments.
+   * @param component component model
+   * @param accumulatedJavadoc comments accumulated so far (for nested components)
+   */
+  private void processComponent(Component component, String accumulatedJavadoc) {
+    @SuppressWarnings("unchecked") Iterator<Property> propertyIterator = component.getPropertyIterator();
+    processProperties(propertyIterator, component.getComponentClass(), accumulatedJavadoc);
+  }
+
+  /**
+   * Populate table/column comments in a Hibernate model from javadocs. Mapped classes without sources get the placeholder
+   * comment on their columns.
+   * @param configuration hibernate configuration.
+   */
+  void populate(Configuration configuration) {
+    Iterator<PersistentClass> mappedClasses = configuration.getClassMappings();
+    while (mappedClasses.hasNext()) {
+      PersistentClass mappedClass = mappedClasses.next();
+
+      Table table = mappedClass.getTable();
+      if (table != null && mappedClass.getClassName() != null) {
+        String comment = javaDocs.getClassComment(mappedClass.getClassName());
+
+        if (mappedClass.getDiscriminator() != null) {
+          String newComment = "Discriminator '" + mappedClass.getDiscriminatorValue() + "': " + comment;
+          if (table.getComment() != null) {
+            newComment = table.getComment() + "<br><br>" + newComment;
+          }
+          table.setComment(newComment);
+          @SuppressWarnings("unchecked")
+          Iterator<Column> discriminatorColumns = mappedClass.getDiscriminator().getColumnIterator();
+          setComment("discriminator - see table comment", discriminatorColumns);
+        } else {
+          table.setComment(comment);
+        }
+      }
+
+      if (mappedClass.getClassName() != null) {
+        @SuppressWarnings("unchecked") Iterator<Property> propertyIterator = mappedClass.getPropertyIterator();
+        processProperties(propertyIterator, mappedClass.getMappedClass(), null);
+      }
+
+      if (mappedClass.getIdentifierProperty() != null) {
+        setComment("Primary key", mappedClass.getIdentifierProperty());
+      }
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Persistent javadoc index. Holds compact javadoc records ({@link ClassJavadoc}) per source file, keyed by the file path
+ * and validated by its modification time and content hash, so that only changed files are re-parsed.
+ *
+ * @author ogolberg@vecna.com
+ */
+class JavadocIndex extends JavadocLookup {
+  /**
+   * Index entry for one source file.
+   */
+  private static class SourceEntry implements Serializable {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Modification time of the file when it was indexed.
+     */
+    private long lastModified;
+
+    /**
+     * Content hash of the file when it was indexed.
+     */
+    private final String hash;
+
+    /**
+     * Javadoc records by binary class name.
+     */
+    private final Map<String, ClassJavadoc> classes;
+
+    /**
+     * @param lastModified modification time of the file.
+     * @param hash content hash of the file.
+     * @param classes javadoc records by binary class name.
+     */
+    SourceEntry(long lastModified, String hash, Map<String, ClassJavadoc> classes) {
+      this.lastModified = lastModified;
+      this.hash = hash;
+      this.classes = classes;
+    }
+  }
+
+  /**
+   * Index entries by absolute source file path.
+   */
+  private final Map<String, SourceEntry> entries;
+
+  /**
+   * Javadoc records of the indexed sources by binary class name.
+   */
+  private final Map<String, ClassJavadoc> classes = new HashMap<>();
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param entries index entries by absolute source file path.
+   * @param log maven logger.
+   */
+  private JavadocIndex(Map<String, SourceEntry> entries, Log log) {
+    this.entries = entries;
+    this.log = log;
+  }
+
+  /**
+   * @param log maven logger.
+   * @return an empty index.
+   */
+  static JavadocIndex empty(Log log) {
+    return new JavadocIndex(new HashMap<String, SourceEntry>(), log);
+  }
+
+  /**
+   * Load a persisted index. A missing or unreadable index file yields an empty index.
+   * @param file index file.
+   * @param log maven logger.
+   * @return the index.
+   */
+  static JavadocIndex load(File file, Log log) {
+    if (file.isFile()) {
+      try (ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(
+          new FileInputStream(file))))) {
+        @SuppressWarnings("unchecked") Map<String, SourceEntry> entries = (Map<String, SourceEntry>) in.readObject();
+        return new JavadocIndex(entries, log);
+      } catch (IOException | ClassNotFoundException | ClassCastException e) {
+        log.warn("ignoring unreadable javadoc index " + file + ": " + e);
+      }
+    }
+    return empty(log);
+  }
+
+  /**
+   * @param file a file.
+   * @return the file's content hash.
+   * @throws IOException if the file cannot be read.
+   */
+  private static String hash(File file) throws IOException {
+    return new Fingerprint().addContent("source", file.toURI().toURL()).toHex();
+  }
+
+  /**
+   * Bring the index up to date with a set of source files: unchanged files are taken from the index, changed and new
+   * files are (re-)parsed, and files that are no longer part of the set are dropped.
+   * @param sources source files.
+   * @param scanner parses changed files.
+   * @param classLoader classloader for resolving types referenced from the sources.
+   * @throws MojoExecutionException if a file cannot be read or parsed.
+   */
+  void update(List<File> sources, JavadocScanner scanner, ClassLoader classLoader) throws MojoExecutionException {
+    Map<String, SourceEntry> current = new HashMap<>();
+    List<File> changed = new ArrayList<>();
+    Map<File, String> hashes = new HashMap<>();
+
+    for (File source : sources) {
+      String path = source.getAbsolutePath();
+      SourceEntry entry = entries.get(path);
+
+      if (entry != null && entry.lastModified == source.lastModified()) {
+        current.put(path, entry);
+        continue;
+      }
+
+      String hash;
+      try {
+        hash = hash(source);
+      } catch (IOException e) {
+        throw new MojoExecutionException("couldn't read " + source, e);
+      }
+
+      if (entry != null && entry.hash.equals(hash)) {
+        entry.lastModified = source.lastModified();
+        current.put(path, entry);
+      } else {
+        changed.add(source);
+        hashes.put(source, hash);
+      }
+    }
+
+    if (!changed.isEmpty()) {
+      for (Map.Entry<File, Map<String, ClassJavadoc>> parsed : scanner.parseCompact(changed, classLoader).entrySet()) {
+        File source = parsed.getKey();
+        current.put(source.getAbsolutePath(), new SourceEntry(source.lastModified(), hashes.get(source), parsed.getValue()));
+      }
+    }
+
+    log.info("javadoc index: " + (sources.size() - changed.size()) + " source files unchanged, " + changed.size()
+             + " (re-)parsed");
+
+    entries.clear();
+    entries.putAll(current);
+    classes.clear();
+    for (SourceEntry entry : entries.values()) {
+      classes.putAll(entry.classes);
+    }
+  }
+
+  /**
+   * Persist the index.
+   * @param file index file.
+   * @throws MojoExecutionException if the index cannot be written.
+   */
+  void save(File file) throws MojoExecutionException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+      try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tmp))))) {
+        out.writeObject(entries);
+      }
+      if (!tmp.renameTo(file)) {
+        FileUtils.rename(tmp, file);
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("couldn't write javadoc index " + file, e);
+    }
+  }
+
+  /**
+   * @param javadoc javadoc record of a class.
+   * @return the javadoc record of the superclass or null.
+   */
+  private ClassJavadoc getSuperclass(ClassJavadoc javadoc) {
+    return javadoc.getSuperclass() == null ? null : resolve(classes, javadoc.getSuperclass());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  boolean hasClass(String className) {
+    return classes.containsKey(className);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  String getClassComment(String className) {
+    ClassJavadoc javadoc = classes.get(className);
+    return javadoc == null ? null : javadoc.getComment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  String getFieldComment(String className, String fieldName) {
+    ClassJavadoc javadoc = classes.get(className);
+    return javadoc == null ? null : javadoc.getFieldComment(fieldName);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  boolean hasMethod(String className, String methodName, String[] parameterTypes) {
+    String signature = getSignature(methodName, parameterTypes);
+    for (ClassJavadoc javadoc = classes.get(className); javadoc != null; javadoc = getSuperclass(javadoc)) {
+      if (javadoc.hasMethod(signature)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  String getReturnComment(String className, String methodName, String[] parameterTypes) {
+    String signature = getSignature(methodName, parameterTypes);
+    for (ClassJavadoc javadoc = classes.get(className); javadoc != null; javadoc = getSuperclass(javadoc)) {
+      String comment = javadoc.getReturnComment(signature);
+      if (comment != null) {
+        return comment;
+      }
+    }
+    return null;
+  }
+}
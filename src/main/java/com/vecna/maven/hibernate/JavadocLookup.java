@@ -0,0 +1,120 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.util.Map;
+
+/**
+ * Read access to the javadoc comments the doc goal needs: class comments, field comments and getter <code>@return</code>
+ * tags. Classes are identified by their binary names (as returned by {@link Class#getName()}).
+ *
+ * @author ogolberg@vecna.com
+ */
+abstract class JavadocLookup {
+  /**
+   * @param className binary class name.
+   * @return whether the class is defined in the parsed sources.
+   */
+  abstract boolean hasClass(String className);
+
+  /**
+   * @param className binary class name.
+   * @return the class comment or null.
+   */
+  abstract String getClassComment(String className);
+
+  /**
+   * @param className binary class name.
+   * @param fieldName field name.
+   * @return the comment of a field declared in the class or null.
+   */
+  abstract String getFieldComment(String className, String fieldName);
+
+  /**
+   * @param className binary class name.
+   * @param methodName method name.
+   * @param parameterTypes parameter type names (see {@link #getTypeNames(Class[])}).
+   * @return whether the method is declared in the class or one of its superclasses.
+   */
+  abstract boolean hasMethod(String className, String methodName, String[] parameterTypes);
+
+  /**
+   * Look up the <code>@return</code> tag of a method. As in javadoc, a method without the tag inherits it from the method
+   * it overrides.
+   * @param className binary class name.
+   * @param methodName method name.
+   * @param parameterTypes parameter type names (see {@link #getTypeNames(Class[])}).
+   * @return the <code>@return</code> tag value or null.
+   */
+  abstract String getReturnComment(String className, String methodName, String[] parameterTypes);
+
+  /**
+   * @param classes java types.
+   * @return type names as they appear in parsed sources (e.g. <code>java.lang.String[]</code>).
+   */
+  static String[] getTypeNames(Class<?>[] classes) {
+    String[] names = new String[classes.length];
+    for (int i = 0; i < classes.length; i++) {
+      Class<?> cls = classes[i];
+      StringBuilder dimensions = new StringBuilder();
+      while (cls.isArray()) {
+        dimensions.append("[]");
+        cls = cls.getComponentType();
+      }
+      names[i] = cls.getName().replace('$', '.') + dimensions;
+    }
+    return names;
+  }
+
+  /**
+   * @param methodName method name.
+   * @param parameterTypes parameter type names.
+   * @return a method signature key.
+   */
+  static String getSignature(String methodName, String[] parameterTypes) {
+    StringBuilder signature = new StringBuilder(methodName).append('(');
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (i > 0) {
+        signature.append(',');
+      }
+      signature.append(parameterTypes[i]);
+    }
+    return signature.append(')').toString();
+  }
+
+  /**
+   * Resolve a source-level class name (nested classes separated by dots) against classes registered by binary name.
+   * @param classes classes by binary name.
+   * @param name class name as it appears in source.
+   * @param <T> class model type.
+   * @return the class or null.
+   */
+  static <T> T resolve(Map<String, T> classes, String name) {
+    String candidate = name;
+    while (true) {
+      T javaClass = classes.get(candidate);
+      if (javaClass != null) {
+        return javaClass;
+      }
+      int dot = candidate.lastIndexOf('.');
+      if (dot < 0) {
+        return null;
+      }
+      candidate = candidate.substring(0, dot) + "$" + candidate.substring(dot + 1);
+    }
+  }
+}
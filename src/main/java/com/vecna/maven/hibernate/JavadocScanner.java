@@ -0,0 +1,297 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.Component;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.Value;
+
+import com.thoughtworks.qdox.JavaDocBuilder;
+import com.thoughtworks.qdox.model.JavaClass;
+
+/**
+ * Locates and parses the source files the doc goal needs. Instead of parsing whole source trees, it starts from the
+ * mapped classes, finds the component classes they embed and the superclasses of both, and parses only the files that
+ * define them. Files are parsed in parallel; each worker uses its own QDox builder (builders are not thread-safe).
+ *
+ * @author ogolberg@vecna.com
+ */
+class JavadocScanner {
+  /**
+   * Maximum number of files parsed by one QDox builder.
+   */
+  private static final int MAX_CHUNK_SIZE = 100;
+
+  /**
+   * Source directories.
+   */
+  private final File[] sourceDirs;
+
+  /**
+   * Maximum number of parser threads.
+   */
+  private final int threads;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param sourceDirs source directories.
+   * @param threads maximum number of parser threads.
+   * @param log maven logger.
+   */
+  JavadocScanner(File[] sourceDirs, int threads, Log log) {
+    this.sourceDirs = sourceDirs;
+    this.threads = threads;
+    this.log = log;
+  }
+
+  /**
+   * Collect the classes whose javadocs describe the schema: mapped classes, embedded component classes (including nested
+   * components and collection elements) and their superclasses.
+   * @param configuration hibernate configuration.
+   * @return documented classes.
+   */
+  static Set<Class<?>> getDocumentedClasses(Configuration configuration) {
+    Set<Class<?>> classes = new LinkedHashSet<>();
+    Iterator<PersistentClass> mappedClasses = configuration.getClassMappings();
+    while (mappedClasses.hasNext()) {
+      PersistentClass mappedClass = mappedClasses.next();
+      if (mappedClass.getMappedClass() != null) {
+        addWithSuperclasses(mappedClass.getMappedClass(), classes);
+      }
+      @SuppressWarnings("unchecked") Iterator<Property> properties = mappedClass.getPropertyIterator();
+      addComponentClasses(properties, classes);
+    }
+    return classes;
+  }
+
+  /**
+   * @param properties property iterator.
+   * @param classes the set to add component classes to.
+   */
+  private static void addComponentClasses(Iterator<Property> properties, Set<Class<?>> classes) {
+    while (properties.hasNext()) {
+      Value value = properties.next().getValue();
+      if (value instanceof org.hibernate.mapping.Collection) {
+        value = ((org.hibernate.mapping.Collection) value).getElement();
+      }
+      if (value instanceof Component) {
+        Component component = (Component) value;
+        if (!component.isDynamic() && classes.add(component.getComponentClass())) {
+          addWithSuperclasses(component.getComponentClass(), classes);
+          @SuppressWarnings("unchecked") Iterator<Property> nested = component.getPropertyIterator();
+          addComponentClasses(nested, classes);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param cls a class.
+   * @param classes the set to add the class and its (non-JDK) superclasses to.
+   */
+  private static void addWithSuperclasses(Class<?> cls, Set<Class<?>> classes) {
+    for (Class<?> current = cls; current != null && current != Object.class; current = current.getSuperclass()) {
+      if (current.getName().startsWith("java.")) {
+        break;
+      }
+      classes.add(current);
+    }
+  }
+
+  /**
+   * @return the valid source directories (invalid ones are reported).
+   */
+  private List<File> getValidSourceDirs() {
+    List<File> dirs = new ArrayList<>();
+    for (File sourceDir : sourceDirs) {
+      if (!sourceDir.exists() || !sourceDir.isDirectory()) {
+        log.error("Invalid source directory: " + sourceDir);
+      } else {
+        dirs.add(sourceDir);
+      }
+    }
+    return dirs;
+  }
+
+  /**
+   * Find the source files that define the given classes. Nested classes map to the file of their top-level class.
+   * @param classes classes to find the sources for.
+   * @return source files (each file is listed once).
+   */
+  List<File> findSources(Collection<Class<?>> classes) {
+    List<File> dirs = getValidSourceDirs();
+    Set<File> files = new LinkedHashSet<>();
+    for (Class<?> cls : classes) {
+      Class<?> topLevel = cls;
+      while (topLevel.getEnclosingClass() != null) {
+        topLevel = topLevel.getEnclosingClass();
+      }
+      String path = topLevel.getName().replace('.', File.separatorChar) + ".java";
+      for (File dir : dirs) {
+        File file = new File(dir, path);
+        if (file.isFile()) {
+          files.add(file);
+          break;
+        }
+      }
+    }
+    return new ArrayList<>(files);
+  }
+
+  /**
+   * @return all source files under the source directories.
+   */
+  List<File> findAllSources() {
+    List<File> files = new ArrayList<>();
+    for (File dir : getValidSourceDirs()) {
+      addSources(dir, files);
+    }
+    return files;
+  }
+
+  /**
+   * @param dir directory to scan (recursively).
+   * @param files the list to add source files to.
+   */
+  private static void addSources(File dir, List<File> files) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          addSources(child, files);
+        } else if (child.getName().endsWith(".java")) {
+          files.add(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts the classes parsed from a source file (in the parsing thread, while the QDox model is still around).
+   * @param <T> conversion result type.
+   */
+  private interface SourceConverter<T> {
+    /**
+     * @param classes classes parsed from a source file, by binary name.
+     * @return conversion result.
+     */
+    T convert(Map<String, JavaClass> classes);
+  }
+
+  /**
+   * Parse source files in parallel. Files are parsed in chunks, each with its own QDox builder; a builder (and the
+   * QDox model it holds) is dropped as soon as its chunk has been converted.
+   * @param files source files.
+   * @param classLoader classloader for resolving types referenced from the sources (e.g. same-package superclasses).
+   * @param converter converts the classes parsed from each file.
+   * @param <T> conversion result type.
+   * @return conversion results by source file.
+   * @throws MojoExecutionException if a file cannot be read or parsed.
+   */
+  private <T> Map<File, T> parse(List<File> files, final ClassLoader classLoader, final SourceConverter<T> converter)
+      throws MojoExecutionException {
+    int chunks = Math.min(files.size(), Math.max(Math.max(1, threads) * 4, files.size() / MAX_CHUNK_SIZE));
+    List<Callable<Map<File, T>>> tasks = new ArrayList<>();
+
+    for (int i = 0; i < chunks; i++) {
+      final List<File> chunk = files.subList(i * files.size() / chunks, (i + 1) * files.size() / chunks);
+      tasks.add(new Callable<Map<File, T>>() {
+        @Override
+        public Map<File, T> call() throws IOException {
+          JavaDocBuilder builder = new JavaDocBuilder();
+          builder.getClassLibrary().addClassLoader(classLoader);
+          Map<File, T> parsed = new HashMap<>();
+          for (File file : chunk) {
+            Map<String, JavaClass> classes = new HashMap<>();
+            QdoxJavadocLookup.addClasses(builder.addSource(file), classes);
+            parsed.put(file, converter.convert(classes));
+          }
+          return parsed;
+        }
+      });
+    }
+
+    Map<File, T> parsed = new HashMap<>();
+    for (Map<File, T> chunk : ParallelTasks.invokeAll("javadoc parsing", threads, tasks)) {
+      parsed.putAll(chunk);
+    }
+    log.info("parsed " + files.size() + " source files");
+    return parsed;
+  }
+
+  /**
+   * Parse source files in parallel into compact javadoc records; no QDox model is retained.
+   * @param files source files.
+   * @param classLoader classloader for resolving types referenced from the sources.
+   * @return javadoc records by binary class name, by source file.
+   * @throws MojoExecutionException if a file cannot be read or parsed.
+   */
+  Map<File, Map<String, ClassJavadoc>> parseCompact(List<File> files, ClassLoader classLoader)
+      throws MojoExecutionException {
+    return parse(files, classLoader, new SourceConverter<Map<String, ClassJavadoc>>() {
+      @Override
+      public Map<String, ClassJavadoc> convert(Map<String, JavaClass> classes) {
+        Map<String, ClassJavadoc> javadocs = new HashMap<>();
+        for (Map.Entry<String, JavaClass> javaClass : classes.entrySet()) {
+          javadocs.put(javaClass.getKey(), ClassJavadoc.fromSource(javaClass.getValue()));
+        }
+        return javadocs;
+      }
+    });
+  }
+
+  /**
+   * Parse source files in parallel into a single lookup.
+   * @param files source files.
+   * @param classLoader classloader for resolving types referenced from the sources.
+   * @return javadoc lookup over all parsed classes.
+   * @throws MojoExecutionException if a file cannot be read or parsed.
+   */
+  QdoxJavadocLookup parseLookup(List<File> files, ClassLoader classLoader) throws MojoExecutionException {
+    Map<String, JavaClass> classes = new HashMap<>();
+    SourceConverter<Map<String, JavaClass>> identity = new SourceConverter<Map<String, JavaClass>>() {
+      @Override
+      public Map<String, JavaClass> convert(Map<String, JavaClass> parsed) {
+        return parsed;
+      }
+    };
+    for (Map<String, JavaClass> fileClasses : parse(files, classLoader, identity).values()) {
+      classes.putAll(fileClasses);
+    }
+    return new QdoxJavadocLookup(classes);
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.cfg.Environment;
+
+/**
+ * Opens JDBC connections with the connection settings of a Hibernate configuration
+ * (<code>hibernate.connection.*</code>). The driver is loaded through the context classloader, i.e. from the build
+ * classpath.
+ *
+ * @author ogolberg@vecna.com
+ */
+class JdbcConnectionSource {
+  /**
+   * Hibernate connection settings that aren't driver properties.
+   */
+  private static final Set<String> SPECIAL_PROPERTIES = new HashSet<>(Arrays.asList(
+      Environment.URL, Environment.DRIVER, Environment.USER, Environment.PASS, Environment.ISOLATION,
+      Environment.AUTOCOMMIT, Environment.POOL_SIZE, Environment.CONNECTION_PROVIDER, Environment.DATASOURCE));
+
+  /**
+   * Connection URL.
+   */
+  private final String url;
+
+  /**
+   * Connection properties (user, password and any other <code>hibernate.connection.*</code> settings).
+   */
+  private final Properties info = new Properties();
+
+  /**
+   * JDBC driver (null to look one up through the {@link DriverManager}).
+   */
+  private final Driver driver;
+
+  /**
+   * Counts JDBC round-trips over the opened connections (null to not count).
+   */
+  private volatile AtomicLong roundTrips;
+
+  /**
+   * Proxies a JDBC object, counting the calls that go to the database.
+   */
+  private static class CountingHandler implements InvocationHandler {
+    /**
+     * The proxied object.
+     */
+    private final Object target;
+
+    /**
+     * Round-trip counter.
+     */
+    private final AtomicLong roundTrips;
+
+    /**
+     * @param target the proxied object.
+     * @param roundTrips round-trip counter.
+     */
+    CountingHandler(Object target, AtomicLong roundTrips) {
+      this.target = target;
+      this.roundTrips = roundTrips;
+    }
+
+    /**
+     * @param target a JDBC object.
+     * @param type the JDBC interface to proxy.
+     * @param roundTrips round-trip counter.
+     * @return a counting proxy.
+     */
+    static Object wrap(Object target, Class<?> type, AtomicLong roundTrips) {
+      return Proxy.newProxyInstance(JdbcConnectionSource.class.getClassLoader(), new Class<?>[] {type},
+                                    new CountingHandler(target, roundTrips));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      Class<?> returnType = method.getReturnType();
+      if (target instanceof DatabaseMetaData ? returnType == ResultSet.class
+          : name.startsWith("execute") || name.equals("commit") || name.equals("rollback")) {
+        roundTrips.incrementAndGet();
+      }
+
+      Object result;
+      try {
+        result = method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      if (target instanceof Connection && result != null
+          && (Statement.class.isAssignableFrom(returnType) || returnType == DatabaseMetaData.class)) {
+        return wrap(result, returnType, roundTrips);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * @param properties hibernate properties.
+   * @throws SQLException if no connection URL is configured or the driver cannot be loaded.
+   */
+  JdbcConnectionSource(Properties properties) throws SQLException {
+    url = properties.getProperty(Environment.URL);
+    if (url == null) {
+      throw new SQLException(Environment.URL + " is not set");
+    }
+
+    for (String name : properties.stringPropertyNames()) {
+      if (name.startsWith(Environment.CONNECTION_PREFIX + ".") && !SPECIAL_PROPERTIES.contains(name)) {
+        info.setProperty(name.substring(Environment.CONNECTION_PREFIX.length() + 1), properties.getProperty(name));
+      }
+    }
+    if (properties.getProperty(Environment.USER) != null) {
+      info.setProperty("user", properties.getProperty(Environment.USER));
+    }
+    if (properties.getProperty(Environment.PASS) != null) {
+      info.setProperty("password", properties.getProperty(Environment.PASS));
+    }
+
+    String driverClass = properties.getProperty(Environment.DRIVER);
+    if (driverClass == null) {
+      driver = null;
+    } else {
+      try {
+        driver = (Driver) Class.forName(driverClass, true, Thread.currentThread().getContextClassLoader()).newInstance();
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        throw new SQLException("cannot load JDBC driver " + driverClass, e);
+      }
+    }
+  }
+
+  /**
+   * @return a new connection.
+   * @throws SQLException if the connection cannot be opened.
+   */
+  Connection open() throws SQLException {
+    Connection connection = driver == null ? DriverManager.getConnection(url, info) : driver.connect(url, info);
+    if (connection == null) {
+      throw new SQLException("JDBC driver " + driver.getClass().getName() + " does not accept " + url);
+    }
+    AtomicLong counter = roundTrips;
+    if (counter != null) {
+      counter.incrementAndGet();
+      return count(connection, counter);
+    }
+    return connection;
+  }
+
+  /**
+   * @param connection a connection.
+   * @param counter round-trip counter.
+   * @return a proxy of the connection that counts its JDBC round-trips (executing statements, committing, rolling back
+   * and metadata queries).
+   */
+  static Connection count(Connection connection, AtomicLong counter) {
+    return (Connection) CountingHandler.wrap(connection, Connection.class, counter);
+  }
+
+  /**
+   * @param connection a connection.
+   * @return the connection a counting proxy (see {@link #count(Connection, AtomicLong)}) wraps, or the connection
+   * itself if it isn't one.
+   */
+  static Connection uncount(Connection connection) {
+    if (Proxy.isProxyClass(connection.getClass())
+        && Proxy.getInvocationHandler(connection) instanceof CountingHandler) {
+      return (Connection) ((CountingHandler) Proxy.getInvocationHandler(connection)).target;
+    }
+    return connection;
+  }
+
+  /**
+   * Count the JDBC round-trips (connecting, executing statements, committing, rolling back and metadata queries) over
+   * the connections opened from now on.
+   * @param counter round-trip counter.
+   */
+  void setRoundTripCounter(AtomicLong counter) {
+    this.roundTrips = counter;
+  }
+}
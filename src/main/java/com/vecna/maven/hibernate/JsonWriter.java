@@ -0,0 +1,224 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal streaming JSON writer for the machine-readable reports. Values are written as they come (nothing is buffered
+ * beyond the underlying writer) and indented two spaces per nesting level.
+ *
+ * @author ogolberg@vecna.com
+ */
+class JsonWriter implements Closeable {
+  /**
+   * Underlying writer.
+   */
+  private final Writer out;
+
+  /**
+   * For each open object or array, whether it has no elements yet.
+   */
+  private final Deque<Boolean> empty = new ArrayDeque<>();
+
+  /**
+   * Whether a member name was just written (so the next value follows it on the same line).
+   */
+  private boolean afterName;
+
+  /**
+   * @param out underlying writer.
+   */
+  JsonWriter(Writer out) {
+    this.out = out;
+  }
+
+  /**
+   * Start a new element: separate it from the previous one and indent it.
+   * @throws IOException if the output cannot be written.
+   */
+  private void element() throws IOException {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    if (!empty.isEmpty()) {
+      if (!empty.pop()) {
+        out.write(',');
+      }
+      empty.push(false);
+      out.write('\n');
+      for (int i = 0; i < empty.size(); i++) {
+        out.write("  ");
+      }
+    }
+  }
+
+  /**
+   * Close an object or an array.
+   * @param bracket closing bracket.
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  private JsonWriter close(char bracket) throws IOException {
+    if (!empty.pop()) {
+      out.write('\n');
+      for (int i = 0; i < empty.size(); i++) {
+        out.write("  ");
+      }
+    }
+    out.write(bracket);
+    return this;
+  }
+
+  /**
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter beginObject() throws IOException {
+    element();
+    out.write('{');
+    empty.push(true);
+    return this;
+  }
+
+  /**
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter endObject() throws IOException {
+    return close('}');
+  }
+
+  /**
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter beginArray() throws IOException {
+    element();
+    out.write('[');
+    empty.push(true);
+    return this;
+  }
+
+  /**
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter endArray() throws IOException {
+    return close(']');
+  }
+
+  /**
+   * @param name object member name (the member value must follow).
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter name(String name) throws IOException {
+    element();
+    string(name);
+    out.write(": ");
+    afterName = true;
+    return this;
+  }
+
+  /**
+   * @param value a string (or null).
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter value(String value) throws IOException {
+    element();
+    if (value == null) {
+      out.write("null");
+    } else {
+      string(value);
+    }
+    return this;
+  }
+
+  /**
+   * @param value a number (or null).
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter value(Number value) throws IOException {
+    element();
+    out.write(String.valueOf(value));
+    return this;
+  }
+
+  /**
+   * @param value a boolean.
+   * @return this writer.
+   * @throws IOException if the output cannot be written.
+   */
+  JsonWriter value(boolean value) throws IOException {
+    element();
+    out.write(String.valueOf(value));
+    return this;
+  }
+
+  /**
+   * Write a quoted, escaped string.
+   * @param value the string.
+   * @throws IOException if the output cannot be written.
+   */
+  private void string(String value) throws IOException {
+    out.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          out.write("\\\"");
+          break;
+        case '\\':
+          out.write("\\\\");
+          break;
+        case '\n':
+          out.write("\\n");
+          break;
+        case '\r':
+          out.write("\\r");
+          break;
+        case '\t':
+          out.write("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            out.write(String.format("\\u%04x", (int) c));
+          } else {
+            out.write(c);
+          }
+      }
+    }
+    out.write('"');
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    out.write('\n');
+    out.close();
+  }
+}
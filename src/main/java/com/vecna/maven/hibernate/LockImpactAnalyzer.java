@@ -0,0 +1,653 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Estimates the lock impact of DDL statements: the table each statement affects, the lock it takes in the target
+ * database, whether it rewrites or scans the table, and a cost (the number of rows it processes while holding the
+ * lock) from the row counts the database reports through its metadata.
+ *
+ * @author ogolberg@vecna.com
+ */
+class LockImpactAnalyzer {
+  /**
+   * Kinds of statements with distinct locking behavior.
+   */
+  enum Operation {
+    /**
+     * Creating a table.
+     */
+    CREATE_TABLE,
+
+    /**
+     * Dropping a table.
+     */
+    DROP_TABLE,
+
+    /**
+     * Renaming a table.
+     */
+    RENAME_TABLE,
+
+    /**
+     * Adding a column.
+     */
+    ADD_COLUMN,
+
+    /**
+     * Changing the type of a column.
+     */
+    ALTER_TYPE,
+
+    /**
+     * Setting <code>NOT NULL</code> on a column.
+     */
+    SET_NOT_NULL,
+
+    /**
+     * Other column changes that don't touch the data (defaults, dropping <code>NOT NULL</code>).
+     */
+    ALTER_COLUMN,
+
+    /**
+     * Building an index while blocking writes.
+     */
+    CREATE_INDEX,
+
+    /**
+     * Building an index concurrently / online.
+     */
+    CREATE_INDEX_ONLINE,
+
+    /**
+     * Dropping an index.
+     */
+    DROP_INDEX,
+
+    /**
+     * Adding a foreign key (validating the existing rows).
+     */
+    ADD_FOREIGN_KEY,
+
+    /**
+     * Adding a constraint without validating the existing rows.
+     */
+    ADD_CONSTRAINT_NOT_VALIDATED,
+
+    /**
+     * Validating a previously added constraint.
+     */
+    VALIDATE_CONSTRAINT,
+
+    /**
+     * Adding a primary key, unique or check constraint.
+     */
+    ADD_CONSTRAINT,
+
+    /**
+     * Adding a unique constraint over an existing index.
+     */
+    ADD_CONSTRAINT_USING_INDEX,
+
+    /**
+     * Dropping a constraint.
+     */
+    DROP_CONSTRAINT,
+
+    /**
+     * Other table alterations.
+     */
+    ALTER_TABLE,
+
+    /**
+     * Updating rows (e.g. a backfill).
+     */
+    UPDATE,
+
+    /**
+     * Commenting a table or column.
+     */
+    COMMENT,
+
+    /**
+     * Anything else (sequences, auxiliary objects).
+     */
+    OTHER
+  }
+
+  /**
+   * Locking behavior of an operation in a database.
+   */
+  private static class Lock {
+    /**
+     * The database's name for the lock.
+     */
+    private final String name;
+
+    /**
+     * Whether the lock blocks reads.
+     */
+    private final boolean blocksReads;
+
+    /**
+     * Whether the lock blocks writes.
+     */
+    private final boolean blocksWrites;
+
+    /**
+     * Whether the operation rewrites the table.
+     */
+    private final boolean rewrites;
+
+    /**
+     * Whether the operation reads all rows of the table.
+     */
+    private final boolean scans;
+
+    /**
+     * @param name the database's name for the lock.
+     * @param blocksReads whether the lock blocks reads.
+     * @param blocksWrites whether the lock blocks writes.
+     * @param rewrites whether the operation rewrites the table.
+     * @param scans whether the operation reads all rows of the table.
+     */
+    Lock(String name, boolean blocksReads, boolean blocksWrites, boolean rewrites, boolean scans) {
+      this.name = name;
+      this.blocksReads = blocksReads;
+      this.blocksWrites = blocksWrites;
+      this.rewrites = rewrites;
+      this.scans = scans;
+    }
+  }
+
+  /**
+   * Lock impact of one statement.
+   */
+  static class LockImpact {
+    /**
+     * The statement.
+     */
+    private final String sql;
+
+    /**
+     * Kind of statement.
+     */
+    private final Operation operation;
+
+    /**
+     * Affected table (null if not known).
+     */
+    private final String table;
+
+    /**
+     * Locking behavior.
+     */
+    private final Lock lock;
+
+    /**
+     * Estimated number of rows in the affected table (null if not known).
+     */
+    private Long rows;
+
+    /**
+     * @param sql the statement.
+     * @param operation kind of statement.
+     * @param table affected table.
+     * @param lock locking behavior.
+     */
+    LockImpact(String sql, Operation operation, String table, Lock lock) {
+      this.sql = sql;
+      this.operation = operation;
+      this.table = table;
+      this.lock = lock;
+    }
+
+    /**
+     * @return the statement.
+     */
+    String getSql() {
+      return sql;
+    }
+
+    /**
+     * @return kind of statement.
+     */
+    Operation getOperation() {
+      return operation;
+    }
+
+    /**
+     * @return affected table (null if not known).
+     */
+    String getTable() {
+      return table;
+    }
+
+    /**
+     * @return the database's name for the lock the statement takes (null if it takes none on a table).
+     */
+    String getLock() {
+      return lock.name;
+    }
+
+    /**
+     * @return whether the statement blocks reads of the table.
+     */
+    boolean isBlockingReads() {
+      return lock.blocksReads;
+    }
+
+    /**
+     * @return whether the statement blocks writes to the table.
+     */
+    boolean isBlockingWrites() {
+      return lock.blocksWrites;
+    }
+
+    /**
+     * @return whether the statement rewrites the table.
+     */
+    boolean isRewritingTable() {
+      return lock.rewrites;
+    }
+
+    /**
+     * @return whether the statement reads all rows of the table.
+     */
+    boolean isScanningTable() {
+      return lock.scans;
+    }
+
+    /**
+     * @return estimated number of rows in the affected table (null if not known).
+     */
+    Long getRows() {
+      return rows;
+    }
+
+    /**
+     * @return estimated number of rows the statement processes (null if not known).
+     */
+    Long getCost() {
+      if (!lock.rewrites && !lock.scans) {
+        return 0L;
+      }
+      return rows;
+    }
+  }
+
+  /**
+   * Locking behavior by database and operation. Databases without an entry for an operation use the
+   * {@link SqlFlavor#STANDARD} entry, which is conservative.
+   */
+  private static final Map<SqlFlavor, Map<Operation, Lock>> LOCKS = new EnumMap<>(SqlFlavor.class);
+
+  static {
+    String accessExclusive = "ACCESS EXCLUSIVE";
+    define(SqlFlavor.POSTGRESQL, Operation.CREATE_TABLE, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.DROP_TABLE, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.RENAME_TABLE, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.ADD_COLUMN, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.ALTER_TYPE, accessExclusive, true, true, true, true);
+    define(SqlFlavor.POSTGRESQL, Operation.SET_NOT_NULL, accessExclusive, true, true, false, true);
+    define(SqlFlavor.POSTGRESQL, Operation.ALTER_COLUMN, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.CREATE_INDEX, "SHARE", false, true, false, true);
+    define(SqlFlavor.POSTGRESQL, Operation.CREATE_INDEX_ONLINE, "SHARE UPDATE EXCLUSIVE", false, false, false, true);
+    define(SqlFlavor.POSTGRESQL, Operation.DROP_INDEX, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.ADD_FOREIGN_KEY, "SHARE ROW EXCLUSIVE", false, true, false, true);
+    define(SqlFlavor.POSTGRESQL, Operation.ADD_CONSTRAINT_NOT_VALIDATED, "SHARE ROW EXCLUSIVE", false, true, false,
+           false);
+    define(SqlFlavor.POSTGRESQL, Operation.VALIDATE_CONSTRAINT, "SHARE UPDATE EXCLUSIVE", false, false, false, true);
+    define(SqlFlavor.POSTGRESQL, Operation.ADD_CONSTRAINT, accessExclusive, true, true, false, true);
+    define(SqlFlavor.POSTGRESQL, Operation.ADD_CONSTRAINT_USING_INDEX, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.DROP_CONSTRAINT, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.ALTER_TABLE, accessExclusive, true, true, false, false);
+    define(SqlFlavor.POSTGRESQL, Operation.UPDATE, "ROW EXCLUSIVE", false, false, false, true);
+    define(SqlFlavor.POSTGRESQL, Operation.COMMENT, "SHARE UPDATE EXCLUSIVE", false, false, false, false);
+
+    // readers are never blocked; DDL holds an exclusive DML lock for its duration
+    define(SqlFlavor.ORACLE, Operation.CREATE_TABLE, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.DROP_TABLE, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.RENAME_TABLE, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.ADD_COLUMN, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.ALTER_TYPE, "EXCLUSIVE", false, true, false, true);
+    define(SqlFlavor.ORACLE, Operation.SET_NOT_NULL, "EXCLUSIVE", false, true, false, true);
+    define(SqlFlavor.ORACLE, Operation.ALTER_COLUMN, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.CREATE_INDEX, "SHARE", false, true, false, true);
+    define(SqlFlavor.ORACLE, Operation.CREATE_INDEX_ONLINE, "ROW SHARE", false, false, false, true);
+    define(SqlFlavor.ORACLE, Operation.DROP_INDEX, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.ADD_FOREIGN_KEY, "SHARE", false, true, false, true);
+    define(SqlFlavor.ORACLE, Operation.ADD_CONSTRAINT_NOT_VALIDATED, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.VALIDATE_CONSTRAINT, "ROW SHARE", false, false, false, true);
+    define(SqlFlavor.ORACLE, Operation.ADD_CONSTRAINT, "SHARE", false, true, false, true);
+    define(SqlFlavor.ORACLE, Operation.DROP_CONSTRAINT, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.ALTER_TABLE, "EXCLUSIVE", false, true, false, false);
+    define(SqlFlavor.ORACLE, Operation.UPDATE, "ROW EXCLUSIVE", false, false, false, true);
+    define(SqlFlavor.ORACLE, Operation.COMMENT, null, false, false, false, false);
+
+    // InnoDB online DDL: in-place operations allow concurrent DML, copying ones block writes
+    define(SqlFlavor.MYSQL, Operation.CREATE_TABLE, "EXCLUSIVE", true, true, false, false);
+    define(SqlFlavor.MYSQL, Operation.DROP_TABLE, "EXCLUSIVE", true, true, false, false);
+    define(SqlFlavor.MYSQL, Operation.RENAME_TABLE, "EXCLUSIVE", true, true, false, false);
+    define(SqlFlavor.MYSQL, Operation.ADD_COLUMN, "NONE", false, false, true, true);
+    define(SqlFlavor.MYSQL, Operation.ALTER_TYPE, "SHARED", false, true, true, true);
+    define(SqlFlavor.MYSQL, Operation.SET_NOT_NULL, "NONE", false, false, true, true);
+    define(SqlFlavor.MYSQL, Operation.ALTER_COLUMN, "NONE", false, false, false, false);
+    define(SqlFlavor.MYSQL, Operation.CREATE_INDEX, "NONE", false, false, false, true);
+    define(SqlFlavor.MYSQL, Operation.CREATE_INDEX_ONLINE, "NONE", false, false, false, true);
+    define(SqlFlavor.MYSQL, Operation.DROP_INDEX, "NONE", false, false, false, false);
+    define(SqlFlavor.MYSQL, Operation.ADD_FOREIGN_KEY, "SHARED", false, true, true, true);
+    define(SqlFlavor.MYSQL, Operation.ADD_CONSTRAINT, "NONE", false, false, false, true);
+    define(SqlFlavor.MYSQL, Operation.DROP_CONSTRAINT, "NONE", false, false, false, false);
+    define(SqlFlavor.MYSQL, Operation.ALTER_TABLE, "SHARED", false, true, true, true);
+    define(SqlFlavor.MYSQL, Operation.UPDATE, "ROW", false, false, false, true);
+    define(SqlFlavor.MYSQL, Operation.COMMENT, "NONE", false, false, false, false);
+
+    // table alterations take a schema modification lock
+    define(SqlFlavor.SQLSERVER, Operation.CREATE_INDEX, "S", false, true, false, true);
+    define(SqlFlavor.SQLSERVER, Operation.UPDATE, "IX", false, false, false, true);
+    define(SqlFlavor.SQLSERVER, Operation.COMMENT, null, false, false, false, false);
+    defineRemaining(SqlFlavor.SQLSERVER, "Sch-M");
+
+    define(SqlFlavor.STANDARD, Operation.CREATE_INDEX, "SHARE", false, true, false, true);
+    define(SqlFlavor.STANDARD, Operation.UPDATE, "ROW", false, false, false, true);
+    define(SqlFlavor.STANDARD, Operation.OTHER, null, false, false, false, false);
+    defineRemaining(SqlFlavor.STANDARD, "EXCLUSIVE");
+  }
+
+  /**
+   * Record the locking behavior of an operation.
+   * @param flavor database.
+   * @param operation operation.
+   * @param name the database's name for the lock.
+   * @param blocksReads whether the lock blocks reads.
+   * @param blocksWrites whether the lock blocks writes.
+   * @param rewrites whether the operation rewrites the table.
+   * @param scans whether the operation reads all rows of the table.
+   */
+  private static void define(SqlFlavor flavor, Operation operation, String name, boolean blocksReads,
+                             boolean blocksWrites, boolean rewrites, boolean scans) {
+    Map<Operation, Lock> locks = LOCKS.get(flavor);
+    if (locks == null) {
+      locks = new EnumMap<>(Operation.class);
+      LOCKS.put(flavor, locks);
+    }
+    locks.put(operation, new Lock(name, blocksReads, blocksWrites, rewrites, scans));
+  }
+
+  /**
+   * Record all operations not recorded yet for a database as taking a lock that blocks reads and writes.
+   * @param flavor database.
+   * @param name the database's name for the lock.
+   */
+  private static void defineRemaining(SqlFlavor flavor, String name) {
+    for (Operation operation : Operation.values()) {
+      if (!LOCKS.get(flavor).containsKey(operation)) {
+        boolean rewrites = operation == Operation.ALTER_TYPE;
+        boolean scans = rewrites || operation == Operation.SET_NOT_NULL || operation == Operation.ADD_FOREIGN_KEY
+            || operation == Operation.ADD_CONSTRAINT || operation == Operation.VALIDATE_CONSTRAINT
+            || operation == Operation.CREATE_INDEX || operation == Operation.CREATE_INDEX_ONLINE;
+        define(flavor, operation, name, true, true, rewrites, scans);
+      }
+    }
+  }
+
+  /**
+   * <code>CREATE INDEX</code>; groups: online marker (concurrently), table, online marker (online / lock=none).
+   */
+  private static final Pattern CREATE_INDEX = Pattern.compile(
+      "create (?:unique )?index (concurrently )?\\S+ on ([^\\s(]+).*?( online| lock=none)?");
+
+  /**
+   * Statements that affect a single table: group 1 is the operation keyword, group 2 is the table.
+   */
+  private static final Pattern TABLE_STATEMENT = Pattern.compile(
+      "(create (?:[a-z]+ )*table|drop table(?: if exists)?|rename table|update(?: top \\(\\d+\\))?|comment on table"
+      + "|comment on column|drop index(?: if exists)? \\S+ on|alter table(?: only)?) ([^\\s(,;]+).*");
+
+  /**
+   * <code>EXEC SP_RENAME 'table', 'new name'</code>.
+   */
+  private static final Pattern SP_RENAME = Pattern.compile("exec sp_rename '([^']+)'.*");
+
+  /**
+   * Table alterations (what follows <code>ALTER TABLE name</code>), in the order they are matched.
+   */
+  private static final Map<Pattern, Operation> ALTERATIONS = new LinkedHashMap<>();
+
+  static {
+    ALTERATIONS.put(Pattern.compile("rename to .*"), Operation.RENAME_TABLE);
+    ALTERATIONS.put(Pattern.compile("add constraint \\S+ .*( not valid| enable novalidate)"),
+                    Operation.ADD_CONSTRAINT_NOT_VALIDATED);
+    ALTERATIONS.put(Pattern.compile("add constraint \\S+ foreign key .*"), Operation.ADD_FOREIGN_KEY);
+    ALTERATIONS.put(Pattern.compile("add constraint \\S+ unique using index .*"),
+                    Operation.ADD_CONSTRAINT_USING_INDEX);
+    ALTERATIONS.put(Pattern.compile("add (constraint|primary key|unique|check)\\b.*"), Operation.ADD_CONSTRAINT);
+    ALTERATIONS.put(Pattern.compile("(enable )?validate constraint .*"), Operation.VALIDATE_CONSTRAINT);
+    ALTERATIONS.put(Pattern.compile("drop (constraint|foreign key|index|primary key)\\b.*"), Operation.DROP_CONSTRAINT);
+    ALTERATIONS.put(Pattern.compile("add default .*"), Operation.ALTER_COLUMN);
+    ALTERATIONS.put(Pattern.compile("add\\b.*"), Operation.ADD_COLUMN);
+    ALTERATIONS.put(Pattern.compile("alter (column )?\\S+ (set default|drop default|drop not null)\\b.*"),
+                    Operation.ALTER_COLUMN);
+    ALTERATIONS.put(Pattern.compile("alter column \\S+ set not null"), Operation.SET_NOT_NULL);
+    ALTERATIONS.put(Pattern.compile("modify \\S+ not null"), Operation.SET_NOT_NULL);
+    ALTERATIONS.put(Pattern.compile("modify (column )?\\S+ (default|null)\\b.*"), Operation.ALTER_COLUMN);
+    ALTERATIONS.put(Pattern.compile("(alter column|modify column|modify) \\S+ .*"), Operation.ALTER_TYPE);
+  }
+
+  /**
+   * Locking behavior of the target database's operations.
+   */
+  private final Map<Operation, Lock> locks;
+
+  /**
+   * Conservative locking behavior for operations the target database has no entry for.
+   */
+  private final Map<Operation, Lock> defaultLocks = LOCKS.get(SqlFlavor.STANDARD);
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param flavor target database.
+   * @param log maven logger.
+   */
+  LockImpactAnalyzer(SqlFlavor flavor, Log log) {
+    this.locks = LOCKS.get(flavor);
+    this.log = log;
+  }
+
+  /**
+   * @param operation an operation.
+   * @return its locking behavior in the target database.
+   */
+  private Lock getLock(Operation operation) {
+    Lock lock = locks.get(operation);
+    return lock == null ? defaultLocks.get(operation) : lock;
+  }
+
+  /**
+   * Classify statements by operation and affected table.
+   * @param statements DDL statements.
+   * @return lock impact of each statement (without row estimates).
+   */
+  List<LockImpact> analyze(List<String> statements) {
+    List<LockImpact> impacts = new ArrayList<>(statements.size());
+    for (String sql : statements) {
+      String normalized = sql.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+      Operation operation = Operation.OTHER;
+      String table = null;
+
+      Matcher matcher = CREATE_INDEX.matcher(normalized);
+      Matcher tableMatcher = TABLE_STATEMENT.matcher(normalized);
+      Matcher renameMatcher = SP_RENAME.matcher(normalized);
+      if (matcher.matches()) {
+        table = matcher.group(2);
+        operation = matcher.group(1) != null || matcher.group(3) != null ? Operation.CREATE_INDEX_ONLINE
+            : Operation.CREATE_INDEX;
+      } else if (renameMatcher.matches()) {
+        table = renameMatcher.group(1);
+        operation = Operation.RENAME_TABLE;
+      } else if (tableMatcher.matches()) {
+        table = tableMatcher.group(2);
+        operation = classify(tableMatcher.group(1), normalized.substring(tableMatcher.end(2)).trim());
+        if (operation == Operation.COMMENT && tableMatcher.group(1).endsWith("column")) {
+          table = table.substring(0, Math.max(0, table.lastIndexOf('.')));
+        }
+      } else if (normalized.startsWith("drop index ")) {
+        operation = Operation.DROP_INDEX;
+      }
+
+      impacts.add(new LockImpact(sql, operation, table, getLock(operation)));
+    }
+    return impacts;
+  }
+
+  /**
+   * @param keyword the statement's operation keyword.
+   * @param rest what follows the table name.
+   * @return the operation.
+   */
+  private static Operation classify(String keyword, String rest) {
+    if (keyword.startsWith("create")) {
+      return Operation.CREATE_TABLE;
+    } else if (keyword.startsWith("drop table")) {
+      return Operation.DROP_TABLE;
+    } else if (keyword.startsWith("drop index")) {
+      return Operation.DROP_INDEX;
+    } else if (keyword.startsWith("rename")) {
+      return Operation.RENAME_TABLE;
+    } else if (keyword.startsWith("update")) {
+      return Operation.UPDATE;
+    } else if (keyword.startsWith("comment")) {
+      return Operation.COMMENT;
+    }
+
+    for (Map.Entry<Pattern, Operation> alteration : ALTERATIONS.entrySet()) {
+      if (alteration.getKey().matcher(rest).matches()) {
+        return alteration.getValue();
+      }
+    }
+    return Operation.ALTER_TABLE;
+  }
+
+  /**
+   * Estimate the number of rows the statements process (see {@link RowCountEstimator}). Tables created earlier in the
+   * same script are empty.
+   * @param connection a connection to the target database.
+   * @param catalog default catalog.
+   * @param impacts statement lock impacts.
+   */
+  void estimateRows(Connection connection, String catalog, List<LockImpact> impacts) {
+    RowCountEstimator estimator;
+    try {
+      estimator = new RowCountEstimator(connection.getMetaData(), catalog, log);
+    } catch (SQLException e) {
+      log.warn("couldn't read database metadata, row counts are unknown: " + e.getMessage());
+      return;
+    }
+
+    Set<String> created = new HashSet<>();
+    for (LockImpact impact : impacts) {
+      if (impact.getTable() == null) {
+        continue;
+      }
+      String key = RowCountEstimator.unquote(impact.getTable());
+      if (impact.getOperation() == Operation.CREATE_TABLE) {
+        created.add(key);
+      }
+      impact.rows = created.contains(key) ? Long.valueOf(0) : estimator.estimate(impact.getTable());
+    }
+  }
+
+  /**
+   * Write a JSON lock impact report.
+   * @param out where to write the report (closed when done).
+   * @param dialect target dialect name.
+   * @param impacts statement lock impacts.
+   * @param maxCost the cost threshold (0 if there is none).
+   * @throws IOException if the report cannot be written.
+   */
+  static void writeReport(Writer out, String dialect, List<LockImpact> impacts, long maxCost) throws IOException {
+    int blocking = 0;
+    int rewrites = 0;
+    long totalCost = 0;
+    for (LockImpact impact : impacts) {
+      blocking += impact.isBlockingWrites() ? 1 : 0;
+      rewrites += impact.isRewritingTable() ? 1 : 0;
+      totalCost += impact.getCost() == null ? 0 : impact.getCost();
+    }
+
+    try (JsonWriter json = new JsonWriter(out)) {
+      json.beginObject();
+      json.name("dialect").value(dialect);
+      json.name("statementCount").value(impacts.size());
+      json.name("blockingStatementCount").value(blocking);
+      json.name("rewritingStatementCount").value(rewrites);
+      json.name("totalCost").value(totalCost);
+      json.name("maxCost").value(maxCost > 0 ? Long.valueOf(maxCost) : null);
+      json.name("statements").beginArray();
+      for (int i = 0; i < impacts.size(); i++) {
+        LockImpact impact = impacts.get(i);
+        json.beginObject();
+        json.name("index").value(i + 1);
+        json.name("sql").value(impact.getSql());
+        json.name("operation").value(impact.getOperation().name());
+        json.name("table").value(impact.getTable());
+        json.name("lock").value(impact.getLock());
+        json.name("blocksReads").value(impact.isBlockingReads());
+        json.name("blocksWrites").value(impact.isBlockingWrites());
+        json.name("rewritesTable").value(impact.isRewritingTable());
+        json.name("scansTable").value(impact.isScanningTable());
+        json.name("rows").value(impact.getRows());
+        json.name("cost").value(impact.getCost());
+        json.name("exceedsMaxCost").value(exceeds(impact, maxCost));
+        json.endObject();
+      }
+      json.endArray();
+      json.endObject();
+    }
+  }
+
+  /**
+   * @param impact statement lock impact.
+   * @param maxCost the cost threshold (0 if there is none).
+   * @return whether the statement blocks writes for longer than the threshold allows.
+   */
+  static boolean exceeds(LockImpact impact, long maxCost) {
+    return maxCost > 0 && impact.isBlockingWrites() && impact.getCost() != null && impact.getCost() > maxCost;
+  }
+}
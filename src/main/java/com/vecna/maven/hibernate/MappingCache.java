@@ -0,0 +1,130 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+
+/**
+ * On-disk cache of built mapping metadata, keyed by a {@link Fingerprint}. Only the most recent entry is kept.
+ *
+ * @author ogolberg@vecna.com
+ */
+class MappingCache {
+  /**
+   * Cache file name prefix.
+   */
+  private static final String PREFIX = "mappings-";
+
+  /**
+   * Cache file name suffix.
+   */
+  private static final String SUFFIX = ".ser.gz";
+
+  /**
+   * Cache directory.
+   */
+  private final File directory;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param directory cache directory.
+   * @param log maven logger.
+   */
+  MappingCache(File directory, Log log) {
+    this.directory = directory;
+    this.log = log;
+  }
+
+  /**
+   * @param fingerprint mapping fingerprint.
+   * @return the cache file for the fingerprint.
+   */
+  private File getFile(String fingerprint) {
+    return new File(directory, PREFIX + fingerprint + SUFFIX);
+  }
+
+  /**
+   * Look up cached mapping metadata. A corrupt or stale (unloadable) entry is treated as a miss.
+   * @param fingerprint mapping fingerprint.
+   * @param classLoader classloader to resolve mapped classes with.
+   * @return cached mapping metadata or null if there's no usable entry.
+   */
+  Configuration read(String fingerprint, ClassLoader classLoader) {
+    File file = getFile(fingerprint);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return ConfigurationSerializer.read(in, classLoader);
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      log.warn("ignoring unreadable mapping cache entry " + file + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Store mapping metadata and evict older entries. Failures are logged and otherwise ignored - caching is an optimization.
+   * @param fingerprint mapping fingerprint.
+   * @param configuration mapping metadata.
+   */
+  void write(String fingerprint, Configuration configuration) {
+    File file = getFile(fingerprint);
+    File tmp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+
+    try {
+      FileUtils.forceMkdir(directory);
+      try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        ConfigurationSerializer.write(configuration, out);
+      }
+      if (!tmp.renameTo(file)) {
+        FileUtils.rename(tmp, file);
+      }
+    } catch (IOException e) {
+      log.warn("couldn't write mapping cache entry " + file + ": " + e);
+      tmp.delete();
+      return;
+    }
+
+    File[] entries = directory.listFiles();
+    if (entries != null) {
+      for (File entry : entries) {
+        String name = entry.getName();
+        if (name.startsWith(PREFIX) && name.endsWith(SUFFIX) && !entry.equals(file)) {
+          entry.delete();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.hibernate.cfg.Configuration;
+
+/**
+ * Session-scoped registry of built mapping metadata. Lets all goals of a Maven session (in the same module or across
+ * modules) share one {@link Configuration} per mapping fingerprint. The first goal to ask for a fingerprint builds the
+ * mappings; concurrent goals (parallel builds) wait for it instead of building their own.
+ *
+ * <p>The registry lives as long as the plugin classloader, so it's keyed by a session-wide object and holds it weakly.</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+final class MappingRegistry {
+  /**
+   * Built mappings by session key and fingerprint.
+   */
+  private static final Map<Object, ConcurrentMap<String, FutureTask<Configuration>>> SESSIONS =
+      Collections.synchronizedMap(new WeakHashMap<Object, ConcurrentMap<String, FutureTask<Configuration>>>());
+
+  /**
+   * Utility class.
+   */
+  private MappingRegistry() {
+  }
+
+  /**
+   * @param sessionKey an object that's unique to and shared across the session.
+   * @return mappings registered for the session.
+   */
+  private static ConcurrentMap<String, FutureTask<Configuration>> getSession(Object sessionKey) {
+    synchronized (SESSIONS) {
+      ConcurrentMap<String, FutureTask<Configuration>> session = SESSIONS.get(sessionKey);
+      if (session == null) {
+        session = new ConcurrentHashMap<>();
+        SESSIONS.put(sessionKey, session);
+      }
+      return session;
+    }
+  }
+
+  /**
+   * Look up shared mappings, building them in the calling thread if no other goal has done so.
+   * @param sessionKey an object that's unique to and shared across the session.
+   * @param fingerprint mapping fingerprint.
+   * @param builder builds the mappings on a miss.
+   * @return shared mapping metadata - callers must not modify it.
+   * @throws MojoExecutionException if the mappings couldn't be built.
+   */
+  static Configuration get(Object sessionKey, String fingerprint, Callable<Configuration> builder)
+      throws MojoExecutionException {
+    ConcurrentMap<String, FutureTask<Configuration>> session = getSession(sessionKey);
+    FutureTask<Configuration> task = new FutureTask<>(builder);
+    FutureTask<Configuration> existing = session.putIfAbsent(fingerprint, task);
+
+    if (existing == null) {
+      task.run();
+    } else {
+      task = existing;
+    }
+
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted while waiting for the mappings to be built", e);
+    } catch (ExecutionException e) {
+      session.remove(fingerprint, task);
+      if (e.getCause() instanceof MojoExecutionException) {
+        throw (MojoExecutionException) e.getCause();
+      }
+      throw new MojoExecutionException("couldn't build the mappings", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefetched JDBC metadata (columns, indexes, primary and foreign keys) of a set of tables. Metadata queries for a single
+ * table that the cache covers are answered from memory; all other queries go to the database.
+ *
+ * @author ogolberg@vecna.com
+ */
+class MetadataCache implements Serializable {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Prefetched metadata of a table.
+   */
+  static class TableMetadata implements Serializable {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * <code>getColumns</code> result.
+     */
+    private MetadataRows columns;
+
+    /**
+     * <code>getIndexInfo</code> result (all indexes).
+     */
+    private MetadataRows indexes;
+
+    /**
+     * <code>getImportedKeys</code> result.
+     */
+    private MetadataRows importedKeys;
+
+    /**
+     * <code>getPrimaryKeys</code> result.
+     */
+    private MetadataRows primaryKeys;
+
+    /**
+     * @param columns <code>getColumns</code> result.
+     */
+    void setColumns(MetadataRows columns) {
+      this.columns = columns;
+    }
+
+    /**
+     * @param indexes <code>getIndexInfo</code> result (all indexes).
+     */
+    void setIndexes(MetadataRows indexes) {
+      this.indexes = indexes;
+    }
+
+    /**
+     * @param importedKeys <code>getImportedKeys</code> result.
+     */
+    void setImportedKeys(MetadataRows importedKeys) {
+      this.importedKeys = importedKeys;
+    }
+
+    /**
+     * @param primaryKeys <code>getPrimaryKeys</code> result.
+     */
+    void setPrimaryKeys(MetadataRows primaryKeys) {
+      this.primaryKeys = primaryKeys;
+    }
+
+    /**
+     * Copy the results present in another record.
+     * @param other prefetched metadata of the same table.
+     */
+    void merge(TableMetadata other) {
+      columns = other.columns == null ? columns : other.columns;
+      indexes = other.indexes == null ? indexes : other.indexes;
+      importedKeys = other.importedKeys == null ? importedKeys : other.importedKeys;
+      primaryKeys = other.primaryKeys == null ? primaryKeys : other.primaryKeys;
+    }
+  }
+
+  /**
+   * Catalog the metadata was read from (null if none was specified).
+   */
+  private final String catalog;
+
+  /**
+   * Prefetched metadata by table key (see {@link #getKey(String, String)}).
+   */
+  private final Map<String, TableMetadata> tables;
+
+  /**
+   * Table keys by table name.
+   */
+  private final Map<String, List<String>> keysByName = new HashMap<>();
+
+  /**
+   * @param catalog catalog the metadata was read from (null if none was specified).
+   * @param tables prefetched metadata by table key (see {@link #getKey(String, String)}).
+   */
+  MetadataCache(String catalog, Map<String, TableMetadata> tables) {
+    this.catalog = catalog;
+    this.tables = tables;
+    for (String key : tables.keySet()) {
+      String name = key.substring(key.indexOf('.') + 1);
+      List<String> keys = keysByName.get(name);
+      if (keys == null) {
+        keys = new ArrayList<>();
+        keysByName.put(name, keys);
+      }
+      keys.add(key);
+    }
+  }
+
+  /**
+   * @param schema schema name as reported by the database (may be null).
+   * @param table table name as reported by the database.
+   * @return the key of the table.
+   */
+  static String getKey(String schema, String table) {
+    return (schema == null ? "" : schema) + "." + table;
+  }
+
+  /**
+   * @param catalogName catalog argument of a metadata query.
+   * @param schemaPattern schema argument of a metadata query.
+   * @param tableName table argument of a metadata query.
+   * @return prefetched metadata of the table or null if the query isn't covered by the cache.
+   */
+  private TableMetadata find(String catalogName, String schemaPattern, String tableName) {
+    if (tableName == null || catalogName != null && !catalogName.equals(catalog)) {
+      return null;
+    }
+    if (schemaPattern != null) {
+      return tables.get(getKey(schemaPattern, tableName));
+    }
+    List<String> keys = keysByName.get(tableName);
+    return keys != null && keys.size() == 1 ? tables.get(keys.get(0)) : null;
+  }
+
+  /**
+   * Answer a <code>DatabaseMetaData</code> query from the cache.
+   * @param method query method name.
+   * @param args query arguments.
+   * @return the query result or null if the query isn't covered by the cache.
+   * @throws SQLException if a prefetched result is malformed.
+   */
+  ResultSet query(String method, Object[] args) throws SQLException {
+    if (args == null || args.length < 3) {
+      return null;
+    }
+    TableMetadata table = find((String) args[0], (String) args[1], (String) args[2]);
+    if (table == null) {
+      return null;
+    }
+
+    MetadataRows rows = null;
+    switch (method) {
+      case "getColumns":
+        rows = args[3] == null || "%".equals(args[3]) ? table.columns : null;
+        break;
+      case "getIndexInfo":
+        rows = table.indexes != null && Boolean.TRUE.equals(args[3]) ? table.indexes.where("NON_UNIQUE", false)
+            : table.indexes;
+        break;
+      case "getImportedKeys":
+        rows = table.importedKeys;
+        break;
+      case "getPrimaryKeys":
+        rows = table.primaryKeys;
+        break;
+      default:
+        break;
+    }
+    return rows == null ? null : rows.toResultSet();
+  }
+}
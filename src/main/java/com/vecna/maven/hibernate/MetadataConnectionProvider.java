@@ -0,0 +1,298 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hibernate connection provider for schema validation. It can serve metadata in three ways:
+ * <ul>
+ * <li>answer the metadata queries covered by a {@link MetadataCache} from memory (everything else goes to regular
+ * driver-manager connections);</li>
+ * <li>capture the results of all metadata calls into a {@link SchemaSnapshot};</li>
+ * <li>replay a {@link SchemaSnapshot} without connecting to a database at all.</li>
+ * </ul>
+ * The cache and the snapshot are passed through the (string-only) Hibernate configuration by registering them under an
+ * id, see {@link #register(MetadataCache, SchemaSnapshot, boolean)}. The calls that reach the database are counted like
+ * those of a {@link CountingConnectionProvider}.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class MetadataConnectionProvider extends CountingConnectionProvider {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Configuration property with the registration id.
+   */
+  static final String REGISTRATION_ID = "hibernate.schema.metadata_registration";
+
+  /**
+   * What the provider serves.
+   */
+  private static class Registration {
+    /**
+     * Prefetched metadata (may be null).
+     */
+    private final MetadataCache cache;
+
+    /**
+     * Snapshot to capture into or to replay (may be null).
+     */
+    private final SchemaSnapshot snapshot;
+
+    /**
+     * Whether to replay the snapshot instead of connecting to the database.
+     */
+    private final boolean offline;
+
+    /**
+     * @param cache prefetched metadata (may be null).
+     * @param snapshot snapshot to capture into or to replay (may be null).
+     * @param offline whether to replay the snapshot instead of connecting to the database.
+     */
+    Registration(MetadataCache cache, SchemaSnapshot snapshot, boolean offline) {
+      this.cache = cache;
+      this.snapshot = snapshot;
+      this.offline = offline;
+    }
+  }
+
+  /**
+   * Registrations by id.
+   */
+  private static final Map<String, Registration> REGISTRATIONS = new ConcurrentHashMap<>();
+
+  /**
+   * What this provider serves (null to behave like a plain driver-manager connection provider).
+   */
+  private Registration registration;
+
+  /**
+   * Make prefetched metadata and/or a snapshot available to connection providers.
+   * @param cache prefetched metadata (may be null).
+   * @param snapshot snapshot to capture into or to replay (may be null).
+   * @param offline whether to replay the snapshot instead of connecting to the database.
+   * @return the id to set as {@link #REGISTRATION_ID}.
+   */
+  static String register(MetadataCache cache, SchemaSnapshot snapshot, boolean offline) {
+    String id = UUID.randomUUID().toString();
+    REGISTRATIONS.put(id, new Registration(cache, snapshot, offline));
+    return id;
+  }
+
+  /**
+   * @param id registration id.
+   */
+  static void unregister(String id) {
+    REGISTRATIONS.remove(id);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void configure(Map configurationValues) {
+    Object id = configurationValues.get(REGISTRATION_ID);
+    registration = id == null ? null : REGISTRATIONS.get(id.toString());
+    if (registration == null || !registration.offline) {
+      super.configure(configurationValues);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    if (registration == null) {
+      return super.getConnection();
+    }
+    Connection connection = registration.offline ? null : super.getConnection();
+    return (Connection) Proxy.newProxyInstance(MetadataConnectionProvider.class.getClassLoader(),
+                                               new Class<?>[] {Connection.class}, new ConnectionHandler(connection));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void closeConnection(Connection connection) throws SQLException {
+    if (Proxy.isProxyClass(connection.getClass())
+        && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler) {
+      Connection actual = ((ConnectionHandler) Proxy.getInvocationHandler(connection)).connection;
+      if (actual != null) {
+        super.closeConnection(actual);
+      }
+    } else {
+      super.closeConnection(connection);
+    }
+  }
+
+  /**
+   * @param target target object.
+   * @param method method to call.
+   * @param args arguments.
+   * @return the result of the call.
+   * @throws Throwable whatever the method throws.
+   */
+  private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Handle a call on a connection or metadata proxy: capture its result or replay it from the snapshot.
+   * @param target actual connection or metadata (null when offline).
+   * @param type the interface the call is made on.
+   * @param proxy the proxy.
+   * @param method the method.
+   * @param args call arguments.
+   * @param cached result from the metadata cache (null if not covered).
+   * @return the result of the call.
+   * @throws Throwable whatever the method throws.
+   */
+  private Object invoke(Object target, Class<?> type, Object proxy, Method method, Object[] args, ResultSet cached)
+      throws Throwable {
+    if (Object.class.equals(method.getDeclaringClass())) {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          return type.getSimpleName() + " proxy";
+      }
+    }
+
+    SchemaSnapshot snapshot = registration.snapshot;
+    String key = snapshot == null ? null : SchemaSnapshot.getKey(type.getSimpleName(), method.getName(), args);
+
+    if (registration.offline) {
+      if (void.class.equals(method.getReturnType())) {
+        return null;
+      }
+      if (!snapshot.contains(key)) {
+        throw new SQLException("not captured in the schema snapshot (re-capture it with the snapshot goal): " + key);
+      }
+      Object result = snapshot.get(key);
+      return result instanceof MetadataRows ? ((MetadataRows) result).toResultSet() : result;
+    }
+
+    Object result = cached != null ? cached : delegate(target, method, args);
+    if (snapshot != null) {
+      if (result instanceof ResultSet) {
+        MetadataRows rows = MetadataRows.copy((ResultSet) result);
+        snapshot.record(key, rows);
+        return rows.toResultSet();
+      } else if (!void.class.equals(method.getReturnType())
+                 && (result == null || result instanceof Serializable)) {
+        snapshot.record(key, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Connection that returns cache- or snapshot-backed metadata.
+   */
+  private class ConnectionHandler implements InvocationHandler {
+    /**
+     * Actual connection (null when offline).
+     */
+    private final Connection connection;
+
+    /**
+     * @param connection actual connection (null when offline).
+     */
+    ConnectionHandler(Connection connection) {
+      this.connection = connection;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if ("getMetaData".equals(method.getName())) {
+        return Proxy.newProxyInstance(MetadataConnectionProvider.class.getClassLoader(),
+                                      new Class<?>[] {DatabaseMetaData.class},
+                                      new MetaDataHandler(connection == null ? null : connection.getMetaData(),
+                                                          (Connection) proxy));
+      }
+      if (registration.offline && "isClosed".equals(method.getName())) {
+        return false;
+      }
+      return MetadataConnectionProvider.this.invoke(connection, Connection.class, proxy, method, args, null);
+    }
+  }
+
+  /**
+   * Database metadata that answers the queries covered by the cache from memory.
+   */
+  private class MetaDataHandler implements InvocationHandler {
+    /**
+     * Actual metadata (null when offline).
+     */
+    private final DatabaseMetaData metaData;
+
+    /**
+     * The connection the metadata belongs to.
+     */
+    private final Connection connection;
+
+    /**
+     * @param metaData actual metadata (null when offline).
+     * @param connection the connection the metadata belongs to.
+     */
+    MetaDataHandler(DatabaseMetaData metaData, Connection connection) {
+      this.metaData = metaData;
+      this.connection = connection;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if ("getConnection".equals(method.getName())) {
+        return connection;
+      }
+      ResultSet cached = null;
+      if (registration.cache != null && !registration.offline && ResultSet.class.equals(method.getReturnType())) {
+        cached = registration.cache.query(method.getName(), args);
+      }
+      return MetadataConnectionProvider.this.invoke(metaData, DatabaseMetaData.class, proxy, method, args, cached);
+    }
+  }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detached copy of a (small) JDBC result set, such as a <code>DatabaseMetaData</code> query result. It can be replayed
+ * as a read-only, forward-only result set any number of times, and it's serializable as long as the values are.
+ *
+ * @author ogolberg@vecna.com
+ */
+class MetadataRows implements Serializable {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Column labels.
+   */
+  private final String[] labels;
+
+  /**
+   * Rows.
+   */
+  private final List<Object[]> rows;
+
+  /**
+   * @param labels column labels.
+   * @param rows rows.
+   */
+  private MetadataRows(String[] labels, List<Object[]> rows) {
+    this.labels = labels;
+    this.rows = rows;
+  }
+
+  /**
+   * @param resultSet a result set.
+   * @return its column labels.
+   * @throws SQLException if the result set metadata cannot be read.
+   */
+  private static String[] getLabels(ResultSet resultSet) throws SQLException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    String[] labels = new String[metaData.getColumnCount()];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = metaData.getColumnLabel(i + 1);
+    }
+    return labels;
+  }
+
+  /**
+   * @param resultSet a result set positioned on a row.
+   * @param columns number of columns.
+   * @return the values of the current row (values that aren't serializable are converted to strings).
+   * @throws SQLException if the row cannot be read.
+   */
+  private static Object[] getRow(ResultSet resultSet, int columns) throws SQLException {
+    Object[] row = new Object[columns];
+    for (int i = 0; i < columns; i++) {
+      Object value = resultSet.getObject(i + 1);
+      row[i] = value == null || value instanceof Serializable ? value : value.toString();
+    }
+    return row;
+  }
+
+  /**
+   * Read and close a result set.
+   * @param resultSet a result set.
+   * @return a copy of all its rows.
+   * @throws SQLException if the result set cannot be read.
+   */
+  static MetadataRows copy(ResultSet resultSet) throws SQLException {
+    try {
+      String[] labels = getLabels(resultSet);
+      List<Object[]> rows = new ArrayList<>();
+      while (resultSet.next()) {
+        rows.add(getRow(resultSet, labels.length));
+      }
+      return new MetadataRows(labels, rows);
+    } finally {
+      resultSet.close();
+    }
+  }
+
+  /**
+   * Read and close a result set, splitting its rows into groups.
+   * @param resultSet a result set.
+   * @param keyLabels labels of the columns to group by.
+   * @return copies of the rows by group key (the values of the key columns, empty for nulls, joined with dots).
+   * @throws SQLException if the result set cannot be read.
+   */
+  static Map<String, MetadataRows> groupBy(ResultSet resultSet, String... keyLabels) throws SQLException {
+    try {
+      String[] labels = getLabels(resultSet);
+      int[] keyColumns = new int[keyLabels.length];
+      for (int i = 0; i < keyLabels.length; i++) {
+        keyColumns[i] = findColumn(labels, keyLabels[i]);
+      }
+
+      Map<String, MetadataRows> groups = new LinkedHashMap<>();
+      while (resultSet.next()) {
+        Object[] row = getRow(resultSet, labels.length);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < keyColumns.length; i++) {
+          Object value = row[keyColumns[i]];
+          key.append(i == 0 ? "" : ".").append(value == null ? "" : value);
+        }
+        MetadataRows group = groups.get(key.toString());
+        if (group == null) {
+          group = new MetadataRows(labels, new ArrayList<Object[]>());
+          groups.put(key.toString(), group);
+        }
+        group.rows.add(row);
+      }
+      return groups;
+    } finally {
+      resultSet.close();
+    }
+  }
+
+  /**
+   * @param labels column labels.
+   * @param label a column label.
+   * @return the (0-based) index of the column (labels are case-insensitive).
+   * @throws SQLException if there's no such column.
+   */
+  private static int findColumn(String[] labels, String label) throws SQLException {
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i].equalsIgnoreCase(label)) {
+        return i;
+      }
+    }
+    throw new SQLException("no column " + label);
+  }
+
+  /**
+   * @param value a value.
+   * @return the value as a boolean (numbers are true unless 0).
+   */
+  private static boolean toBoolean(Object value) {
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    } else if (value instanceof Number) {
+      return ((Number) value).intValue() != 0;
+    }
+    return value != null && ("true".equalsIgnoreCase(value.toString()) || "1".equals(value.toString()));
+  }
+
+  /**
+   * @param value a value.
+   * @return the value as a number (null is 0).
+   */
+  private static Number toNumber(Object value) {
+    if (value == null) {
+      return 0;
+    } else if (value instanceof Number) {
+      return (Number) value;
+    } else if (value instanceof Boolean) {
+      return (Boolean) value ? 1 : 0;
+    }
+    return Double.valueOf(value.toString().trim());
+  }
+
+  /**
+   * @param label a column label.
+   * @param value a boolean value.
+   * @return a copy of the rows where the column has the value.
+   * @throws SQLException if there's no such column.
+   */
+  MetadataRows where(String label, boolean value) throws SQLException {
+    int column = findColumn(labels, label);
+    List<Object[]> selected = new ArrayList<>();
+    for (Object[] row : rows) {
+      if (toBoolean(row[column]) == value) {
+        selected.add(row);
+      }
+    }
+    return new MetadataRows(labels, selected);
+  }
+
+  /**
+   * @return the rows as a read-only, forward-only result set.
+   */
+  ResultSet toResultSet() {
+    return (ResultSet) Proxy.newProxyInstance(MetadataRows.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                                              new ResultSetHandler());
+  }
+
+  /**
+   * Implements the result set returned by {@link MetadataRows#toResultSet()}.
+   */
+  private class ResultSetHandler implements InvocationHandler {
+    /**
+     * Current row index.
+     */
+    private int position = -1;
+
+    /**
+     * Whether the last value read was null.
+     */
+    private boolean wasNull;
+
+    /**
+     * Whether the result set is closed.
+     */
+    private boolean closed;
+
+    /**
+     * @param column a column index (1-based) or label.
+     * @return the value of the column in the current row.
+     * @throws SQLException if the result set is not positioned on a row or there's no such column.
+     */
+    private Object getValue(Object column) throws SQLException {
+      if (closed || position < 0 || position >= rows.size()) {
+        throw new SQLException("result set is not positioned on a row");
+      }
+      int index = column instanceof Number ? ((Number) column).intValue() - 1 : findColumn(labels, (String) column);
+      if (index < 0 || index >= labels.length) {
+        throw new SQLException("no column " + column);
+      }
+      Object value = rows.get(position)[index];
+      wasNull = value == null;
+      return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+      String name = method.getName();
+      switch (name) {
+        case "next":
+          return ++position < rows.size();
+        case "close":
+          closed = true;
+          return null;
+        case "isClosed":
+          return closed;
+        case "wasNull":
+          return wasNull;
+        case "findColumn":
+          return findColumn(labels, (String) args[0]) + 1;
+        case "getMetaData":
+          return Proxy.newProxyInstance(MetadataRows.class.getClassLoader(),
+                                        new Class<?>[] {ResultSetMetaData.class}, new MetaDataHandler());
+        case "getObject":
+          return getValue(args[0]);
+        case "getString":
+          Object value = getValue(args[0]);
+          return value == null ? null : value.toString();
+        case "getBoolean":
+          return toBoolean(getValue(args[0]));
+        case "getByte":
+          return toNumber(getValue(args[0])).byteValue();
+        case "getShort":
+          return toNumber(getValue(args[0])).shortValue();
+        case "getInt":
+          return toNumber(getValue(args[0])).intValue();
+        case "getLong":
+          return toNumber(getValue(args[0])).longValue();
+        case "getFloat":
+          return toNumber(getValue(args[0])).floatValue();
+        case "getDouble":
+          return toNumber(getValue(args[0])).doubleValue();
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "MetadataRows" + Arrays.asList(labels);
+        default:
+          throw new SQLException("unsupported operation on a metadata result set: " + name);
+      }
+    }
+  }
+
+  /**
+   * Implements the metadata of the result set returned by {@link MetadataRows#toResultSet()}.
+   */
+  private class MetaDataHandler implements InvocationHandler {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+      switch (method.getName()) {
+        case "getColumnCount":
+          return labels.length;
+        case "getColumnLabel":
+        case "getColumnName":
+          return labels[(Integer) args[0] - 1];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "MetadataRows" + Arrays.asList(labels);
+        default:
+          throw new SQLException("unsupported operation on metadata result set metadata: " + method.getName());
+      }
+    }
+  }
+}
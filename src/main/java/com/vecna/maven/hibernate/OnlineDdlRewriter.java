@@ -0,0 +1,444 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Table;
+
+/**
+ * Rewrites schema update DDL into forms that don't block writes for the duration of the change, where the database
+ * has them: indexes are built concurrently or online, constraints are added without checking the existing rows and
+ * validated separately, and new <code>NOT NULL</code> columns are populated in batches before the constraint is set.
+ * The result is split into sections that run in a transaction, statements that must run outside of a transaction,
+ * and batched backfills.
+ *
+ * @author ogolberg@vecna.com
+ */
+class OnlineDdlRewriter {
+  /**
+   * How the statements of a section run.
+   */
+  enum Mode {
+    /**
+     * All statements in one transaction.
+     */
+    TRANSACTIONAL("run in a single transaction"),
+
+    /**
+     * Each statement on its own, outside of a transaction.
+     */
+    NON_TRANSACTIONAL("run each statement on its own, outside of a transaction"),
+
+    /**
+     * Each statement on its own, outside of a transaction, repeated until it updates no rows.
+     */
+    BACKFILL("run each statement outside of a transaction, repeatedly until it updates no rows");
+
+    /**
+     * How to run the statements (for script comments).
+     */
+    private final String description;
+
+    /**
+     * @param description how to run the statements.
+     */
+    Mode(String description) {
+      this.description = description;
+    }
+
+    /**
+     * @return how to run the statements (for script comments).
+     */
+    String getDescription() {
+      return description;
+    }
+  }
+
+  /**
+   * A run of consecutive statements that run the same way.
+   */
+  static class Section {
+    /**
+     * How the statements run.
+     */
+    private final Mode mode;
+
+    /**
+     * Statements.
+     */
+    private final List<String> statements = new ArrayList<>();
+
+    /**
+     * @param mode how the statements run.
+     */
+    Section(Mode mode) {
+      this.mode = mode;
+    }
+
+    /**
+     * @return how the statements run.
+     */
+    Mode getMode() {
+      return mode;
+    }
+
+    /**
+     * @return statements.
+     */
+    List<String> getStatements() {
+      return statements;
+    }
+  }
+
+  /**
+   * <code>CREATE [UNIQUE] INDEX name ON table (columns)</code>.
+   */
+  private static final Pattern CREATE_INDEX = Pattern.compile("create (unique )?index (\\S+) on (.+)",
+                                                              Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * <code>ALTER TABLE table ADD CONSTRAINT name FOREIGN KEY ...</code>.
+   */
+  private static final Pattern ADD_FOREIGN_KEY = Pattern.compile(
+      "alter table (\\S+) add constraint (\\S+) foreign key .+", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * <code>ALTER TABLE table ADD CONSTRAINT name UNIQUE (columns)</code>.
+   */
+  private static final Pattern ADD_UNIQUE_KEY = Pattern.compile(
+      "alter table (\\S+) add constraint (\\S+) unique (\\(.+\\))", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * <code>ALTER TABLE table ADD [COLUMN] column type [DEFAULT value] NOT NULL</code>.
+   */
+  private static final Pattern ADD_NOT_NULL_COLUMN = Pattern.compile(
+      "alter table (\\S+) (add(?: column)?) (\\S+) (.+?)(?: default (.+?))? not null",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * Setting <code>NOT NULL</code> on an existing column: standard, Oracle, and MySQL / SQL Server (with the type).
+   */
+  private static final Pattern SET_NOT_NULL = Pattern.compile(
+      "alter table (\\S+) (?:alter column (\\S+) set not null|modify (\\S+) not null"
+      + "|(?:modify column|alter column) (\\S+) .+ not null)",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * SQL flavor.
+   */
+  private final SqlFlavor flavor;
+
+  /**
+   * Number of rows a backfill statement updates at a time.
+   */
+  private final int batchSize;
+
+  /**
+   * Whether <code>SET NOT NULL</code> can use a validated check constraint instead of scanning the table (PostgreSQL 12
+   * and later).
+   */
+  private final boolean validatedNotNull;
+
+  /**
+   * Mapped column default values by qualified table name and column name (see {@link #getKey(String, String)}).
+   */
+  private final Map<String, String> defaults = new HashMap<>();
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * Validations deferred until all other statements have run.
+   */
+  private final List<String> validations = new ArrayList<>();
+
+  /**
+   * Rewritten statements.
+   */
+  private final List<Section> sections = new ArrayList<>();
+
+  /**
+   * @param configuration hibernate configuration (for the column default values used to backfill new columns).
+   * @param dialect SQL dialect.
+   * @param batchSize number of rows a backfill statement updates at a time.
+   * @param databaseMajorVersion major version of the target database (0 if unknown).
+   * @param log maven logger.
+   */
+  OnlineDdlRewriter(Configuration configuration, Dialect dialect, int batchSize, int databaseMajorVersion, Log log) {
+    this.flavor = SqlFlavor.of(dialect);
+    this.batchSize = batchSize;
+    this.validatedNotNull = flavor == SqlFlavor.POSTGRESQL && databaseMajorVersion >= 12;
+    this.log = log;
+
+    String defaultCatalog = configuration.getProperty(Environment.DEFAULT_CATALOG);
+    String defaultSchema = configuration.getProperty(Environment.DEFAULT_SCHEMA);
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      Table table = (Table) tables.next();
+      String tableName = table.getQualifiedName(dialect, defaultCatalog, defaultSchema);
+      Iterator<?> columns = table.getColumnIterator();
+      while (columns.hasNext()) {
+        Column column = (Column) columns.next();
+        if (column.getDefaultValue() != null) {
+          defaults.put(getKey(tableName, column.getQuotedName(dialect)), column.getDefaultValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @param table qualified table name.
+   * @param column column name.
+   * @return key for {@link #defaults}.
+   */
+  private static String getKey(String table, String column) {
+    return table.toLowerCase(Locale.ENGLISH) + "/" + column.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Rewrite a schema update script. Statements keep their order, except for constraint validations, which run last.
+   * @param statements schema update statements.
+   * @return rewritten statements, in sections.
+   */
+  List<Section> rewrite(List<String> statements) {
+    sections.clear();
+    validations.clear();
+
+    for (String sql : statements) {
+      rewrite(sql.trim());
+    }
+    for (String validation : validations) {
+      add(Mode.NON_TRANSACTIONAL, validation);
+    }
+    return Collections.unmodifiableList(new ArrayList<>(sections));
+  }
+
+  /**
+   * Add a statement, starting a new section if the mode changes.
+   * @param mode how the statement runs.
+   * @param sql the statement.
+   */
+  private void add(Mode mode, String sql) {
+    Section last = sections.isEmpty() ? null : sections.get(sections.size() - 1);
+    if (last == null || last.getMode() != mode) {
+      last = new Section(mode);
+      sections.add(last);
+    }
+    last.getStatements().add(sql);
+  }
+
+  /**
+   * Rewrite a single statement.
+   * @param sql the statement.
+   */
+  private void rewrite(String sql) {
+    Matcher matcher = CREATE_INDEX.matcher(sql);
+    if (matcher.matches()) {
+      createIndex(sql, matcher);
+      return;
+    }
+
+    matcher = ADD_FOREIGN_KEY.matcher(sql);
+    if (matcher.matches()) {
+      addForeignKey(sql, matcher.group(1), matcher.group(2));
+      return;
+    }
+
+    matcher = ADD_UNIQUE_KEY.matcher(sql);
+    if (matcher.matches() && flavor == SqlFlavor.POSTGRESQL) {
+      add(Mode.NON_TRANSACTIONAL, "create unique index concurrently " + matcher.group(2) + " on " + matcher.group(1)
+                                  + " " + matcher.group(3));
+      add(Mode.TRANSACTIONAL, "alter table " + matcher.group(1) + " add constraint " + matcher.group(2)
+                              + " unique using index " + matcher.group(2));
+      return;
+    }
+
+    matcher = ADD_NOT_NULL_COLUMN.matcher(sql);
+    if (matcher.matches()) {
+      addNotNullColumn(sql, matcher);
+      return;
+    }
+
+    matcher = SET_NOT_NULL.matcher(sql);
+    if (matcher.matches()) {
+      String column = matcher.group(2) != null ? matcher.group(2)
+          : matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+      String value = defaults.get(getKey(matcher.group(1), column));
+      if (value == null) {
+        log.warn("no default value to populate " + matcher.group(1) + "." + column + " with: " + sql);
+      } else {
+        add(Mode.BACKFILL, backfill(matcher.group(1), column, value));
+      }
+      setNotNull(sql, matcher.group(1), column);
+      return;
+    }
+
+    add(Mode.TRANSACTIONAL, sql);
+  }
+
+  /**
+   * @param sql <code>CREATE INDEX</code> statement.
+   * @param matcher the statement's match.
+   */
+  private void createIndex(String sql, Matcher matcher) {
+    String unique = matcher.group(1) == null ? "" : matcher.group(1);
+    switch (flavor) {
+      case POSTGRESQL:
+        add(Mode.NON_TRANSACTIONAL, "create " + unique + "index concurrently " + matcher.group(2) + " on "
+                                    + matcher.group(3));
+        break;
+      case ORACLE:
+        add(Mode.NON_TRANSACTIONAL, sql + " online");
+        break;
+      case MYSQL:
+        add(Mode.NON_TRANSACTIONAL, sql + " algorithm=inplace lock=none");
+        break;
+      default:
+        add(Mode.TRANSACTIONAL, sql);
+    }
+  }
+
+  /**
+   * @param sql <code>ADD CONSTRAINT ... FOREIGN KEY</code> statement.
+   * @param table table name.
+   * @param constraint constraint name.
+   */
+  private void addForeignKey(String sql, String table, String constraint) {
+    switch (flavor) {
+      case POSTGRESQL:
+        add(Mode.TRANSACTIONAL, sql + " not valid");
+        validations.add("alter table " + table + " validate constraint " + constraint);
+        break;
+      case ORACLE:
+        add(Mode.TRANSACTIONAL, sql + " enable novalidate");
+        validations.add("alter table " + table + " enable validate constraint " + constraint);
+        break;
+      default:
+        add(Mode.TRANSACTIONAL, sql);
+    }
+  }
+
+  /**
+   * Split adding a <code>NOT NULL</code> column into adding a nullable column, setting its default value, populating
+   * the existing rows and setting the constraint. Without a default value the statement is left as is.
+   * @param sql <code>ADD COLUMN ... NOT NULL</code> statement.
+   * @param matcher the statement's match.
+   */
+  private void addNotNullColumn(String sql, Matcher matcher) {
+    String table = matcher.group(1);
+    String column = matcher.group(3);
+    String value = matcher.group(5) != null ? matcher.group(5) : defaults.get(getKey(table, column));
+    if (value == null) {
+      add(Mode.TRANSACTIONAL, sql);
+      return;
+    }
+
+    add(Mode.TRANSACTIONAL, "alter table " + table + " " + matcher.group(2) + " " + column + " " + matcher.group(4));
+    switch (flavor) {
+      case MYSQL:
+        add(Mode.TRANSACTIONAL, "alter table " + table + " alter " + column + " set default " + value);
+        break;
+      case ORACLE:
+        add(Mode.TRANSACTIONAL, "alter table " + table + " modify " + column + " default " + value);
+        break;
+      case SQLSERVER:
+        add(Mode.TRANSACTIONAL, "alter table " + table + " add default " + value + " for " + column);
+        break;
+      default:
+        add(Mode.TRANSACTIONAL, "alter table " + table + " alter column " + column + " set default " + value);
+    }
+    add(Mode.BACKFILL, backfill(table, column, value));
+
+    switch (flavor) {
+      case MYSQL:
+        add(Mode.TRANSACTIONAL, "alter table " + table + " modify column " + column + " " + matcher.group(4)
+                                + " not null");
+        break;
+      case SQLSERVER:
+        add(Mode.TRANSACTIONAL, "alter table " + table + " alter column " + column + " " + matcher.group(4)
+                                + " not null");
+        break;
+      case ORACLE:
+        setNotNull("alter table " + table + " modify " + column + " not null", table, column);
+        break;
+      default:
+        setNotNull("alter table " + table + " alter column " + column + " set not null", table, column);
+    }
+  }
+
+  /**
+   * Set <code>NOT NULL</code> on a column. On PostgreSQL 12 and later an unvalidated check constraint is added and
+   * validated first, so that setting the constraint doesn't scan the table while holding an exclusive lock (earlier
+   * versions scan the table regardless, so the statement is left as is).
+   * @param sql the statement that sets the constraint.
+   * @param table table name.
+   * @param column column name.
+   */
+  private void setNotNull(String sql, String table, String column) {
+    if (!validatedNotNull) {
+      add(Mode.TRANSACTIONAL, sql);
+      return;
+    }
+
+    String check = "nn_" + Integer.toHexString(getKey(table, column).hashCode());
+    add(Mode.TRANSACTIONAL, "alter table " + table + " add constraint " + check + " check (" + column
+                            + " is not null) not valid");
+    add(Mode.NON_TRANSACTIONAL, "alter table " + table + " validate constraint " + check);
+    add(Mode.TRANSACTIONAL, sql);
+    add(Mode.TRANSACTIONAL, "alter table " + table + " drop constraint " + check);
+  }
+
+  /**
+   * @param table table name.
+   * @param column column name.
+   * @param value value to populate the column with.
+   * @return a statement that populates (up to a batch of) the rows where the column is null.
+   */
+  private String backfill(String table, String column, String value) {
+    String set = " set " + column + " = " + value;
+    String where = " where " + column + " is null";
+    switch (flavor) {
+      case POSTGRESQL:
+        return "update " + table + set + " where ctid in (select ctid from " + table + where + " limit " + batchSize
+            + ")";
+      case ORACLE:
+        return "update " + table + set + where + " and rownum <= " + batchSize;
+      case MYSQL:
+        return "update " + table + set + where + " limit " + batchSize;
+      case SQLSERVER:
+        return "update top (" + batchSize + ") " + table + set + where;
+      default:
+        return "update " + table + set + where;
+    }
+  }
+}
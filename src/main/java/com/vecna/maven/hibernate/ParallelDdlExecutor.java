@@ -0,0 +1,316 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import com.vecna.maven.hibernate.DdlStatement.Phase;
+
+/**
+ * Executes the DDL of a schema export over a small pool of connections. Statements are executed phase by phase (see
+ * {@link Phase}); the statements of a parallel phase are split into chunks that run concurrently, as JDBC batches where
+ * the driver supports it. Statements that fail with a deadlock are retried on their own. Other failures don't stop the
+ * export (like with {@link org.hibernate.tool.hbm2ddl.SchemaExport}) and are reported in script order.
+ *
+ * @author ogolberg@vecna.com
+ */
+class ParallelDdlExecutor {
+  /**
+   * Maximum number of statements per chunk (and per batch).
+   */
+  private static final int CHUNK_SIZE = 50;
+
+  /**
+   * Maximum number of attempts of a statement that fails with a deadlock (e.g. foreign keys between two tables created
+   * concurrently).
+   */
+  static final int DEADLOCK_ATTEMPTS = 5;
+
+  /**
+   * Delay before the first retry of a deadlocked statement (milliseconds); doubled for every further retry.
+   */
+  private static final long DEADLOCK_DELAY = 50;
+
+  /**
+   * A failed statement.
+   */
+  static class DdlError {
+    /**
+     * The statement.
+     */
+    private final DdlStatement statement;
+
+    /**
+     * The failure.
+     */
+    private final SQLException exception;
+
+    /**
+     * @param statement the statement.
+     * @param exception the failure.
+     */
+    DdlError(DdlStatement statement, SQLException exception) {
+      this.statement = statement;
+      this.exception = exception;
+    }
+
+    /**
+     * @return the statement.
+     */
+    DdlStatement getStatement() {
+      return statement;
+    }
+
+    /**
+     * @return the failure.
+     */
+    SQLException getException() {
+      return exception;
+    }
+  }
+
+  /**
+   * Opens connections.
+   */
+  private final JdbcConnectionSource connectionSource;
+
+  /**
+   * Number of connections.
+   */
+  private final int threads;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param connectionSource opens connections.
+   * @param threads number of connections.
+   * @param log maven logger.
+   */
+  ParallelDdlExecutor(JdbcConnectionSource connectionSource, int threads, Log log) {
+    this.connectionSource = connectionSource;
+    this.threads = Math.max(1, threads);
+    this.log = log;
+  }
+
+  /**
+   * Execute the statements and log the failures (drop failures at debug level, as they're expected when the schema
+   * doesn't exist yet).
+   * @param statements classified statements, in script order.
+   * @return failed statements, in script order.
+   * @throws MojoExecutionException if the connections cannot be opened.
+   */
+  List<DdlError> execute(List<DdlStatement> statements) throws MojoExecutionException {
+    long start = System.currentTimeMillis();
+
+    Map<Phase, List<DdlStatement>> phases = new EnumMap<>(Phase.class);
+    for (DdlStatement statement : statements) {
+      List<DdlStatement> phase = phases.get(statement.getPhase());
+      if (phase == null) {
+        phase = new ArrayList<>();
+        phases.put(statement.getPhase(), phase);
+      }
+      phase.add(statement);
+    }
+
+    final BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(threads);
+    List<DdlError> errors = new ArrayList<>();
+    try {
+      boolean batch = true;
+      for (int i = 0; i < threads; i++) {
+        Connection connection = connectionSource.open();
+        connection.setAutoCommit(true);
+        batch = batch && connection.getMetaData().supportsBatchUpdates();
+        connections.add(connection);
+      }
+
+      for (Map.Entry<Phase, List<DdlStatement>> phase : phases.entrySet()) {
+        List<DdlStatement> phaseStatements = phase.getValue();
+        final boolean batchPhase = batch && phase.getKey().isParallel() && !phase.getKey().isDrop();
+        int chunkSize = phase.getKey().isParallel()
+            ? Math.max(1, Math.min(CHUNK_SIZE, (phaseStatements.size() + threads - 1) / threads))
+            : phaseStatements.size();
+
+        List<Callable<List<DdlError>>> tasks = new ArrayList<>();
+        for (int from = 0; from < phaseStatements.size(); from += chunkSize) {
+          final List<DdlStatement> chunk = phaseStatements.subList(from, Math.min(from + chunkSize,
+                                                                                  phaseStatements.size()));
+          tasks.add(new Callable<List<DdlError>>() {
+            @Override
+            public List<DdlError> call() throws InterruptedException, SQLException {
+              Connection connection = connections.take();
+              try {
+                List<DdlError> chunkErrors = new ArrayList<>();
+                run(connection, chunk, batchPhase, chunkErrors);
+                return chunkErrors;
+              } finally {
+                connections.add(connection);
+              }
+            }
+          });
+        }
+
+        for (List<DdlError> chunkErrors : ParallelTasks.invokeAll("DDL execution", threads, tasks)) {
+          errors.addAll(chunkErrors);
+        }
+      }
+    } catch (SQLException e) {
+      throw new MojoExecutionException("couldn't open DDL connections", e);
+    } finally {
+      for (Connection connection : connections) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          log.debug("couldn't close a DDL connection", e);
+        }
+      }
+    }
+
+    Collections.sort(errors, new Comparator<DdlError>() {
+      @Override
+      public int compare(DdlError e1, DdlError e2) {
+        return Integer.compare(e1.getStatement().getIndex(), e2.getStatement().getIndex());
+      }
+    });
+
+    for (DdlError error : errors) {
+      if (error.getStatement().getPhase().isDrop()) {
+        log.debug("Unsuccessful: " + error.getStatement().getSql() + ": " + error.getException().getMessage());
+      } else {
+        log.error("Unsuccessful: " + error.getStatement().getSql());
+        log.error(error.getException().getMessage());
+      }
+    }
+
+    log.info("executed " + statements.size() + " DDL statements over " + threads + " connections in "
+             + (System.currentTimeMillis() - start) + "ms (" + errors.size() + " failed)");
+    return errors;
+  }
+
+  /**
+   * @param e a failure.
+   * @return whether the failure (or one chained to it) is a deadlock or a serialization failure, i.e. the statement was
+   *         rolled back and can be retried (SQL state class 40, or Oracle's ORA-00060).
+   */
+  static boolean isDeadlock(SQLException e) {
+    for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+      String state = cause.getSQLState();
+      if ((state != null && state.startsWith("40")) || ("61000".equals(state) && cause.getErrorCode() == 60)) {
+        return true;
+      }
+      if (cause.getNextException() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Execute a statement on its own, retrying it if it fails with a deadlock.
+   * @param jdbcStatement the JDBC statement to execute it with.
+   * @param statement the statement.
+   * @param errors the statement is added to this list if it fails.
+   * @throws InterruptedException if interrupted while waiting to retry.
+   */
+  private static void execute(Statement jdbcStatement, DdlStatement statement, List<DdlError> errors)
+      throws InterruptedException {
+    long delay = DEADLOCK_DELAY;
+    for (int attempt = 1;; attempt++) {
+      try {
+        jdbcStatement.executeUpdate(statement.getSql());
+        return;
+      } catch (SQLException e) {
+        if (attempt >= DEADLOCK_ATTEMPTS || !isDeadlock(e)) {
+          errors.add(new DdlError(statement, e));
+          return;
+        }
+      }
+      Thread.sleep(delay);
+      delay *= 2;
+    }
+  }
+
+  /**
+   * Execute statements on a connection.
+   * @param connection the connection.
+   * @param statements the statements.
+   * @param batch whether to execute the statements as a batch.
+   * @param errors failed statements are added to this list.
+   * @throws SQLException if a JDBC statement cannot be created.
+   * @throws InterruptedException if interrupted while waiting to retry a deadlocked statement.
+   */
+  private static void run(Connection connection, List<DdlStatement> statements, boolean batch, List<DdlError> errors)
+      throws SQLException, InterruptedException {
+    try (Statement jdbcStatement = connection.createStatement()) {
+      if (!batch || statements.size() == 1) {
+        for (DdlStatement statement : statements) {
+          execute(jdbcStatement, statement, errors);
+        }
+        return;
+      }
+
+      for (DdlStatement statement : statements) {
+        jdbcStatement.addBatch(statement.getSql());
+      }
+      try {
+        jdbcStatement.executeBatch();
+      } catch (BatchUpdateException e) {
+        jdbcStatement.clearBatch();
+        int[] counts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+        List<DdlStatement> failed = new ArrayList<>();
+        for (int i = 0; i < counts.length && i < statements.size(); i++) {
+          if (counts[i] == Statement.EXECUTE_FAILED) {
+            failed.add(statements.get(i));
+          }
+        }
+        List<DdlStatement> rest = Collections.emptyList();
+        if (counts.length < statements.size()) {
+          // the driver stopped at the failed statement: run the rest one by one
+          failed.add(statements.get(counts.length));
+          rest = statements.subList(counts.length + 1, statements.size());
+        } else if (failed.isEmpty()) {
+          failed.add(statements.get(statements.size() - 1));
+        }
+
+        for (DdlStatement statement : failed) {
+          if (isDeadlock(e)) {
+            execute(jdbcStatement, statement, errors);
+          } else {
+            errors.add(new DdlError(statement, e));
+          }
+        }
+        run(connection, rest, false, errors);
+      }
+    }
+  }
+}
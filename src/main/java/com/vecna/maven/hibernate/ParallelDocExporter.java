@@ -0,0 +1,536 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Table;
+import org.hibernate.tool.hbm2x.DocExporter;
+import org.hibernate.tool.hbm2x.ExporterException;
+import org.hibernate.tool.hbm2x.TemplateHelper;
+import org.hibernate.tool.hbm2x.doc.DocHelper;
+import org.hibernate.tool.hbm2x.pojo.POJOClass;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.MultiTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleHash;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
+import freemarker.template.TemplateModelException;
+
+/**
+ * Renders schema documentation pages on a thread pool. The page set, the file names and the template data model are
+ * those of the Hibernate Tools {@link DocExporter} (it still drives the generation), but instead of rendering each page
+ * in the calling thread through its (single-threaded) template helper, every page is rendered by a worker using one
+ * shared FreeMarker configuration, so each template is parsed once and then reused by all workers.
+ *
+ * <p>In incremental mode (see {@link DocPageState}), table and entity pages whose model is unchanged since the last
+ * run are not rendered at all, other pages are only written if their content changed, and pages that are no longer
+ * generated are deleted.</p>
+ *
+ * <p>Only a bounded number of pages is queued at any time (the exporter waits for a worker to free up before queueing
+ * more), so the page data models don't pile up in memory. In streaming mode, pages are also rendered straight to disk
+ * (through a temporary file that replaces the page only if the content differs) instead of being buffered in memory.</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+class ParallelDocExporter extends DocExporter {
+  /**
+   * Template helper that exposes the root template context, so that it can be copied into per-page data models.
+   */
+  private static class ContextTemplateHelper extends TemplateHelper {
+    /**
+     * @return a copy of the root template context.
+     */
+    Map<String, Object> copyContext() {
+      try {
+        @SuppressWarnings("unchecked") Map<String, Object> context = new HashMap<String, Object>(getContext().toMap());
+        return context;
+      } catch (TemplateModelException e) {
+        throw new ExporterException("couldn't read the template context", e);
+      }
+    }
+  }
+
+  /**
+   * Common template imported by all pages.
+   */
+  private static final String COMMON_TEMPLATE = "doc/common.ftl";
+
+  /**
+   * Number of rendering threads.
+   */
+  private final int threads;
+
+  /**
+   * Page state for incremental regeneration (null to regenerate everything).
+   */
+  private final DocPageState state;
+
+  /**
+   * Whether pages are rendered straight to disk instead of being buffered in memory.
+   */
+  private final boolean streaming;
+
+  /**
+   * Limits the number of queued pages.
+   */
+  private final Semaphore queued;
+
+  /**
+   * Digests of the templates by template name.
+   */
+  private final Map<String, String> templateDigests = new HashMap<>();
+
+  /**
+   * Whether the static assets are currently being generated.
+   */
+  private boolean generatingAssets;
+
+  /**
+   * Shared FreeMarker configuration (caches parsed templates; thread-safe).
+   */
+  private freemarker.template.Configuration freeMarker;
+
+  /**
+   * Root template context (set up by the exporter, shared by all pages).
+   */
+  private Map<String, Object> rootContext;
+
+  /**
+   * Rendering workers.
+   */
+  private ExecutorService executor;
+
+  /**
+   * Pending pages in generation order.
+   */
+  private List<Future<File>> pages;
+
+  /**
+   * @param configuration hibernate configuration.
+   * @param outputDirectory output directory.
+   * @param threads number of rendering threads.
+   * @param state page state for incremental regeneration (null to regenerate everything).
+   * @param streaming whether to render pages straight to disk instead of buffering them in memory.
+   */
+  ParallelDocExporter(Configuration configuration, File outputDirectory, int threads, DocPageState state,
+                      boolean streaming) {
+    super(configuration, outputDirectory);
+    this.threads = threads;
+    this.state = state;
+    this.streaming = streaming;
+    this.queued = new Semaphore(Math.max(1, threads) * 4);
+  }
+
+  /**
+   * Build the FreeMarker configuration with the same template lookup as the Hibernate Tools template helper: template
+   * paths first, then the classpath.
+   * @return FreeMarker configuration.
+   */
+  private freemarker.template.Configuration createFreeMarker() {
+    List<TemplateLoader> loaders = new ArrayList<>();
+    String[] templatePaths = getTemplatePaths();
+    for (int i = templatePaths.length - 1; i >= 0; i--) {
+      File dir = new File(templatePaths[i]);
+      if (dir.isDirectory()) {
+        try {
+          loaders.add(new FileTemplateLoader(dir));
+        } catch (IOException e) {
+          throw new ExporterException("invalid template path " + dir, e);
+        }
+      }
+    }
+    loaders.add(new ClassTemplateLoader(TemplateHelper.class, "/"));
+
+    freemarker.template.Configuration configuration = new freemarker.template.Configuration();
+    configuration.setTemplateLoader(new MultiTemplateLoader(loaders.toArray(new TemplateLoader[loaders.size()])));
+    configuration.setObjectWrapper(ObjectWrapper.BEANS_WRAPPER);
+    configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+    configuration.setLocalizedLookup(false);
+    return configuration;
+  }
+
+  /**
+   * Generates all pages: the exporter enumerates them (in the calling thread), the workers render them.
+   * {@inheritDoc}
+   */
+  @Override
+  public void start() {
+    ContextTemplateHelper templateHelper = new ContextTemplateHelper();
+    templateHelper.init(getOutputDirectory(), getTemplatePaths());
+    setTemplateHelper(templateHelper);
+
+    freeMarker = createFreeMarker();
+    executor = ParallelTasks.newPool("doc", threads);
+    pages = new ArrayList<>();
+
+    try {
+      setupContext();
+      rootContext = templateHelper.copyContext();
+      doStart();
+      awaitPages();
+      cleanUpContext();
+      if (state != null) {
+        for (File removed : state.getRemovedPages()) {
+          removed.delete();
+        }
+        state.save();
+      }
+    } catch (IOException e) {
+      throw new ExporterException("couldn't save the documentation state", e);
+    } finally {
+      executor.shutdownNow();
+      executor = null;
+      pages = null;
+      rootContext = null;
+      setTemplateHelper(null);
+    }
+
+    getArtifactCollector().formatFiles();
+  }
+
+  /**
+   * Wait for all pages to be rendered and register them as generated artifacts (in generation order).
+   */
+  private void awaitPages() {
+    for (Future<File> page : pages) {
+      File file;
+      try {
+        file = page.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExporterException("interrupted while rendering documentation", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof ExporterException) {
+          throw (ExporterException) e.getCause();
+        }
+        throw new ExporterException("couldn't render documentation", e.getCause());
+      }
+      if (file != null) {
+        String name = file.getName();
+        getArtifactCollector().addFile(file, name.substring(name.lastIndexOf('.') + 1));
+      }
+    }
+  }
+
+  /**
+   * @param templateName template name.
+   * @return a digest of the template, the common template it imports and the dialect (which determines the SQL types).
+   */
+  private String getTemplateDigest(String templateName) {
+    String digest = templateDigests.get(templateName);
+    if (digest == null) {
+      Fingerprint fingerprint = new Fingerprint();
+      fingerprint.add("dialect", getConfiguration().getProperty(Environment.DIALECT));
+      for (String name : new String[] {templateName, COMMON_TEMPLATE}) {
+        try {
+          fingerprint.add(name, freeMarker.getTemplate(name).toString());
+        } catch (IOException e) {
+          fingerprint.add(name, null);
+        }
+      }
+      digest = fingerprint.toHex();
+      templateDigests.put(templateName, digest);
+    }
+    return digest;
+  }
+
+  /**
+   * Skips the static assets in incremental mode if they're up to date.
+   * {@inheritDoc}
+   */
+  @Override
+  public void generateCommmonAndAssets() {
+    String digest = state == null ? null : getTemplateDigest(COMMON_TEMPLATE);
+    if (state != null && state.isAssetsUnchanged(digest)) {
+      state.retainAssets();
+    } else {
+      generatingAssets = true;
+      try {
+        super.generateCommmonAndAssets();
+      } finally {
+        generatingAssets = false;
+      }
+      if (state != null) {
+        state.recordAssets(digest);
+      }
+    }
+  }
+
+  /**
+   * @param additionalContext page parameters.
+   * @return a digest of the model of a table or entity page or null for other pages.
+   */
+  @SuppressWarnings("rawtypes")
+  private String getModelDigest(Map additionalContext) {
+    DocHelper docHelper = (DocHelper) rootContext.get("dochelper");
+    Object table = additionalContext.get("table");
+    if (table instanceof Table) {
+      return DocPageState.digest((Table) table, docHelper);
+    }
+    Object pojo = additionalContext.get("class");
+    if (pojo instanceof POJOClass && ((POJOClass) pojo).getDecoratedObject() instanceof PersistentClass) {
+      boolean jdk5 = Boolean.parseBoolean(String.valueOf(rootContext.get("jdk5")));
+      return DocPageState.digest((POJOClass) pojo, docHelper, jdk5);
+    }
+    return null;
+  }
+
+  /**
+   * Queue a page for rendering instead of rendering it in the calling thread. In incremental mode, table and entity
+   * pages with an unchanged model are skipped.
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("rawtypes")
+  protected void processTemplate(Map additionalContext, final String templateName, final File outputFile) {
+    final boolean asset = generatingAssets;
+    String modelDigest = state == null ? null : getModelDigest(additionalContext);
+    final String digest = modelDigest == null ? null : getTemplateDigest(templateName) + ":" + modelDigest;
+
+    if (digest != null && state.isUnchanged(outputFile, digest)) {
+      state.record(outputFile, digest, asset);
+      return;
+    }
+
+    final SimpleHash model = new SimpleHash(ObjectWrapper.BEANS_WRAPPER);
+    for (Map.Entry<String, Object> entry : rootContext.entrySet()) {
+      model.put(entry.getKey(), entry.getValue());
+    }
+    for (Object entry : additionalContext.entrySet()) {
+      Map.Entry<?, ?> parameter = (Map.Entry<?, ?>) entry;
+      model.put((String) parameter.getKey(), parameter.getValue());
+    }
+    model.put("ctx", model);
+
+    try {
+      queued.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExporterException("interrupted while rendering documentation", e);
+    }
+
+    boolean submitted = false;
+    try {
+      pages.add(executor.submit(new Callable<File>() {
+        @Override
+        public File call() throws IOException, TemplateException {
+          try {
+            return streaming ? stream(templateName, model, outputFile, digest, asset)
+                : render(templateName, model, outputFile, digest, asset);
+          } finally {
+            queued.release();
+          }
+        }
+      }));
+      submitted = true;
+    } finally {
+      if (!submitted) {
+        queued.release();
+      }
+    }
+  }
+
+  /**
+   * @param file a file.
+   * @param content expected content.
+   * @return whether the file exists and has the expected content.
+   * @throws IOException if the file cannot be read.
+   */
+  private static boolean hasContent(File file, String content) throws IOException {
+    if (!file.isFile()) {
+      return false;
+    }
+    try (Reader in = new FileReader(file)) {
+      return IOUtil.toString(in).equals(content);
+    }
+  }
+
+  /**
+   * @param dir a directory.
+   * @throws IOException if the directory doesn't exist and cannot be created.
+   */
+  private static void mkdirs(File dir) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("couldn't create " + dir);
+    }
+  }
+
+  /**
+   * Render a page.
+   * @param templateName template name.
+   * @param model page data model.
+   * @param outputFile output file.
+   * @param digest digest of the page model (null for pages without one).
+   * @param asset whether the page is generated with the static assets.
+   * @return the output file or null if the template produced no output (no file is written in that case).
+   * @throws IOException if the template cannot be loaded or the file cannot be written.
+   * @throws TemplateException if the template fails.
+   */
+  private File render(String templateName, SimpleHash model, File outputFile, String digest, boolean asset)
+      throws IOException, TemplateException {
+    Template template = freeMarker.getTemplate(templateName);
+    StringWriter content = new StringWriter();
+    template.process(model, content);
+
+    if (content.getBuffer().toString().trim().length() == 0) {
+      return null;
+    }
+
+    if (state != null) {
+      state.record(outputFile, digest == null ? "content" : digest, asset);
+      if (hasContent(outputFile, content.toString())) {
+        return outputFile;
+      }
+    }
+
+    mkdirs(outputFile.getAbsoluteFile().getParentFile());
+    try (Writer out = new FileWriter(outputFile)) {
+      out.write(content.getBuffer().toString());
+    }
+    return outputFile;
+  }
+
+  /**
+   * Writer that keeps track of whether anything but whitespace has been written.
+   */
+  private static class BlankTrackingWriter extends FilterWriter {
+    /**
+     * Whether anything but whitespace has been written.
+     */
+    private boolean blank = true;
+
+    /**
+     * @param out underlying writer.
+     */
+    BlankTrackingWriter(Writer out) {
+      super(out);
+    }
+
+    /**
+     * @return whether nothing but whitespace has been written.
+     */
+    boolean isBlank() {
+      return blank;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int c) throws IOException {
+      blank = blank && c <= ' ';
+      super.write(c);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      for (int i = off; blank && i < off + len; i++) {
+        blank = cbuf[i] <= ' ';
+      }
+      super.write(cbuf, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      for (int i = off; blank && i < off + len; i++) {
+        blank = str.charAt(i) <= ' ';
+      }
+      super.write(str, off, len);
+    }
+  }
+
+  /**
+   * Render a page straight to disk: the page is rendered into a temporary file next to it, which then replaces the page
+   * unless the content is identical.
+   * @param templateName template name.
+   * @param model page data model.
+   * @param outputFile output file.
+   * @param digest digest of the page model (null for pages without one).
+   * @param asset whether the page is generated with the static assets.
+   * @return the output file or null if the template produced no output (no file is written in that case).
+   * @throws IOException if the template cannot be loaded or the file cannot be written.
+   * @throws TemplateException if the template fails.
+   */
+  private File stream(String templateName, SimpleHash model, File outputFile, String digest, boolean asset)
+      throws IOException, TemplateException {
+    Template template = freeMarker.getTemplate(templateName);
+    File dir = outputFile.getAbsoluteFile().getParentFile();
+    mkdirs(dir);
+    File tmp = new File(dir, outputFile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+
+    try {
+      BlankTrackingWriter out = new BlankTrackingWriter(new FileWriter(tmp));
+      try {
+        template.process(model, out);
+      } finally {
+        out.close();
+      }
+
+      if (out.isBlank()) {
+        return null;
+      }
+
+      if (state != null) {
+        state.record(outputFile, digest == null ? "content" : digest, asset);
+      }
+      if (outputFile.isFile() && FileUtils.contentEquals(tmp, outputFile)) {
+        return outputFile;
+      }
+
+      outputFile.delete();
+      if (!tmp.renameTo(outputFile)) {
+        FileUtils.rename(tmp, outputFile);
+      }
+      return outputFile;
+    } finally {
+      tmp.delete();
+    }
+  }
+}
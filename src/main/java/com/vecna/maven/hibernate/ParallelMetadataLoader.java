@@ -0,0 +1,232 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.mapping.Table;
+
+import com.vecna.maven.hibernate.MetadataCache.TableMetadata;
+
+/**
+ * Prefetches the JDBC metadata of the mapped tables over several connections. The tables are looked up in the
+ * database catalog first (to get their names as the database reports them), then their columns, indexes, primary and
+ * foreign keys are fetched with the tables partitioned across the connections. In bulk mode, the columns of each schema
+ * are read with a single catalog query instead of one query per table.
+ *
+ * @author ogolberg@vecna.com
+ */
+class ParallelMetadataLoader {
+  /**
+   * Opens connections.
+   */
+  private final JdbcConnectionSource connectionSource;
+
+  /**
+   * Number of connections.
+   */
+  private final int connections;
+
+  /**
+   * Whether to read the columns of each schema with a single query.
+   */
+  private final boolean bulk;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param connectionSource opens connections.
+   * @param connections number of connections.
+   * @param bulk whether to read the columns of each schema with a single query.
+   * @param log maven logger.
+   */
+  ParallelMetadataLoader(JdbcConnectionSource connectionSource, int connections, boolean bulk, Log log) {
+    this.connectionSource = connectionSource;
+    this.connections = connections;
+    this.bulk = bulk;
+    this.log = log;
+  }
+
+  /**
+   * Table identity as reported by the database.
+   */
+  private static class TableName {
+    /**
+     * Schema name (may be null).
+     */
+    private final String schema;
+
+    /**
+     * Table name.
+     */
+    private final String name;
+
+    /**
+     * @param schema schema name.
+     * @param name table name.
+     */
+    TableName(String schema, String name) {
+      this.schema = schema;
+      this.name = name;
+    }
+  }
+
+  /**
+   * Load the metadata of all tables mapped in a Hibernate configuration.
+   * @param configuration hibernate configuration.
+   * @return prefetched metadata.
+   * @throws MojoExecutionException if the metadata cannot be read.
+   */
+  MetadataCache load(Configuration configuration) throws MojoExecutionException {
+    long start = System.currentTimeMillis();
+    final String catalog = configuration.getProperty(Environment.DEFAULT_CATALOG);
+    String defaultSchema = configuration.getProperty(Environment.DEFAULT_SCHEMA);
+
+    Set<String> mappedNames = new LinkedHashSet<>();
+    final Set<String> schemas = new LinkedHashSet<>();
+    Iterator<Table> mappedTables = configuration.getTableMappings();
+    while (mappedTables.hasNext()) {
+      Table table = mappedTables.next();
+      if (table.isPhysicalTable()) {
+        mappedNames.add(table.getName().toLowerCase());
+        schemas.add(table.getSchema() == null ? defaultSchema : table.getSchema());
+      }
+    }
+
+    List<TableName> tables = new ArrayList<>();
+    try (Connection connection = connectionSource.open()) {
+      DatabaseMetaData metaData = connection.getMetaData();
+      for (String schema : schemas) {
+        try (ResultSet rs = metaData.getTables(catalog, schema, "%", new String[] {"TABLE"})) {
+          while (rs.next()) {
+            String name = rs.getString("TABLE_NAME");
+            if (mappedNames.contains(name.toLowerCase())) {
+              tables.add(new TableName(rs.getString("TABLE_SCHEM"), name));
+            }
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new MojoExecutionException("failed to list tables", e);
+    }
+
+    List<Callable<Map<String, TableMetadata>>> tasks = new ArrayList<>();
+    if (bulk) {
+      for (final String schema : schemas) {
+        tasks.add(new Callable<Map<String, TableMetadata>>() {
+          @Override
+          public Map<String, TableMetadata> call() throws SQLException {
+            return loadColumns(catalog, schema);
+          }
+        });
+      }
+    }
+    int partitions = Math.max(1, Math.min(connections, tables.size()));
+    for (int i = 0; i < partitions; i++) {
+      final List<TableName> partition = tables.subList(i * tables.size() / partitions,
+                                                       (i + 1) * tables.size() / partitions);
+      tasks.add(new Callable<Map<String, TableMetadata>>() {
+        @Override
+        public Map<String, TableMetadata> call() throws SQLException {
+          return loadTables(catalog, partition);
+        }
+      });
+    }
+
+    Map<String, TableMetadata> metadata = new LinkedHashMap<>();
+    for (TableName table : tables) {
+      metadata.put(MetadataCache.getKey(table.schema, table.name), new TableMetadata());
+    }
+    for (Map<String, TableMetadata> result : ParallelTasks.invokeAll("metadata loading", connections, tasks)) {
+      for (Map.Entry<String, TableMetadata> table : result.entrySet()) {
+        TableMetadata loaded = metadata.get(table.getKey());
+        if (loaded != null) {
+          loaded.merge(table.getValue());
+        }
+      }
+    }
+
+    log.info("loaded metadata of " + metadata.size() + " tables over " + connections + " connections in "
+             + (System.currentTimeMillis() - start) + "ms");
+    return new MetadataCache(catalog, metadata);
+  }
+
+  /**
+   * Read the columns of all tables in a schema with a single query.
+   * @param catalog catalog name (may be null).
+   * @param schema schema name (may be null).
+   * @return the columns by table key.
+   * @throws SQLException if the metadata cannot be read.
+   */
+  private Map<String, TableMetadata> loadColumns(String catalog, String schema) throws SQLException {
+    Map<String, TableMetadata> metadata = new HashMap<>();
+    try (Connection connection = connectionSource.open()) {
+      ResultSet rs = connection.getMetaData().getColumns(catalog, schema, "%", "%");
+      Map<String, MetadataRows> columns = MetadataRows.groupBy(rs, "TABLE_SCHEM", "TABLE_NAME");
+      for (Map.Entry<String, MetadataRows> table : columns.entrySet()) {
+        TableMetadata tableMetadata = new TableMetadata();
+        tableMetadata.setColumns(table.getValue());
+        metadata.put(table.getKey(), tableMetadata);
+      }
+    }
+    return metadata;
+  }
+
+  /**
+   * Read the metadata of some tables, one table at a time.
+   * @param catalog catalog name (may be null).
+   * @param tables the tables.
+   * @return the metadata by table key.
+   * @throws SQLException if the metadata cannot be read.
+   */
+  private Map<String, TableMetadata> loadTables(String catalog, List<TableName> tables) throws SQLException {
+    Map<String, TableMetadata> metadata = new HashMap<>();
+    try (Connection connection = connectionSource.open()) {
+      DatabaseMetaData metaData = connection.getMetaData();
+      for (TableName table : tables) {
+        TableMetadata tableMetadata = new TableMetadata();
+        if (!bulk) {
+          tableMetadata.setColumns(MetadataRows.copy(metaData.getColumns(catalog, table.schema, table.name, "%")));
+        }
+        tableMetadata.setIndexes(MetadataRows.copy(metaData.getIndexInfo(catalog, table.schema, table.name, false,
+                                                                         true)));
+        tableMetadata.setImportedKeys(MetadataRows.copy(metaData.getImportedKeys(catalog, table.schema, table.name)));
+        tableMetadata.setPrimaryKeys(MetadataRows.copy(metaData.getPrimaryKeys(catalog, table.schema, table.name)));
+        metadata.put(MetadataCache.getKey(table.schema, table.name), tableMetadata);
+      }
+    }
+    return metadata;
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Runs independent tasks on a bounded thread pool. Worker threads inherit the caller's context classloader (Hibernate
+ * and the JDBC drivers resolve classes through it), results come back in task order and failures are reported
+ * deterministically: the first failed task (in task order) wins, regardless of which one failed first in time.
+ *
+ * @author ogolberg@vecna.com
+ */
+final class ParallelTasks {
+  /**
+   * Utility class.
+   */
+  private ParallelTasks() {
+  }
+
+  /**
+   * Creates daemon worker threads that share the caller's context classloader.
+   */
+  private static class WorkerThreadFactory implements ThreadFactory {
+    /**
+     * Thread name prefix.
+     */
+    private final String prefix;
+
+    /**
+     * Context classloader for the workers.
+     */
+    private final ClassLoader classLoader;
+
+    /**
+     * Thread counter.
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param prefix thread name prefix.
+     * @param classLoader context classloader for the workers.
+     */
+    WorkerThreadFactory(String prefix, ClassLoader classLoader) {
+      this.prefix = prefix;
+      this.classLoader = classLoader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setContextClassLoader(classLoader);
+      return thread;
+    }
+  }
+
+  /**
+   * Create a thread pool whose workers share the caller's context classloader. The caller must shut it down.
+   * @param name what the pool is for (used in thread names).
+   * @param threads the number of threads.
+   * @return a new thread pool.
+   */
+  static ExecutorService newPool(String name, int threads) {
+    return Executors.newFixedThreadPool(Math.max(1, threads),
+                                        new WorkerThreadFactory("hibernate-schema-" + name,
+                                                                Thread.currentThread().getContextClassLoader()));
+  }
+
+  /**
+   * Run tasks in parallel and wait for all of them to complete. With a single thread (or a single task) the tasks run
+   * in the calling thread.
+   * @param description what the tasks do (for error messages).
+   * @param threads the maximum number of threads.
+   * @param tasks the tasks.
+   * @param <T> task result type.
+   * @return task results, in task order.
+   * @throws MojoExecutionException if any of the tasks failed.
+   */
+  static <T> List<T> invokeAll(String description, int threads, List<? extends Callable<T>> tasks)
+      throws MojoExecutionException {
+    List<T> results = new ArrayList<>(tasks.size());
+
+    if (threads <= 1 || tasks.size() <= 1) {
+      for (Callable<T> task : tasks) {
+        try {
+          results.add(task.call());
+        } catch (Exception e) {
+          throw failure(description, e);
+        }
+      }
+      return results;
+    }
+
+    ExecutorService executor = newPool(description.replace(' ', '-'), Math.min(threads, tasks.size()));
+    try {
+      List<Future<T>> futures = new ArrayList<>(tasks.size());
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("interrupted: " + description, e);
+    } catch (ExecutionException e) {
+      throw failure(description, e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @param description what the tasks do.
+   * @param cause task failure.
+   * @return an exception to report the failure with.
+   */
+  private static MojoExecutionException failure(String description, Throwable cause) {
+    if (cause instanceof MojoExecutionException) {
+      return (MojoExecutionException) cause;
+    }
+    return new MojoExecutionException(description + " failed: " + cause.getMessage(), cause);
+  }
+}
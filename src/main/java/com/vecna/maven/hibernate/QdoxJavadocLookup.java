@@ -0,0 +1,195 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.thoughtworks.qdox.JavaDocBuilder;
+import com.thoughtworks.qdox.model.DocletTag;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaField;
+import com.thoughtworks.qdox.model.JavaMethod;
+import com.thoughtworks.qdox.model.JavaParameter;
+import com.thoughtworks.qdox.model.JavaSource;
+import com.thoughtworks.qdox.model.Type;
+
+/**
+ * Javadoc lookup backed by a QDox source model.
+ *
+ * @author ogolberg@vecna.com
+ */
+class QdoxJavadocLookup extends JavadocLookup {
+  /**
+   * Parsed classes by binary name.
+   */
+  private final Map<String, JavaClass> classes;
+
+  /**
+   * Declared methods by signature (see {@link JavadocLookup#getSignature(String, String[])}), by class; built lazily.
+   */
+  private final Map<JavaClass, Map<String, JavaMethod>> methods = new HashMap<>();
+
+  /**
+   * @param classes parsed classes by binary name (see {@link #addClasses(JavaSource, Map)}).
+   */
+  QdoxJavadocLookup(Map<String, JavaClass> classes) {
+    this.classes = classes;
+  }
+
+  /**
+   * @param builder QDox builder with all sources added.
+   * @return a lookup over all classes known to the builder.
+   */
+  static QdoxJavadocLookup fromBuilder(JavaDocBuilder builder) {
+    Map<String, JavaClass> classes = new HashMap<>();
+    for (JavaSource source : builder.getSources()) {
+      addClasses(source, classes);
+    }
+    return new QdoxJavadocLookup(classes);
+  }
+
+  /**
+   * Register all classes (including nested ones) defined in a source file under their binary names.
+   * @param source parsed source file.
+   * @param classes the map to add the classes to.
+   */
+  static void addClasses(JavaSource source, Map<String, JavaClass> classes) {
+    for (JavaClass javaClass : source.getClasses()) {
+      addClass(javaClass.getFullyQualifiedName(), javaClass, classes);
+    }
+  }
+
+  /**
+   * @param binaryName binary name of the class.
+   * @param javaClass parsed class.
+   * @param classes the map to add the class and its nested classes to.
+   */
+  private static void addClass(String binaryName, JavaClass javaClass, Map<String, JavaClass> classes) {
+    classes.put(binaryName, javaClass);
+    for (JavaClass nested : javaClass.getNestedClasses()) {
+      addClass(binaryName + "$" + nested.getName(), nested, classes);
+    }
+  }
+
+  /**
+   * @param javaClass parsed class.
+   * @return the parsed superclass or null if it isn't part of the parsed sources.
+   */
+  private JavaClass getSuperclass(JavaClass javaClass) {
+    Type superClass = javaClass.getSuperClass();
+    return superClass == null ? null : resolve(classes, superClass.getValue());
+  }
+
+  /**
+   * @param type QDox type.
+   * @return the type name in the format of {@link JavadocLookup#getTypeNames(Class[])}.
+   */
+  static String getTypeName(Type type) {
+    StringBuilder name = new StringBuilder(type.getValue().replace('$', '.'));
+    for (int i = 0; i < type.getDimensions(); i++) {
+      name.append("[]");
+    }
+    return name.toString();
+  }
+
+  /**
+   * @param javaClass parsed class.
+   * @param signature method signature.
+   * @return the method declared in the class (not its superclasses) or null.
+   */
+  private JavaMethod findMethod(JavaClass javaClass, String signature) {
+    Map<String, JavaMethod> declared = methods.get(javaClass);
+    if (declared == null) {
+      declared = new HashMap<>();
+      for (JavaMethod method : javaClass.getMethods()) {
+        JavaParameter[] parameters = method.getParameters();
+        String[] types = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+          types[i] = getTypeName(parameters[i].getType());
+        }
+        declared.put(getSignature(method.getName(), types), method);
+      }
+      methods.put(javaClass, declared);
+    }
+    return declared.get(signature);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  boolean hasClass(String className) {
+    return classes.containsKey(className);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  String getClassComment(String className) {
+    JavaClass javaClass = classes.get(className);
+    return javaClass == null ? null : javaClass.getComment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  String getFieldComment(String className, String fieldName) {
+    JavaClass javaClass = classes.get(className);
+    if (javaClass != null) {
+      JavaField field = javaClass.getFieldByName(fieldName);
+      if (field != null) {
+        return field.getComment();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  boolean hasMethod(String className, String methodName, String[] parameterTypes) {
+    String signature = getSignature(methodName, parameterTypes);
+    for (JavaClass javaClass = classes.get(className); javaClass != null; javaClass = getSuperclass(javaClass)) {
+      if (findMethod(javaClass, signature) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  String getReturnComment(String className, String methodName, String[] parameterTypes) {
+    String signature = getSignature(methodName, parameterTypes);
+    for (JavaClass javaClass = classes.get(className); javaClass != null; javaClass = getSuperclass(javaClass)) {
+      JavaMethod method = findMethod(javaClass, signature);
+      if (method != null) {
+        DocletTag tag = method.getTagByName("return");
+        if (tag != null && tag.getValue() != null) {
+          return tag.getValue();
+        }
+      }
+    }
+    return null;
+  }
+}
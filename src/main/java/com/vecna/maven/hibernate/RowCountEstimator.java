@@ -0,0 +1,131 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Estimates the number of rows in live tables from the statistics the database reports through
+ * {@link DatabaseMetaData#getIndexInfo(String, String, String, boolean, boolean)}: the table statistic if there is one,
+ * the largest index cardinality otherwise. Nothing is counted, so estimates are as fresh as the database's statistics.
+ *
+ * @author ogolberg@vecna.com
+ */
+class RowCountEstimator {
+  /**
+   * Database metadata.
+   */
+  private final DatabaseMetaData metaData;
+
+  /**
+   * Catalog name (may be null).
+   */
+  private final String catalog;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * Live tables (schema and name) by unquoted, lower case name, with and without the schema.
+   */
+  private final Map<String, String[]> tables = new HashMap<>();
+
+  /**
+   * Estimates by unquoted, lower case table name.
+   */
+  private final Map<String, Long> estimates = new HashMap<>();
+
+  /**
+   * @param metaData database metadata.
+   * @param catalog catalog name (may be null).
+   * @param log maven logger.
+   * @throws SQLException if the tables cannot be listed.
+   */
+  RowCountEstimator(DatabaseMetaData metaData, String catalog, Log log) throws SQLException {
+    this.metaData = metaData;
+    this.catalog = catalog;
+    this.log = log;
+
+    try (ResultSet rs = metaData.getTables(catalog, null, "%", new String[] {"TABLE"})) {
+      while (rs.next()) {
+        String[] table = new String[] {rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME")};
+        String name = table[1].toLowerCase(Locale.ENGLISH);
+        if (!tables.containsKey(name)) {
+          tables.put(name, table);
+        }
+        if (table[0] != null) {
+          tables.put(table[0].toLowerCase(Locale.ENGLISH) + "." + name, table);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param name a possibly quoted and qualified identifier.
+   * @return the identifier without quotes, lower case.
+   */
+  static String unquote(String name) {
+    return name.replaceAll("[\"`\\[\\]]", "").toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * @param tableName a table name as it appears in SQL (possibly quoted and qualified with a schema and catalog).
+   * @return the estimated number of rows, or null if the table doesn't exist or the database reports no statistics.
+   */
+  Long estimate(String tableName) {
+    String key = unquote(tableName);
+    if (!estimates.containsKey(key)) {
+      String[] parts = key.split("\\.");
+      String[] table = tables.get(parts.length > 1 ? parts[parts.length - 2] + "." + parts[parts.length - 1] : key);
+      estimates.put(key, table == null ? null : estimate(table[0], table[1]));
+    }
+    return estimates.get(key);
+  }
+
+  /**
+   * @param schema table schema.
+   * @param table table name.
+   * @return estimated number of rows or null if unknown.
+   */
+  private Long estimate(String schema, String table) {
+    Long cardinality = null;
+    try (ResultSet rs = metaData.getIndexInfo(catalog, schema, table, false, true)) {
+      while (rs.next()) {
+        long value = rs.getLong("CARDINALITY");
+        if (rs.wasNull()) {
+          continue;
+        }
+        if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+          return value;
+        }
+        cardinality = cardinality == null ? value : Math.max(cardinality, value);
+      }
+    } catch (SQLException e) {
+      log.debug("couldn't estimate the number of rows in " + table + ": " + e.getMessage());
+    }
+    return cardinality;
+  }
+}
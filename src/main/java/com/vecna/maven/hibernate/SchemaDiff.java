@@ -0,0 +1,484 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.mapping.Table;
+
+import com.vecna.maven.hibernate.SchemaModel.ColumnModel;
+import com.vecna.maven.hibernate.SchemaModel.KeyModel;
+import com.vecna.maven.hibernate.SchemaModel.TableModel;
+
+/**
+ * Generates the DDL that migrates a schema to the one defined by Hibernate mappings: new tables, hinted table renames,
+ * new columns, column type and nullability changes, added or changed indexes and unique keys, and added, changed or
+ * removed foreign keys. Tables, columns, indexes and unique keys that aren't mapped are left alone (indexes and unique
+ * keys are only dropped on request). Changes that can't be made safely are reported as warnings instead.
+ *
+ * <p>Every change is a separate statement, so that each one holds its locks only for as long as it needs to, and the
+ * statements are ordered by {@link Step}: cheap, metadata-only changes first; changes that rewrite or scan tables later;
+ * foreign keys (which validate the existing rows) last.</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+class SchemaDiff {
+  /**
+   * Migration steps, in execution order.
+   */
+  enum Step {
+    /**
+     * Renaming tables.
+     */
+    RENAME_TABLES,
+
+    /**
+     * Creating new tables.
+     */
+    CREATE_TABLES,
+
+    /**
+     * Dropping removed or changed foreign keys.
+     */
+    DROP_FOREIGN_KEYS,
+
+    /**
+     * Dropping removed or changed indexes and unique keys.
+     */
+    DROP_INDEXES,
+
+    /**
+     * Adding columns (NOT NULL columns with their mapped default value, others as nullable).
+     */
+    ADD_COLUMNS,
+
+    /**
+     * Making columns nullable.
+     */
+    DROP_NOT_NULL,
+
+    /**
+     * Changing column types.
+     */
+    ALTER_TYPES,
+
+    /**
+     * Making columns NOT NULL.
+     */
+    SET_NOT_NULL,
+
+    /**
+     * Creating indexes.
+     */
+    CREATE_INDEXES,
+
+    /**
+     * Adding unique keys.
+     */
+    ADD_UNIQUE_KEYS,
+
+    /**
+     * Adding foreign keys.
+     */
+    ADD_FOREIGN_KEYS
+  }
+
+  /**
+   * The target mappings.
+   */
+  private final Configuration configuration;
+
+  /**
+   * SQL dialect.
+   */
+  private final Dialect dialect;
+
+  /**
+   * Dialect family (for the syntax Hibernate dialects don't cover).
+   */
+  private final SqlFlavor flavor;
+
+  /**
+   * Mapping metadata.
+   */
+  private final Mapping mapping;
+
+  /**
+   * Default catalog.
+   */
+  private final String defaultCatalog;
+
+  /**
+   * Default schema.
+   */
+  private final String defaultSchema;
+
+  /**
+   * Whether to drop indexes and unique keys that aren't mapped.
+   */
+  private final boolean dropUnmappedIndexes;
+
+  /**
+   * Statements by step.
+   */
+  private final Map<Step, List<String>> statements = new EnumMap<>(Step.class);
+
+  /**
+   * Changes that weren't made.
+   */
+  private final List<String> warnings = new ArrayList<>();
+
+  /**
+   * @param configuration the target mappings.
+   * @param dialect SQL dialect.
+   * @param dropUnmappedIndexes whether to drop indexes and unique keys that aren't mapped (other than those the
+   *        foreign keys start with).
+   */
+  SchemaDiff(Configuration configuration, Dialect dialect, boolean dropUnmappedIndexes) {
+    this.configuration = configuration;
+    this.dropUnmappedIndexes = dropUnmappedIndexes;
+    this.dialect = dialect;
+    this.flavor = SqlFlavor.of(dialect);
+    this.mapping = configuration.buildMapping();
+    this.defaultCatalog = configuration.getProperty(Environment.DEFAULT_CATALOG);
+    this.defaultSchema = configuration.getProperty(Environment.DEFAULT_SCHEMA);
+  }
+
+  /**
+   * @param step migration step.
+   * @param sql a statement (ignored if null, e.g. for constraints the dialect doesn't generate).
+   */
+  private void add(Step step, String sql) {
+    if (sql == null) {
+      return;
+    }
+    List<String> stepStatements = statements.get(step);
+    if (stepStatements == null) {
+      stepStatements = new ArrayList<>();
+      statements.put(step, stepStatements);
+    }
+    stepStatements.add(sql);
+  }
+
+  /**
+   * Generate the migration.
+   * @param current the current schema.
+   * @param renames table rename hints (old name to new name).
+   * @return migration statements by step (in step order).
+   */
+  Map<Step, List<String>> diff(SchemaModel current, Map<String, String> renames) {
+    statements.clear();
+    warnings.clear();
+    SchemaModel target = SchemaModel.fromConfiguration(configuration, dialect, mapping);
+
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      Table table = (Table) tables.next();
+      if (!table.isPhysicalTable()) {
+        continue;
+      }
+      String qualifiedName = table.getQualifiedName(dialect, defaultCatalog, defaultSchema);
+      TableModel targetTable = target.getTable(table.getQuotedName(dialect));
+      TableModel currentTable = current.getTable(table.getQuotedName(dialect));
+
+      if (currentTable == null && renames != null) {
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+          if (SchemaModel.key(rename.getValue()).equals(SchemaModel.key(table.getName()))
+              && current.getTable(rename.getKey()) != null) {
+            currentTable = current.getTable(rename.getKey());
+            add(Step.RENAME_TABLES, renameTable(qualify(table, currentTable.getName()), table.getQuotedName(dialect),
+                                                qualifiedName));
+            break;
+          }
+        }
+      }
+
+      if (currentTable == null) {
+        add(Step.CREATE_TABLES, table.sqlCreateString(dialect, mapping, defaultCatalog, defaultSchema));
+        currentTable = new TableModel(table.getQuotedName(dialect));
+      } else {
+        diffColumns(qualifiedName, targetTable, currentTable);
+      }
+      diffIndexes(table, qualifiedName, targetTable, currentTable);
+      diffForeignKeys(qualifiedName, targetTable, currentTable);
+    }
+
+    return new EnumMap<>(statements);
+  }
+
+  /**
+   * @return changes the last {@link #diff(SchemaModel, Map)} couldn't make safely (e.g. new <code>NOT NULL</code>
+   *         columns without a default value, which are added as nullable).
+   */
+  List<String> getWarnings() {
+    return new ArrayList<>(warnings);
+  }
+
+  /**
+   * @param table a mapped table.
+   * @param name an unqualified table name in the same schema.
+   * @return the qualified name.
+   */
+  private String qualify(Table table, String name) {
+    String schema = table.getSchema() == null ? defaultSchema : table.getQuotedSchema(dialect);
+    return schema == null ? name : schema + "." + name;
+  }
+
+  /**
+   * @param oldName qualified current name.
+   * @param newName unqualified new name.
+   * @param qualifiedNewName qualified new name.
+   * @return the statement that renames the table.
+   */
+  private String renameTable(String oldName, String newName, String qualifiedNewName) {
+    switch (flavor) {
+      case SQLSERVER:
+        return "exec sp_rename '" + oldName + "', '" + newName + "'";
+      case MYSQL:
+        return "rename table " + oldName + " to " + qualifiedNewName;
+      default:
+        return "alter table " + oldName + " rename to " + newName;
+    }
+  }
+
+  /**
+   * @param table qualified table name.
+   * @param column column.
+   * @param type the new type.
+   * @param nullable whether the column is nullable.
+   * @return the statement that changes the column type.
+   */
+  private String alterType(String table, ColumnModel column, String type, boolean nullable) {
+    String prefix = "alter table " + table;
+    switch (flavor) {
+      case POSTGRESQL:
+        return prefix + " alter column " + column.getName() + " type " + type;
+      case ORACLE:
+        return prefix + " modify " + column.getName() + " " + type;
+      case MYSQL:
+        return prefix + " modify column " + column.getName() + " " + type + (nullable ? " null" : " not null");
+      case SQLSERVER:
+        return prefix + " alter column " + column.getName() + " " + type + (nullable ? " null" : " not null");
+      default:
+        return prefix + " alter column " + column.getName() + " set data type " + type;
+    }
+  }
+
+  /**
+   * @param table qualified table name.
+   * @param column column.
+   * @param type column type.
+   * @param nullable whether the column should be nullable.
+   * @return the statement that changes the column nullability.
+   */
+  private String alterNullability(String table, ColumnModel column, String type, boolean nullable) {
+    switch (flavor) {
+      case ORACLE:
+        return "alter table " + table + " modify " + column.getName() + (nullable ? " null" : " not null");
+      case MYSQL:
+      case SQLSERVER:
+        return alterType(table, column, type, nullable);
+      default:
+        return "alter table " + table + " alter column " + column.getName()
+            + (nullable ? " drop not null" : " set not null");
+    }
+  }
+
+  /**
+   * Add new columns, change column types and nullability. Like Hibernate's own schema update, new columns are added
+   * with their mapped default value, which populates the existing rows of NOT NULL columns; NOT NULL columns without a
+   * default value are added as nullable (with a warning), since the constraint would fail on existing rows.
+   * @param table qualified table name.
+   * @param target target table.
+   * @param current current table.
+   */
+  private void diffColumns(String table, TableModel target, TableModel current) {
+    for (ColumnModel column : target.getColumns()) {
+      ColumnModel existing = current.getColumn(column.getName());
+      if (existing == null) {
+        StringBuilder sql = new StringBuilder("alter table ").append(table).append(' ')
+            .append(dialect.getAddColumnString()).append(' ').append(column.getName()).append(' ')
+            .append(column.getType());
+        if (column.getDefaultValue() != null) {
+          sql.append(" default ").append(column.getDefaultValue());
+          if (!column.isNullable()) {
+            sql.append(" not null");
+          }
+        } else if (!column.isNullable()) {
+          warnings.add(table + "." + column.getName() + " is mapped NOT NULL without a default value: it's added as "
+                       + "nullable, populate it and make it NOT NULL separately");
+        }
+        add(Step.ADD_COLUMNS, sql.toString());
+      } else if (!existing.hasSameType(column)) {
+        boolean combined = flavor == SqlFlavor.MYSQL || flavor == SqlFlavor.SQLSERVER;
+        add(Step.ALTER_TYPES, alterType(table, column, column.getType(), combined ? column.isNullable()
+            : existing.isNullable()));
+        if (!combined && existing.isNullable() != column.isNullable()) {
+          add(column.isNullable() ? Step.DROP_NOT_NULL : Step.SET_NOT_NULL,
+              alterNullability(table, column, column.getType(), column.isNullable()));
+        }
+      } else if (existing.isNullable() != column.isNullable()) {
+        add(column.isNullable() ? Step.DROP_NOT_NULL : Step.SET_NOT_NULL,
+            alterNullability(table, column, column.getType(), column.isNullable()));
+      }
+    }
+  }
+
+  /**
+   * @param keys keys.
+   * @param key a key.
+   * @return the key with the same name or the same definition, or null.
+   */
+  private static KeyModel find(List<KeyModel> keys, KeyModel key) {
+    for (KeyModel candidate : keys) {
+      if (candidate.hasSameDefinition(key)) {
+        return candidate;
+      }
+    }
+    for (KeyModel candidate : keys) {
+      if (candidate.getName() != null && candidate.getName().equalsIgnoreCase(key.getName())) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Match mapped keys to the current ones. A current key with the name of a mapped key but a different definition is
+   * replaced, and a mapped key is added unless a current key that isn't replaced has its definition, so that a current
+   * key is never both kept for one mapped key and dropped for another.
+   * @param targetKeys mapped keys.
+   * @param currentKeys current keys.
+   * @param replaced receives the current keys to drop, in the order of the mapped keys that replace them.
+   * @return the mapped keys to add.
+   */
+  private static List<KeyModel> match(List<KeyModel> targetKeys, List<KeyModel> currentKeys,
+                                      List<KeyModel> replaced) {
+    for (KeyModel key : targetKeys) {
+      for (KeyModel existing : currentKeys) {
+        if (existing.getName() != null && existing.getName().equalsIgnoreCase(key.getName())
+            && !existing.hasSameDefinition(key) && !replaced.contains(existing)) {
+          replaced.add(existing);
+        }
+      }
+    }
+
+    List<KeyModel> added = new ArrayList<>();
+    for (KeyModel key : targetKeys) {
+      boolean exists = false;
+      for (KeyModel existing : currentKeys) {
+        exists |= !replaced.contains(existing) && existing.hasSameDefinition(key);
+      }
+      if (!exists) {
+        added.add(key);
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Add new and changed indexes and unique keys, and drop changed ones. Indexes and unique keys that aren't mapped are
+   * only dropped if {@link #dropUnmappedIndexes} is set, and indexes that the foreign keys of the table start with are
+   * always kept (some databases need them).
+   * @param mappedTable mapped table.
+   * @param table qualified table name.
+   * @param target target table.
+   * @param current current table.
+   */
+  private void diffIndexes(Table mappedTable, String table, TableModel target, TableModel current) {
+    List<KeyModel> replaced = new ArrayList<>();
+    List<KeyModel> added = match(target.getIndexes(), current.getIndexes(), replaced);
+    for (KeyModel existing : replaced) {
+      add(Step.DROP_INDEXES, dropIndex(mappedTable, table, existing));
+    }
+    for (KeyModel index : added) {
+      add(index.isUnique() ? Step.ADD_UNIQUE_KEYS : Step.CREATE_INDEXES, index.getCreateSql());
+    }
+
+    if (!dropUnmappedIndexes) {
+      return;
+    }
+    for (KeyModel existing : current.getIndexes()) {
+      if (!replaced.contains(existing) && find(target.getIndexes(), existing) == null
+          && !supportsForeignKey(existing, current, target)) {
+        add(Step.DROP_INDEXES, dropIndex(mappedTable, table, existing));
+      }
+    }
+  }
+
+  /**
+   * @param index an index.
+   * @param tables tables whose foreign keys to check.
+   * @return whether a foreign key of the tables starts with the index columns.
+   */
+  private static boolean supportsForeignKey(KeyModel index, TableModel... tables) {
+    for (TableModel table : tables) {
+      for (KeyModel foreignKey : table.getForeignKeys()) {
+        if (index.startsWith(foreignKey.getColumns())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param mappedTable mapped table.
+   * @param table qualified table name.
+   * @param index index or unique key.
+   * @return the statement that drops it.
+   */
+  private String dropIndex(Table mappedTable, String table, KeyModel index) {
+    if (index.isUnique()) {
+      return "alter table " + table + (flavor == SqlFlavor.MYSQL ? " drop index " : " drop constraint ")
+          + index.getName();
+    }
+    switch (flavor) {
+      case MYSQL:
+      case SQLSERVER:
+        return "drop index " + index.getName() + " on " + table;
+      default:
+        return "drop index " + qualify(mappedTable, index.getName());
+    }
+  }
+
+  /**
+   * Add new and changed foreign keys, drop removed and changed ones.
+   * @param table qualified table name.
+   * @param target target table.
+   * @param current current table.
+   */
+  private void diffForeignKeys(String table, TableModel target, TableModel current) {
+    List<KeyModel> replaced = new ArrayList<>();
+    List<KeyModel> added = match(target.getForeignKeys(), current.getForeignKeys(), replaced);
+    for (KeyModel existing : current.getForeignKeys()) {
+      if (replaced.contains(existing) || find(target.getForeignKeys(), existing) == null) {
+        add(Step.DROP_FOREIGN_KEYS, "alter table " + table + dialect.getDropForeignKeyString() + existing.getName());
+      }
+    }
+    for (KeyModel foreignKey : added) {
+      add(Step.ADD_FOREIGN_KEYS, foreignKey.getCreateSql());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.dialect.Dialect;
+
+/**
+ * A single-row table in the target database that records the hash of the DDL the schema was last created with.
+ *
+ * @author ogolberg@vecna.com
+ */
+class SchemaMarker {
+  /**
+   * Marker table name.
+   */
+  private final String table;
+
+  /**
+   * SQL dialect.
+   */
+  private final Dialect dialect;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * @param table marker table name.
+   * @param dialect SQL dialect.
+   * @param log maven logger.
+   */
+  SchemaMarker(String table, Dialect dialect, Log log) {
+    this.table = table;
+    this.dialect = dialect;
+    this.log = log;
+  }
+
+  /**
+   * @param dialect SQL dialect.
+   * @param createScript schema creation script.
+   * @return a stable hash of the schema.
+   */
+  static String hash(Dialect dialect, String[] createScript) {
+    Fingerprint fingerprint = new Fingerprint().add("dialect", dialect.getClass().getName());
+    for (String sql : createScript) {
+      fingerprint.add("sql", sql);
+    }
+    return fingerprint.toHex();
+  }
+
+  /**
+   * @param connection a connection to the target database.
+   * @return the recorded hash or null if there is none (or no marker table).
+   */
+  String read(Connection connection) {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("select schema_hash from " + table)) {
+      return rs.next() ? rs.getString(1) : null;
+    } catch (SQLException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Record a hash (creating the marker table if needed).
+   * @param connection a connection to the target database (in auto-commit mode).
+   * @param hash schema hash.
+   * @throws SQLException if the hash cannot be recorded.
+   */
+  void write(Connection connection, String hash) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      try {
+        statement.executeQuery("select schema_hash from " + table + " where 1 = 0").close();
+      } catch (SQLException missing) {
+        try {
+          statement.executeUpdate("create table " + table + " (schema_hash "
+                                  + dialect.getTypeName(Types.VARCHAR, 64, 0, 0) + " not null)");
+        } catch (SQLException e) {
+          log.warn("couldn't create the schema marker table " + table + ": " + e.getMessage());
+        }
+      }
+      statement.executeUpdate("delete from " + table);
+      statement.executeUpdate("insert into " + table + " (schema_hash) values ('" + hash + "')");
+    }
+  }
+}
@@ -0,0 +1,703 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.io.Serializable;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Constraint;
+import org.hibernate.mapping.ForeignKey;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.UniqueKey;
+
+/**
+ * A dialect-neutral model of a relational schema (tables, columns, indexes, unique and foreign keys), built either from
+ * Hibernate mappings or from live JDBC metadata, so that the two can be compared. Names are matched case-insensitively
+ * (see {@link #key(String)}).
+ *
+ * @author ogolberg@vecna.com
+ */
+class SchemaModel implements Serializable {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * A column.
+   */
+  static class ColumnModel implements Serializable {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Column name as it appears in SQL.
+     */
+    private final String name;
+
+    /**
+     * Normalized SQL type names the column's type can be written as (see {@link SchemaModel#normalizeType(String)}).
+     */
+    private final List<String> types;
+
+    /**
+     * Whether the column is nullable.
+     */
+    private final boolean nullable;
+
+    /**
+     * Mapped default value (null if there is none or the column was read from a live schema).
+     */
+    private final String defaultValue;
+
+    /**
+     * @param name column name as it appears in SQL.
+     * @param types normalized SQL type names the column's type can be written as.
+     * @param nullable whether the column is nullable.
+     */
+    ColumnModel(String name, List<String> types, boolean nullable) {
+      this(name, types, nullable, null);
+    }
+
+    /**
+     * @param name column name as it appears in SQL.
+     * @param types normalized SQL type names the column's type can be written as.
+     * @param nullable whether the column is nullable.
+     * @param defaultValue mapped default value (may be null).
+     */
+    ColumnModel(String name, List<String> types, boolean nullable, String defaultValue) {
+      this.name = name;
+      this.types = types;
+      this.nullable = nullable;
+      this.defaultValue = defaultValue;
+    }
+
+    /**
+     * @return column name as it appears in SQL.
+     */
+    String getName() {
+      return name;
+    }
+
+    /**
+     * @return the SQL type of the column.
+     */
+    String getType() {
+      return types.get(0);
+    }
+
+    /**
+     * @return whether the column is nullable.
+     */
+    boolean isNullable() {
+      return nullable;
+    }
+
+    /**
+     * @return mapped default value (null if there is none or the column was read from a live schema).
+     */
+    String getDefaultValue() {
+      return defaultValue;
+    }
+
+    /**
+     * @param other another column.
+     * @return whether the columns have the same type.
+     */
+    boolean hasSameType(ColumnModel other) {
+      return !Collections.disjoint(types, other.types);
+    }
+  }
+
+  /**
+   * An index, a unique key or a foreign key.
+   */
+  static class KeyModel implements Serializable {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Key name as it appears in SQL.
+     */
+    private final String name;
+
+    /**
+     * Column names as they appear in SQL.
+     */
+    private final List<String> columns;
+
+    /**
+     * Whether the key is unique.
+     */
+    private final boolean unique;
+
+    /**
+     * Referenced table name as it appears in SQL (null for indexes and unique keys).
+     */
+    private final String referencedTable;
+
+    /**
+     * Referenced column names as they appear in SQL (empty for indexes and unique keys).
+     */
+    private final List<String> referencedColumns;
+
+    /**
+     * The statement that creates the key (null for keys read from a live schema).
+     */
+    private final String createSql;
+
+    /**
+     * @param name key name as it appears in SQL.
+     * @param columns column names as they appear in SQL.
+     * @param unique whether the key is unique.
+     * @param referencedTable referenced table name (null for indexes and unique keys).
+     * @param referencedColumns referenced column names (empty for indexes and unique keys).
+     * @param createSql the statement that creates the key (null for keys read from a live schema).
+     */
+    KeyModel(String name, List<String> columns, boolean unique, String referencedTable,
+             List<String> referencedColumns, String createSql) {
+      this.name = name;
+      this.columns = columns;
+      this.unique = unique;
+      this.referencedTable = referencedTable;
+      this.referencedColumns = referencedColumns;
+      this.createSql = createSql;
+    }
+
+    /**
+     * @return key name as it appears in SQL.
+     */
+    String getName() {
+      return name;
+    }
+
+    /**
+     * @return column names as they appear in SQL.
+     */
+    List<String> getColumns() {
+      return columns;
+    }
+
+    /**
+     * @return whether the key is unique.
+     */
+    boolean isUnique() {
+      return unique;
+    }
+
+    /**
+     * @return referenced table name as it appears in SQL (null for indexes and unique keys).
+     */
+    String getReferencedTable() {
+      return referencedTable;
+    }
+
+    /**
+     * @return referenced column names as they appear in SQL.
+     */
+    List<String> getReferencedColumns() {
+      return referencedColumns;
+    }
+
+    /**
+     * @return the statement that creates the key (null for keys read from a live schema).
+     */
+    String getCreateSql() {
+      return createSql;
+    }
+
+    /**
+     * @param other another key.
+     * @return whether the keys have the same definition (regardless of their names).
+     */
+    boolean hasSameDefinition(KeyModel other) {
+      return unique == other.unique && keys(columns).equals(keys(other.columns))
+          && (referencedTable == null ? other.referencedTable == null
+              : other.referencedTable != null && key(referencedTable).equals(key(other.referencedTable))
+                && keys(referencedColumns).equals(keys(other.referencedColumns)));
+    }
+
+    /**
+     * @param prefix column names (in order).
+     * @return whether the key's columns start with the given ones.
+     */
+    boolean startsWith(List<String> prefix) {
+      return prefix.size() <= columns.size() && keys(columns.subList(0, prefix.size())).equals(keys(prefix));
+    }
+  }
+
+  /**
+   * A table.
+   */
+  static class TableModel implements Serializable {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Table name as it appears in SQL.
+     */
+    private final String name;
+
+    /**
+     * Columns by key (in column order).
+     */
+    private final Map<String, ColumnModel> columns = new LinkedHashMap<>();
+
+    /**
+     * Primary key columns (in key order).
+     */
+    private final List<String> primaryKey = new ArrayList<>();
+
+    /**
+     * Indexes and unique keys.
+     */
+    private final List<KeyModel> indexes = new ArrayList<>();
+
+    /**
+     * Foreign keys.
+     */
+    private final List<KeyModel> foreignKeys = new ArrayList<>();
+
+    /**
+     * @param name table name as it appears in SQL.
+     */
+    TableModel(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return table name as it appears in SQL.
+     */
+    String getName() {
+      return name;
+    }
+
+    /**
+     * @return columns (in column order).
+     */
+    Collection<ColumnModel> getColumns() {
+      return columns.values();
+    }
+
+    /**
+     * @param columnName column name.
+     * @return the column or null.
+     */
+    ColumnModel getColumn(String columnName) {
+      return columns.get(key(columnName));
+    }
+
+    /**
+     * @return primary key columns (in key order).
+     */
+    List<String> getPrimaryKey() {
+      return primaryKey;
+    }
+
+    /**
+     * @return indexes and unique keys.
+     */
+    List<KeyModel> getIndexes() {
+      return indexes;
+    }
+
+    /**
+     * @return foreign keys.
+     */
+    List<KeyModel> getForeignKeys() {
+      return foreignKeys;
+    }
+  }
+
+  /**
+   * Tables by key.
+   */
+  private final Map<String, TableModel> tables = new TreeMap<>();
+
+  /**
+   * @param name a name as it appears in SQL (possibly quoted).
+   * @return the name without quotes, in lower case.
+   */
+  static String key(String name) {
+    return name.replaceAll("[\"`\\[\\]]", "").toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * @param names names as they appear in SQL.
+   * @return their keys.
+   */
+  static List<String> keys(List<String> names) {
+    List<String> keys = new ArrayList<>(names.size());
+    for (String name : names) {
+      keys.add(key(name));
+    }
+    return keys;
+  }
+
+  /**
+   * @param type an SQL type.
+   * @return the type in lower case, without redundant whitespace.
+   */
+  static String normalizeType(String type) {
+    return type.trim().toLowerCase(Locale.ENGLISH).replaceAll("\\s+", " ").replaceAll(" ?([(),]) ?", "$1");
+  }
+
+  /**
+   * @return tables.
+   */
+  Collection<TableModel> getTables() {
+    return tables.values();
+  }
+
+  /**
+   * @param tableName table name.
+   * @return the table or null.
+   */
+  TableModel getTable(String tableName) {
+    return tables.get(key(tableName));
+  }
+
+  /**
+   * @param table table to add.
+   */
+  private void addTable(TableModel table) {
+    tables.put(key(table.getName()), table);
+  }
+
+  /**
+   * @param columns Hibernate column iterator.
+   * @param dialect SQL dialect.
+   * @return quoted column names.
+   */
+  private static List<String> getColumnNames(Iterator<?> columns, Dialect dialect) {
+    List<String> names = new ArrayList<>();
+    while (columns.hasNext()) {
+      names.add(((Column) columns.next()).getQuotedName(dialect));
+    }
+    return names;
+  }
+
+  /**
+   * Build the model of the schema Hibernate mappings define. The mappings are only read: unique keys of unique columns
+   * (which Hibernate only adds to the mappings when it generates the schema) are modeled under the names Hibernate
+   * gives them.
+   * @param configuration hibernate configuration.
+   * @param dialect SQL dialect.
+   * @param mapping mapping metadata (see {@link Configuration#buildMapping()}).
+   * @return schema model.
+   */
+  static SchemaModel fromConfiguration(Configuration configuration, Dialect dialect, Mapping mapping) {
+    String defaultCatalog = configuration.getProperty(Environment.DEFAULT_CATALOG);
+    String defaultSchema = configuration.getProperty(Environment.DEFAULT_SCHEMA);
+    SchemaModel model = new SchemaModel();
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      Table table = (Table) tables.next();
+      if (!table.isPhysicalTable()) {
+        continue;
+      }
+      TableModel tableModel = new TableModel(table.getQuotedName(dialect));
+
+      if (table.hasPrimaryKey()) {
+        tableModel.primaryKey.addAll(getColumnNames(table.getPrimaryKey().getColumnIterator(), dialect));
+      }
+      Set<String> primaryKey = new HashSet<>(keys(tableModel.primaryKey));
+
+      Iterator<?> columns = table.getColumnIterator();
+      while (columns.hasNext()) {
+        Column column = (Column) columns.next();
+        String name = column.getQuotedName(dialect);
+        tableModel.columns.put(key(name), new ColumnModel(name,
+            Collections.singletonList(normalizeType(column.getSqlType(dialect, mapping))),
+            column.isNullable() && !primaryKey.contains(key(name)), column.getDefaultValue()));
+      }
+
+      Iterator<?> indexes = table.getIndexIterator();
+      while (indexes.hasNext()) {
+        Index index = (Index) indexes.next();
+        tableModel.indexes.add(new KeyModel(index.getName(), getColumnNames(index.getColumnIterator(), dialect),
+                                            false, null, Collections.<String>emptyList(),
+                                            index.sqlCreateString(dialect, mapping, defaultCatalog, defaultSchema)));
+      }
+      Iterator<?> uniqueKeys = table.getUniqueKeyIterator();
+      while (uniqueKeys.hasNext()) {
+        UniqueKey uniqueKey = (UniqueKey) uniqueKeys.next();
+        tableModel.indexes.add(new KeyModel(uniqueKey.getName(),
+                                            getColumnNames(uniqueKey.getColumnIterator(), dialect), true, null,
+                                            Collections.<String>emptyList(),
+                                            uniqueKey.sqlCreateString(dialect, mapping, defaultCatalog,
+                                                                      defaultSchema)));
+      }
+      columns = table.getColumnIterator();
+      while (columns.hasNext()) {
+        Column column = (Column) columns.next();
+        if (column.isUnique() && !hasUniqueKey(tableModel, column.getQuotedName(dialect))) {
+          UniqueKey uniqueKey = new UniqueKey();
+          uniqueKey.setName(Constraint.generateName("UK_", table, column));
+          uniqueKey.setTable(table);
+          uniqueKey.addColumn(column);
+          tableModel.indexes.add(new KeyModel(uniqueKey.getName(),
+                                              Collections.singletonList(column.getQuotedName(dialect)), true, null,
+                                              Collections.<String>emptyList(),
+                                              uniqueKey.sqlCreateString(dialect, mapping, defaultCatalog,
+                                                                        defaultSchema)));
+        }
+      }
+
+      Iterator<?> foreignKeys = table.getForeignKeyIterator();
+      while (foreignKeys.hasNext()) {
+        ForeignKey foreignKey = (ForeignKey) foreignKeys.next();
+        Table referenced = foreignKey.getReferencedTable();
+        if (referenced == null || !foreignKey.isPhysicalConstraint()) {
+          continue;
+        }
+        Iterator<?> referencedColumns = foreignKey.isReferenceToPrimaryKey()
+            ? referenced.getPrimaryKey().getColumnIterator() : foreignKey.getReferencedColumns().iterator();
+        tableModel.foreignKeys.add(new KeyModel(foreignKey.getName(),
+                                                getColumnNames(foreignKey.getColumnIterator(), dialect), false,
+                                                referenced.getQuotedName(dialect),
+                                                getColumnNames(referencedColumns, dialect),
+                                                foreignKey.sqlCreateString(dialect, mapping, defaultCatalog,
+                                                                           defaultSchema)));
+      }
+
+      model.addTable(tableModel);
+    }
+    return model;
+  }
+
+  /**
+   * @param table a table.
+   * @param column a column name.
+   * @return whether the table has a unique key on just that column.
+   */
+  private static boolean hasUniqueKey(TableModel table, String column) {
+    for (KeyModel index : table.indexes) {
+      if (index.isUnique() && keys(index.getColumns()).equals(Collections.singletonList(key(column)))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param dialect SQL dialect.
+   * @param rs a <code>getColumns</code> result positioned on a column.
+   * @return normalized type names the column's type can be written as: the dialect's name for the JDBC type, and the
+   * database's type name with and without size.
+   * @throws SQLException if the result cannot be read.
+   */
+  private static List<String> getTypes(Dialect dialect, ResultSet rs) throws SQLException {
+    List<String> types = new ArrayList<>();
+    int dataType = rs.getInt("DATA_TYPE");
+    int size = rs.getInt("COLUMN_SIZE");
+    int digits = rs.getInt("DECIMAL_DIGITS");
+    String typeName = rs.getString("TYPE_NAME");
+    try {
+      types.add(normalizeType(dialect.getTypeName(dataType, size, size, digits)));
+    } catch (HibernateException e) {
+      // no mapping for the JDBC type in this dialect
+    }
+    if (typeName != null) {
+      types.add(normalizeType(typeName));
+      types.add(normalizeType(typeName + "(" + size + ")"));
+      types.add(normalizeType(typeName + "(" + size + "," + digits + ")"));
+    }
+    if (types.isEmpty()) {
+      types.add(String.valueOf(dataType));
+    }
+    return types;
+  }
+
+  /**
+   * Build the model of some of the tables of a live schema.
+   * @param metaData database metadata.
+   * @param catalog catalog name (may be null).
+   * @param schemas schema names (a null entry for the default schema).
+   * @param tableNames names of the tables to include (case-insensitive).
+   * @param dialect SQL dialect.
+   * @return schema model.
+   * @throws SQLException if the metadata cannot be read.
+   */
+  static SchemaModel fromMetadata(DatabaseMetaData metaData, String catalog, Collection<String> schemas,
+                                  Collection<String> tableNames, Dialect dialect) throws SQLException {
+    Set<String> included = new HashSet<>(keys(new ArrayList<>(tableNames)));
+    Map<String, String> found = new LinkedHashMap<>();
+    for (String schema : schemas) {
+      try (ResultSet rs = metaData.getTables(catalog, schema, "%", new String[] {"TABLE"})) {
+        while (rs.next()) {
+          String name = rs.getString("TABLE_NAME");
+          if (included.contains(key(name)) && !found.containsKey(name)) {
+            found.put(name, rs.getString("TABLE_SCHEM"));
+          }
+        }
+      }
+    }
+
+    SchemaModel model = new SchemaModel();
+    for (Map.Entry<String, String> table : found.entrySet()) {
+      model.addTable(readTable(metaData, catalog, table.getValue(), table.getKey(), dialect));
+    }
+    return model;
+  }
+
+  /**
+   * The metadata reports indexes, not constraints. Most databases give the index of a unique constraint the name of
+   * the constraint, but H2 names it <code>&lt;constraint&gt;_INDEX_&lt;n&gt;</code>, so its unique constraints are
+   * looked up by index.
+   * @param metaData database metadata.
+   * @param schema schema name (may be null).
+   * @param name table name.
+   * @return the names of the unique constraints of the table by the names of their indexes, where they differ.
+   * @throws SQLException if the constraints cannot be read.
+   */
+  private static Map<String, String> getUniqueConstraintNames(DatabaseMetaData metaData, String schema, String name)
+      throws SQLException {
+    Map<String, String> constraints = new HashMap<>();
+    if (!"H2".equals(metaData.getDatabaseProductName())) {
+      return constraints;
+    }
+    try (PreparedStatement statement = metaData.getConnection().prepareStatement(
+        "select unique_index_name, constraint_name from information_schema.constraints where constraint_type = "
+        + "'UNIQUE' and table_name = ?" + (schema == null ? "" : " and table_schema = ?"))) {
+      statement.setString(1, name);
+      if (schema != null) {
+        statement.setString(2, schema);
+      }
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          constraints.put(rs.getString(1), rs.getString(2));
+        }
+      }
+    }
+    return constraints;
+  }
+
+  /**
+   * @param metaData database metadata.
+   * @param catalog catalog name (may be null).
+   * @param schema schema name (may be null).
+   * @param name table name.
+   * @param dialect SQL dialect.
+   * @return the model of the table.
+   * @throws SQLException if the metadata cannot be read.
+   */
+  private static TableModel readTable(DatabaseMetaData metaData, String catalog, String schema, String name,
+                                      Dialect dialect) throws SQLException {
+    TableModel table = new TableModel(name);
+
+    try (ResultSet rs = metaData.getColumns(catalog, schema, name, "%")) {
+      while (rs.next()) {
+        String column = rs.getString("COLUMN_NAME");
+        table.columns.put(key(column), new ColumnModel(column, getTypes(dialect, rs),
+                                                       rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls));
+      }
+    }
+
+    String primaryKeyName = null;
+    Map<Short, String> primaryKey = new TreeMap<>();
+    try (ResultSet rs = metaData.getPrimaryKeys(catalog, schema, name)) {
+      while (rs.next()) {
+        primaryKeyName = rs.getString("PK_NAME");
+        primaryKey.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+      }
+    }
+    table.primaryKey.addAll(primaryKey.values());
+
+    Map<String, Map<Short, String>> indexColumns = new LinkedHashMap<>();
+    Map<String, Boolean> indexUnique = new LinkedHashMap<>();
+    try (ResultSet rs = metaData.getIndexInfo(catalog, schema, name, false, true)) {
+      while (rs.next()) {
+        String index = rs.getString("INDEX_NAME");
+        String column = rs.getString("COLUMN_NAME");
+        if (index == null || column == null || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+          continue;
+        }
+        if (!indexColumns.containsKey(index)) {
+          indexColumns.put(index, new TreeMap<Short, String>());
+          indexUnique.put(index, !rs.getBoolean("NON_UNIQUE"));
+        }
+        indexColumns.get(index).put(rs.getShort("ORDINAL_POSITION"), column);
+      }
+    }
+    Map<String, String> uniqueConstraints = getUniqueConstraintNames(metaData, schema, name);
+    for (Map.Entry<String, Map<Short, String>> index : indexColumns.entrySet()) {
+      List<String> columns = new ArrayList<>(index.getValue().values());
+      boolean unique = indexUnique.get(index.getKey());
+      boolean isPrimaryKey = index.getKey().equalsIgnoreCase(primaryKeyName)
+          || unique && keys(columns).equals(keys(table.primaryKey));
+      if (!isPrimaryKey) {
+        String constraint = unique ? uniqueConstraints.get(index.getKey()) : null;
+        table.indexes.add(new KeyModel(constraint == null ? index.getKey() : constraint, columns, unique, null,
+                                       Collections.<String>emptyList(), null));
+      }
+    }
+
+    Map<String, Map<Short, String[]>> foreignKeys = new LinkedHashMap<>();
+    Map<String, String> referencedTables = new LinkedHashMap<>();
+    try (ResultSet rs = metaData.getImportedKeys(catalog, schema, name)) {
+      while (rs.next()) {
+        String foreignKey = rs.getString("FK_NAME");
+        if (!foreignKeys.containsKey(foreignKey)) {
+          foreignKeys.put(foreignKey, new TreeMap<Short, String[]>());
+          referencedTables.put(foreignKey, rs.getString("PKTABLE_NAME"));
+        }
+        foreignKeys.get(foreignKey).put(rs.getShort("KEY_SEQ"), new String[] {rs.getString("FKCOLUMN_NAME"),
+                                                                              rs.getString("PKCOLUMN_NAME")});
+      }
+    }
+    for (Map.Entry<String, Map<Short, String[]>> foreignKey : foreignKeys.entrySet()) {
+      List<String> columns = new ArrayList<>();
+      List<String> referencedColumns = new ArrayList<>();
+      for (String[] pair : foreignKey.getValue().values()) {
+        columns.add(pair[0]);
+        referencedColumns.add(pair[1]);
+      }
+      table.foreignKeys.add(new KeyModel(foreignKey.getKey(), columns, false,
+                                         referencedTables.get(foreignKey.getKey()), referencedColumns, null));
+    }
+
+    return table;
+  }
+}
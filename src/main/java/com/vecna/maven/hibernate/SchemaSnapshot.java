@@ -0,0 +1,221 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.Table;
+
+/**
+ * Captured results of the JDBC metadata calls made while validating a schema. Validating against a snapshot replays the
+ * captured results instead of querying a live database; any call that wasn't captured fails.
+ *
+ * @author ogolberg@vecna.com
+ */
+class SchemaSnapshot implements Serializable {
+  /**
+   * Serialization version.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Captured results by call key (see {@link #getKey(String, String, Object[])}).
+   */
+  private final Map<String, Object> results = Collections.synchronizedMap(new HashMap<String, Object>());
+
+  /**
+   * Fingerprint of the mapped tables the snapshot was captured for.
+   */
+  private final String model;
+
+  /**
+   * Checksum of the database state the snapshot was captured from (null if none was computed).
+   */
+  private final String checksum;
+
+  /**
+   * Capture time.
+   */
+  private final long capturedAt = System.currentTimeMillis();
+
+  /**
+   * @param model fingerprint of the mapped tables (see {@link #getModel(Configuration)}).
+   * @param checksum checksum of the database state (null if none was computed).
+   */
+  SchemaSnapshot(String model, String checksum) {
+    this.model = model;
+    this.checksum = checksum;
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return a fingerprint of the mapped tables (the calls made by validation depend on them).
+   */
+  static String getModel(Configuration configuration) {
+    TreeSet<String> names = new TreeSet<>();
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      Table table = (Table) tables.next();
+      names.add(table.getCatalog() + "." + table.getSchema() + "." + table.getName());
+    }
+    Fingerprint fingerprint = new Fingerprint();
+    for (String name : names) {
+      fingerprint.add("table", name);
+    }
+    return fingerprint.toHex();
+  }
+
+  /**
+   * Compute a checksum of the database state, e.g. of the contents of a migration history table.
+   * @param connection a connection.
+   * @param query a query whose results change whenever the schema does.
+   * @return a checksum of the query results.
+   * @throws SQLException if the query fails.
+   */
+  static String checksum(Connection connection, String query) throws SQLException {
+    Fingerprint fingerprint = new Fingerprint();
+    try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(query)) {
+      int columns = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        for (int i = 1; i <= columns; i++) {
+          fingerprint.add("value", rs.getString(i));
+        }
+      }
+    }
+    return fingerprint.toHex();
+  }
+
+  /**
+   * @param type the interface the call is made on.
+   * @param method method name.
+   * @param args call arguments.
+   * @return the key the result of the call is captured under.
+   */
+  static String getKey(String type, String method, Object[] args) {
+    return type + "." + method + (args == null ? "[]" : Arrays.deepToString(args));
+  }
+
+  /**
+   * @param key call key.
+   * @param result call result.
+   */
+  void record(String key, Object result) {
+    results.put(key, result);
+  }
+
+  /**
+   * @param key call key.
+   * @return whether the result of the call was captured.
+   */
+  boolean contains(String key) {
+    return results.containsKey(key);
+  }
+
+  /**
+   * @param key call key.
+   * @return the captured result of the call.
+   */
+  Object get(String key) {
+    return results.get(key);
+  }
+
+  /**
+   * @return number of captured results.
+   */
+  int size() {
+    return results.size();
+  }
+
+  /**
+   * @return capture time.
+   */
+  long getCapturedAt() {
+    return capturedAt;
+  }
+
+  /**
+   * Decide whether the snapshot can be used instead of the live database.
+   * @param currentModel fingerprint of the currently mapped tables.
+   * @param maxAgeHours maximum age of the snapshot in hours (0 for no limit).
+   * @param currentChecksum checksum of the current database state (null if none is configured).
+   * @return null if the snapshot is usable or the reason why it isn't.
+   */
+  String getStaleReason(String currentModel, int maxAgeHours, String currentChecksum) {
+    if (!model.equals(currentModel)) {
+      return "the mapped tables changed";
+    }
+    if (maxAgeHours > 0 && System.currentTimeMillis() - capturedAt > TimeUnit.HOURS.toMillis(maxAgeHours)) {
+      return "it is older than " + maxAgeHours + " hours";
+    }
+    if (currentChecksum != null && !currentChecksum.equals(checksum)) {
+      return "the database checksum changed";
+    }
+    return null;
+  }
+
+  /**
+   * @param file snapshot file.
+   * @return the snapshot.
+   * @throws IOException if the file cannot be read or isn't a snapshot.
+   */
+  static SchemaSnapshot read(File file) throws IOException {
+    try (ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(
+        new FileInputStream(file))))) {
+      return (SchemaSnapshot) in.readObject();
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IOException("not a schema snapshot: " + file, e);
+    }
+  }
+
+  /**
+   * @param file snapshot file.
+   * @throws IOException if the file cannot be written.
+   */
+  void write(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+    try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp))))) {
+      out.writeObject(this);
+    }
+    if (!tmp.renameTo(file)) {
+      FileUtils.rename(tmp, file);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.SQLServerDialect;
+
+/**
+ * Families of SQL dialects that differ in the syntax of schema alterations Hibernate dialects don't cover.
+ *
+ * @author ogolberg@vecna.com
+ */
+enum SqlFlavor {
+  /**
+   * PostgreSQL.
+   */
+  POSTGRESQL,
+
+  /**
+   * Oracle.
+   */
+  ORACLE,
+
+  /**
+   * MySQL.
+   */
+  MYSQL,
+
+  /**
+   * Microsoft SQL Server.
+   */
+  SQLSERVER,
+
+  /**
+   * Everything else (standard SQL syntax).
+   */
+  STANDARD;
+
+  /**
+   * @param dialect a Hibernate dialect.
+   * @return the family of the dialect.
+   */
+  static SqlFlavor of(Dialect dialect) {
+    if (dialect instanceof PostgreSQL81Dialect) {
+      return POSTGRESQL;
+    } else if (dialect instanceof Oracle8iDialect) {
+      return ORACLE;
+    } else if (dialect instanceof MySQLDialect) {
+      return MYSQL;
+    } else if (dialect instanceof SQLServerDialect) {
+      return SQLSERVER;
+    }
+    return STANDARD;
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.ForeignKey;
+import org.hibernate.mapping.Table;
+
+/**
+ * Orders the mapped tables by their foreign keys.
+ *
+ * @author ogolberg@vecna.com
+ */
+final class TableOrder {
+  /**
+   * Utility class.
+   */
+  private TableOrder() {
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @return the physical tables, each one before the tables it references (e.g. to delete data without violating
+   * foreign keys). Tables on a reference cycle come in mapping order.
+   */
+  static List<Table> referencingFirst(Configuration configuration) {
+    Map<Table, Set<Table>> referencedBy = new LinkedHashMap<>();
+    Iterator<?> tables = configuration.getTableMappings();
+    while (tables.hasNext()) {
+      Table table = (Table) tables.next();
+      if (table.isPhysicalTable()) {
+        referencedBy.put(table, new LinkedHashSet<Table>());
+      }
+    }
+
+    for (Table table : referencedBy.keySet()) {
+      Iterator<?> foreignKeys = table.getForeignKeyIterator();
+      while (foreignKeys.hasNext()) {
+        Table referenced = ((ForeignKey) foreignKeys.next()).getReferencedTable();
+        if (referenced != null && referenced != table && referencedBy.containsKey(referenced)) {
+          referencedBy.get(referenced).add(table);
+        }
+      }
+    }
+
+    List<Table> ordered = new ArrayList<>();
+    Set<Table> visited = new LinkedHashSet<>();
+    for (Table table : referencedBy.keySet()) {
+      visit(table, referencedBy, visited, ordered);
+    }
+    return ordered;
+  }
+
+  /**
+   * Add a table after all tables that reference it (depth-first).
+   * @param table the table.
+   * @param referencedBy referencing tables by table.
+   * @param visited tables visited so far.
+   * @param ordered the ordered tables.
+   */
+  private static void visit(Table table, Map<Table, Set<Table>> referencedBy, Set<Table> visited, List<Table> ordered) {
+    if (visited.add(table)) {
+      for (Table referencing : referencedBy.get(table)) {
+        visit(referencing, referencedBy, visited, ordered);
+      }
+      ordered.add(table);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareErrorType;
+
+/**
+ * Combined validation report of many tenant schemas (or databases) with the same mappings. Identical errors are grouped
+ * along with the tenants they were found in; the tenant name is replaced with a placeholder in the error messages
+ * first, so that errors that only differ by the schema they're in are grouped too.
+ *
+ * @author ogolberg@vecna.com
+ */
+class TenantReport {
+  /**
+   * Placeholder for the tenant name in grouped error messages.
+   */
+  static final String TENANT_PLACEHOLDER = "{tenant}";
+
+  /**
+   * Maximum number of tenants listed for an error.
+   */
+  private static final int MAX_LISTED_TENANTS = 10;
+
+  /**
+   * Tenants by error (type and normalized message).
+   */
+  private final Map<String, Set<String>> errors = new HashMap<>();
+
+  /**
+   * Failures by tenant, for tenants that couldn't be validated.
+   */
+  private final Map<String, String> failures = new TreeMap<>();
+
+  /**
+   * Number of tenants validated without errors.
+   */
+  private int clean;
+
+  /**
+   * Number of tenants added.
+   */
+  private int tenants;
+
+  /**
+   * @param tenant tenant name.
+   * @param message error message.
+   * @return the message with the tenant name (as a whole word, in any case) replaced with a placeholder.
+   */
+  static String normalize(String tenant, String message) {
+    if (message == null) {
+      return null;
+    }
+    return Pattern.compile("\\b" + Pattern.quote(tenant) + "\\b", Pattern.CASE_INSENSITIVE).matcher(message)
+        .replaceAll(Matcher.quoteReplacement(TENANT_PLACEHOLDER));
+  }
+
+  /**
+   * Add the validation results of a tenant. Column type warnings are left out, as in single-schema validation.
+   * @param tenant tenant name.
+   * @param results schema differences.
+   */
+  synchronized void add(String tenant, List<RdbCompareError> results) {
+    tenants++;
+    boolean found = false;
+    for (RdbCompareError error : results) {
+      if (error.getErrorType() != RdbCompareErrorType.COL_TYPE_WARNING) {
+        found = true;
+        String key = error.getErrorType() + ": " + normalize(tenant, error.getMessage());
+        Set<String> affected = errors.get(key);
+        if (affected == null) {
+          affected = new TreeSet<>();
+          errors.put(key, affected);
+        }
+        affected.add(tenant);
+      }
+    }
+    if (!found) {
+      clean++;
+    }
+  }
+
+  /**
+   * Record a tenant that couldn't be validated.
+   * @param tenant tenant name.
+   * @param failure the reason.
+   */
+  synchronized void fail(String tenant, String failure) {
+    tenants++;
+    failures.put(tenant, failure);
+  }
+
+  /**
+   * @return the number of tenants that couldn't be validated.
+   */
+  synchronized int getFailureCount() {
+    return failures.size();
+  }
+
+  /**
+   * Log the report: a summary, then each distinct error (most widespread first) with the tenants it was found in, then
+   * the tenants that couldn't be validated.
+   * @param log maven logger.
+   */
+  synchronized void log(Log log) {
+    log.info("validated " + tenants + " tenants: " + clean + " without errors, "
+             + (tenants - clean - failures.size()) + " with errors, " + failures.size() + " failed");
+
+    List<Map.Entry<String, Set<String>>> sorted = new ArrayList<>(errors.entrySet());
+    Collections.sort(sorted, new Comparator<Map.Entry<String, Set<String>>>() {
+      @Override
+      public int compare(Map.Entry<String, Set<String>> a, Map.Entry<String, Set<String>> b) {
+        int bySize = b.getValue().size() - a.getValue().size();
+        return bySize != 0 ? bySize : a.getKey().compareTo(b.getKey());
+      }
+    });
+
+    for (Map.Entry<String, Set<String>> error : sorted) {
+      log.error(error.getKey() + " (" + error.getValue().size() + " of " + tenants + " tenants: "
+                + describe(error.getValue()) + ")");
+    }
+
+    for (Map.Entry<String, String> failure : failures.entrySet()) {
+      log.error("couldn't validate " + failure.getKey() + ": " + failure.getValue());
+    }
+  }
+
+  /**
+   * @param affected tenant names.
+   * @return the first few names, and how many more there are.
+   */
+  private static String describe(Set<String> affected) {
+    StringBuilder description = new StringBuilder();
+    int listed = 0;
+    for (String tenant : affected) {
+      if (listed == MAX_LISTED_TENANTS) {
+        description.append(" and ").append(affected.size() - listed).append(" more");
+        break;
+      }
+      description.append(listed == 0 ? "" : ", ").append(tenant);
+      listed++;
+    }
+    return description.toString();
+  }
+}
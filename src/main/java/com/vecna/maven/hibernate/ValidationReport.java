@@ -0,0 +1,413 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareErrorType;
+
+/**
+ * Validation report: writes each schema difference to a JSON and/or a JUnit XML report as soon as it's added (the
+ * reports are never held in memory), logs a bounded number of them, and keeps per-type and per-table counts for the
+ * summary and the thresholds. Column type warnings are reported with a warning severity; everything else is an error.
+ *
+ * <p>The JUnit test cases are streamed to a part file next to the report; the report itself is written when the
+ * report is closed, as the <code>testsuite</code> element with the test and failure counts followed by the part file's
+ * contents.</p>
+ *
+ * <p>The table of a difference is the first mapped table name that appears in its message (differences that don't
+ * mention a mapped table are counted under an empty table name).</p>
+ *
+ * @author ogolberg@vecna.com
+ */
+class ValidationReport implements AutoCloseable {
+  /**
+   * Name of the threshold that applies to the total number of errors (as opposed to the errors of one type).
+   */
+  static final String ALL = "ALL";
+
+  /**
+   * Identifier-like tokens of a message (possibly quoted or qualified).
+   */
+  private static final Pattern TOKEN = Pattern.compile("[\\w$.\"`\\[\\]]+");
+
+  /**
+   * Number of tables listed in the logged summary.
+   */
+  private static final int SUMMARY_TABLES = 10;
+
+  /**
+   * Mapped table names (unquoted, lower case).
+   */
+  private final Set<String> tables;
+
+  /**
+   * Maximum number of differences to log (negative for no limit).
+   */
+  private final int maxLogged;
+
+  /**
+   * Maven logger.
+   */
+  private final Log log;
+
+  /**
+   * JSON report (null if not enabled).
+   */
+  private final JsonWriter json;
+
+  /**
+   * JUnit report file (null if not enabled).
+   */
+  private final File junitFile;
+
+  /**
+   * Part file the JUnit test cases are streamed to until the report is closed (null if not enabled).
+   */
+  private final File junitPart;
+
+  /**
+   * Underlying writer of the JUnit test cases (null if not enabled).
+   */
+  private final Writer junitOut;
+
+  /**
+   * JUnit test cases (null if not enabled).
+   */
+  private final XMLStreamWriter junit;
+
+  /**
+   * Number of JUnit test cases.
+   */
+  private long testCases;
+
+  /**
+   * Number of differences by type.
+   */
+  private final Map<String, Long> byType = new TreeMap<>();
+
+  /**
+   * Number of differences by table.
+   */
+  private final Map<String, Long> byTable = new TreeMap<>();
+
+  /**
+   * Number of errors.
+   */
+  private long errors;
+
+  /**
+   * Number of warnings.
+   */
+  private long warnings;
+
+  /**
+   * Number of differences logged so far.
+   */
+  private int logged;
+
+  /**
+   * Open the reports.
+   * @param tables mapped table names (unquoted, lower case).
+   * @param jsonFile JSON report file (null for none).
+   * @param junitFile JUnit XML report file (null for none).
+   * @param maxLogged maximum number of differences to log (negative for no limit).
+   * @param log maven logger.
+   * @throws IOException if a report file cannot be created.
+   */
+  ValidationReport(Set<String> tables, File jsonFile, File junitFile, int maxLogged, Log log) throws IOException {
+    this.tables = tables;
+    this.maxLogged = maxLogged;
+    this.log = log;
+
+    if (jsonFile != null) {
+      json = new JsonWriter(open(jsonFile));
+      json.beginObject();
+      json.name("differences").beginArray();
+    } else {
+      json = null;
+    }
+
+    this.junitFile = junitFile;
+    if (junitFile != null) {
+      junitPart = new File(junitFile.getPath() + ".part");
+      junitOut = open(junitPart);
+      try {
+        junit = XMLOutputFactory.newInstance().createXMLStreamWriter(junitOut);
+      } catch (XMLStreamException e) {
+        throw new IOException("couldn't write " + junitPart, e);
+      }
+    } else {
+      junitPart = null;
+      junitOut = null;
+      junit = null;
+    }
+  }
+
+  /**
+   * @param file a report file.
+   * @return a buffered UTF-8 writer to the file (parent directories are created).
+   * @throws IOException if the file cannot be created.
+   */
+  private static Writer open(File file) throws IOException {
+    FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  /**
+   * @param message a difference message.
+   * @return the first mapped table name in the message, or an empty string if there is none.
+   */
+  String findTable(String message) {
+    if (message != null) {
+      Matcher tokens = TOKEN.matcher(message);
+      while (tokens.find()) {
+        String token = RowCountEstimator.unquote(tokens.group());
+        if (tables.contains(token)) {
+          return token;
+        }
+        String unqualified = token.substring(token.lastIndexOf('.') + 1);
+        if (tables.contains(unqualified)) {
+          return unqualified;
+        }
+      }
+    }
+    return "";
+  }
+
+  /**
+   * @param counts counts to update.
+   * @param key the key to count.
+   */
+  private static void increment(Map<String, Long> counts, String key) {
+    Long count = counts.get(key);
+    counts.put(key, count == null ? 1 : count + 1);
+  }
+
+  /**
+   * Report the differences found in a schema.
+   * @param tenant tenant the schema belongs to (null when validating a single schema).
+   * @param differences schema differences.
+   * @throws IOException if a report cannot be written.
+   */
+  synchronized void add(String tenant, List<RdbCompareError> differences) throws IOException {
+    try {
+      for (RdbCompareError difference : differences) {
+        boolean warning = difference.getErrorType() == RdbCompareErrorType.COL_TYPE_WARNING;
+        String type = difference.getErrorType().name();
+        String table = findTable(difference.getMessage());
+        String message = difference.getMessage();
+
+        if (warning) {
+          warnings++;
+        } else {
+          errors++;
+        }
+        increment(byType, type);
+        increment(byTable, table);
+
+        if (maxLogged < 0 || logged < maxLogged) {
+          String line = (tenant == null ? "" : tenant + ": ") + type + ": " + message;
+          if (warning) {
+            log.warn(line);
+          } else {
+            log.error(line);
+          }
+          logged++;
+        }
+
+        if (json != null) {
+          json.beginObject();
+          if (tenant != null) {
+            json.name("tenant").value(tenant);
+          }
+          json.name("severity").value(warning ? "warning" : "error");
+          json.name("type").value(type);
+          json.name("table").value(table);
+          json.name("message").value(message);
+          json.endObject();
+        }
+
+        if (junit != null) {
+          testCases++;
+          junit.writeCharacters("\n  ");
+          junit.writeStartElement("testcase");
+          junit.writeAttribute("classname", getSuiteName(tenant, table));
+          junit.writeAttribute("name", type + ": " + message);
+          if (warning) {
+            junit.writeStartElement("system-out");
+            junit.writeCharacters(message);
+            junit.writeEndElement();
+          } else {
+            junit.writeEmptyElement("failure");
+            junit.writeAttribute("type", type);
+            junit.writeAttribute("message", message);
+          }
+          junit.writeEndElement();
+        }
+      }
+
+      if (junit != null && differences.isEmpty()) {
+        testCases++;
+        junit.writeCharacters("\n  ");
+        junit.writeEmptyElement("testcase");
+        junit.writeAttribute("classname", getSuiteName(tenant, null));
+        junit.writeAttribute("name", "schema matches the mappings");
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("couldn't write the JUnit report", e);
+    }
+  }
+
+  /**
+   * @param tenant tenant (can be null).
+   * @param table table (can be null or empty).
+   * @return the JUnit class name for differences of the table.
+   */
+  private static String getSuiteName(String tenant, String table) {
+    String suite = table == null || table.isEmpty() ? "schema" : "schema." + table;
+    return tenant == null ? suite : tenant + "." + suite;
+  }
+
+  /**
+   * @param threshold an error type name or {@link #ALL}.
+   * @return the number of differences of the type or, for {@link #ALL}, the number of errors.
+   */
+  synchronized long getCount(String threshold) {
+    if (ALL.equals(threshold)) {
+      return errors;
+    }
+    Long count = byType.get(threshold);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Log the totals, the counts by type and the tables with the most differences.
+   */
+  synchronized void logSummary() {
+    if (errors + warnings == 0) {
+      return;
+    }
+    if (maxLogged >= 0 && logged < errors + warnings) {
+      log.info((errors + warnings - logged) + " more differences are only in the reports");
+    }
+    log.info(errors + " errors, " + warnings + " warnings by type: " + byType);
+
+    List<Map.Entry<String, Long>> sorted = new ArrayList<>(byTable.entrySet());
+    Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+      @Override
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+    Map<String, Long> top = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> table : sorted.subList(0, Math.min(SUMMARY_TABLES, sorted.size()))) {
+      top.put(table.getKey().isEmpty() ? "(no table)" : table.getKey(), table.getValue());
+    }
+    log.info("tables with the most differences: " + top);
+  }
+
+  /**
+   * Finish the reports: the JSON report gets the totals and the counts by type and by table, the JUnit report is
+   * written with the test and failure counts.
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (json != null) {
+      json.endArray();
+      json.name("summary").beginObject();
+      json.name("errors").value(errors);
+      json.name("warnings").value(warnings);
+      writeCounts("byType", byType);
+      writeCounts("byTable", byTable);
+      json.endObject();
+      json.endObject();
+      json.close();
+    }
+
+    if (junit != null) {
+      try {
+        junit.writeCharacters("\n");
+        junit.close();
+      } catch (XMLStreamException e) {
+        throw new IOException("couldn't write the JUnit report", e);
+      } finally {
+        junitOut.close();
+      }
+      writeJunitReport();
+    }
+  }
+
+  /**
+   * Write the JUnit report: the <code>testsuite</code> element with the counts, wrapping the streamed test cases.
+   * @throws IOException if the report cannot be written.
+   */
+  private void writeJunitReport() throws IOException {
+    try (Writer out = open(junitFile);
+        Reader part = new InputStreamReader(new FileInputStream(junitPart), "UTF-8")) {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      out.write("<testsuite name=\"hibernate-schema-validation\" tests=\"" + testCases + "\" failures=\"" + errors
+                + "\" errors=\"0\" skipped=\"0\">");
+      IOUtil.copy(part, out);
+      out.write("</testsuite>");
+    } finally {
+      junitPart.delete();
+    }
+  }
+
+  /**
+   * @param name member name.
+   * @param counts counts to write as a JSON object.
+   * @throws IOException if the report cannot be written.
+   */
+  private void writeCounts(String name, Map<String, Long> counts) throws IOException {
+    json.name(name).beginObject();
+    for (Map.Entry<String, Long> count : counts.entrySet()) {
+      json.name(count.getKey()).value(count.getValue());
+    }
+    json.endObject();
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the statement and JDBC round-trip counts of the goal metrics.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class BuildMetricsTest {
+  /**
+   * Number of tables of the test schema.
+   */
+  private static final int TABLES = 10;
+
+  /**
+   * Test mappings.
+   */
+  private Configuration configuration;
+
+  /**
+   * Create the test mappings.
+   */
+  @Before
+  public void setUp() {
+    configuration = SyntheticMappings.create(TABLES);
+  }
+
+  /**
+   * @param mojo a mojo that has run.
+   * @param name counter name.
+   * @return the count.
+   */
+  private static long getCount(HibernateSchemaMojo mojo, String name) {
+    return mojo.getMetrics().counter(name).get();
+  }
+
+  /**
+   * The statements of the export goal are counted, and so are the round-trips over the connections of
+   * {@link org.hibernate.tool.hbm2ddl.SchemaExport}.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testExport() throws Exception {
+    HibernateSchemaExportMojo mojo = new HibernateSchemaExportMojo();
+    mojo.setLog(new CapturingLog());
+    MojoParameters.set(mojo, "print", false);
+    mojo.executeWithMappings(configuration);
+
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+    int statements = configuration.generateDropSchemaScript(dialect).length
+        + configuration.generateSchemaCreationScript(dialect).length;
+    assertEquals(statements, getCount(mojo, "statements"));
+    // a connection and a statement, then each statement executed
+    assertTrue(String.valueOf(getCount(mojo, HibernateSchemaMojo.ROUND_TRIPS)),
+               getCount(mojo, HibernateSchemaMojo.ROUND_TRIPS) >= statements + 2);
+  }
+
+  /**
+   * The statements of the update goal are counted without the schema diff, as are the round-trips of reading the
+   * live metadata and executing the update.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testUpdate() throws Exception {
+    HibernateSchemaUpdateMojo mojo = new HibernateSchemaUpdateMojo();
+    mojo.setLog(new CapturingLog());
+    MojoParameters.set(mojo, "print", false);
+    File outputFile = File.createTempFile("update", ".sql");
+    MojoParameters.set(mojo, "outputFile", outputFile.getPath());
+    try {
+      mojo.executeWithMappings(configuration);
+
+      int statements = FileUtils.fileRead(outputFile, "UTF-8").split(";").length - 1;
+      assertTrue(statements > TABLES);
+      assertEquals(statements, getCount(mojo, "statements"));
+      assertTrue(String.valueOf(getCount(mojo, HibernateSchemaMojo.ROUND_TRIPS)),
+                 getCount(mojo, HibernateSchemaMojo.ROUND_TRIPS) > statements);
+    } finally {
+      outputFile.delete();
+    }
+  }
+
+  /**
+   * The round-trips of a validation that Hibernate's validator reads the live metadata for itself are reported as not
+   * measured, in the log and in the metrics file.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testUnmeasured() throws Exception {
+    HibernateSchemaValidateMojo mojo = new HibernateSchemaValidateMojo();
+    mojo.setLog(new CapturingLog());
+    mojo.validate(configuration, null, false);
+    mojo.getMetrics().count("tables", TABLES);
+
+    CapturingLog log = new CapturingLog();
+    mojo.getMetrics().log(log);
+    assertEquals(1, log.count("counts: jdbcRoundTrips not measured, tables " + TABLES + ", peak heap "));
+
+    File file = File.createTempFile("metrics", ".json");
+    try {
+      mojo.getMetrics().write(new Object(), file);
+      String json = FileUtils.fileRead(file, "UTF-8");
+      assertTrue(json, json.contains("\"jdbcRoundTrips\": null,"));
+      assertTrue(json, json.contains("\"tables\": " + TABLES));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * A connection provider of the configuration's own is kept for Hibernate's schema tools, and its round-trips are
+   * reported as not measured.
+   */
+  @Test
+  public void testCustomConnectionProvider() {
+    HibernateSchemaExportMojo mojo = new HibernateSchemaExportMojo();
+    Properties properties = mojo.getCountingProperties(configuration);
+    assertEquals(CountingConnectionProvider.class.getName(), properties.getProperty(Environment.CONNECTION_PROVIDER));
+    assertEquals(mojo.getRoundTripCounterId(), properties.getProperty(CountingConnectionProvider.COUNTER_ID));
+
+    configuration.setProperty(Environment.CONNECTION_PROVIDER, MetadataConnectionProvider.class.getName());
+    properties = mojo.getCountingProperties(configuration);
+    assertEquals(MetadataConnectionProvider.class.getName(), properties.getProperty(Environment.CONNECTION_PROVIDER));
+    assertEquals(null, properties.getProperty(CountingConnectionProvider.COUNTER_ID));
+
+    CapturingLog log = new CapturingLog();
+    mojo.getMetrics().log(log);
+    assertEquals(1, log.count("counts: jdbcRoundTrips not measured, peak heap "));
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Maven logger that keeps the info, warning and error messages.
+ *
+ * @author ogolberg@vecna.com
+ */
+class CapturingLog extends SystemStreamLog {
+  /**
+   * Logged messages.
+   */
+  private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void info(CharSequence content) {
+    messages.add(content.toString());
+    super.info(content);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void warn(CharSequence content) {
+    messages.add(content.toString());
+    super.warn(content);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void error(CharSequence content) {
+    messages.add(content.toString());
+    super.error(content);
+  }
+
+  /**
+   * @return logged messages.
+   */
+  List<String> getMessages() {
+    return messages;
+  }
+
+  /**
+   * @param prefix message prefix.
+   * @return the number of logged messages that start with the prefix.
+   */
+  int count(String prefix) {
+    int count = 0;
+    synchronized (messages) {
+      for (String message : messages) {
+        if (message.startsWith(prefix)) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+}
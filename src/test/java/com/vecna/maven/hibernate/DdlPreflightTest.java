@@ -0,0 +1,132 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQL5InnoDBDialect;
+import org.hibernate.dialect.Oracle10gDialect;
+import org.hibernate.dialect.PostgreSQL82Dialect;
+import org.hibernate.dialect.SQLServer2008Dialect;
+import org.junit.Test;
+
+import com.vecna.maven.hibernate.DdlPreflight.Failure;
+
+/**
+ * Tests {@link DdlPreflight}.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class DdlPreflightTest {
+  /**
+   * Number of tables of the test schema.
+   */
+  private static final int TABLES = 20;
+
+  /**
+   * The create script Hibernate generates for each supported database runs in the matching compatibility mode.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testCreateScripts() throws Exception {
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    for (Dialect dialect : new Dialect[] {new H2Dialect(), new PostgreSQL82Dialect(), new Oracle10gDialect(),
+                                          new MySQL5InnoDBDialect(), new SQLServer2008Dialect()}) {
+      DdlPreflight check = new DdlPreflight(SqlFlavor.of(dialect), Collections.<String>singleton(null));
+      List<String> script = Arrays.asList(configuration.generateSchemaCreationScript(dialect));
+      List<Failure> failures = check.check(script, 0, false);
+      assertTrue(dialect + ": " + (failures.isEmpty() ? "" : failures.get(0).getMessage()), failures.isEmpty());
+    }
+  }
+
+  /**
+   * Failing statements are reported by their index in the script, and the rest of the script still runs.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testFailures() throws Exception {
+    DdlPreflight check = new DdlPreflight(SqlFlavor.POSTGRESQL, Arrays.asList(null, "audit"));
+    List<Failure> failures = check.check(Arrays.asList("drop table missing",
+                                                       "create table audit.log (id int8 not null, primary key (id))",
+                                                       "create table item (id int8 not null, size no_such_type)",
+                                                       "create index idx_log_id on audit.log (id)",
+                                                       "create index idx_log_id on audit.log (id)"), 1, false);
+    assertEquals(2, failures.size());
+    assertEquals(2, failures.get(0).getIndex());
+    assertTrue(failures.get(0).getMessage(), failures.get(0).getMessage().contains("NO_SUCH_TYPE"));
+    assertEquals(-1, failures.get(0).getMessage().indexOf('\n'));
+    assertEquals(4, failures.get(1).getIndex());
+  }
+
+  /**
+   * Update scripts reference objects the empty preflight database doesn't have; those failures can be ignored, other
+   * failures can't.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testMissingObjects() throws Exception {
+    DdlPreflight check = new DdlPreflight(SqlFlavor.POSTGRESQL, Collections.<String>singleton(null));
+    List<String> script = Arrays.asList("alter table item add column code varchar(20)",
+                                        "create index idx_item_code on item (code)",
+                                        "alter table item add constraint fk_item_owner foreign key (owner_id) "
+                                        + "references owner",
+                                        "create table owner (id int8 not null, primary key (id), name no_such_type)");
+    assertEquals(4, check.check(script, 0, false).size());
+
+    List<Failure> failures = check.check(script, 0, true);
+    assertEquals(1, failures.size());
+    assertEquals(3, failures.get(0).getIndex());
+  }
+
+  /**
+   * <code>alter table</code> statements are split at the top-level commas between their clauses.
+   */
+  @Test
+  public void testSplitAlterTable() {
+    assertEquals(Arrays.asList("alter table item add index fk_item_owner (owner_id, tenant_id)",
+                               "alter table item add constraint fk_item_owner foreign key (owner_id, tenant_id) "
+                               + "references owner (id, tenant_id)"),
+                 DdlPreflight.splitAlterTable("alter table item add index fk_item_owner (owner_id, tenant_id), add "
+                                              + "constraint fk_item_owner foreign key (owner_id, tenant_id) references "
+                                              + "owner (id, tenant_id)"));
+    assertEquals(Arrays.asList("alter table item add column note varchar(20) default 'a, b'"),
+                 DdlPreflight.splitAlterTable("alter table item add column note varchar(20) default 'a, b'"));
+    assertEquals(Arrays.asList("create table item (id int8, code varchar(20))"),
+                 DdlPreflight.splitAlterTable("create table item (id int8, code varchar(20))"));
+  }
+
+  /**
+   * Each supported database has a compatibility mode.
+   */
+  @Test
+  public void testModes() {
+    assertEquals("PostgreSQL", DdlPreflight.getMode(SqlFlavor.POSTGRESQL));
+    assertEquals("Oracle", DdlPreflight.getMode(SqlFlavor.ORACLE));
+    assertEquals("MySQL", DdlPreflight.getMode(SqlFlavor.MYSQL));
+    assertEquals("MSSQLServer", DdlPreflight.getMode(SqlFlavor.SQLSERVER));
+    assertNull(DdlPreflight.getMode(SqlFlavor.STANDARD));
+  }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
+import javax.persistence.Id;
+import javax.persistence.Inheritance;
+import javax.persistence.InheritanceType;
+import javax.persistence.MappedSuperclass;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests finding mapped classes in class files with {@link ClassFileAnnotations} and {@link EntityScanner}, in the test
+ * classes directory and in a jar.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class EntityScannerTest {
+  /**
+   * An entity whose other annotations have every kind of element value and whose constant pool has long, double and
+   * string constants.
+   */
+  @Table(name = "scanned", uniqueConstraints = @UniqueConstraint(columnNames = {"code", "name"}))
+  @Inheritance(strategy = InheritanceType.JOINED)
+  @Cacheable(true)
+  @EntityListeners(Object.class)
+  @Entity(name = "Scanned")
+  public static class ScannedEntity {
+    /**
+     * A long constant (two constant pool slots).
+     */
+    static final long LONG_CONSTANT = 1234567890123L;
+
+    /**
+     * A double constant (two constant pool slots).
+     */
+    static final double DOUBLE_CONSTANT = 1.5;
+
+    /**
+     * A string constant.
+     */
+    static final String STRING_CONSTANT = "scanned";
+
+    /**
+     * Identifier.
+     */
+    @Id
+    private long id;
+
+    /**
+     * @return identifier.
+     */
+    long getId() {
+      return id;
+    }
+  }
+
+  /**
+   * An embeddable class.
+   */
+  @Embeddable
+  public static class ScannedEmbeddable {
+  }
+
+  /**
+   * A mapped superclass.
+   */
+  @MappedSuperclass
+  public abstract static class ScannedSuperclass {
+  }
+
+  /**
+   * An annotated interface (not mapped).
+   */
+  @Entity
+  public interface ScannedInterface {
+  }
+
+  /**
+   * An annotated annotation type (not mapped).
+   */
+  @Entity
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface ScannedAnnotationType {
+  }
+
+  /**
+   * A class that refers to the entity annotation without being annotated with it (not mapped).
+   */
+  @EntityListeners(Object.class)
+  public static class UnmappedClass {
+    /**
+     * @return the entity annotation type.
+     */
+    Class<? extends Annotation> getAnnotationType() {
+      return Entity.class;
+    }
+  }
+
+  /**
+   * Descriptors of the mapping annotations.
+   */
+  private static final Set<String> DESCRIPTORS = new HashSet<>(Arrays.asList(
+      "Ljavax/persistence/Entity;", "Ljavax/persistence/Embeddable;", "Ljavax/persistence/MappedSuperclass;"));
+
+  /**
+   * Names of the mapped test classes.
+   */
+  private static final List<String> MAPPED = Arrays.asList(ScannedEmbeddable.class.getName(),
+                                                           ScannedEntity.class.getName(),
+                                                           ScannedSuperclass.class.getName());
+
+  /**
+   * Test classes directory.
+   */
+  private File classesDir;
+
+  /**
+   * Temporary directory.
+   */
+  private File dir;
+
+  /**
+   * Locate the test classes and create a temporary directory.
+   * @throws Exception on failure.
+   */
+  @Before
+  public void setUp() throws Exception {
+    classesDir = new File(getClass().getProtectionDomain().getCodeSource().getLocation().toURI());
+    dir = File.createTempFile("scan", "");
+    dir.delete();
+    FileUtils.forceMkdir(dir);
+  }
+
+  /**
+   * @param type a class.
+   * @return the path of its class file (relative to the classpath root).
+   */
+  private static String getPath(Class<?> type) {
+    return type.getName().replace('.', '/') + ".class";
+  }
+
+  /**
+   * @param type a class.
+   * @param descriptors annotation type descriptors.
+   * @return the name {@link ClassFileAnnotations} reads from the class file.
+   * @throws IOException if the class file cannot be read.
+   */
+  private static String read(Class<?> type, Set<String> descriptors) throws IOException {
+    try (InputStream in = ClassLoader.getSystemResourceAsStream(getPath(type))) {
+      return ClassFileAnnotations.getAnnotatedClassName(in, descriptors);
+    }
+  }
+
+  /**
+   * Mapped classes are recognized, interfaces, annotation types and classes that only refer to the annotations aren't.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testClassFiles() throws Exception {
+    for (String name : MAPPED) {
+      assertEquals(name, read(Class.forName(name), DESCRIPTORS));
+    }
+    assertNull(read(ScannedInterface.class, DESCRIPTORS));
+    assertNull(read(ScannedAnnotationType.class, DESCRIPTORS));
+    assertNull(read(UnmappedClass.class, DESCRIPTORS));
+    assertNull(read(EntityScannerTest.class, DESCRIPTORS));
+
+    try {
+      ClassFileAnnotations.getAnnotatedClassName(new ByteArrayInputStream(new byte[] {1, 2, 3, 4}), DESCRIPTORS);
+      fail("not a class file");
+    } catch (IOException e) {
+      assertEquals("not a class file", e.getMessage());
+    }
+  }
+
+  /**
+   * Class files of the running JDK (which, from Java 8 on, have method handle, method type and invokedynamic
+   * constants) are read the same way reflection sees their annotations.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testJdkClassFiles() throws Exception {
+    for (String name : Arrays.asList("java.time.LocalDate", "java.util.stream.Collectors", "java.util.Optional",
+                                     "java.util.function.Function", "java.util.HashMap", "java.lang.String",
+                                     "java.lang.Thread")) {
+      Class<?> type;
+      try {
+        type = Class.forName(name);
+      } catch (ClassNotFoundException e) {
+        continue;
+      }
+      Set<String> descriptors = new HashSet<>(Collections.singleton("Ljava/lang/Deprecated;"));
+      for (Annotation annotation : type.getAnnotations()) {
+        descriptors.add("L" + annotation.annotationType().getName().replace('.', '/') + ";");
+      }
+      boolean annotated = type.getAnnotations().length > 0 && !type.isInterface();
+      assertEquals(type.getName(), annotated ? type.getName() : null, read(type, descriptors));
+    }
+  }
+
+  /**
+   * @param cacheDirectory index cache directory.
+   * @param log maven logger.
+   * @return a scanner of the test package.
+   */
+  private static EntityScanner createScanner(File cacheDirectory, CapturingLog log) {
+    return new EntityScanner(new String[] {EntityScannerTest.class.getPackage().getName()}, cacheDirectory, 2, log);
+  }
+
+  /**
+   * The mapped classes of the test classes directory are found, only in the scanned packages.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testScanDirectory() throws Exception {
+    CapturingLog log = new CapturingLog();
+    assertEquals(MAPPED, createScanner(dir, log).scan(classesDir, Collections.<File>emptyList()));
+    assertEquals(1, log.count("found " + MAPPED.size() + " mapped classes in "));
+
+    EntityScanner other = new EntityScanner(new String[] {"com.vecna.maven.hibernate.missing"}, dir, 2, log);
+    assertEquals(Collections.emptyList(), other.scan(classesDir, Collections.<File>emptyList()));
+  }
+
+  /**
+   * @param jar the jar to write.
+   * @param types the classes to put in the jar.
+   * @throws IOException if the jar cannot be written.
+   */
+  private void writeJar(File jar, Class<?>... types) throws IOException {
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new ZipEntry("META-INF/orm.xml"));
+      out.write("<entity-mappings/>".getBytes("UTF-8"));
+      for (Class<?> type : types) {
+        out.putNextEntry(new ZipEntry(getPath(type)));
+        try (InputStream in = new FileInputStream(new File(classesDir, getPath(type)))) {
+          IOUtil.copy(in, out);
+        }
+      }
+    }
+  }
+
+  /**
+   * The mapped classes of a jar are found, its index is cached and reused on the next scan, and replaced when the jar
+   * changes.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testScanJar() throws Exception {
+    File jar = new File(dir, "model.jar");
+    writeJar(jar, ScannedEntity.class, ScannedEmbeddable.class, ScannedSuperclass.class, ScannedInterface.class,
+             ScannedAnnotationType.class, UnmappedClass.class);
+    File cacheDirectory = new File(dir, "cache");
+
+    CapturingLog log = new CapturingLog();
+    List<File> jars = Arrays.asList(jar, new File(dir, "missing.jar"));
+    assertEquals(MAPPED, createScanner(cacheDirectory, log).scan(null, jars));
+    assertEquals(1, log.count("found 3 mapped classes in 0 class files and 1 jars (0 indexed) in "));
+    assertEquals(1, cacheDirectory.list().length);
+
+    assertEquals(MAPPED, createScanner(cacheDirectory, log).scan(null, jars));
+    assertEquals(1, log.count("found 3 mapped classes in 0 class files and 1 jars (1 indexed) in "));
+
+    writeJar(jar, ScannedEntity.class, ScannedInterface.class);
+    assertEquals(Collections.singletonList(ScannedEntity.class.getName()),
+                 createScanner(cacheDirectory, log).scan(null, jars));
+    assertEquals(1, log.count("found 1 mapped classes in 0 class files and 1 jars (0 indexed) in "));
+    assertEquals(1, cacheDirectory.list().length);
+  }
+}
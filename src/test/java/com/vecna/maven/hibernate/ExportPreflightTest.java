@@ -0,0 +1,168 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Iterator;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Table;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the preflight check of the export goal.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class ExportPreflightTest {
+  /**
+   * Number of tables of the test schema.
+   */
+  private static final int TABLES = 10;
+
+  /**
+   * Test mappings.
+   */
+  private Configuration configuration;
+
+  /**
+   * Output file.
+   */
+  private File outputFile;
+
+  /**
+   * Create the test mappings.
+   * @throws Exception on failure.
+   */
+  @Before
+  public void setUp() throws Exception {
+    configuration = SyntheticMappings.create(TABLES);
+    outputFile = File.createTempFile("schema", ".sql");
+  }
+
+  /**
+   * Delete the output file.
+   */
+  @After
+  public void tearDown() {
+    outputFile.delete();
+  }
+
+  /**
+   * @param log logger.
+   * @param export whether to export the schema to the live DB.
+   * @return an export mojo that writes the formatted script to the output file and checks it first.
+   * @throws ReflectiveOperationException if the mojo cannot be configured.
+   */
+  private HibernateSchemaExportMojo createMojo(CapturingLog log, boolean export) throws ReflectiveOperationException {
+    HibernateSchemaExportMojo mojo = new HibernateSchemaExportMojo();
+    mojo.setLog(log);
+    MojoParameters.set(mojo, "outputFile", outputFile.getPath());
+    MojoParameters.set(mojo, "format", true);
+    MojoParameters.set(mojo, "print", false);
+    MojoParameters.set(mojo, "export", export);
+    MojoParameters.set(mojo, "preflight", true);
+    return mojo;
+  }
+
+  /**
+   * @param name table name.
+   * @return the mapped table.
+   */
+  private Table getTable(String name) {
+    for (Iterator<?> tables = configuration.getTableMappings(); tables.hasNext();) {
+      Table table = (Table) tables.next();
+      if (table.getName().equals(name)) {
+        return table;
+      }
+    }
+    throw new IllegalArgumentException(name);
+  }
+
+  /**
+   * @return the number of tables in the live DB.
+   * @throws Exception on failure.
+   */
+  private int countLiveTables() throws Exception {
+    try (Connection connection = new JdbcConnectionSource(configuration.getProperties()).open();
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("select count(*) from information_schema.tables "
+                                              + "where table_schema = 'PUBLIC'")) {
+      rs.next();
+      return rs.getInt(1);
+    }
+  }
+
+  /**
+   * A script that runs is written and the goal goes on.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testPassed() throws Exception {
+    CapturingLog log = new CapturingLog();
+    createMojo(log, false).executeWithMappings(configuration);
+    assertEquals(1, log.count("preflight check passed"));
+    assertTrue(FileUtils.fileRead(outputFile, "UTF-8").contains("create table table" + (TABLES - 1)));
+  }
+
+  /**
+   * A statement that doesn't run is reported at the line it starts on in the output file, and the live DB is left
+   * alone.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testFailedStatement() throws Exception {
+    getTable("table3").getColumn(new Column("code")).setSqlType("no_such_type");
+    CapturingLog log = new CapturingLog();
+    try {
+      createMojo(log, true).executeWithMappings(configuration);
+      fail("the preflight check must fail");
+    } catch (MojoFailureException e) {
+      // the statements that depend on the table fail too
+      assertTrue(e.getMessage(), e.getMessage().endsWith(" statements failed the preflight check (the live DB was not "
+                                                         + "modified)"));
+    }
+
+    int line = 0;
+    for (String text : FileUtils.fileRead(outputFile, "UTF-8").split("\n", -1)) {
+      line++;
+      if (text.trim().startsWith("create table table3 ")) {
+        break;
+      }
+    }
+    String prefix = outputFile.getPath() + ":" + line + ": ";
+    assertEquals(1, log.count(prefix));
+    for (String message : log.getMessages()) {
+      if (message.startsWith(prefix)) {
+        assertTrue(message, message.contains("NO_SUCH_TYPE"));
+      }
+    }
+    assertEquals(0, countLiveTables());
+  }
+}
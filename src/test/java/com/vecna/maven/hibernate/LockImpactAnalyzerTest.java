@@ -0,0 +1,409 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQL5InnoDBDialect;
+import org.hibernate.dialect.Oracle10gDialect;
+import org.hibernate.dialect.PostgreSQL82Dialect;
+import org.hibernate.dialect.SQLServer2008Dialect;
+import org.junit.Test;
+
+import com.vecna.maven.hibernate.LockImpactAnalyzer.LockImpact;
+import com.vecna.maven.hibernate.LockImpactAnalyzer.Operation;
+import com.vecna.maven.hibernate.OnlineDdlRewriter.Section;
+
+/**
+ * Tests {@link LockImpactAnalyzer} on the statements {@link SchemaDiff} and {@link OnlineDdlRewriter} generate for
+ * each {@link SqlFlavor}, and the lock cost threshold of the update goal.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class LockImpactAnalyzerTest {
+  /**
+   * A JDBC driver for H2 that reports the exact number of rows of a table as its index statistics (H2 reports a
+   * cardinality of 0).
+   */
+  public static class StatisticsDriver implements Driver {
+    /**
+     * The actual driver.
+     */
+    private final Driver driver = new org.h2.Driver();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+      final Connection connection = driver.connect(url, info);
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                                                 new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          Object result = invokeOn(connection, method, args);
+          return "getMetaData".equals(method.getName()) ? wrap(connection, (DatabaseMetaData) result) : result;
+        }
+      });
+    }
+
+    /**
+     * @param connection the actual connection.
+     * @param metaData the actual metadata.
+     * @return metadata whose index information is a statistics row with the number of rows of the table.
+     */
+    private DatabaseMetaData wrap(final Connection connection, final DatabaseMetaData metaData) {
+      return (DatabaseMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                       new Class<?>[] {DatabaseMetaData.class},
+                                                       new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (!"getIndexInfo".equals(method.getName())) {
+            return invokeOn(metaData, method, args);
+          }
+          return connection.createStatement().executeQuery(
+              "select cast(" + DatabaseMetaData.tableIndexStatistic + " as smallint) as type, count(*) as cardinality "
+              + "from " + args[1] + "." + args[2]);
+        }
+      });
+    }
+
+    /**
+     * @param target target object.
+     * @param method method to call.
+     * @param args arguments.
+     * @return the result of the call.
+     * @throws Throwable whatever the method throws.
+     */
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+      return driver.acceptsURL(url);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+      return driver.getPropertyInfo(url, info);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMajorVersion() {
+      return driver.getMajorVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMinorVersion() {
+      return driver.getMinorVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean jdbcCompliant() {
+      return driver.jdbcCompliant();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      return driver.getParentLogger();
+    }
+  }
+  /**
+   * Check the classification of a table of statements.
+   * @param flavor target database.
+   * @param cases rows of statement, operation, table, lock, whether it rewrites and whether it scans the table.
+   */
+  private static void assertImpacts(SqlFlavor flavor, Object[][] cases) {
+    List<String> statements = new ArrayList<>();
+    for (Object[] row : cases) {
+      statements.add((String) row[0]);
+    }
+    List<LockImpact> impacts = new LockImpactAnalyzer(flavor, new CapturingLog()).analyze(statements);
+    assertEquals(cases.length, impacts.size());
+    for (int i = 0; i < cases.length; i++) {
+      LockImpact impact = impacts.get(i);
+      assertEquals(flavor + ": " + cases[i][0], Arrays.asList(cases[i]),
+                   Arrays.asList(impact.getSql(), impact.getOperation(), impact.getTable(), impact.getLock(),
+                                 impact.isRewritingTable(), impact.isScanningTable()));
+    }
+  }
+
+  /**
+   * PostgreSQL statements, including the online-safe forms.
+   */
+  @Test
+  public void testPostgreSql() {
+    String exclusive = "ACCESS EXCLUSIVE";
+    assertImpacts(SqlFlavor.POSTGRESQL, new Object[][] {
+        {"create table item (id int8 not null, name varchar(100), primary key (id))", Operation.CREATE_TABLE, "item",
+         exclusive, false, false},
+        {"alter table OLD_ITEM rename to item", Operation.RENAME_TABLE, "old_item", exclusive, false, false},
+        {"alter table item add column name varchar(100)", Operation.ADD_COLUMN, "item", exclusive, false, false},
+        {"alter table item add column status varchar(10) default 'new' not null", Operation.ADD_COLUMN, "item",
+         exclusive, false, false},
+        {"alter table item alter column name type varchar(200)", Operation.ALTER_TYPE, "item", exclusive, true, true},
+        {"alter table item alter column code drop not null", Operation.ALTER_COLUMN, "item", exclusive, false, false},
+        {"alter table item alter column status set default 'new'", Operation.ALTER_COLUMN, "item", exclusive, false,
+         false},
+        {"alter table item alter column status set not null", Operation.SET_NOT_NULL, "item", exclusive, false, true},
+        {"create index idx_item_name on item (name)", Operation.CREATE_INDEX, "item", "SHARE", false, true},
+        {"create index concurrently idx_item_name on item (name)", Operation.CREATE_INDEX_ONLINE, "item",
+         "SHARE UPDATE EXCLUSIVE", false, true},
+        {"create unique index concurrently uk_item_code on item (code)", Operation.CREATE_INDEX_ONLINE, "item",
+         "SHARE UPDATE EXCLUSIVE", false, true},
+        {"alter table item add constraint uk_item_code unique using index uk_item_code",
+         Operation.ADD_CONSTRAINT_USING_INDEX, "item", exclusive, false, false},
+        {"alter table item add constraint uk_item_code unique (code)", Operation.ADD_CONSTRAINT, "item", exclusive,
+         false, true},
+        {"alter table item add constraint fk_item_owner foreign key (owner_id) references owner",
+         Operation.ADD_FOREIGN_KEY, "item", "SHARE ROW EXCLUSIVE", false, true},
+        {"alter table item add constraint fk_item_owner foreign key (owner_id) references owner not valid",
+         Operation.ADD_CONSTRAINT_NOT_VALIDATED, "item", "SHARE ROW EXCLUSIVE", false, false},
+        {"alter table item add constraint nn_1 check (status is not null) not valid",
+         Operation.ADD_CONSTRAINT_NOT_VALIDATED, "item", "SHARE ROW EXCLUSIVE", false, false},
+        {"alter table item validate constraint fk_item_owner", Operation.VALIDATE_CONSTRAINT, "item",
+         "SHARE UPDATE EXCLUSIVE", false, true},
+        {"alter table item drop constraint FK_ITEM_TEAM", Operation.DROP_CONSTRAINT, "item", exclusive, false, false},
+        {"drop index IDX_ITEM_CODE", Operation.DROP_INDEX, null, exclusive, false, false},
+        {"update item set status = 'new' where ctid in (select ctid from item where status is null limit 500)",
+         Operation.UPDATE, "item", "ROW EXCLUSIVE", false, true},
+        {"comment on column item.name is 'Item name'", Operation.COMMENT, "item", "SHARE UPDATE EXCLUSIVE", false,
+         false},
+        {"create sequence hibernate_sequence", Operation.OTHER, null, null, false, false},
+    });
+  }
+
+  /**
+   * Oracle statements, including the online-safe forms.
+   */
+  @Test
+  public void testOracle() {
+    assertImpacts(SqlFlavor.ORACLE, new Object[][] {
+        {"alter table OLD_ITEM rename to item", Operation.RENAME_TABLE, "old_item", "EXCLUSIVE", false, false},
+        {"alter table item add status varchar2(10 char)", Operation.ADD_COLUMN, "item", "EXCLUSIVE", false, false},
+        {"alter table item modify status default 'new'", Operation.ALTER_COLUMN, "item", "EXCLUSIVE", false, false},
+        {"alter table item modify code null", Operation.ALTER_COLUMN, "item", "EXCLUSIVE", false, false},
+        {"alter table item modify status not null", Operation.SET_NOT_NULL, "item", "EXCLUSIVE", false, true},
+        {"alter table item modify name varchar2(200 char)", Operation.ALTER_TYPE, "item", "EXCLUSIVE", false, true},
+        {"create index idx_item_name on item (name)", Operation.CREATE_INDEX, "item", "SHARE", false, true},
+        {"create index idx_item_name on item (name) online", Operation.CREATE_INDEX_ONLINE, "item", "ROW SHARE",
+         false, true},
+        {"alter table item add constraint fk_item_owner foreign key (owner_id) references owner",
+         Operation.ADD_FOREIGN_KEY, "item", "SHARE", false, true},
+        {"alter table item add constraint fk_item_owner foreign key (owner_id) references owner enable novalidate",
+         Operation.ADD_CONSTRAINT_NOT_VALIDATED, "item", "EXCLUSIVE", false, false},
+        {"alter table item enable validate constraint fk_item_owner", Operation.VALIDATE_CONSTRAINT, "item",
+         "ROW SHARE", false, true},
+        {"alter table item add constraint uk_item_code unique (code)", Operation.ADD_CONSTRAINT, "item", "SHARE",
+         false, true},
+        {"update item set status = 'new' where status is null and rownum <= 500", Operation.UPDATE, "item",
+         "ROW EXCLUSIVE", false, true},
+    });
+  }
+
+  /**
+   * MySQL statements, including the online-safe forms. <code>MODIFY COLUMN</code> restates the type, so setting
+   * <code>NOT NULL</code> can't be told from a type change and is classified as one.
+   */
+  @Test
+  public void testMySql() {
+    assertImpacts(SqlFlavor.MYSQL, new Object[][] {
+        {"rename table OLD_ITEM to item", Operation.RENAME_TABLE, "old_item", "EXCLUSIVE", false, false},
+        {"alter table item add column status varchar(10)", Operation.ADD_COLUMN, "item", "NONE", true, true},
+        {"alter table item alter status set default 'new'", Operation.ALTER_COLUMN, "item", "NONE", false, false},
+        {"alter table item modify column status varchar(10) not null", Operation.ALTER_TYPE, "item", "SHARED", true,
+         true},
+        {"create index idx_item_name on item (name) algorithm=inplace lock=none", Operation.CREATE_INDEX_ONLINE,
+         "item", "NONE", false, true},
+        {"alter table item add constraint fk_item_owner foreign key (owner_id) references owner",
+         Operation.ADD_FOREIGN_KEY, "item", "SHARED", true, true},
+        {"alter table item drop foreign key FK_ITEM_TEAM", Operation.DROP_CONSTRAINT, "item", "NONE", false, false},
+        {"alter table item drop index UK_ITEM_NAME", Operation.DROP_CONSTRAINT, "item", "NONE", false, false},
+        {"drop index IDX_ITEM_CODE on item", Operation.DROP_INDEX, "item", "NONE", false, false},
+        {"update item set status = 'new' where status is null limit 500", Operation.UPDATE, "item", "ROW", false,
+         true},
+    });
+  }
+
+  /**
+   * SQL Server statements, including the online-safe forms.
+   */
+  @Test
+  public void testSqlServer() {
+    assertImpacts(SqlFlavor.SQLSERVER, new Object[][] {
+        {"exec sp_rename 'OLD_ITEM', 'item'", Operation.RENAME_TABLE, "old_item", "Sch-M", false, false},
+        {"alter table item add status varchar(10)", Operation.ADD_COLUMN, "item", "Sch-M", false, false},
+        {"alter table item add default 'new' for status", Operation.ALTER_COLUMN, "item", "Sch-M", false, false},
+        {"alter table item alter column status varchar(10) not null", Operation.ALTER_TYPE, "item", "Sch-M", true,
+         true},
+        {"create index idx_item_name on item (name)", Operation.CREATE_INDEX, "item", "S", false, true},
+        {"drop index IDX_ITEM_CODE on item", Operation.DROP_INDEX, "item", "Sch-M", false, false},
+        {"update top (500) item set status = 'new' where status is null", Operation.UPDATE, "item", "IX", false,
+         true},
+    });
+  }
+
+  /**
+   * Statements of other databases (H2) use the conservative standard locks.
+   */
+  @Test
+  public void testStandard() {
+    assertImpacts(SqlFlavor.STANDARD, new Object[][] {
+        {"alter table item add column name varchar(100)", Operation.ADD_COLUMN, "item", "EXCLUSIVE", false, false},
+        {"alter table item alter column name set data type varchar(100)", Operation.ALTER_TYPE, "item", "EXCLUSIVE",
+         true, true},
+        {"alter table item alter column name set not null", Operation.SET_NOT_NULL, "item", "EXCLUSIVE", false,
+         true},
+        {"alter table item drop constraint UK_ITEM_NAME", Operation.DROP_CONSTRAINT, "item", "EXCLUSIVE", false,
+         false},
+        {"create index idx_item_code on item (code)", Operation.CREATE_INDEX, "item", "SHARE", false, true},
+        {"update item set status = 'new' where status is null", Operation.UPDATE, "item", "ROW", false, true},
+        {"create sequence hibernate_sequence", Operation.OTHER, null, null, false, false},
+    });
+  }
+
+  /**
+   * Every statement the online-safe rewrite generates for a new <code>NOT NULL</code> column, an index and a foreign
+   * key is classified as a specific operation on the table.
+   */
+  @Test
+  public void testOnlineSafeStatements() {
+    Configuration configuration = SyntheticMappings.build(
+        "<?xml version=\"1.0\"?>\n<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\""
+        + " \"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n<hibernate-mapping package=\"synthetic.lock\">"
+        + "<class name=\"Item\" table=\"item\"><id name=\"id\" type=\"long\"><generator class=\"assigned\"/></id>\n"
+        + "<property name=\"status\" type=\"string\"><column name=\"status\" length=\"10\" default=\"'new'\" "
+        + "not-null=\"true\"/></property>\n</class>\n</hibernate-mapping>\n");
+    for (Dialect dialect : Arrays.asList(new PostgreSQL82Dialect(), new Oracle10gDialect(), new MySQL5InnoDBDialect(),
+                                         new SQLServer2008Dialect(), new H2Dialect())) {
+      SqlFlavor flavor = SqlFlavor.of(dialect);
+      List<String> statements = new ArrayList<>();
+      for (Section section : new OnlineDdlRewriter(configuration, dialect, 500, 12, new CapturingLog())
+          .rewrite(Arrays.asList("alter table item " + dialect.getAddColumnString() + " status varchar(10) "
+                                 + "default 'new' not null",
+                                 "create index idx_item_status on item (status)",
+                                 "alter table item add constraint fk_item_owner foreign key (owner_id) "
+                                 + "references owner"))) {
+        statements.addAll(section.getStatements());
+      }
+      for (LockImpact impact : new LockImpactAnalyzer(flavor, new CapturingLog()).analyze(statements)) {
+        assertEquals(flavor + ": " + impact.getSql(), "item", impact.getTable());
+        assertNotEquals(flavor + ": " + impact.getSql(), Operation.OTHER, impact.getOperation());
+        assertNotEquals(flavor + ": " + impact.getSql(), Operation.ALTER_TABLE, impact.getOperation());
+      }
+    }
+  }
+
+  /**
+   * The update goal fails when a statement blocks writes to more rows than <code>maxLockCost</code>, after writing
+   * the report; statements that fit the threshold pass.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testMaxLockCost() throws Exception {
+    Configuration configuration = SyntheticMappings.create(1);
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+    try (Connection connection = new JdbcConnectionSource(configuration.getProperties()).open();
+        Statement statement = connection.createStatement()) {
+      for (String sql : configuration.generateSchemaCreationScript(dialect)) {
+        statement.executeUpdate(sql);
+      }
+      statement.executeUpdate("insert into table0 (id, name) select x, 'name' || x from system_range(1, 100)");
+    }
+    configuration.setProperty(Environment.DRIVER, StatisticsDriver.class.getName());
+
+    File report = File.createTempFile("locks", ".json");
+    try {
+      List<String> statements = Arrays.asList("create index idx_table0_name on table0 (name)",
+                                              "alter table table0 add column status varchar(10)");
+      HibernateSchemaUpdateMojo mojo = new HibernateSchemaUpdateMojo();
+      CapturingLog log = new CapturingLog();
+      mojo.setLog(log);
+      MojoParameters.set(mojo, "lockReportFile", report);
+      MojoParameters.set(mojo, "maxLockCost", 100L);
+      mojo.reportLocks(configuration, dialect, statements);
+      assertEquals(1, log.count("lock impact report: " + report + " (2 of 2 statements block writes)"));
+
+      MojoParameters.set(mojo, "maxLockCost", 99L);
+      try {
+        mojo.reportLocks(configuration, dialect, statements);
+        fail("the index build exceeds the threshold");
+      } catch (MojoFailureException e) {
+        assertEquals("1 statements block writes to more than 99 rows, see " + report, e.getMessage());
+      }
+      assertEquals(1, log.count("exceeds maxLockCost: create index idx_table0_name on table0 (name) (SHARE, ~100 "
+                                + "rows)"));
+      String json = FileUtils.fileRead(report, "UTF-8");
+      assertTrue(json, json.contains("\"totalCost\": 100,"));
+      assertTrue(json, json.contains("\"cost\": 100,\n      \"exceedsMaxCost\": true"));
+      assertTrue(json, json.contains("\"cost\": 0,\n      \"exceedsMaxCost\": false"));
+    } finally {
+      report.delete();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.lang.reflect.Field;
+
+/**
+ * Sets mojo parameters the way Maven injects them.
+ *
+ * @author ogolberg@vecna.com
+ */
+final class MojoParameters {
+  /**
+   * Utility class.
+   */
+  private MojoParameters() {
+  }
+
+  /**
+   * @param mojo a mojo.
+   * @param name field name.
+   * @param value field value.
+   * @throws ReflectiveOperationException if the field doesn't exist.
+   */
+  static void set(Object mojo, String name, Object value) throws ReflectiveOperationException {
+    for (Class<?> cls = mojo.getClass(); cls != null; cls = cls.getSuperclass()) {
+      try {
+        Field field = cls.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+        return;
+      } catch (NoSuchFieldException e) {
+        // look in the superclass
+      }
+    }
+    throw new NoSuchFieldException(name);
+  }
+}
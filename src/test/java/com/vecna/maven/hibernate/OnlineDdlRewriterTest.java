@@ -0,0 +1,352 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQL5InnoDBDialect;
+import org.hibernate.dialect.Oracle10gDialect;
+import org.hibernate.dialect.PostgreSQL82Dialect;
+import org.hibernate.dialect.SQLServer2008Dialect;
+import org.junit.Test;
+
+import com.vecna.maven.hibernate.OnlineDdlRewriter.Mode;
+import com.vecna.maven.hibernate.OnlineDdlRewriter.Section;
+
+/**
+ * Tests {@link OnlineDdlRewriter} on the statement shapes it rewrites, for each {@link SqlFlavor}, and the execution of
+ * the rewritten sections.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class OnlineDdlRewriterTest {
+  /**
+   * Prefix of transactional statements in the expected results.
+   */
+  private static final String TX = "TRANSACTIONAL: ";
+
+  /**
+   * Prefix of non-transactional statements in the expected results.
+   */
+  private static final String NON_TX = "NON_TRANSACTIONAL: ";
+
+  /**
+   * Prefix of backfills in the expected results.
+   */
+  private static final String BACKFILL = "BACKFILL: ";
+
+  /**
+   * Backfill batch size.
+   */
+  private static final int BATCH_SIZE = 500;
+
+  /**
+   * A dialect of each flavor.
+   */
+  private static final Map<SqlFlavor, Dialect> DIALECTS = new EnumMap<>(SqlFlavor.class);
+
+  static {
+    DIALECTS.put(SqlFlavor.POSTGRESQL, new PostgreSQL82Dialect());
+    DIALECTS.put(SqlFlavor.ORACLE, new Oracle10gDialect());
+    DIALECTS.put(SqlFlavor.MYSQL, new MySQL5InnoDBDialect());
+    DIALECTS.put(SqlFlavor.SQLSERVER, new SQLServer2008Dialect());
+    DIALECTS.put(SqlFlavor.STANDARD, new H2Dialect());
+  }
+
+  /**
+   * Mappings of the item table: <code>status</code> is mapped with a default value, <code>name</code> without.
+   */
+  private static final Configuration CONFIGURATION = SyntheticMappings.build(
+      "<?xml version=\"1.0\"?>\n<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\""
+      + " \"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n<hibernate-mapping package=\"synthetic.online\">\n"
+      + "<class name=\"Item\" table=\"item\"><id name=\"id\" type=\"long\"><generator class=\"assigned\"/></id>\n"
+      + "<property name=\"status\" type=\"string\"><column name=\"status\" length=\"10\" default=\"'new'\" "
+      + "not-null=\"true\"/></property>\n"
+      + "<property name=\"name\" type=\"string\" length=\"100\" not-null=\"true\"/>\n"
+      + "</class>\n</hibernate-mapping>\n");
+
+  /**
+   * Name of the check constraint that sets <code>NOT NULL</code> on <code>item.status</code> on PostgreSQL 12.
+   */
+  private static final String CHECK = "nn_" + Integer.toHexString("item/status".hashCode());
+
+  /**
+   * @param flavor SQL flavor.
+   * @param databaseMajorVersion major version of the database.
+   * @param log maven logger.
+   * @param statements statements to rewrite.
+   * @return the rewritten statements, each prefixed with its mode.
+   */
+  private static List<String> rewrite(SqlFlavor flavor, int databaseMajorVersion, CapturingLog log,
+                                      String... statements) {
+    Dialect dialect = DIALECTS.get(flavor);
+    assertEquals(flavor, SqlFlavor.of(dialect));
+    List<String> rewritten = new ArrayList<>();
+    for (Section section : new OnlineDdlRewriter(CONFIGURATION, dialect, BATCH_SIZE, databaseMajorVersion, log)
+        .rewrite(Arrays.asList(statements))) {
+      for (String sql : section.getStatements()) {
+        rewritten.add(section.getMode() + ": " + sql);
+      }
+    }
+    return rewritten;
+  }
+
+  /**
+   * Check the rewrites of a table of cases.
+   * @param cases rows of flavor, database major version, the statement to rewrite and the expected statements.
+   */
+  private static void assertRewrites(Object[][] cases) {
+    for (Object[] row : cases) {
+      SqlFlavor flavor = (SqlFlavor) row[0];
+      String sql = (String) row[2];
+      assertEquals(flavor + " " + row[1] + ": " + sql, Arrays.asList((String[]) row[3]),
+                   rewrite(flavor, (Integer) row[1], new CapturingLog(), sql));
+    }
+  }
+
+  /**
+   * A new <code>NOT NULL</code> column with a default value is added nullable, given the default, populated in
+   * batches and then made <code>NOT NULL</code>.
+   */
+  @Test
+  public void testAddNotNullColumn() {
+    assertRewrites(new Object[][] {
+        {SqlFlavor.POSTGRESQL, 11, "alter table item add column status varchar(10) default 'new' not null",
+         new String[] {TX + "alter table item add column status varchar(10)",
+                       TX + "alter table item alter column status set default 'new'",
+                       BACKFILL + "update item set status = 'new' where ctid in (select ctid from item where status "
+                       + "is null limit 500)",
+                       TX + "alter table item alter column status set not null"}},
+        {SqlFlavor.POSTGRESQL, 12, "alter table item add column status varchar(10) default 'new' not null",
+         new String[] {TX + "alter table item add column status varchar(10)",
+                       TX + "alter table item alter column status set default 'new'",
+                       BACKFILL + "update item set status = 'new' where ctid in (select ctid from item where status "
+                       + "is null limit 500)",
+                       TX + "alter table item add constraint " + CHECK + " check (status is not null) not valid",
+                       NON_TX + "alter table item validate constraint " + CHECK,
+                       TX + "alter table item alter column status set not null",
+                       TX + "alter table item drop constraint " + CHECK}},
+        {SqlFlavor.ORACLE, 0, "alter table item add status varchar2(10 char) default 'new' not null",
+         new String[] {TX + "alter table item add status varchar2(10 char)",
+                       TX + "alter table item modify status default 'new'",
+                       BACKFILL + "update item set status = 'new' where status is null and rownum <= 500",
+                       TX + "alter table item modify status not null"}},
+        {SqlFlavor.MYSQL, 0, "alter table item add column status varchar(10) default 'new' not null",
+         new String[] {TX + "alter table item add column status varchar(10)",
+                       TX + "alter table item alter status set default 'new'",
+                       BACKFILL + "update item set status = 'new' where status is null limit 500",
+                       TX + "alter table item modify column status varchar(10) not null"}},
+        {SqlFlavor.SQLSERVER, 0, "alter table item add status varchar(10) default 'new' not null",
+         new String[] {TX + "alter table item add status varchar(10)",
+                       TX + "alter table item add default 'new' for status",
+                       BACKFILL + "update top (500) item set status = 'new' where status is null",
+                       TX + "alter table item alter column status varchar(10) not null"}},
+        {SqlFlavor.STANDARD, 0, "alter table item add column status varchar(10) default 'new' not null",
+         new String[] {TX + "alter table item add column status varchar(10)",
+                       TX + "alter table item alter column status set default 'new'",
+                       BACKFILL + "update item set status = 'new' where status is null",
+                       TX + "alter table item alter column status set not null"}},
+    });
+  }
+
+  /**
+   * A new <code>NOT NULL</code> column without a default value (in the statement or the mappings) is left as is.
+   */
+  @Test
+  public void testAddNotNullColumnWithoutDefault() {
+    List<Object[]> cases = new ArrayList<>();
+    for (SqlFlavor flavor : SqlFlavor.values()) {
+      String sql = "alter table item " + DIALECTS.get(flavor).getAddColumnString() + " name varchar(100) not null";
+      cases.add(new Object[] {flavor, 12, sql, new String[] {TX + sql}});
+    }
+    assertRewrites(cases.toArray(new Object[cases.size()][]));
+  }
+
+  /**
+   * Setting <code>NOT NULL</code> on an existing column first populates its null values with the mapped default, in
+   * batches; on PostgreSQL 12 and later the constraint is set with a validated check constraint.
+   */
+  @Test
+  public void testSetNotNull() {
+    assertRewrites(new Object[][] {
+        {SqlFlavor.POSTGRESQL, 11, "alter table item alter column status set not null",
+         new String[] {BACKFILL + "update item set status = 'new' where ctid in (select ctid from item where status "
+                       + "is null limit 500)",
+                       TX + "alter table item alter column status set not null"}},
+        {SqlFlavor.POSTGRESQL, 12, "alter table item alter column status set not null",
+         new String[] {BACKFILL + "update item set status = 'new' where ctid in (select ctid from item where status "
+                       + "is null limit 500)",
+                       TX + "alter table item add constraint " + CHECK + " check (status is not null) not valid",
+                       NON_TX + "alter table item validate constraint " + CHECK,
+                       TX + "alter table item alter column status set not null",
+                       TX + "alter table item drop constraint " + CHECK}},
+        {SqlFlavor.ORACLE, 12, "alter table item modify status not null",
+         new String[] {BACKFILL + "update item set status = 'new' where status is null and rownum <= 500",
+                       TX + "alter table item modify status not null"}},
+        {SqlFlavor.MYSQL, 12, "alter table item modify column status varchar(10) not null",
+         new String[] {BACKFILL + "update item set status = 'new' where status is null limit 500",
+                       TX + "alter table item modify column status varchar(10) not null"}},
+        {SqlFlavor.SQLSERVER, 12, "alter table item alter column status varchar(10) not null",
+         new String[] {BACKFILL + "update top (500) item set status = 'new' where status is null",
+                       TX + "alter table item alter column status varchar(10) not null"}},
+        {SqlFlavor.STANDARD, 12, "alter table item alter column status set not null",
+         new String[] {BACKFILL + "update item set status = 'new' where status is null",
+                       TX + "alter table item alter column status set not null"}},
+    });
+  }
+
+  /**
+   * Without a mapped default value, setting <code>NOT NULL</code> isn't preceded by a backfill, with a warning.
+   */
+  @Test
+  public void testSetNotNullWithoutDefault() {
+    CapturingLog log = new CapturingLog();
+    assertEquals(Arrays.asList(TX + "alter table item alter column name set not null"),
+                 rewrite(SqlFlavor.POSTGRESQL, 11, log, "alter table item alter column name set not null"));
+    assertEquals(1, log.count("no default value to populate item.name with: "));
+  }
+
+  /**
+   * Indexes are built concurrently or online, foreign keys are validated after all other statements, and unique keys
+   * use a concurrently built index on PostgreSQL.
+   */
+  @Test
+  public void testConstraints() {
+    String index = "create index idx_item_name on item (name)";
+    String foreignKey = "alter table item add constraint fk_item_owner foreign key (owner_id) references owner";
+    String uniqueKey = "alter table item add constraint uk_item_code unique (code)";
+    String other = "alter table item drop constraint uk_item_name";
+
+    Map<SqlFlavor, List<String>> expected = new EnumMap<>(SqlFlavor.class);
+    expected.put(SqlFlavor.POSTGRESQL, Arrays.asList(
+        NON_TX + "create index concurrently idx_item_name on item (name)",
+        TX + foreignKey + " not valid",
+        NON_TX + "create unique index concurrently uk_item_code on item (code)",
+        TX + "alter table item add constraint uk_item_code unique using index uk_item_code",
+        TX + other,
+        NON_TX + "alter table item validate constraint fk_item_owner"));
+    expected.put(SqlFlavor.ORACLE, Arrays.asList(NON_TX + index + " online", TX + foreignKey + " enable novalidate",
+                                                 TX + uniqueKey, TX + other,
+                                                 NON_TX + "alter table item enable validate constraint fk_item_owner"));
+    expected.put(SqlFlavor.MYSQL, Arrays.asList(NON_TX + index + " algorithm=inplace lock=none", TX + foreignKey,
+                                                TX + uniqueKey, TX + other));
+    expected.put(SqlFlavor.SQLSERVER, Arrays.asList(TX + index, TX + foreignKey, TX + uniqueKey, TX + other));
+    expected.put(SqlFlavor.STANDARD, expected.get(SqlFlavor.SQLSERVER));
+
+    for (SqlFlavor flavor : SqlFlavor.values()) {
+      assertEquals(flavor.toString(), expected.get(flavor),
+                   rewrite(flavor, 12, new CapturingLog(), index, foreignKey, uniqueKey, other));
+    }
+  }
+
+  /**
+   * Consecutive statements that run the same way share a section.
+   */
+  @Test
+  public void testSections() {
+    List<Section> sections = new OnlineDdlRewriter(CONFIGURATION, DIALECTS.get(SqlFlavor.POSTGRESQL), BATCH_SIZE, 12,
+                                                   new CapturingLog())
+        .rewrite(Arrays.asList("alter table item add column code varchar(20)",
+                               "alter table item add column status varchar(10) default 'new' not null"));
+    List<Mode> modes = new ArrayList<>();
+    List<Integer> sizes = new ArrayList<>();
+    for (Section section : sections) {
+      modes.add(section.getMode());
+      sizes.add(section.getStatements().size());
+    }
+    assertEquals(Arrays.asList(Mode.TRANSACTIONAL, Mode.BACKFILL, Mode.TRANSACTIONAL, Mode.NON_TRANSACTIONAL,
+                               Mode.TRANSACTIONAL), modes);
+    assertEquals(Arrays.asList(3, 1, 1, 1, 2), sizes);
+  }
+
+  /**
+   * @param mode how the statements run.
+   * @param statements statements.
+   * @return a section of the statements.
+   */
+  private static Section section(Mode mode, String... statements) {
+    Section section = new Section(mode);
+    section.getStatements().addAll(Arrays.asList(statements));
+    return section;
+  }
+
+  /**
+   * @param statement a JDBC statement.
+   * @param sql a query that returns a number.
+   * @return the number.
+   * @throws Exception on failure.
+   */
+  private static int queryInt(Statement statement, String sql) throws Exception {
+    try (ResultSet resultSet = statement.executeQuery(sql)) {
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+
+  /**
+   * Backfills are repeated until they update no rows, and a failed statement fails the goal, rolling back its
+   * transactional section and keeping the sections before it.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testExecuteSections() throws Exception {
+    CapturingLog log = new CapturingLog();
+    HibernateSchemaUpdateMojo mojo = new HibernateSchemaUpdateMojo();
+    mojo.setLog(log);
+
+    try (Connection connection = new JdbcConnectionSource(CONFIGURATION.getProperties()).open();
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate("create table item (id bigint not null, primary key (id))");
+      statement.executeUpdate("insert into item select x from system_range(1, 10)");
+
+      String backfill = "update item set status = 'new' where status is null limit 3";
+      try {
+        mojo.executeSections(connection, Arrays.asList(
+            section(Mode.TRANSACTIONAL, "alter table item add column status varchar(10)"),
+            section(Mode.BACKFILL, backfill),
+            section(Mode.NON_TRANSACTIONAL, "create index idx_item_status on item (status)"),
+            section(Mode.TRANSACTIONAL, "update item set status = 'old'", "insert into missing values (1)")));
+        fail("the missing table must fail the update");
+      } catch (MojoFailureException e) {
+        assertEquals("stopped at section 4 of 4 (rolled back), the 3 sections before it were applied: ",
+                     e.getMessage().substring(0, e.getMessage().indexOf(": ") + 2));
+      }
+
+      assertEquals(1, log.count("populated 10 rows: " + backfill));
+      assertEquals(1, log.count("Unsuccessful: insert into missing values (1)"));
+      connection.setAutoCommit(true);
+      assertEquals(10, queryInt(statement, "select count(*) from item where status = 'new'"));
+      assertEquals(1, queryInt(statement, "select count(*) from information_schema.indexes "
+                                          + "where index_name = 'IDX_ITEM_STATUS'"));
+    }
+  }
+}
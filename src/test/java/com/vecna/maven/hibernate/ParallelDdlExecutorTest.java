@@ -0,0 +1,415 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vecna.maven.hibernate.ParallelDdlExecutor.DdlError;
+
+/**
+ * Tests {@link ParallelDdlExecutor} and {@link ImportFiles} against in-memory H2 databases.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class ParallelDdlExecutorTest {
+  /**
+   * Number of tables of the test schema.
+   */
+  private static final int TABLES = 200;
+
+  /**
+   * Number of foreign key statements that still fail with a deadlock.
+   */
+  private static final AtomicInteger DEADLOCKS = new AtomicInteger();
+
+  /**
+   * A JDBC driver for H2 whose foreign key statements fail with a deadlock while {@link #DEADLOCKS} is positive, both
+   * when executed on their own and in a batch.
+   */
+  public static class DeadlockingDriver implements Driver {
+    /**
+     * The actual driver.
+     */
+    private final Driver driver = new org.h2.Driver();
+
+    /**
+     * @param sql a statement.
+     * @return whether the statement should fail with a deadlock.
+     */
+    private static boolean deadlock(String sql) {
+      return sql.contains("foreign key") && DEADLOCKS.getAndDecrement() > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+      final Connection connection = driver.connect(url, info);
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                                                 new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          Object result = invokeOn(connection, method, args);
+          return "createStatement".equals(method.getName()) ? wrap((Statement) result) : result;
+        }
+      });
+    }
+
+    /**
+     * @param statement the actual statement.
+     * @return a statement that fails with deadlocks.
+     */
+    private Statement wrap(final Statement statement) {
+      final List<String> batch = new ArrayList<>();
+      return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Statement.class},
+                                                new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          switch (method.getName()) {
+            case "executeUpdate":
+              if (deadlock((String) args[0])) {
+                throw new SQLException("deadlock detected", "40P01");
+              }
+              break;
+            case "addBatch":
+              batch.add((String) args[0]);
+              break;
+            case "clearBatch":
+              batch.clear();
+              break;
+            case "executeBatch":
+              for (String sql : batch) {
+                if (deadlock(sql)) {
+                  batch.clear();
+                  statement.clearBatch();
+                  throw new BatchUpdateException("deadlock detected", "40P01", new int[0]);
+                }
+              }
+              batch.clear();
+              break;
+            default:
+              break;
+          }
+          return invokeOn(statement, method, args);
+        }
+      });
+    }
+
+    /**
+     * @param target target object.
+     * @param method method to call.
+     * @param args arguments.
+     * @return the result of the call.
+     * @throws Throwable whatever the method throws.
+     */
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+      return driver.acceptsURL(url);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+      return driver.getPropertyInfo(url, info);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMajorVersion() {
+      return driver.getMajorVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMinorVersion() {
+      return driver.getMinorVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean jdbcCompliant() {
+      return driver.jdbcCompliant();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      throw new SQLFeatureNotSupportedException();
+    }
+  }
+
+  /**
+   * Maven logger.
+   */
+  private final Log log = new SystemStreamLog();
+
+  /**
+   * Reset the injected deadlocks.
+   */
+  @Before
+  public void setUp() {
+    DEADLOCKS.set(0);
+  }
+
+  /**
+   * @param configuration hibernate configuration.
+   * @param drop whether to drop the schema first.
+   * @return the classified export statements.
+   */
+  private static List<DdlStatement> getStatements(Configuration configuration, boolean drop) {
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+    return DdlStatement.classify(drop ? configuration.generateDropSchemaScript(dialect) : new String[0],
+                                 configuration.generateSchemaCreationScript(dialect));
+  }
+
+  /**
+   * @param connection a connection.
+   * @param sql a query that returns a number.
+   * @return the number.
+   * @throws SQLException if the query fails.
+   */
+  private static int count(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+      rs.next();
+      return rs.getInt(1);
+    }
+  }
+
+  /**
+   * Check that all tables, indexes, unique keys and foreign keys of the test schema exist.
+   * @param configuration hibernate configuration.
+   * @throws SQLException if the schema cannot be read.
+   */
+  private static void assertSchemaCreated(Configuration configuration) throws SQLException {
+    try (Connection connection = new JdbcConnectionSource(configuration.getProperties()).open()) {
+      assertEquals(TABLES, count(connection, "select count(*) from information_schema.tables "
+                                             + "where table_schema = 'PUBLIC' and table_type = 'TABLE'"));
+      assertEquals(TABLES - 1, count(connection, "select count(*) from information_schema.constraints "
+                                                 + "where constraint_type = 'REFERENTIAL'"));
+      assertEquals(TABLES, count(connection, "select count(*) from information_schema.constraints "
+                                             + "where constraint_type = 'UNIQUE'"));
+      assertEquals(TABLES, count(connection, "select count(distinct index_name) from information_schema.indexes "
+                                             + "where index_name like 'IDX_TABLE%'"));
+    }
+  }
+
+  /**
+   * @param errors DDL errors.
+   * @return the errors that aren't failed drop statements.
+   */
+  private static List<DdlError> getCreateErrors(List<DdlError> errors) {
+    List<DdlError> createErrors = new ArrayList<>();
+    for (DdlError error : errors) {
+      if (!error.getStatement().getPhase().isDrop()) {
+        createErrors.add(error);
+      }
+    }
+    return createErrors;
+  }
+
+  /**
+   * The whole schema is created over several connections, and re-created after dropping it.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testCreateSchema() throws Exception {
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    JdbcConnectionSource connectionSource = new JdbcConnectionSource(configuration.getProperties());
+
+    List<DdlError> errors = new ParallelDdlExecutor(connectionSource, 4, log).execute(getStatements(configuration,
+                                                                                                   false));
+    assertTrue(errors.isEmpty());
+    assertSchemaCreated(configuration);
+
+    errors = new ParallelDdlExecutor(connectionSource, 4, log).execute(getStatements(configuration, true));
+    assertTrue(getCreateErrors(errors).isEmpty());
+    assertSchemaCreated(configuration);
+  }
+
+  /**
+   * Failures are reported in script order, and don't stop the other statements.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testErrorsInScriptOrder() throws Exception {
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+    List<String> script = new ArrayList<>(Arrays.asList(configuration.generateSchemaCreationScript(dialect)));
+    script.add(script.size() - 1, "alter table missing_table add constraint fk_missing foreign key (id) "
+                                  + "references table0");
+    script.add(TABLES / 2, "create table table1 (id bigint not null)");
+    script.add(1, "create index idx_missing on missing_table (id)");
+
+    for (int threads : new int[] {1, 4}) {
+      Configuration copy = SyntheticMappings.create(TABLES);
+      List<DdlError> errors = new ParallelDdlExecutor(new JdbcConnectionSource(copy.getProperties()), threads, log)
+          .execute(DdlStatement.classify(new String[0], script.toArray(new String[script.size()])));
+
+      assertEquals(3, errors.size());
+      assertEquals(1, errors.get(0).getStatement().getIndex());
+      assertEquals(TABLES / 2 + 1, errors.get(1).getStatement().getIndex());
+      assertEquals(script.size() - 2, errors.get(2).getStatement().getIndex());
+      assertSchemaCreated(copy);
+    }
+  }
+
+  /**
+   * Statements that fail with a deadlock are retried, both when they run on their own and in a batch.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testRetryDeadlocks() throws Exception {
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    Properties properties = new Properties();
+    properties.putAll(configuration.getProperties());
+    properties.setProperty(AvailableSettings.DRIVER, DeadlockingDriver.class.getName());
+
+    DEADLOCKS.set(ParallelDdlExecutor.DEADLOCK_ATTEMPTS - 1);
+    List<DdlError> errors = new ParallelDdlExecutor(new JdbcConnectionSource(properties), 4, log)
+        .execute(getStatements(configuration, false));
+
+    assertTrue(errors.isEmpty());
+    assertTrue(DEADLOCKS.get() < 0);
+    assertSchemaCreated(configuration);
+  }
+
+  /**
+   * A statement that keeps failing with a deadlock is reported once it runs out of attempts.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testPersistentDeadlock() throws Exception {
+    Configuration configuration = SyntheticMappings.create(2);
+    Properties properties = new Properties();
+    properties.putAll(configuration.getProperties());
+    properties.setProperty(AvailableSettings.DRIVER, DeadlockingDriver.class.getName());
+
+    DEADLOCKS.set(ParallelDdlExecutor.DEADLOCK_ATTEMPTS);
+    List<DdlError> errors = new ParallelDdlExecutor(new JdbcConnectionSource(properties), 2, log)
+        .execute(getStatements(configuration, false));
+
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0).getStatement().getSql().contains("foreign key"));
+    assertTrue(ParallelDdlExecutor.isDeadlock(errors.get(0).getException()));
+  }
+
+  /**
+   * Deadlocks and serialization failures are recognized by their SQL state.
+   */
+  @Test
+  public void testIsDeadlock() {
+    assertTrue(ParallelDdlExecutor.isDeadlock(new SQLException("deadlock", "40P01")));
+    assertTrue(ParallelDdlExecutor.isDeadlock(new SQLException("serialization failure", "40001")));
+    assertTrue(ParallelDdlExecutor.isDeadlock(new SQLException("ORA-00060", "61000", 60)));
+    assertFalse(ParallelDdlExecutor.isDeadlock(new SQLException("ORA-00054", "61000", 54)));
+    assertFalse(ParallelDdlExecutor.isDeadlock(new SQLException("syntax error", "42000")));
+
+    SQLException batch = new BatchUpdateException("batch failed", "HY000", new int[0]);
+    batch.setNextException(new SQLException("deadlock", "40001"));
+    assertTrue(ParallelDdlExecutor.isDeadlock(batch));
+  }
+
+  /**
+   * The import files run after the schema is created; missing files are skipped.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testImportFiles() throws Exception {
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    configuration.setProperty(AvailableSettings.HBM2DDL_IMPORT_FILES, "/missing-import.sql, /synthetic-import.sql");
+    JdbcConnectionSource connectionSource = new JdbcConnectionSource(configuration.getProperties());
+    assertTrue(new ParallelDdlExecutor(connectionSource, 4, log).execute(getStatements(configuration, false))
+        .isEmpty());
+
+    try (Connection connection = connectionSource.open()) {
+      assertTrue(new ImportFiles(configuration.getProperties(), log).execute(connection));
+      assertEquals(3, count(connection, "select count(*) from table1"));
+      assertEquals(2, count(connection, "select count(*) from table1 where previous_id = 1"));
+    }
+  }
+
+  /**
+   * Execution of an import file stops at the first failed statement.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testFailedImportFile() throws Exception {
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    JdbcConnectionSource connectionSource = new JdbcConnectionSource(configuration.getProperties());
+    assertTrue(new ParallelDdlExecutor(connectionSource, 4, log).execute(getStatements(configuration, false))
+        .isEmpty());
+
+    configuration.setProperty(AvailableSettings.HBM2DDL_IMPORT_FILES, "/synthetic-import.sql");
+    try (Connection connection = connectionSource.open()) {
+      assertTrue(new ImportFiles(configuration.getProperties(), log).execute(connection));
+      // the rows already exist
+      assertFalse(new ImportFiles(configuration.getProperties(), log).execute(connection));
+      assertEquals(3, count(connection, "select count(*) from table1"));
+    }
+  }
+}
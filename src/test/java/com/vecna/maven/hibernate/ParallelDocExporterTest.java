@@ -0,0 +1,164 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ParallelDocExporter} renders the same documentation as hibernate-tools' <code>DocExporter</code>.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class ParallelDocExporterTest {
+  /**
+   * Number of tables of the test schema.
+   */
+  private static final int TABLES = 50;
+
+  /**
+   * Output directories.
+   */
+  private File dir;
+
+  /**
+   * Create the output directories.
+   * @throws Exception on failure.
+   */
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("docs").toFile();
+  }
+
+  /**
+   * Delete the output directories.
+   * @throws Exception on failure.
+   */
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  /**
+   * Check that two output trees have the same files with the same bytes (ignoring the incremental state).
+   * @param expected the expected tree.
+   * @param actual the actual tree.
+   * @throws Exception on failure.
+   */
+  private static void assertSameTree(File expected, File actual) throws Exception {
+    List<String> files = FileUtils.getFileNames(expected, null, null, false);
+    assertEquals(files, FileUtils.getFileNames(actual, null, DocPageState.FILE_NAME, false));
+    for (String file : files) {
+      assertArrayEquals(file, Files.readAllBytes(new File(expected, file).toPath()),
+                        Files.readAllBytes(new File(actual, file).toPath()));
+    }
+  }
+
+  /**
+   * Check that pages rendered in parallel, buffered or streamed, are byte-identical to the pages
+   * <code>DocExporter</code> renders.
+   * @param configuration the mappings.
+   * @throws Exception on failure.
+   */
+  private void assertSameOutput(Configuration configuration) throws Exception {
+    File expected = new File(dir, "expected");
+    HibernateDocMojo.renderDocs(configuration, expected, 1, false, false);
+
+    for (boolean streaming : new boolean[] {false, true}) {
+      File actual = new File(dir, "parallel-" + streaming);
+      HibernateDocMojo.renderDocs(configuration, actual, 4, false, streaming);
+      assertSameTree(expected, actual);
+    }
+  }
+
+  /**
+   * A large schema is documented the same way in parallel.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testSyntheticSchema() throws Exception {
+    assertSameOutput(SyntheticMappings.create(TABLES));
+  }
+
+  /**
+   * Inheritance, components, collections and descriptions are documented the same way in parallel.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testDocModel() throws Exception {
+    assertSameOutput(SyntheticMappings.build(SyntheticMappings.getDocModelXml()));
+    for (String page : new String[] {"entities/synthetic/doc/Employee.html", "entities/synthetic/doc/Address.html",
+                                     "tables/crm/person_team.html"}) {
+      assertTrue(page, new File(dir, "expected/" + page).isFile());
+    }
+  }
+
+  /**
+   * Changes to what entity and table pages show, applied to the documentation of the previous mappings in
+   * incremental mode, give the same pages as documenting the changed mappings from scratch.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testIncremental() throws Exception {
+    String xml = SyntheticMappings.getDocModelXml();
+    String[][] changes = {
+        // description, changed page, original mapping, changed mapping
+        {"embedded identifier field type", "entities/synthetic/doc/Membership.html",
+         "name=\"role\" type=\"string\" length=\"20\"", "name=\"role\" type=\"integer\""},
+        {"embedded field type", "entities/synthetic/doc/Address.html",
+         "name=\"zip\" type=\"string\" length=\"10\"", "name=\"zip\" type=\"long\""},
+        {"collection element type", "tables/crm/person_nickname.html",
+         "<element type=\"string\" length=\"50\"", "<element type=\"long\""},
+        {"collection element entity", "tables/crm/person_team.html",
+         "<many-to-many class=\"Team\"", "<many-to-many class=\"Squad\""},
+        {"grandparent entity name", "entities/synthetic/doc/Employee.html",
+         "<class name=\"Party\"", "<class name=\"Organization\""},
+        {"referenced table schema", "tables/crm/employee.html",
+         "table=\"department\" schema=\"crm\"", "table=\"department\" schema=\"hr\""}};
+
+    for (String[] change : changes) {
+      assertTrue(change[0], xml.contains(change[2]));
+      String changedXml = xml.replace(change[2], change[3]);
+
+      File incremental = new File(dir, "incremental");
+      HibernateDocMojo.renderDocs(SyntheticMappings.build(xml), incremental, 4, true, false);
+      byte[] before = Files.readAllBytes(new File(incremental, change[1]).toPath());
+      HibernateDocMojo.renderDocs(SyntheticMappings.build(changedXml), incremental, 4, true, false);
+
+      File expected = new File(dir, "expected");
+      HibernateDocMojo.renderDocs(SyntheticMappings.build(changedXml), expected, 1, false, false);
+      assertFalse(change[0], Arrays.equals(before, Files.readAllBytes(new File(expected, change[1]).toPath())));
+      assertSameTree(expected, incremental);
+
+      FileUtils.deleteDirectory(incremental);
+      FileUtils.deleteDirectory(expected);
+    }
+  }
+}
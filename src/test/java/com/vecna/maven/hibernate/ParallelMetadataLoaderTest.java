@@ -0,0 +1,237 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ParallelMetadataLoader} and the {@link MetadataConnectionProvider} connections that serve the loaded
+ * metadata, against an in-memory H2 database.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class ParallelMetadataLoaderTest {
+  /**
+   * Number of tables of the test schema.
+   */
+  private static final int TABLES = 40;
+
+  /**
+   * The columns that identify a row of each metadata query.
+   */
+  private static final Map<String, String[]> COLUMNS = new HashMap<>();
+
+  static {
+    COLUMNS.put("getColumns", new String[] {"TABLE_NAME", "COLUMN_NAME", "TYPE_NAME", "COLUMN_SIZE", "IS_NULLABLE"});
+    COLUMNS.put("getIndexInfo", new String[] {"TABLE_NAME", "INDEX_NAME", "NON_UNIQUE", "COLUMN_NAME"});
+    COLUMNS.put("getImportedKeys", new String[] {"FKTABLE_NAME", "FK_NAME", "FKCOLUMN_NAME", "PKTABLE_NAME"});
+    COLUMNS.put("getPrimaryKeys", new String[] {"TABLE_NAME", "COLUMN_NAME"});
+  }
+
+  /**
+   * Maven logger.
+   */
+  private final Log log = new SystemStreamLog();
+
+  /**
+   * Test mappings.
+   */
+  private Configuration configuration;
+
+  /**
+   * Opens connections to the test database.
+   */
+  private JdbcConnectionSource connectionSource;
+
+  /**
+   * Create the test schema.
+   * @throws Exception on failure.
+   */
+  @Before
+  public void setUp() throws Exception {
+    configuration = SyntheticMappings.create(TABLES);
+    connectionSource = new JdbcConnectionSource(configuration.getProperties());
+    try (Connection connection = connectionSource.open(); Statement statement = connection.createStatement()) {
+      for (String sql : configuration.generateSchemaCreationScript(Dialect.getDialect(configuration.getProperties()))) {
+        statement.executeUpdate(sql);
+      }
+      // not mapped, must not be loaded
+      statement.executeUpdate("create table unmapped (id bigint primary key)");
+    }
+  }
+
+  /**
+   * @param rs metadata query results (closed).
+   * @param columns the columns to read.
+   * @return the values of the columns (as objects, since drivers format some of them differently as strings), one
+   *         string per row.
+   * @throws SQLException if the results cannot be read.
+   */
+  private static List<String> read(ResultSet rs, String[] columns) throws SQLException {
+    List<String> rows = new ArrayList<>();
+    try {
+      while (rs.next()) {
+        StringBuilder row = new StringBuilder();
+        for (String column : columns) {
+          row.append(rs.getObject(column)).append('|');
+        }
+        rows.add(row.toString());
+      }
+    } finally {
+      rs.close();
+    }
+    return rows;
+  }
+
+  /**
+   * @param metaData database metadata.
+   * @param method metadata query name.
+   * @param table table name.
+   * @return the results of the query for the table.
+   * @throws SQLException if the query fails.
+   */
+  private static ResultSet query(DatabaseMetaData metaData, String method, String table) throws SQLException {
+    switch (method) {
+      case "getColumns":
+        return metaData.getColumns(null, "PUBLIC", table, "%");
+      case "getIndexInfo":
+        return metaData.getIndexInfo(null, "PUBLIC", table, false, true);
+      case "getImportedKeys":
+        return metaData.getImportedKeys(null, "PUBLIC", table);
+      default:
+        return metaData.getPrimaryKeys(null, "PUBLIC", table);
+    }
+  }
+
+  /**
+   * Check that the cache answers all covered queries with the same results as the database.
+   * @param cache loaded metadata.
+   * @throws SQLException if the metadata cannot be read.
+   */
+  private void assertSameMetadata(MetadataCache cache) throws SQLException {
+    try (Connection connection = connectionSource.open()) {
+      DatabaseMetaData metaData = connection.getMetaData();
+      for (int i = 0; i < TABLES; i++) {
+        String table = "TABLE" + i;
+        for (Map.Entry<String, String[]> method : COLUMNS.entrySet()) {
+          Object[] args = method.getKey().equals("getIndexInfo") ? new Object[] {null, "PUBLIC", table, false, true}
+              : method.getKey().equals("getColumns") ? new Object[] {null, "PUBLIC", table, "%"}
+              : new Object[] {null, "PUBLIC", table};
+          ResultSet cached = cache.query(method.getKey(), args);
+          assertNotNull(method.getKey() + " " + table, cached);
+          List<String> expected = read(query(metaData, method.getKey(), table), method.getValue());
+          assertFalse(method.getKey() + " " + table, expected.isEmpty() && !method.getKey().equals("getImportedKeys"));
+          assertEquals(method.getKey() + " " + table, expected, read(cached, method.getValue()));
+        }
+      }
+    }
+    assertNull(cache.query("getColumns", new Object[] {null, "PUBLIC", "UNMAPPED", "%"}));
+  }
+
+  /**
+   * Metadata loaded over several connections, per table or in bulk, is the same as the database reports.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testLoad() throws Exception {
+    for (boolean bulk : new boolean[] {false, true}) {
+      for (int connections : new int[] {1, 4}) {
+        assertSameMetadata(new ParallelMetadataLoader(connectionSource, connections, bulk, log).load(configuration));
+      }
+    }
+  }
+
+  /**
+   * Bulk loading reads the columns of the whole schema with one query instead of one query per table.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testBulkRoundTrips() throws Exception {
+    AtomicLong perTable = new AtomicLong();
+    connectionSource.setRoundTripCounter(perTable);
+    new ParallelMetadataLoader(connectionSource, 4, false, log).load(configuration);
+
+    AtomicLong bulk = new AtomicLong();
+    connectionSource.setRoundTripCounter(bulk);
+    new ParallelMetadataLoader(connectionSource, 4, true, log).load(configuration);
+
+    // one column query per table instead of an extra connection and one column query for the schema
+    assertEquals(perTable.get() - TABLES + 2, bulk.get());
+  }
+
+  /**
+   * Connections from the provider answer the covered metadata queries from the loaded metadata, and the others from the
+   * database.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testConnectionProvider() throws Exception {
+    MetadataCache cache = new ParallelMetadataLoader(connectionSource, 4, true, log).load(configuration);
+    String id = MetadataConnectionProvider.register(cache, null, false);
+    try {
+      Map<Object, Object> settings = new HashMap<>(configuration.getProperties());
+      settings.put(MetadataConnectionProvider.REGISTRATION_ID, id);
+      MetadataConnectionProvider provider = new MetadataConnectionProvider();
+      provider.configure(settings);
+
+      Connection connection = provider.getConnection();
+      try {
+        DatabaseMetaData metaData = connection.getMetaData();
+        assertEquals(connection, metaData.getConnection());
+        List<String> columns = read(metaData.getColumns(null, "PUBLIC", "TABLE1", "%"), COLUMNS.get("getColumns"));
+        assertEquals(4, columns.size());
+
+        try (Statement statement = connection.createStatement()) {
+          statement.executeUpdate("drop table table2");
+          statement.executeUpdate("drop table table1");
+        }
+        // served from the loaded metadata
+        assertEquals(columns, read(metaData.getColumns(null, "PUBLIC", "TABLE1", "%"), COLUMNS.get("getColumns")));
+        // not covered, served by the database
+        assertFalse(metaData.getTables(null, "PUBLIC", "TABLE1", null).next());
+        assertTrue(metaData.getTables(null, "PUBLIC", "TABLE3", null).next());
+      } finally {
+        provider.closeConnection(connection);
+      }
+      provider.stop();
+    } finally {
+      MetadataConnectionProvider.unregister(id);
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the diff goal: the mappings of a previous release's jar against the current mappings.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class SchemaDiffMojoTest {
+  /**
+   * Classpath resource that holds the mappings (of the previous release in its jar, of the current release in the
+   * project classes).
+   */
+  private static final String MAPPINGS = "synthetic-mappings.hbm.xml";
+
+  /**
+   * Number of tables of the previous release.
+   */
+  private static final int PREVIOUS_TABLES = 3;
+
+  /**
+   * Number of tables of the current release.
+   */
+  private static final int TABLES = 5;
+
+  /**
+   * Temporary files.
+   */
+  private File dir;
+
+  /**
+   * Jar of the previous release.
+   */
+  private File jar;
+
+  /**
+   * Output file.
+   */
+  private File outputFile;
+
+  /**
+   * Write the jar of the previous release, whose tables don't have the (not-null) name column yet, and the project
+   * classes of the current release.
+   * @throws Exception on failure.
+   */
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("diff").toFile();
+    outputFile = new File(dir, "migration.sql");
+
+    File classes = new File(dir, "classes");
+    FileUtils.forceMkdir(classes);
+    FileUtils.fileWrite(new File(classes, MAPPINGS), "UTF-8", SyntheticMappings.getMappingXml(TABLES));
+
+    jar = new File(dir, "previous.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new ZipEntry(MAPPINGS));
+      out.write(SyntheticMappings.getMappingXml(PREVIOUS_TABLES).replaceAll("\\s*<property name=\"name\"[^>]*/>", "")
+                .getBytes("UTF-8"));
+      out.closeEntry();
+    }
+  }
+
+  /**
+   * Delete the temporary files.
+   * @throws Exception on failure.
+   */
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  /**
+   * @param log logger.
+   * @return a diff goal that builds the mappings from {@link #MAPPINGS}.
+   * @throws ReflectiveOperationException if the mojo cannot be configured.
+   */
+  private HibernateSchemaDiffMojo createMojo(CapturingLog log) throws ReflectiveOperationException {
+    HibernateSchemaDiffMojo mojo = new HibernateSchemaDiffMojo();
+    mojo.setLog(log);
+    Properties properties = new Properties();
+    properties.setProperty(Environment.DIALECT, H2Dialect.class.getName());
+    MojoParameters.set(mojo, "properties", properties);
+    MojoParameters.set(mojo, "additionalMappings", new String[] {MAPPINGS});
+    MojoParameters.set(mojo, "disableEnvers", true);
+    MojoParameters.set(mojo, "outputFile", outputFile.getPath());
+    MojoParameters.set(mojo, "print", false);
+    return mojo;
+  }
+
+  /**
+   * The previous mappings are built from the resources of the previous jar, not from the project's, and the migration
+   * creates the new tables and adds the new columns. The script passes the preflight check.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testDiff() throws Exception {
+    CapturingLog log = new CapturingLog();
+    HibernateSchemaDiffMojo mojo = createMojo(log);
+    MojoParameters.set(mojo, "previousArtifact", jar);
+    MojoParameters.set(mojo, "preflight", true);
+
+    Thread thread = Thread.currentThread();
+    ClassLoader classLoader = thread.getContextClassLoader();
+    File classes = new File(dir, "classes");
+    try (URLClassLoader projectClassLoader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, classLoader)) {
+      thread.setContextClassLoader(projectClassLoader);
+      Configuration configuration = mojo.createMappings(classes);
+      mojo.executeWithMappings(configuration);
+    } finally {
+      thread.setContextClassLoader(classLoader);
+    }
+
+    assertEquals(1, log.count("read " + PREVIOUS_TABLES + " tables from " + jar));
+    int warnings = 0;
+    for (String message : log.getMessages()) {
+      if (message.contains(".name is mapped NOT NULL without a default value")) {
+        warnings++;
+      }
+    }
+    assertEquals(PREVIOUS_TABLES, warnings);
+    assertEquals(1, log.count("preflight check passed"));
+
+    String script = FileUtils.fileRead(outputFile, "UTF-8").toLowerCase();
+    for (int i = 0; i < TABLES; i++) {
+      assertEquals(script, i >= PREVIOUS_TABLES, script.contains("create table table" + i + " "));
+      assertEquals(script, i < PREVIOUS_TABLES, script.contains("alter table table" + i + " add column name "));
+    }
+  }
+
+  /**
+   * The previous release is looked up in the local repository, and isn't resolved from remote repositories.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testMissingPreviousRelease() throws Exception {
+    HibernateSchemaDiffMojo mojo = createMojo(new CapturingLog());
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    try {
+      mojo.executeWithMappings(configuration);
+      fail("the previous release must be set");
+    } catch (MojoExecutionException e) {
+      assertEquals("previousVersion or previousArtifact must be set", e.getMessage());
+    }
+
+    File local = new File(dir, "com/example/app/app/1.0/app-1.0.jar");
+    MojoParameters.set(mojo, "localRepository", dir);
+    MojoParameters.set(mojo, "previousGroupId", "com.example.app");
+    MojoParameters.set(mojo, "previousArtifactId", "app");
+    MojoParameters.set(mojo, "previousVersion", "1.0");
+    try {
+      mojo.executeWithMappings(configuration);
+      fail("the previous release isn't in the local repository");
+    } catch (MojoExecutionException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(local + " doesn't exist"));
+    }
+
+    FileUtils.copyFile(jar, local);
+    mojo.executeWithMappings(configuration);
+    assertTrue(outputFile.isFile());
+  }
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.mapping.Table;
+import org.junit.Test;
+
+import com.vecna.maven.hibernate.SchemaDiff.Step;
+
+/**
+ * Tests {@link SchemaDiff} on schemas read from an in-memory H2 database with {@link SchemaModel}: each test creates
+ * the current schema, checks the exact migration to the mappings and that it applies cleanly, after which the schema
+ * matches the mappings.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class SchemaDiffTest {
+  /**
+   * @param item the properties of the item entity.
+   * @return mappings of the item entity (table <code>item</code>), which may reference the owner and team entities.
+   */
+  private static String getMappingXml(String item) {
+    return "<?xml version=\"1.0\"?>\n<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\""
+        + " \"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n<hibernate-mapping package=\"synthetic.diff\">\n"
+        + "<class name=\"Owner\" table=\"owner\"><id name=\"id\" type=\"long\"><generator class=\"assigned\"/></id>"
+        + "</class>\n"
+        + "<class name=\"Team\" table=\"team\"><id name=\"id\" type=\"long\"><generator class=\"assigned\"/></id>"
+        + "</class>\n"
+        + "<class name=\"Item\" table=\"item\"><id name=\"id\" type=\"long\"><generator class=\"assigned\"/></id>\n"
+        + item + "\n</class>\n</hibernate-mapping>\n";
+  }
+
+  /**
+   * A migration under test.
+   */
+  private static class Migration {
+    /**
+     * The target mappings.
+     */
+    private final Configuration configuration;
+
+    /**
+     * SQL dialect.
+     */
+    private final Dialect dialect;
+
+    /**
+     * Table rename hints.
+     */
+    private final Map<String, String> renames;
+
+    /**
+     * Whether to drop unmapped indexes.
+     */
+    private final boolean dropUnmappedIndexes;
+
+    /**
+     * Warnings of the last diff.
+     */
+    private List<String> warnings;
+
+    /**
+     * Create the current schema.
+     * @param item the properties of the item entity in the mappings.
+     * @param renames table rename hints.
+     * @param dropUnmappedIndexes whether to drop unmapped indexes.
+     * @param currentSchema statements that create the current schema.
+     * @throws SQLException if the current schema cannot be created.
+     */
+    Migration(String item, Map<String, String> renames, boolean dropUnmappedIndexes, String... currentSchema)
+        throws SQLException {
+      this.configuration = SyntheticMappings.build(getMappingXml(item));
+      this.dialect = Dialect.getDialect(configuration.getProperties());
+      this.renames = renames;
+      this.dropUnmappedIndexes = dropUnmappedIndexes;
+      execute(Arrays.asList(currentSchema));
+    }
+
+    /**
+     * @param statements statements to run on the database.
+     * @throws SQLException if a statement fails.
+     */
+    void execute(List<String> statements) throws SQLException {
+      try (Connection connection = new JdbcConnectionSource(configuration.getProperties()).open();
+          Statement statement = connection.createStatement()) {
+        for (String sql : statements) {
+          statement.executeUpdate(sql);
+        }
+      }
+    }
+
+    /**
+     * @return the migration of the current schema to the mappings, by step.
+     * @throws SQLException if the current schema cannot be read.
+     */
+    Map<Step, List<String>> diff() throws SQLException {
+      Set<String> tableNames = new HashSet<>(renames.keySet());
+      for (Iterator<?> tables = configuration.getTableMappings(); tables.hasNext();) {
+        tableNames.add(((Table) tables.next()).getName());
+      }
+      try (Connection connection = new JdbcConnectionSource(configuration.getProperties()).open()) {
+        SchemaModel current = SchemaModel.fromMetadata(connection.getMetaData(), null,
+                                                       HibernateSchemaOutputMojo.getSchemas(configuration),
+                                                       tableNames, dialect);
+        SchemaDiff diff = new SchemaDiff(configuration, dialect, dropUnmappedIndexes);
+        Map<Step, List<String>> statements = diff.diff(current, renames);
+        warnings = diff.getWarnings();
+        return statements;
+      }
+    }
+
+    /**
+     * Check the migration, apply it, and check that the schema then matches the mappings.
+     * @param expected the expected statements, by step.
+     * @param remaining the changes expected to remain after the migration.
+     * @return the warnings of the migration.
+     * @throws SQLException on failure.
+     */
+    List<String> assertMigration(Map<Step, List<String>> expected, Map<Step, List<String>> remaining)
+        throws SQLException {
+      Map<Step, List<String>> statements = diff();
+      List<String> migrationWarnings = warnings;
+      assertEquals(expected, statements);
+      for (List<String> step : statements.values()) {
+        execute(step);
+      }
+      assertEquals(remaining, diff());
+      return migrationWarnings;
+    }
+
+    /**
+     * Check the migration, apply it, and check that the schema then matches the mappings.
+     * @param expected the expected statements, by step.
+     * @return the warnings of the migration.
+     * @throws SQLException on failure.
+     */
+    List<String> assertMigration(Map<Step, List<String>> expected) throws SQLException {
+      return assertMigration(expected, Collections.<Step, List<String>>emptyMap());
+    }
+  }
+
+  /**
+   * @param steps alternating steps and their statements (a string or a string array).
+   * @return the statements by step.
+   */
+  private static Map<Step, List<String>> steps(Object... steps) {
+    Map<Step, List<String>> statements = new EnumMap<>(Step.class);
+    for (int i = 0; i < steps.length; i += 2) {
+      statements.put((Step) steps[i], steps[i + 1] instanceof String[] ? Arrays.asList((String[]) steps[i + 1])
+          : Collections.singletonList((String) steps[i + 1]));
+    }
+    return statements;
+  }
+
+  /**
+   * The current tables of the owner and team entities.
+   */
+  private static final String[] REFERENCED_TABLES = {"create table owner (id bigint not null, primary key (id))",
+                                                     "create table team (id bigint not null, primary key (id))"};
+
+  /**
+   * @param item statements that create the current item table.
+   * @return statements that create the current schema.
+   */
+  private static String[] schema(String... item) {
+    String[] statements = Arrays.copyOf(REFERENCED_TABLES, REFERENCED_TABLES.length + item.length);
+    System.arraycopy(item, 0, statements, REFERENCED_TABLES.length, item.length);
+    return statements;
+  }
+
+  /**
+   * New tables are created with their constraints.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testCreateTable() throws Exception {
+    new Migration("<property name=\"name\" type=\"string\" length=\"100\" index=\"idx_item_name\"/>\n"
+                  + "<many-to-one name=\"owner\" class=\"Owner\" column=\"owner_id\" foreign-key=\"fk_item_owner\"/>",
+                  Collections.<String, String>emptyMap(), false, REFERENCED_TABLES)
+        .assertMigration(steps(Step.CREATE_TABLES, "create table item (id bigint not null, name varchar(100), "
+                               + "owner_id bigint, primary key (id))",
+                               Step.CREATE_INDEXES, "create index idx_item_name on item (name)",
+                               Step.ADD_FOREIGN_KEYS, "alter table item add constraint fk_item_owner foreign key "
+                               + "(owner_id) references owner"));
+  }
+
+  /**
+   * A hinted rename renames the old table and migrates it instead of creating a new one.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testRenameTable() throws Exception {
+    new Migration("<property name=\"name\" type=\"string\" length=\"100\"/>",
+                  Collections.singletonMap("old_item", "item"), false,
+                  schema("create table old_item (id bigint not null, primary key (id))"))
+        .assertMigration(steps(Step.RENAME_TABLES, "alter table OLD_ITEM rename to item",
+                               Step.ADD_COLUMNS, "alter table item add column name varchar(100)"));
+  }
+
+  /**
+   * A changed column type is altered in place.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testTypeChange() throws Exception {
+    new Migration("<property name=\"name\" type=\"string\" length=\"100\"/>",
+                  Collections.<String, String>emptyMap(), false,
+                  schema("create table item (id bigint not null, name varchar(50), primary key (id))"))
+        .assertMigration(steps(Step.ALTER_TYPES, "alter table item alter column name set data type varchar(100)"));
+  }
+
+  /**
+   * Columns are made nullable and NOT NULL in separate steps, around the type changes.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testNullability() throws Exception {
+    new Migration("<property name=\"name\" type=\"string\" length=\"100\" not-null=\"true\"/>\n"
+                  + "<property name=\"code\" type=\"string\" length=\"20\"/>\n"
+                  + "<property name=\"note\" type=\"string\" length=\"200\"/>",
+                  Collections.<String, String>emptyMap(), false,
+                  schema("create table item (id bigint not null, name varchar(100), code varchar(20) not null, "
+                         + "note varchar(100) not null, primary key (id))"))
+        .assertMigration(steps(Step.DROP_NOT_NULL, new String[] {"alter table item alter column code drop not null",
+                                                                 "alter table item alter column note drop not null"},
+                               Step.ALTER_TYPES, "alter table item alter column note set data type varchar(200)",
+                               Step.SET_NOT_NULL, "alter table item alter column name set not null"));
+  }
+
+  /**
+   * New NOT NULL columns with a default value are added as NOT NULL; without a default value, they are added as
+   * nullable with a warning.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testNotNullColumns() throws Exception {
+    Migration migration = new Migration(
+        "<property name=\"status\" type=\"string\"><column name=\"status\" length=\"10\" not-null=\"true\" "
+        + "default=\"'new'\"/></property>\n"
+        + "<property name=\"name\" type=\"string\" length=\"100\" not-null=\"true\"/>",
+        Collections.<String, String>emptyMap(), false,
+        schema("create table item (id bigint not null, primary key (id))", "insert into item (id) values (1)"));
+    List<String> warnings = migration.assertMigration(
+        steps(Step.ADD_COLUMNS, new String[] {"alter table item add column status varchar(10) default 'new' not null",
+                                              "alter table item add column name varchar(100)"}),
+        // the column must be populated first
+        steps(Step.SET_NOT_NULL, "alter table item alter column name set not null"));
+    assertEquals(Collections.singletonList("item.name is mapped NOT NULL without a default value: it's added as "
+                                           + "nullable, populate it and make it NOT NULL separately"), warnings);
+  }
+
+  /**
+   * A changed index is dropped and created again.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testChangedIndex() throws Exception {
+    new Migration("<property name=\"name\" type=\"string\" length=\"100\"/>\n"
+                  + "<property name=\"code\" type=\"string\" length=\"20\" index=\"idx_item_code\"/>",
+                  Collections.<String, String>emptyMap(), false,
+                  schema("create table item (id bigint not null, name varchar(100), code varchar(20), "
+                         + "primary key (id))", "create index idx_item_code on item (name)"))
+        .assertMigration(steps(Step.DROP_INDEXES, "drop index IDX_ITEM_CODE",
+                               Step.CREATE_INDEXES, "create index idx_item_code on item (code)"));
+  }
+
+  /**
+   * A changed unique key is dropped and added again (under its constraint name, not the name of its index), and
+   * unique columns get a unique key (under the name Hibernate generates for it).
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testChangedUniqueKey() throws Exception {
+    new Migration("<property name=\"name\" type=\"string\" length=\"100\" unique=\"true\"/>\n"
+                  + "<property name=\"code\" type=\"string\" length=\"20\" unique-key=\"uk_item_code\"/>",
+                  Collections.<String, String>emptyMap(), false,
+                  schema("create table item (id bigint not null, name varchar(100), code varchar(20), "
+                         + "primary key (id))", "alter table item add constraint uk_item_code unique (name)"))
+        .assertMigration(steps(Step.DROP_INDEXES, "alter table item drop constraint UK_ITEM_CODE",
+                               Step.ADD_UNIQUE_KEYS, new String[] {
+                                   "alter table item add constraint uk_item_code unique (code)",
+                                   "alter table item add constraint UK_lcsp6a1tpwb8tfywqhrsm2uvg unique (name)"}));
+  }
+
+  /**
+   * A changed foreign key is dropped and added again, a removed one is dropped.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testChangedForeignKey() throws Exception {
+    new Migration("<many-to-one name=\"owner\" class=\"Team\" column=\"owner_id\" foreign-key=\"fk_item_owner\"/>\n"
+                  + "<property name=\"teamId\" type=\"long\" column=\"team_id\"/>",
+                  Collections.<String, String>emptyMap(), false,
+                  schema("create table item (id bigint not null, owner_id bigint, team_id bigint, primary key (id))",
+                         "alter table item add constraint fk_item_owner foreign key (owner_id) references owner",
+                         "alter table item add constraint fk_item_team foreign key (team_id) references team"))
+        .assertMigration(steps(Step.DROP_FOREIGN_KEYS, new String[] {"alter table item drop constraint FK_ITEM_OWNER",
+                                                                     "alter table item drop constraint FK_ITEM_TEAM"},
+                               Step.ADD_FOREIGN_KEYS, "alter table item add constraint fk_item_owner foreign key "
+                               + "(owner_id) references team"));
+  }
+
+  /**
+   * Unmapped indexes and unique keys are dropped on request, but not the primary key or the indexes that back foreign
+   * keys.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testDropUnmappedIndexes() throws Exception {
+    String item = "<property name=\"name\" type=\"string\" length=\"100\"/>\n"
+        + "<many-to-one name=\"owner\" class=\"Owner\" column=\"owner_id\" foreign-key=\"fk_item_owner\"/>";
+    String[] schema = schema("create table item (id bigint not null, name varchar(100), owner_id bigint, "
+                             + "primary key (id))",
+                             "create index idx_item_owner on item (owner_id, name)",
+                             "create index idx_item_name on item (name)",
+                             "alter table item add constraint uk_item_name unique (name)",
+                             "alter table item add constraint fk_item_owner foreign key (owner_id) references owner");
+
+    new Migration(item, Collections.<String, String>emptyMap(), false, schema)
+        .assertMigration(Collections.<Step, List<String>>emptyMap());
+
+    assertTrue(new Migration(item, Collections.<String, String>emptyMap(), true, schema)
+        .assertMigration(steps(Step.DROP_INDEXES, new String[] {"alter table item drop constraint UK_ITEM_NAME",
+                                                                "drop index IDX_ITEM_NAME"})).isEmpty());
+  }
+}
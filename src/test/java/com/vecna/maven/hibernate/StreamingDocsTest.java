@@ -0,0 +1,129 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.junit.Test;
+
+/**
+ * Tests the memory use of the doc goal in streaming mode on a large synthetic schema.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class StreamingDocsTest {
+  /**
+   * Number of tables of the test schema.
+   */
+  private static final int TABLES = 10000;
+
+  /**
+   * How much live heap rendering may use on top of the mappings (about a third of it is used with 10k tables).
+   */
+  private static final long HEAP_BOUND = 64L * 1024 * 1024;
+
+  /**
+   * Interval between live heap samples, in milliseconds.
+   */
+  private static final long SAMPLE_INTERVAL = 250;
+
+  /**
+   * Samples the live heap (after a full collection) until stopped.
+   */
+  private static class HeapSampler extends Thread {
+    /**
+     * Whether to stop sampling.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * The largest live heap seen.
+     */
+    private volatile long max;
+
+    /**
+     * @return the currently used heap, after a full collection.
+     */
+    static long liveHeap() {
+      System.gc();
+      return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+      while (!stopped) {
+        max = Math.max(max, liveHeap());
+        try {
+          Thread.sleep(SAMPLE_INTERVAL);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Stop sampling.
+     * @return the largest live heap seen.
+     * @throws InterruptedException if interrupted while waiting for the sampler to stop.
+     */
+    long finish() throws InterruptedException {
+      stopped = true;
+      join();
+      return max;
+    }
+  }
+
+  /**
+   * Streamed pages of a 10k table schema are all written while the live heap stays within a fixed bound above the
+   * mappings.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testHeapBound() throws Exception {
+    Configuration configuration = SyntheticMappings.create(TABLES);
+    File outputDir = Files.createTempDirectory("docs").toFile();
+    try {
+      long baseline = HeapSampler.liveHeap();
+      HeapSampler sampler = new HeapSampler();
+      sampler.setDaemon(true);
+      sampler.start();
+      long peak;
+      try {
+        HibernateDocMojo.renderDocs(configuration, outputDir, 2, false, true);
+      } finally {
+        peak = sampler.finish();
+      }
+
+      assertTrue("rendering used " + (peak - baseline) / 1024 / 1024 + "MB of heap", peak - baseline < HEAP_BOUND);
+      for (int i = 0; i < TABLES; i++) {
+        assertTrue("table" + i, new File(outputDir, "tables/default/table" + i + ".html").length() > 0);
+        assertTrue("Entity" + i, new File(outputDir, "entities/synthetic/Entity" + i + ".html").length() > 0);
+      }
+    } finally {
+      FileUtils.deleteDirectory(outputDir);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.UUID;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
+
+/**
+ * Builds Hibernate mappings of a synthetic schema: table <code>table<i>N</i></code> (entity
+ * <code>synthetic.Entity<i>N</i></code>) has an identifier, a name, an indexed code, a unique key, and a foreign key to
+ * the previous table. All types are explicit, so the entity classes are never loaded and don't need to exist.
+ *
+ * @author ogolberg@vecna.com
+ */
+final class SyntheticMappings {
+  /**
+   * Utility class.
+   */
+  private SyntheticMappings() {
+  }
+
+  /**
+   * @param tables number of tables.
+   * @return hbm.xml mappings of the tables.
+   */
+  static String getMappingXml(int tables) {
+    StringBuilder xml = new StringBuilder();
+    xml.append("<?xml version=\"1.0\"?>\n<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\""
+               + " \"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n<hibernate-mapping>\n");
+    for (int i = 0; i < tables; i++) {
+      xml.append("  <class name=\"synthetic.Entity").append(i).append("\" table=\"table").append(i).append("\">\n");
+      xml.append("    <id name=\"id\" type=\"long\"><generator class=\"assigned\"/></id>\n");
+      xml.append("    <property name=\"name\" type=\"string\" length=\"100\" not-null=\"true\"/>\n");
+      xml.append("    <property name=\"code\" type=\"string\" length=\"20\" index=\"idx_table").append(i)
+          .append("_code\" unique-key=\"uk_table").append(i).append("_code\"/>\n");
+      if (i > 0) {
+        xml.append("    <many-to-one name=\"previous\" class=\"synthetic.Entity").append(i - 1)
+            .append("\" column=\"previous_id\" foreign-key=\"fk_table").append(i).append("_previous\"/>\n");
+      }
+      xml.append("  </class>\n");
+    }
+    return xml.append("</hibernate-mapping>\n").toString();
+  }
+
+  /**
+   * @return hbm.xml mappings of a small model that uses everything the documentation pages show: an inheritance chain,
+   * a version, a component, collections, meta descriptions and comments.
+   * @throws IOException if the mappings cannot be read.
+   */
+  static String getDocModelXml() throws IOException {
+    try (InputStream in = SyntheticMappings.class.getResourceAsStream("doc-model.hbm.xml")) {
+      return IOUtil.toString(in, "UTF-8");
+    }
+  }
+
+  /**
+   * @param tables number of tables.
+   * @return built mappings of the tables, with the H2 dialect and a private in-memory H2 database.
+   */
+  static Configuration create(int tables) {
+    return build(getMappingXml(tables));
+  }
+
+  /**
+   * @param mappingXml hbm.xml mappings.
+   * @return built mappings, with the H2 dialect and a private in-memory H2 database.
+   */
+  static Configuration build(String mappingXml) {
+    return build(mappingXml, "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+  }
+
+  /**
+   * @param tables number of tables.
+   * @param url connection URL.
+   * @return built mappings of the tables, with the H2 dialect.
+   */
+  static Configuration create(int tables, String url) {
+    return build(getMappingXml(tables), url);
+  }
+
+  /**
+   * @param mappingXml hbm.xml mappings.
+   * @param url connection URL.
+   * @return built mappings, with the H2 dialect.
+   */
+  private static Configuration build(String mappingXml, String url) {
+    Configuration configuration = new Configuration();
+    configuration.setProperty(Environment.DIALECT, H2Dialect.class.getName());
+    configuration.setProperty(Environment.DRIVER, org.h2.Driver.class.getName());
+    configuration.setProperty(Environment.URL, url);
+    configuration.setProperty(Environment.USER, "sa");
+    configuration.setProperty(Environment.PASS, "");
+    try {
+      configuration.addInputStream(new ByteArrayInputStream(mappingXml.getBytes("UTF-8")));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    configuration.buildMappings();
+    return configuration;
+  }
+}
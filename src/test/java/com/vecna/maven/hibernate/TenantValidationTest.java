@@ -0,0 +1,190 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.Dialect;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareErrorType;
+
+/**
+ * Tests validating several tenant schemas of an in-memory H2 database concurrently.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class TenantValidationTest {
+  /**
+   * Number of tables of the complete tenant schemas.
+   */
+  private static final int TABLES = 40;
+
+  /**
+   * Number of tables of the incomplete tenant schema.
+   */
+  private static final int INCOMPLETE_TABLES = 30;
+
+  /**
+   * Tenant schemas (the last one is incomplete).
+   */
+  private static final List<String> TENANTS = Arrays.asList("TENANT_A", "TENANT_B", "TENANT_C");
+
+  /**
+   * Test mappings.
+   */
+  private Configuration configuration;
+
+  /**
+   * Create the tenant schemas.
+   * @throws Exception on failure.
+   */
+  @Before
+  public void setUp() throws Exception {
+    configuration = SyntheticMappings.create(TABLES, "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+    Dialect dialect = Dialect.getDialect(configuration.getProperties());
+
+    try (Connection connection = new JdbcConnectionSource(configuration.getProperties()).open();
+        Statement statement = connection.createStatement()) {
+      for (String tenant : TENANTS) {
+        statement.executeUpdate("create schema " + tenant);
+        Configuration tenantConfiguration = ConfigurationSerializer.copy(configuration,
+                                                                         getClass().getClassLoader());
+        tenantConfiguration.setProperty(Environment.DEFAULT_SCHEMA, tenant);
+        for (String sql : tenantConfiguration.generateSchemaCreationScript(dialect)) {
+          statement.executeUpdate(sql);
+        }
+      }
+      for (int i = TABLES - 1; i >= INCOMPLETE_TABLES; i--) {
+        statement.executeUpdate("drop table " + TENANTS.get(TENANTS.size() - 1) + ".table" + i);
+      }
+    }
+  }
+
+  /**
+   * @param log logger.
+   * @return a validate mojo that prefetches the metadata of each tenant over two connections.
+   * @throws ReflectiveOperationException if the mojo cannot be configured.
+   */
+  private static HibernateSchemaValidateMojo createMojo(CapturingLog log) throws ReflectiveOperationException {
+    HibernateSchemaValidateMojo mojo = new HibernateSchemaValidateMojo();
+    mojo.setLog(log);
+    MojoParameters.set(mojo, "metadataConnections", 2);
+    MojoParameters.set(mojo, "tenantThreads", TENANTS.size());
+    return mojo;
+  }
+
+  /**
+   * The tenants listed by the tenant query are validated concurrently, each against its own schema, without changing the
+   * shared mappings.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testTenantQuery() throws Exception {
+    CapturingLog log = new CapturingLog();
+    HibernateSchemaValidateMojo mojo = createMojo(log);
+    MojoParameters.set(mojo, "tenantQuery",
+                       "select schema_name from information_schema.schemata where schema_name like 'TENANT%'");
+    File junitReport = File.createTempFile("tenants", ".xml");
+    MojoParameters.set(mojo, "junitReportFile", junitReport);
+
+    try {
+      mojo.executeWithMappings(configuration);
+
+      assertEquals(2, log.count("loaded metadata of " + TABLES + " tables"));
+      assertEquals(1, log.count("loaded metadata of " + INCOMPLETE_TABLES + " tables"));
+      assertEquals(1, log.count("validated " + TENANTS.size() + " tenants: "));
+
+      String report = FileUtils.fileRead(junitReport, "UTF-8");
+      assertTrue(report, report.contains("tests=\"" + TENANTS.size() + "\" failures=\"0\""));
+      for (String tenant : TENANTS) {
+        assertTrue(report, report.contains("classname=\"" + tenant + ".schema"));
+      }
+
+      assertNull(configuration.getProperty(Environment.DEFAULT_SCHEMA));
+      assertNull(configuration.getProperty(Environment.CONNECTION_PROVIDER));
+    } finally {
+      junitReport.delete();
+    }
+  }
+
+  /**
+   * A tenant that cannot be validated fails the goal once the other tenants have been validated.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testFailedTenant() throws Exception {
+    CapturingLog log = new CapturingLog();
+    HibernateSchemaValidateMojo mojo = createMojo(log);
+    MojoParameters.set(mojo, "tenantSchemas", TENANTS.toArray(new String[TENANTS.size()]));
+    String unreachable = "jdbc:h2:tcp://localhost:1/unreachable";
+    MojoParameters.set(mojo, "tenantUrls", new String[] {unreachable});
+
+    try {
+      mojo.executeWithMappings(configuration);
+      fail("the unreachable tenant must fail the validation");
+    } catch (MojoExecutionException e) {
+      assertEquals("couldn't validate 1 of " + (TENANTS.size() + 1) + " tenants", e.getMessage());
+    }
+    assertEquals(TENANTS.size(), log.count("loaded metadata of "));
+    assertEquals(1, log.count("couldn't validate " + unreachable + ": "));
+  }
+
+  /**
+   * Errors that only differ by the tenant they were found in are grouped.
+   */
+  @Test
+  public void testGroupedErrors() {
+    TenantReport report = new TenantReport();
+    for (String tenant : TENANTS) {
+      report.add(tenant, Arrays.asList(
+          new RdbCompareError(RdbCompareErrorType.MISSING_INDEX, "missing index " + tenant.toLowerCase()
+                                                                 + ".idx_table1_code"),
+          new RdbCompareError(RdbCompareErrorType.COL_TYPE_WARNING, "column " + tenant + ".table1.code is wider")));
+    }
+    report.add("TENANT_D", Arrays.asList(new RdbCompareError(RdbCompareErrorType.MISSING_TABLE,
+                                                             "missing table TENANT_D.table39")));
+    report.add("TENANT_E", Collections.<RdbCompareError>emptyList());
+    report.fail("TENANT_F", "connection refused");
+
+    CapturingLog log = new CapturingLog();
+    report.log(log);
+    assertEquals(1, report.getFailureCount());
+    assertEquals(Arrays.asList("validated 6 tenants: 1 without errors, 4 with errors, 1 failed",
+                               "MISSING_INDEX: missing index {tenant}.idx_table1_code (3 of 6 tenants: TENANT_A, "
+                               + "TENANT_B, TENANT_C)",
+                               "MISSING_TABLE: missing table {tenant}.table39 (1 of 6 tenants: TENANT_D)",
+                               "couldn't validate TENANT_F: connection refused"), log.getMessages());
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2011 Vecna Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+*/
+
+
+package com.vecna.maven.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareError;
+import com.vecna.dbDiff.business.dbCompare.impl.RdbCompareErrorType;
+
+/**
+ * Tests the JUnit report of the validation.
+ *
+ * @author ogolberg@vecna.com
+ */
+public class ValidationReportTest {
+  /**
+   * The test suite carries the number of test cases and failures: errors fail, warnings and schemas without differences
+   * pass.
+   * @throws Exception on failure.
+   */
+  @Test
+  public void testJunitCounts() throws Exception {
+    File file = File.createTempFile("validation", ".xml");
+    try {
+      try (ValidationReport report = new ValidationReport(new HashSet<>(Arrays.asList("table1", "table2")), null, file,
+                                                          0, new CapturingLog())) {
+        report.add("TENANT_A", Arrays.asList(
+            new RdbCompareError(RdbCompareErrorType.MISSING_TABLE, "missing table table1"),
+            new RdbCompareError(RdbCompareErrorType.MISSING_INDEX, "missing index <idx> on table2"),
+            new RdbCompareError(RdbCompareErrorType.COL_TYPE_WARNING, "column table2.code is wider")));
+        report.add("TENANT_B", Collections.<RdbCompareError>emptyList());
+      }
+
+      Element suite = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+      assertEquals("testsuite", suite.getTagName());
+      assertEquals("hibernate-schema-validation", suite.getAttribute("name"));
+      assertEquals("4", suite.getAttribute("tests"));
+      assertEquals("2", suite.getAttribute("failures"));
+      assertEquals("0", suite.getAttribute("errors"));
+
+      NodeList testCases = suite.getElementsByTagName("testcase");
+      assertEquals(4, testCases.getLength());
+      assertEquals("TENANT_A.schema.table2", ((Element) testCases.item(1)).getAttribute("classname"));
+      assertEquals("MISSING_INDEX: missing index <idx> on table2", ((Element) testCases.item(1)).getAttribute("name"));
+      assertEquals(2, suite.getElementsByTagName("failure").getLength());
+      assertEquals("TENANT_B.schema", ((Element) testCases.item(3)).getAttribute("classname"));
+
+      assertFalse(new File(file.getPath() + ".part").exists());
+    } finally {
+      file.delete();
+    }
+  }
+}
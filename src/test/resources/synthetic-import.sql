@@ -0,0 +1,4 @@
+insert into table0 (id, name) values (1, 'first');
+insert into table1 (id, name, previous_id) values (1, 'a', 1);
+insert into table1 (id, name, previous_id) values (2, 'b', 1);
+insert into table1 (id, name) values (3, 'c');